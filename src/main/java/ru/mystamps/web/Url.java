@@ -39,6 +39,8 @@ public final class Url {
 	public static final String SITEMAP_XML           = "/sitemap.xml";
 
 	public static final String DAILY_STATISTICS      = "/report/daily";
+	public static final String DOWNLOADS_STATISTICS  = "/report/downloads";
+	public static final String PREVIEWS_STATISTICS   = "/report/previews";
 	public static final String SITE_EVENTS_PAGE      = "/site/events";
 	
 	public static final String REGISTRATION_PAGE     = "/account/register";
@@ -56,6 +58,7 @@ public final class Url {
 	public static final String REQUEST_IMPORT_SERIES_PAGE = "/series/import/request";
 	public static final String REQUEST_IMPORT_PAGE        = "/series/import/request/{id}";
 	public static final String LIST_IMPORT_REQUESTS_PAGE  = "/series/import/requests";
+	public static final String BULK_IMPORT_REQUESTS       = "/series/import/requests/bulk";
 	
 	public static final String SUGGEST_SERIES_COUNTRY     = "/suggest/series_country";
 	
@@ -72,6 +75,7 @@ public final class Url {
 	
 	public static final String GET_IMAGE_PAGE         = "/image/{id}";
 	public static final String GET_IMAGE_PREVIEW_PAGE = "/image/preview/{id}";
+	public static final String REGENERATE_PREVIEWS    = "/image/previews/regenerate";
 	
 	public static final String ADD_PARTICIPANT_PAGE  = "/participant/add";
 	
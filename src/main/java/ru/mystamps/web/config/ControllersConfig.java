@@ -26,6 +26,7 @@ import lombok.RequiredArgsConstructor;
 
 // CheckStyle: ignore AvoidStarImportCheck for next 1 line
 import ru.mystamps.web.controller.*; // NOPMD: UnusedImports
+import ru.mystamps.web.controller.event.ImportRequestsFeeder;
 import ru.mystamps.web.feature.account.AccountController;
 import ru.mystamps.web.feature.category.CategoryConfig;
 import ru.mystamps.web.feature.category.CategoryService;
@@ -34,6 +35,7 @@ import ru.mystamps.web.feature.collection.CollectionService;
 import ru.mystamps.web.feature.country.CountryConfig;
 import ru.mystamps.web.feature.country.CountryService;
 import ru.mystamps.web.feature.image.ImageConfig;
+import ru.mystamps.web.feature.image.PreviewCache;
 import ru.mystamps.web.feature.participant.ParticipantConfig;
 import ru.mystamps.web.feature.participant.ParticipantService;
 import ru.mystamps.web.feature.series.SeriesConfig;
@@ -60,6 +62,8 @@ public class ControllersConfig {
 	private final ParticipantService participantService;
 	private final SeriesService seriesService;
 	private final SeriesController seriesController;
+	private final ImportRequestsFeeder importRequestsFeeder;
+	private final PreviewCache previewCache;
 	
 	@Bean
 	public AccountController getAccountController() {
@@ -83,7 +87,9 @@ public class ControllersConfig {
 	public ReportController getReportController() {
 		return new ReportController(
 			servicesConfig.getReportService(),
-			servicesConfig.getCronService()
+			servicesConfig.getCronService(),
+			servicesConfig.getHostLimiter(),
+			previewCache
 		);
 	}
 	
@@ -94,7 +100,8 @@ public class ControllersConfig {
 			servicesConfig.getSeriesSalesImportService(),
 			seriesController,
 			participantService,
-			eventPublisher
+			eventPublisher,
+			importRequestsFeeder
 		);
 	}
 	
@@ -17,35 +17,37 @@
  */
 package ru.mystamps.web.config;
 
-import java.util.Collections;
-import java.util.HashMap;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 
 import javax.annotation.PostConstruct;
 
-import org.apache.commons.lang3.StringUtils;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.ApplicationListener;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.SmartApplicationListener;
 import org.springframework.core.env.ConfigurableEnvironment;
 import org.springframework.core.env.EnumerablePropertySource;
 import org.springframework.core.env.PropertySource;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 import lombok.RequiredArgsConstructor;
 
 // CheckStyle: ignore AvoidStarImportCheck for next 1 line
 import ru.mystamps.web.controller.event.*; // NOPMD: UnusedImports (false positive)
-import ru.mystamps.web.util.extractor.JsoupSiteParser;
+import ru.mystamps.web.service.dto.HostLimits;
+import ru.mystamps.web.support.spring.concurrent.AsyncApplicationListener;
 import ru.mystamps.web.util.extractor.SiteParser;
-import ru.mystamps.web.util.extractor.TimedSiteParser;
+import ru.mystamps.web.util.extractor.SiteParserRegistry;
+import ru.mystamps.web.util.extractor.SiteParsersLoader;
+import ru.mystamps.web.util.extractor.SiteParsersReloader;
 
 @Configuration
 @RequiredArgsConstructor
@@ -53,45 +55,96 @@ public class EventsConfig {
 	
 	private static final Logger LOG = LoggerFactory.getLogger(EventsConfig.class);
 	
+	// properties of app.site-parser[n] that configure HostLimiter instead of a parser
+	private static final List<String> HOST_LIMITS_FIELDS =
+		Arrays.asList("rate", "burst", "max-connections");
+	
 	private final ServicesConfig servicesConfig;
+	private final TaskExecutorConfig taskExecutorConfig;
 	private final ApplicationEventPublisher eventPublisher;
-	private final ConfigurableBeanFactory beanFactory;
 	private final ConfigurableEnvironment env;
 	
 	@PostConstruct
 	public void init() {
-		Map<Integer, SiteParser> parsers = createSiteParsers();
-		for (Map.Entry<Integer, SiteParser> entry : parsers.entrySet()) {
-			Integer num = entry.getKey();
-			SiteParser parser = entry.getValue();
-			if (!parser.isFullyInitialized()) {
-				LOG.warn("Ignored non-fully initialized site parser (app.site-parser[{}])", num);
-				continue;
-			}
-			LOG.trace("Registering site parser for '{}'", parser);
-			beanFactory.registerSingleton("siteParser" + num, parser);
+		Map<Integer, SiteParser> parsers =
+			getSiteParsersLoader().load(findSiteParserProperties());
+		for (Integer num : parsers.keySet()) {
+			registerHostLimits(num);
 		}
+		getSiteParserRegistry().reload(parsers.values());
 	}
 	
 	@Bean
-	public ApplicationListener<ImportRequestCreated> getImportRequestCreatedEventListener() {
-		return new ImportRequestCreatedEventListener(
-			LoggerFactory.getLogger(ImportRequestCreatedEventListener.class),
-			servicesConfig.getSeriesDownloaderService(),
-			servicesConfig.getSeriesImportService(),
-			eventPublisher
+	public SiteParserRegistry getSiteParserRegistry() {
+		return new SiteParserRegistry(LoggerFactory.getLogger(SiteParserRegistry.class));
+	}
+	
+	@Bean
+	public SiteParsersLoader getSiteParsersLoader() {
+		return new SiteParsersLoader(
+			LoggerFactory.getLogger(SiteParsersLoader.class),
+			HOST_LIMITS_FIELDS
 		);
 	}
 	
+	// Parsers (but not their host limits) could be changed without restart by editing a file
+	// that is specified by app.import.site-parsers.file property.
 	@Bean
-	public ApplicationListener<DownloadingSucceeded> getDownloadingSucceededEventListener(
-		Optional<List<SiteParser>> siteParsers) {
+	public SiteParsersReloader getSiteParsersReloader() {
+		return new SiteParsersReloader(
+			LoggerFactory.getLogger(SiteParsersReloader.class),
+			getSiteParsersLoader(),
+			getSiteParserRegistry(),
+			env.getProperty("app.import.site-parsers.file")
+		);
+	}
+	
+	// Downloading and parsing are performed by their own pools, so a burst of import requests
+	// doesn't block threads that handle HTTP requests.
+	@Bean
+	public SmartApplicationListener getImportRequestCreatedEventListener() {
+		return new AsyncApplicationListener<>(
+			LoggerFactory.getLogger(AsyncApplicationListener.class),
+			ImportRequestCreated.class,
+			new ImportRequestCreatedEventListener(
+				LoggerFactory.getLogger(ImportRequestCreatedEventListener.class),
+				servicesConfig.getSeriesDownloaderService(),
+				servicesConfig.getSeriesImportService(),
+				eventPublisher
+			),
+			taskExecutorConfig.getImportDownloadingExecutor()
+		);
+	}
+	
+	@Bean
+	public ImportRequestsFeeder getImportRequestsFeeder() {
+		ThreadPoolTaskExecutor downloadingExecutor =
+			taskExecutorConfig.getImportDownloadingExecutor();
 		
-		return new DownloadingSucceededEventListener(
+		return new ImportRequestsFeeder(
+			LoggerFactory.getLogger(ImportRequestsFeeder.class),
+			eventPublisher,
+			taskExecutorConfig.getImportFeedingExecutor(),
+			() -> downloadingExecutor.getThreadPoolExecutor().getQueue().size(),
+			env.getRequiredProperty("app.import.bulk.max-queued", Integer.class)
+		);
+	}
+	
+	@Bean
+	public SmartApplicationListener getDownloadingSucceededEventListener() {
+		DownloadingSucceededEventListener listener = new DownloadingSucceededEventListener(
 			LoggerFactory.getLogger(DownloadingSucceededEventListener.class),
 			servicesConfig.getSeriesImportService(),
-			siteParsers.orElse(Collections.emptyList()),
-			eventPublisher
+			getSiteParserRegistry(),
+			eventPublisher,
+			env.getRequiredProperty("app.import.parsing.max-page-size", Long.class)
+		);
+		
+		return new AsyncApplicationListener<>(
+			LoggerFactory.getLogger(AsyncApplicationListener.class),
+			DownloadingSucceeded.class,
+			listener,
+			taskExecutorConfig.getImportParsingExecutor()
 		);
 	}
 	
@@ -103,13 +156,22 @@ public class EventsConfig {
 		);
 	}
 	
-	@SuppressWarnings({
-		"PMD.AvoidInstantiatingObjectsInLoops",
-		"PMD.ModifiedCyclomaticComplexity" // TODO: deal with it someday
-	})
-	private Map<Integer, SiteParser> createSiteParsers() {
-		boolean foundSiteParserProps = false;
-		Map<Integer, SiteParser> parsers = new HashMap<>();
+	@Bean
+	public UnfinishedImportRequestsSweeper getUnfinishedImportRequestsSweeper() {
+		return new UnfinishedImportRequestsSweeper(
+			LoggerFactory.getLogger(UnfinishedImportRequestsSweeper.class),
+			servicesConfig.getSeriesImportService(),
+			eventPublisher,
+			env.getRequiredProperty("app.import.max-attempts", Integer.class),
+			env.getRequiredProperty("app.import.retry-delay", Long.class),
+			env.getRequiredProperty("app.import.sweeper.batch-size", Integer.class)
+		);
+	}
+	
+	// Properties are taken only from the first property source that has them, so a profile
+	// could override all the parsers at once.
+	private Map<String, String> findSiteParserProperties() {
+		Map<String, String> properties = new LinkedHashMap<>();
 		
 		for (PropertySource<?> source : env.getPropertySources()) {
 			// while we expect that properties will be in PropertiesPropertySource, we use
@@ -123,54 +185,38 @@ public class EventsConfig {
 			LOG.trace("Inspecting property source: {} ({})", source.getName(), source.getClass());
 			
 			for (String name : ((EnumerablePropertySource<?>)source).getPropertyNames()) {
-				if (!name.startsWith("app.site-parser")) {
-					continue;
-				}
-				
-				String propertyValue = (String)source.getProperty(name);
-				LOG.trace("Detected property '{}' with value {}", name, propertyValue);
-				
-				// extract parser number (app.site-parser[2].name -> 2)
-				String strNum = StringUtils.substringBetween(name, "[", "]");
-				if (StringUtils.isBlank(strNum)) {
-					LOG.warn("Ignored property '{}': could not extract index", name);
-					continue;
-				}
-				
-				Integer num = Integer.valueOf(strNum);
-				if (!parsers.containsKey(num)) {
-					// @todo #801 EventsConfig.createSiteParsers(): split the logic for properties
-					//  parsing and the object instantiation
-					SiteParser parser =
-						new TimedSiteParser(
-							LoggerFactory.getLogger(TimedSiteParser.class),
-							new JsoupSiteParser()
-						);
-					parsers.put(num, parser);
+				if (name.startsWith(SiteParsersLoader.PROPERTY_PREFIX)) {
+					properties.put(name, String.valueOf(source.getProperty(name)));
 				}
-				
-				// extract parser property (app.site-parser[2].name -> name)
-				String fieldName = StringUtils.substringAfterLast(name, ".");
-				if (StringUtils.isBlank(fieldName)) {
-					LOG.warn("Ignored property '{}': could not extract property name", name);
-					continue;
-				}
-				
-				SiteParser parser = parsers.get(num);
-				boolean validProperty = parser.setField(fieldName, propertyValue);
-				if (!validProperty) {
-					LOG.warn("Ignored property '{}': unknown or unsupported", name);
-					continue;
-				}
-				foundSiteParserProps = true;
 			}
 			// we shouldn't process others to be able to override a property
-			if (foundSiteParserProps) {
+			if (!properties.isEmpty()) {
 				break;
 			}
 		}
 		
-		return parsers;
+		return properties;
+	}
+	
+	private void registerHostLimits(Integer num) {
+		String prefix = "app.site-parser[" + num + "].";
+		if (HOST_LIMITS_FIELDS.stream().noneMatch(field -> env.containsProperty(prefix + field))) {
+			return;
+		}
+		
+		String host = URI.create(env.getRequiredProperty(prefix + "matched-url")).getHost();
+		if (host == null) {
+			LOG.warn("Ignored limits of app.site-parser[{}]: could not extract host", num);
+			return;
+		}
+		
+		HostLimits defaults = servicesConfig.getHostLimiter().getDefaultLimits();
+		HostLimits limits = new HostLimits(
+			env.getProperty(prefix + "rate", Double.class, defaults.getRate()),
+			env.getProperty(prefix + "burst", Integer.class, defaults.getBurst()),
+			env.getProperty(prefix + "max-connections", Integer.class, defaults.getMaxConnections())
+		);
+		servicesConfig.getHostLimiter().setLimits(host, limits);
 	}
 	
 }
@@ -17,8 +17,13 @@
  */
 package ru.mystamps.web.config;
 
+import java.nio.file.Paths;
 import java.util.Locale;
 
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
 import org.slf4j.LoggerFactory;
 
 import org.springframework.context.ApplicationEventPublisher;
@@ -28,6 +33,9 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
 import org.springframework.core.env.Environment;
 import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import lombok.RequiredArgsConstructor;
 
@@ -46,6 +54,7 @@ import ru.mystamps.web.feature.series.SeriesConfig;
 import ru.mystamps.web.feature.series.SeriesService;
 // CheckStyle: ignore AvoidStarImportCheck for next 1 line
 import ru.mystamps.web.service.*; // NOPMD: UnusedImports
+import ru.mystamps.web.service.dto.HostLimits;
 import ru.mystamps.web.support.spring.security.SecurityConfig;
 
 @Configuration
@@ -72,6 +81,7 @@ public class ServicesConfig {
 	private final CountryService countryService;
 	private final ParticipantService participantService;
 	private final SeriesService seriesService;
+	private final PlatformTransactionManager transactionManager;
 	
 	@Bean
 	public SuspiciousActivityService getSuspiciousActivityService() {
@@ -89,7 +99,48 @@ public class ServicesConfig {
 			getSuspiciousActivityService(),
 			getUserService(),
 			getUsersActivationService(),
-			getMailService()
+			getMailService(),
+			getSeriesImportService(),
+			env.getRequiredProperty("app.import.raw-content.retention-days", Integer.class)
+		);
+	}
+	
+	/**
+	 * HTTP client that is shared by all the downloaders, so they reuse connections to a site.
+	 */
+	@Bean(initMethod = "start", destroyMethod = "stop")
+	public HttpClient getDownloaderHttpClient() {
+		HttpClient client = new HttpClient(new SslContextFactory());
+		QueuedThreadPool threadPool = new QueuedThreadPool();
+		threadPool.setName("downloader");
+		client.setExecutor(threadPool);
+		client.setConnectTimeout(env.getRequiredProperty("app.downloader.timeout", Long.class));
+		client.setIdleTimeout(env.getRequiredProperty("app.downloader.idle-timeout", Long.class));
+		client.setMaxConnectionsPerDestination(
+			env.getRequiredProperty("app.downloader.max-connections-per-host", Integer.class)
+		);
+		client.setFollowRedirects(false);
+		// the User-Agent header is set by a downloader
+		client.setUserAgentField(null);
+		return client;
+	}
+	
+	/**
+	 * Limits of requests to external sites. They are shared by all the downloaders.
+	 */
+	@Bean
+	public HostLimiter getHostLimiter() {
+		return new HostLimiter(
+			LoggerFactory.getLogger(HostLimiter.class),
+			new HostLimits(
+				env.getRequiredProperty("app.downloader.host.rate", Double.class),
+				env.getRequiredProperty("app.downloader.host.burst", Integer.class),
+				env.getRequiredProperty("app.downloader.host.max-connections", Integer.class)
+			),
+			env.getRequiredProperty("app.downloader.circuit-breaker.failures", Integer.class),
+			env.getRequiredProperty("app.downloader.circuit-breaker.open-duration", Long.class),
+			env.getRequiredProperty("app.downloader.host.max-wait", Long.class),
+			env.getRequiredProperty("app.downloader.host.idle-timeout", Long.class)
 		);
 	}
 	
@@ -97,9 +148,19 @@ public class ServicesConfig {
 	public DownloaderService getImageDownloaderService() {
 		return new TimedDownloaderService(
 			LoggerFactory.getLogger(TimedDownloaderService.class),
-			new HttpURLConnectionDownloaderService(
-				new String[]{"image/jpeg", "image/png"},
-				env.getRequiredProperty("app.downloader.timeout", Integer.class)
+			new CachingDownloaderService(
+				LoggerFactory.getLogger(CachingDownloaderService.class),
+				new RateLimitedDownloaderService(
+					LoggerFactory.getLogger(RateLimitedDownloaderService.class),
+					new JettyHttpClientDownloaderService(
+						getDownloaderHttpClient(),
+						new String[]{"image/jpeg", "image/png"},
+						env.getRequiredProperty("app.downloader.timeout", Long.class),
+						env.getRequiredProperty("app.downloader.max-body-size", Integer.class)
+					),
+					getHostLimiter()
+				),
+				createDownloadCache("images")
 			)
 		);
 	}
@@ -108,13 +169,33 @@ public class ServicesConfig {
 	public DownloaderService getSeriesDownloaderService() {
 		return new TimedDownloaderService(
 			LoggerFactory.getLogger(TimedDownloaderService.class),
-			new HttpURLConnectionDownloaderService(
-				new String[]{"text/html", "image/jpeg", "image/png"},
-				env.getRequiredProperty("app.downloader.timeout", Integer.class)
+			new CachingDownloaderService(
+				LoggerFactory.getLogger(CachingDownloaderService.class),
+				new RateLimitedDownloaderService(
+					LoggerFactory.getLogger(RateLimitedDownloaderService.class),
+					new JettyHttpClientDownloaderService(
+						getDownloaderHttpClient(),
+						new String[]{"text/html", "image/jpeg", "image/png"},
+						env.getRequiredProperty("app.downloader.timeout", Long.class),
+						env.getRequiredProperty("app.downloader.max-body-size", Integer.class)
+					),
+					getHostLimiter()
+				),
+				createDownloadCache("pages")
 			)
 		);
 	}
 	
+	// downloaders have their own caches because they accept different types of files
+	private DiskDownloadCache createDownloadCache(String name) {
+		String dir = env.getRequiredProperty("app.downloader.cache.dir");
+		return new DiskDownloadCache(
+			LoggerFactory.getLogger(DiskDownloadCache.class),
+			Paths.get(dir, name).toString(),
+			env.getRequiredProperty("app.downloader.cache.max-size", Long.class)
+		);
+	}
+	
 	@Bean
 	public MailService getMailService() {
 		boolean isProductionEnvironment = env.acceptsProfiles("prod");
@@ -150,6 +231,9 @@ public class ServicesConfig {
 	
 	@Bean
 	public SeriesImportService getSeriesImportService() {
+		TransactionTemplate nestedTransaction = new TransactionTemplate(transactionManager);
+		nestedTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_NESTED);
+		
 		return new SeriesImportServiceImpl(
 			LoggerFactory.getLogger(SeriesImportServiceImpl.class),
 			daoConfig.getSeriesImportDao(),
@@ -158,7 +242,9 @@ public class ServicesConfig {
 			getSeriesSalesImportService(),
 			getSeriesInfoExtractorService(),
 			participantService,
-			eventPublisher
+			eventPublisher,
+			nestedTransaction,
+			env.getRequiredProperty("app.import.lease-duration", Integer.class)
 		);
 	}
 	
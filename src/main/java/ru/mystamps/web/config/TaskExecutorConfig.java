@@ -18,23 +18,120 @@
 package ru.mystamps.web.config;
 
 import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
 
+import org.slf4j.LoggerFactory;
+
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.core.env.Environment;
 import org.springframework.scheduling.annotation.AsyncConfigurerSupport;
 import org.springframework.scheduling.annotation.EnableAsync;
 
+import lombok.RequiredArgsConstructor;
+
+import ru.mystamps.web.support.spring.concurrent.TimedThreadPoolTaskExecutor;
+
 /**
+ * Thread pools for background tasks.
+ *
+ * All pools are bounded: a burst of tasks can't exhaust threads. On shutdown they wait
+ * for the tasks that have been already accepted.
+ *
  * @author Sergey Chechenev
  * @author Slava Semushin
  */
 @Configuration
 @EnableAsync
+@RequiredArgsConstructor
 public class TaskExecutorConfig extends AsyncConfigurerSupport {
 	
+	private final Environment env;
+	
 	@Override
 	public Executor getAsyncExecutor() {
-		return new SimpleAsyncTaskExecutor();
+		return getTaskExecutor();
+	}
+	
+	/**
+	 * Executor for the methods annotated with {@code @Async}.
+	 *
+	 * When it's full, a task is executed by the caller as it would be without {@code @Async}.
+	 */
+	@Bean(name = "taskExecutor")
+	public TimedThreadPoolTaskExecutor getTaskExecutor() {
+		TimedThreadPoolTaskExecutor executor = createExecutor(
+			"async-",
+			env.getRequiredProperty("app.async.pool-size", Integer.class),
+			env.getRequiredProperty("app.async.queue-capacity", Integer.class)
+		);
+		executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+		return executor;
+	}
+	
+	/**
+	 * Executor for downloading of pages of series import requests.
+	 *
+	 * Downloaded pages are passed to the parsing executor, so it has to be stopped first.
+	 */
+	@Bean(name = "importDownloadingExecutor")
+	@DependsOn("importParsingExecutor")
+	public TimedThreadPoolTaskExecutor getImportDownloadingExecutor() {
+		return createExecutor(
+			"import-downloading-",
+			env.getRequiredProperty("app.import.downloading.pool-size", Integer.class),
+			env.getRequiredProperty("app.import.downloading.queue-capacity", Integer.class)
+		);
+	}
+	
+	/**
+	 * Executor for feeding requests of bulk imports to the downloading executor.
+	 *
+	 * A task waits for a room in the queue of the downloading executor, so it isn't awaited
+	 * on shutdown: the rest of its requests will be resumed by the sweeper.
+	 */
+	@Bean(name = "importFeedingExecutor")
+	public TimedThreadPoolTaskExecutor getImportFeedingExecutor() {
+		TimedThreadPoolTaskExecutor executor = createExecutor(
+			"import-feeder-",
+			1,
+			env.getRequiredProperty("app.import.bulk.queue-capacity", Integer.class)
+		);
+		executor.setWaitForTasksToCompleteOnShutdown(false);
+		return executor;
+	}
+	
+	/**
+	 * Executor for parsing of downloaded pages of series import requests.
+	 */
+	@Bean(name = "importParsingExecutor")
+	public TimedThreadPoolTaskExecutor getImportParsingExecutor() {
+		// parsing is CPU bound, so there is no reason to have more threads
+		return createExecutor(
+			"import-parsing-",
+			Runtime.getRuntime().availableProcessors(),
+			env.getRequiredProperty("app.import.parsing.queue-capacity", Integer.class)
+		);
+	}
+	
+	private TimedThreadPoolTaskExecutor createExecutor(
+		String threadNamePrefix,
+		int threads,
+		int queueCapacity) {
+		
+		TimedThreadPoolTaskExecutor executor = new TimedThreadPoolTaskExecutor(
+			LoggerFactory.getLogger(TimedThreadPoolTaskExecutor.class)
+		);
+		executor.setThreadNamePrefix(threadNamePrefix);
+		executor.setCorePoolSize(threads);
+		executor.setMaxPoolSize(threads);
+		executor.setQueueCapacity(queueCapacity);
+		executor.setWaitForTasksToCompleteOnShutdown(true);
+		executor.setAwaitTerminationSeconds(
+			env.getRequiredProperty("app.executor.shutdown-timeout", Integer.class)
+		);
+		return executor;
 	}
 	
 }
@@ -17,6 +17,8 @@
  */
 package ru.mystamps.web.controller;
 
+import java.util.List;
+
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.ResponseBody;
@@ -24,8 +26,11 @@ import org.springframework.web.bind.annotation.ResponseBody;
 import lombok.RequiredArgsConstructor;
 
 import ru.mystamps.web.Url;
+import ru.mystamps.web.feature.image.PreviewCache;
 import ru.mystamps.web.service.CronService;
+import ru.mystamps.web.service.HostLimiter;
 import ru.mystamps.web.service.ReportService;
+import ru.mystamps.web.service.dto.HostStatisticsDto;
 
 /**
  * @author Maxim Shestakov
@@ -36,6 +41,8 @@ public class ReportController {
 
 	private final ReportService reportService;
 	private final CronService cronService;
+	private final HostLimiter hostLimiter;
+	private final PreviewCache previewCache;
 
 	@GetMapping(path = Url.DAILY_STATISTICS, produces = "text/plain; charset=UTF-8")
 	@ResponseBody
@@ -44,5 +51,45 @@ public class ReportController {
 			cronService.getDailyReport()
 		);
 	}
+	
+	@GetMapping(path = Url.DOWNLOADS_STATISTICS, produces = "text/plain; charset=UTF-8")
+	@ResponseBody
+	public String showDownloadsStatistics() {
+		List<HostStatisticsDto> hosts = hostLimiter.getStatistics();
+		
+		StringBuilder sb = new StringBuilder();
+		for (HostStatisticsDto host : hosts) {
+			sb.append(String.format(
+				"%s: requests=%d, delayed=%d, rejected=%d, failed=%d, active=%d, circuit=%s%n",
+				host.getHost(),
+				host.getRequestsCounter(),
+				host.getDelayedCounter(),
+				host.getRejectedCounter(),
+				host.getFailedCounter(),
+				host.getActiveConnections(),
+				host.isCircuitOpen() ? "open" : "closed"
+			));
+		}
+		
+		return sb.toString();
+	}
+	
+	@GetMapping(path = Url.PREVIEWS_STATISTICS, produces = "text/plain; charset=UTF-8")
+	@ResponseBody
+	public String showPreviewsStatistics() {
+		if (!previewCache.isEnabled()) {
+			return String.format("cache: disabled%n");
+		}
+		
+		return String.format(
+			"cache: hits=%d, misses=%d, evictions=%d, entries=%d, size=%d, max-size=%d%n",
+			previewCache.getHitsCounter(),
+			previewCache.getMissesCounter(),
+			previewCache.getEvictionsCounter(),
+			previewCache.getEntriesCount(),
+			previewCache.getCurrentSize(),
+			previewCache.getMaxSize()
+		);
+	}
 
 }
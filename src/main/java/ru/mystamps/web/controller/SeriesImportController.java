@@ -17,10 +17,17 @@
  */
 package ru.mystamps.web.controller;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -36,6 +43,10 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.InitBinder;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.multipart.MultipartFile;
 
 import lombok.RequiredArgsConstructor;
 
@@ -47,6 +58,7 @@ import ru.mystamps.web.controller.dto.ImportSeriesSalesForm;
 import ru.mystamps.web.controller.dto.RequestImportForm;
 import ru.mystamps.web.controller.editor.ExpandCatalogNumbersEditor;
 import ru.mystamps.web.controller.event.ImportRequestCreated;
+import ru.mystamps.web.controller.event.ImportRequestsFeeder;
 import ru.mystamps.web.dao.dto.EntityWithIdDto;
 import ru.mystamps.web.dao.dto.ImportRequestDto;
 import ru.mystamps.web.dao.dto.SeriesParsedDataDto;
@@ -69,6 +81,7 @@ public class SeriesImportController {
 	private final SeriesController seriesController;
 	private final ParticipantService participantService;
 	private final ApplicationEventPublisher eventPublisher;
+	private final ImportRequestsFeeder importRequestsFeeder;
 	
 	@InitBinder("requestImportForm")
 	protected void initRequestImportForm(WebDataBinder binder) {
@@ -106,6 +119,43 @@ public class SeriesImportController {
 		return redirectTo(Url.REQUEST_IMPORT_PAGE, requestId);
 	}
 	
+	@GetMapping(path = Url.BULK_IMPORT_REQUESTS, produces = "text/plain; charset=UTF-8")
+	@ResponseBody
+	public String showBulkImportProgress() {
+		return formatProgress(seriesImportService.countRequestsByStatus());
+	}
+	
+	// JSON isn't accepted on purpose: Jackson is excluded from the dependencies and a list
+	// of URLs, one per line, doesn't need any structure
+	@PostMapping(
+		path = Url.BULK_IMPORT_REQUESTS,
+		consumes = "text/plain",
+		produces = "text/plain; charset=UTF-8"
+	)
+	@ResponseBody
+	public String processBulkImport(
+		@RequestBody String urls,
+		@CurrentUser Integer currentUserId)
+		throws IOException {
+		
+		return addRequests(new StringReader(urls), currentUserId);
+	}
+	
+	@PostMapping(
+		path = Url.BULK_IMPORT_REQUESTS,
+		consumes = "multipart/form-data",
+		produces = "text/plain; charset=UTF-8"
+	)
+	@ResponseBody
+	public String processBulkImportFile(
+		@RequestParam("file") MultipartFile file,
+		@CurrentUser Integer currentUserId)
+		throws IOException {
+		
+		Reader reader = new InputStreamReader(file.getInputStream(), StandardCharsets.UTF_8);
+		return addRequests(reader, currentUserId);
+	}
+	
 	@SuppressWarnings({ "PMD.ModifiedCyclomaticComplexity", "PMD.NPathComplexity" })
 	@GetMapping(Url.REQUEST_IMPORT_PAGE)
 	public String showRequestAndImportSeriesForm(
@@ -256,5 +306,45 @@ public class SeriesImportController {
 		return "series/import/list";
 	}
 	
+	private String addRequests(Reader source, Integer currentUserId) throws IOException {
+		List<String> urls = readUrls(source);
+		
+		Map<String, Integer> requests = seriesImportService.addRequests(urls, currentUserId);
+		importRequestsFeeder.feed(requests);
+		
+		return String.format(
+			"received: %d%ncreated: %d%nskipped: %d%n",
+			urls.size(),
+			requests.size(),
+			urls.size() - requests.size()
+		);
+	}
+	
+	// one URL per line, empty lines and lines that start with # are ignored
+	private static List<String> readUrls(Reader source) throws IOException {
+		List<String> urls = new ArrayList<>();
+		try (BufferedReader reader = new BufferedReader(source)) {
+			String line;
+			while ((line = reader.readLine()) != null) { // NOPMD: AssignmentInOperand
+				String url = line.trim();
+				if (url.isEmpty() || url.startsWith("#")) {
+					continue;
+				}
+				urls.add(url);
+			}
+		}
+		return urls;
+	}
+	
+	private static String formatProgress(Map<String, Long> counters) {
+		StringBuilder sb = new StringBuilder();
+		long total = 0;
+		for (Map.Entry<String, Long> entry : counters.entrySet()) {
+			sb.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+			total += entry.getValue();
+		}
+		sb.append("total: ").append(total).append('\n');
+		return sb.toString();
+	}
+	
 }
-
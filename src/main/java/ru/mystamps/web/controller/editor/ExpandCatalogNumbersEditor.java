@@ -29,9 +29,11 @@ import ru.mystamps.web.util.CatalogUtils;
 /**
  * Expands range of catalog numbers (1-3) into a comma-separated list (1,2,3).
  *
+ * Plain numbers go first in an ascending order and other codes follow them,
+ * so "10a,1-3" becomes "1,2,3,10a".
+ *
  * @author Slava Semushin
  */
-// @todo #694 ExpandCatalogNumbersEditor: add unit tests
 @RequiredArgsConstructor
 public class ExpandCatalogNumbersEditor extends PropertyEditorSupport {
 	
@@ -17,9 +17,9 @@
  */
 package ru.mystamps.web.controller.event;
 
-import java.util.List;
-
-import javax.annotation.PostConstruct;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 
 import org.slf4j.Logger;
 
@@ -28,10 +28,12 @@ import org.springframework.context.ApplicationListener;
 
 import lombok.RequiredArgsConstructor;
 
+import ru.mystamps.web.Db.SeriesImportRequestStatus;
 import ru.mystamps.web.service.SeriesImportService;
 import ru.mystamps.web.service.dto.RawParsedDataDto;
 import ru.mystamps.web.util.extractor.SeriesInfo;
 import ru.mystamps.web.util.extractor.SiteParser;
+import ru.mystamps.web.util.extractor.SiteParserRegistry;
 
 /**
  * Listener of the @{link DownloadingSucceeded} event.
@@ -44,43 +46,48 @@ public class DownloadingSucceededEventListener
 	
 	private final Logger log;
 	private final SeriesImportService seriesImportService;
-	private final List<SiteParser> siteParsers;
+	private final SiteParserRegistry siteParsers;
 	private final ApplicationEventPublisher eventPublisher;
 	
-	@PostConstruct
-	public void init() {
-		log.info("Registered site parsers: {}", siteParsers);
-	}
+	// how many bytes of a page are given to a parser, the rest is ignored
+	private final long maxPageSize;
 	
 	@Override
 	public void onApplicationEvent(DownloadingSucceeded event) {
 		Integer requestId = event.getRequestId();
 		
-		log.info("Request #{}: downloading succeeded", requestId);
-		
-		String content = seriesImportService.getDownloadedContent(requestId);
-		if (content == null) {
-			// TODO: how to handle error? maybe publish UnexpectedErrorEvent?
-			log.error("Request #{}: could not load a content from database", requestId);
+		// the same request could be published several times, see UnfinishedImportRequestsSweeper
+		boolean acquired = seriesImportService.acquireLease(
+			requestId,
+			SeriesImportRequestStatus.DOWNLOADING_SUCCEEDED
+		);
+		if (!acquired) {
+			log.info("Request #{}: is being processed or has been processed already", requestId);
 			return;
 		}
 		
-		String url = event.getUrl();
-		SiteParser parser = null;
-		for (SiteParser candidate : siteParsers) {
-			if (candidate.canParse(url)) {
-				parser = candidate;
-				break;
-			}
-		}
+		log.info("Request #{}: downloading succeeded", requestId);
 		
+		String url = event.getUrl();
+		SiteParser parser = siteParsers.findParser(url);
 		if (parser == null) {
 			// TODO: how to handle error? maybe publish UnexpectedErrorEvent?
 			log.error("Request #{}: could not find appropriate parser", requestId);
 			return;
 		}
 		
-		SeriesInfo info = parser.parse(content);
+		// the parser reads the page from the database by itself, so we don't need
+		// to have its copy as a String
+		SeriesInfo info = seriesImportService.readDownloadedContent(
+			requestId,
+			in -> parse(requestId, parser, in)
+		);
+		if (info == null) {
+			// TODO: how to handle error? maybe publish UnexpectedErrorEvent?
+			log.error("Request #{}: could not load a content from database", requestId);
+			return;
+		}
+		
 		if (info.isEmpty()) {
 			eventPublisher.publishEvent(new ParsingFailed(this, requestId));
 			return;
@@ -102,4 +109,84 @@ public class DownloadingSucceededEventListener
 		seriesImportService.saveParsedData(requestId, data);
 	}
 	
+	private SeriesInfo parse(Integer requestId, SiteParser parser, InputStream in) {
+		LimitedInputStream page = new LimitedInputStream(in, maxPageSize);
+		SeriesInfo info = parser.parse(page);
+		
+		if (page.isTruncated()) {
+			log.warn(
+				"Request #{}: page is larger than {} bytes, only its beginning has been parsed",
+				requestId,
+				maxPageSize
+			);
+		}
+		
+		return info;
+	}
+	
+	// Pretends that a stream ends after the limit, so a parser never builds a document
+	// from the whole page when it's too large. The fields that we need are usually near the top.
+	private static class LimitedInputStream extends FilterInputStream {
+		private long remaining;
+		private boolean truncated;
+		
+		LimitedInputStream(InputStream in, long limit) {
+			super(in);
+			this.remaining = limit;
+		}
+		
+		// whether a parser has reached the limit while the page had more content
+		public boolean isTruncated() {
+			return truncated;
+		}
+		
+		@Override
+		public int read() throws IOException {
+			if (remaining <= 0) {
+				return endOfLimit();
+			}
+			int result = super.read();
+			if (result != -1) {
+				remaining--;
+			}
+			return result;
+		}
+		
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			if (remaining <= 0) {
+				return endOfLimit();
+			}
+			int result = super.read(buffer, offset, (int)Math.min(length, remaining));
+			if (result > 0) {
+				remaining -= result;
+			}
+			return result;
+		}
+		
+		@Override
+		public long skip(long count) throws IOException {
+			long skipped = super.skip(Math.min(count, remaining));
+			remaining -= skipped;
+			return skipped;
+		}
+		
+		@Override
+		public int available() throws IOException {
+			return (int)Math.min(super.available(), remaining);
+		}
+		
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+		
+		private int endOfLimit() throws IOException {
+			if (!truncated && super.read() != -1) {
+				truncated = true;
+			}
+			return -1;
+		}
+	}
+	
 }
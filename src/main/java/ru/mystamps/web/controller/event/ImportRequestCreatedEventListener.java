@@ -34,6 +34,9 @@ import ru.mystamps.web.service.dto.DownloadResult;
  *
  * Downloads a file, saves it to database and publish the @{link DownloadingSucceeded} event.
  * When downloading of a file fails, it changes request status to 'DownloadingFailed'.
+ *
+ * The same request could be published several times (see {@link UnfinishedImportRequestsSweeper}),
+ * so a lease on it is acquired before processing.
  */
 @RequiredArgsConstructor
 public class ImportRequestCreatedEventListener
@@ -49,6 +52,15 @@ public class ImportRequestCreatedEventListener
 		String url = event.getUrl();
 		Integer requestId = event.getRequestId();
 		
+		boolean acquired = seriesImportService.acquireLease(
+			requestId,
+			Db.SeriesImportRequestStatus.UNPROCESSED
+		);
+		if (!acquired) {
+			log.info("Request #{}: is being processed or has been processed already", requestId);
+			return;
+		}
+		
 		log.info("Request #{}: start downloading '{}'", requestId, url);
 		
 		DownloadResult result = downloaderService.download(url);
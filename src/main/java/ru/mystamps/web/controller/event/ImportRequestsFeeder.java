@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.controller.event;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+import org.slf4j.Logger;
+
+import org.springframework.context.ApplicationEventPublisher;
+
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Publishes the {@link ImportRequestCreated} events for the requests created by a bulk import.
+ *
+ * Events are published in background and only while a queue of the downloading executor has
+ * a room for them. Without that most of the events would be rejected by a full queue and
+ * the requests would wait for {@link UnfinishedImportRequestsSweeper}.
+ */
+@RequiredArgsConstructor
+public class ImportRequestsFeeder {
+	
+	// how often (in milliseconds) a queue is checked for a free room
+	private static final long POLL_INTERVAL = 200;
+	
+	private final Logger log;
+	private final ApplicationEventPublisher eventPublisher;
+	private final Executor feederExecutor;
+	private final IntSupplier queuedTasks;
+	private final int maxQueued;
+	
+	public void feed(Map<String, Integer> requests) {
+		if (requests.isEmpty()) {
+			return;
+		}
+		
+		List<Map.Entry<String, Integer>> entries = new ArrayList<>(requests.entrySet());
+		try {
+			feederExecutor.execute(() -> publishAll(entries));
+			
+		} catch (RejectedExecutionException ex) {
+			// the requests have been saved, so they will be resumed by the sweeper
+			log.warn(
+				"{} import request(s) will be processed later: {}",
+				entries.size(),
+				ex.getMessage()
+			);
+		}
+	}
+	
+	private void publishAll(List<Map.Entry<String, Integer>> requests) {
+		log.info("Start feeding {} import request(s)", requests.size());
+		
+		int published = 0;
+		try {
+			for (Map.Entry<String, Integer> request : requests) {
+				while (queuedTasks.getAsInt() >= maxQueued) {
+					TimeUnit.MILLISECONDS.sleep(POLL_INTERVAL);
+				}
+				eventPublisher.publishEvent(
+					new ImportRequestCreated(this, request.getValue(), request.getKey())
+				);
+				published++;
+			}
+		
+		} catch (InterruptedException ex) {
+			// the rest of the requests will be resumed by the sweeper
+			log.warn("Feeding has been interrupted after {} request(s)", published);
+			Thread.currentThread().interrupt();
+			return;
+		}
+		
+		log.info("{} import request(s) have been fed", published);
+	}
+	
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.controller.event;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import lombok.RequiredArgsConstructor;
+
+import ru.mystamps.web.Db.SeriesImportRequestStatus;
+import ru.mystamps.web.dao.dto.UnfinishedImportRequestDto;
+import ru.mystamps.web.service.SeriesImportService;
+
+/**
+ * Resumes processing of the import requests that have got stuck.
+ *
+ * Events are kept only in memory, so they are lost when an application is restarted or when
+ * a queue of an executor is full. Also a worker may die while it's processing a request.
+ * The sweeper periodically finds such requests (they aren't updated for a while and their lease
+ * has expired) and publishes the events again. The first run happens soon after a start.
+ *
+ * A failed request is retried with an exponential backoff. After the specified number
+ * of attempts it's marked as failed.
+ */
+@RequiredArgsConstructor
+public class UnfinishedImportRequestsSweeper {
+	
+	// limits the backoff to 2^10 retry delays
+	private static final int MAX_BACKOFF_EXPONENT = 10;
+	
+	private final Logger log;
+	private final SeriesImportService seriesImportService;
+	private final ApplicationEventPublisher eventPublisher;
+	private final int maxAttempts;
+	private final long retryDelay;
+	private final int batchSize;
+	
+	@Scheduled(
+		initialDelayString = "${app.import.sweeper.initial-delay}",
+		fixedDelayString = "${app.import.sweeper.interval}"
+	)
+	@SuppressWarnings("PMD.AvoidCatchingGenericException")
+	public void sweep() {
+		List<UnfinishedImportRequestDto> requests =
+			seriesImportService.findUnfinishedRequests(batchSize);
+		
+		Date now = new Date();
+		for (UnfinishedImportRequestDto request : requests) {
+			try {
+				resume(request, now);
+			} catch (RuntimeException ex) {
+				// the request could be processed concurrently by another node
+				log.warn("Request #{}: couldn't be resumed: {}", request.getId(), ex.getMessage());
+			}
+		}
+	}
+	
+	private void resume(UnfinishedImportRequestDto request, Date now) {
+		Integer requestId = request.getId();
+		String status = request.getStatus();
+		
+		if (request.getAttempts() >= maxAttempts) {
+			// a worker on another node could have acquired a lease after we had read the request
+			boolean failed = seriesImportService.giveUp(
+				requestId,
+				request.getAttempts(),
+				status,
+				getFailedStatus(status)
+			);
+			if (failed) {
+				log.warn(
+					"Request #{}: giving up after {} attempt(s)",
+					requestId,
+					request.getAttempts()
+				);
+			} else {
+				log.info("Request #{}: has been leased by another worker", requestId);
+			}
+			return;
+		}
+		
+		if (!isTimeToRetry(request, now)) {
+			return;
+		}
+		
+		log.info(
+			"Request #{}: resuming processing (status: {}, attempts: {})",
+			requestId,
+			status,
+			request.getAttempts()
+		);
+		
+		String url = request.getUrl();
+		if (SeriesImportRequestStatus.UNPROCESSED.equals(status)) {
+			eventPublisher.publishEvent(new ImportRequestCreated(this, requestId, url));
+		} else {
+			eventPublisher.publishEvent(new DownloadingSucceeded(this, requestId, url));
+		}
+	}
+	
+	private boolean isTimeToRetry(UnfinishedImportRequestDto request, Date now) {
+		// a request that has never been processed could be retried at once
+		if (request.getLockedUntil() == null) {
+			return true;
+		}
+		
+		int exponent = Math.min(request.getAttempts() - 1, MAX_BACKOFF_EXPONENT);
+		long backoff = TimeUnit.SECONDS.toMillis(retryDelay) << exponent;
+		
+		return request.getLockedUntil().getTime() + backoff <= now.getTime();
+	}
+	
+	private static String getFailedStatus(String status) {
+		if (SeriesImportRequestStatus.UNPROCESSED.equals(status)) {
+			return SeriesImportRequestStatus.DOWNLOADING_FAILED;
+		}
+		return SeriesImportRequestStatus.PARSING_FAILED;
+	}
+	
+}
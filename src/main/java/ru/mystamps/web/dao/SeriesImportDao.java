@@ -17,8 +17,12 @@
  */
 package ru.mystamps.web.dao;
 
+import java.io.InputStream;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
 
 import ru.mystamps.web.dao.dto.AddSeriesParsedDataDbDto;
 import ru.mystamps.web.dao.dto.ImportRequestDto;
@@ -26,9 +30,13 @@ import ru.mystamps.web.dao.dto.ImportRequestFullInfo;
 import ru.mystamps.web.dao.dto.ImportRequestInfo;
 import ru.mystamps.web.dao.dto.ImportSeriesDbDto;
 import ru.mystamps.web.dao.dto.SeriesParsedDataDto;
+import ru.mystamps.web.dao.dto.UnfinishedImportRequestDto;
 
 public interface SeriesImportDao {
 	Integer add(ImportSeriesDbDto importRequest);
+	void addAll(List<ImportSeriesDbDto> importRequests);
+	Map<String, Integer> findIdsByUrls(Collection<String> urls);
+	Map<String, Long> countByStatus();
 	void setSeriesIdAndChangeStatus(
 		Integer requestId,
 		Integer seriesId,
@@ -37,9 +45,19 @@ public interface SeriesImportDao {
 		Date updatedAt
 	);
 	void changeStatus(Integer requestId, Date date, String oldStatus, String newStatus);
+	boolean acquireLease(Integer requestId, String status, Date now, Date lockedUntil);
+	boolean giveUp(Integer requestId, int attempts, Date date, String oldStatus, String newStatus);
+	List<UnfinishedImportRequestDto> findUnfinished(
+		List<String> statuses,
+		Date updatedBefore,
+		Date now,
+		int limit
+	);
 	ImportRequestDto findById(Integer id);
 	void addRawContent(Integer requestId, Date createdAt, Date updatedAt, String content);
 	String findRawContentByRequestId(Integer requestId);
+	<T> T readRawContent(Integer requestId, Function<InputStream, T> reader);
+	int removeRawContent(String status, Date updatedBefore);
 	void addParsedData(Integer requestId, AddSeriesParsedDataDbDto data);
 	SeriesParsedDataDto findParsedDataByRequestId(Integer requestId, String lang);
 	ImportRequestInfo findRequestInfo(Integer seriesId);
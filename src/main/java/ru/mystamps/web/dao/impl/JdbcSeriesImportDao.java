@@ -17,20 +17,38 @@
  */
 package ru.mystamps.web.dao.impl;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Statement;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.commons.lang3.Validate;
 
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.ResultSetExtractor;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.jdbc.core.support.SqlLobValue;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.util.StreamUtils;
 
 import lombok.RequiredArgsConstructor;
 
@@ -41,6 +59,7 @@ import ru.mystamps.web.dao.dto.ImportRequestFullInfo;
 import ru.mystamps.web.dao.dto.ImportRequestInfo;
 import ru.mystamps.web.dao.dto.ImportSeriesDbDto;
 import ru.mystamps.web.dao.dto.SeriesParsedDataDto;
+import ru.mystamps.web.dao.dto.UnfinishedImportRequestDto;
 import ru.mystamps.web.support.jdbc.RowMappers;
 
 // it complains that "request_id" is present many times
@@ -53,12 +72,27 @@ public class JdbcSeriesImportDao implements SeriesImportDao {
 	@Value("${series_import_requests.create}")
 	private String createSeriesImportRequestSql;
 	
+	@Value("${series_import_requests.find_ids_by_urls}")
+	private String findIdsByUrlsSql;
+	
+	@Value("${series_import_requests.count_by_status}")
+	private String countByStatusSql;
+	
 	@Value("${series_import_requests.set_series_id_and_change_status}")
 	private String setSeriesIdAndChangeStatusSql;
 	
 	@Value("${series_import_requests.change_status}")
 	private String changeStatusSql;
 	
+	@Value("${series_import_requests.acquire_lease}")
+	private String acquireLeaseSql;
+	
+	@Value("${series_import_requests.give_up}")
+	private String giveUpSql;
+	
+	@Value("${series_import_requests.find_unfinished}")
+	private String findUnfinishedSql;
+	
 	@Value("${series_import_requests.find_by_id}")
 	private String findImportRequestByIdSql;
 	
@@ -68,6 +102,9 @@ public class JdbcSeriesImportDao implements SeriesImportDao {
 	@Value("${series_import_requests.find_raw_content_by_request_id}")
 	private String findRawContentSql;
 	
+	@Value("${series_import_requests.remove_raw_content}")
+	private String removeRawContentSql;
+	
 	@Value("${series_import_requests.add_series_parsed_data}")
 	private String addParsedDataSql;
 	
@@ -106,6 +143,73 @@ public class JdbcSeriesImportDao implements SeriesImportDao {
 		return Integer.valueOf(holder.getKey().intValue());
 	}
 	
+	@Override
+	public void addAll(List<ImportSeriesDbDto> importRequests) {
+		SqlParameterSource[] batch = new SqlParameterSource[importRequests.size()];
+		for (int i = 0; i < batch.length; i++) {
+			ImportSeriesDbDto importRequest = importRequests.get(i);
+			batch[i] = new MapSqlParameterSource()
+				.addValue("url", importRequest.getUrl())
+				.addValue("status", importRequest.getStatus())
+				.addValue("updated_at", importRequest.getUpdatedAt())
+				.addValue("requested_at", importRequest.getRequestedAt())
+				.addValue("requested_by", importRequest.getRequestedBy());
+		}
+		
+		// the statements are sent in a single round trip only when a driver rewrites batches
+		// (rewriteBatchedStatements=true for MySQL), otherwise it saves only on parsing
+		int[] affected = jdbcTemplate.batchUpdate(createSeriesImportRequestSql, batch);
+		
+		Validate.validState(
+			affected.length == importRequests.size(),
+			"Unexpected number of statements after adding %d import series requests: %d",
+			importRequests.size(),
+			affected.length
+		);
+		
+		// a statement either adds a row or fails, so a driver that doesn't report
+		// the number of rows doesn't hide anything
+		for (int count : affected) {
+			Validate.validState(
+				count == 1 || count == Statement.SUCCESS_NO_INFO,
+				"Unexpected number of affected rows after adding an import series request: %d",
+				count
+			);
+		}
+	}
+	
+	@Override
+	public Map<String, Integer> findIdsByUrls(Collection<String> urls) {
+		if (urls.isEmpty()) {
+			return Collections.emptyMap();
+		}
+		
+		Map<String, Integer> result = new LinkedHashMap<>();
+		jdbcTemplate.query(
+			findIdsByUrlsSql,
+			Collections.singletonMap("urls", urls),
+			rs -> {
+				result.put(rs.getString("url"), rs.getInt("id"));
+			}
+		);
+		
+		return result;
+	}
+	
+	@Override
+	public Map<String, Long> countByStatus() {
+		Map<String, Long> result = new LinkedHashMap<>();
+		jdbcTemplate.query(
+			countByStatusSql,
+			Collections.emptyMap(),
+			rs -> {
+				result.put(rs.getString("status"), rs.getLong("counter"));
+			}
+		);
+		
+		return result;
+	}
+	
 	// @todo #735 SeriesImportDao.setSeriesIdAndChangeStatus(): replace arguments by dto object
 	@Override
 	public void setSeriesIdAndChangeStatus(
@@ -151,6 +255,55 @@ public class JdbcSeriesImportDao implements SeriesImportDao {
 		);
 	}
 	
+	@Override
+	public boolean acquireLease(Integer requestId, String status, Date now, Date lockedUntil) {
+		Map<String, Object> params = new HashMap<>();
+		params.put("id", requestId);
+		params.put("status", status);
+		params.put("now", now);
+		params.put("locked_until", lockedUntil);
+		
+		return jdbcTemplate.update(acquireLeaseSql, params) == 1;
+	}
+	
+	@Override
+	public boolean giveUp(
+		Integer requestId,
+		int attempts,
+		Date date,
+		String oldStatus,
+		String newStatus) {
+		
+		Map<String, Object> params = new HashMap<>();
+		params.put("id", requestId);
+		params.put("attempts", attempts);
+		params.put("date", date);
+		params.put("old_status", oldStatus);
+		params.put("new_status", newStatus);
+		
+		return jdbcTemplate.update(giveUpSql, params) == 1;
+	}
+	
+	@Override
+	public List<UnfinishedImportRequestDto> findUnfinished(
+		List<String> statuses,
+		Date updatedBefore,
+		Date now,
+		int limit) {
+		
+		Map<String, Object> params = new HashMap<>();
+		params.put("statuses", statuses);
+		params.put("updated_before", updatedBefore);
+		params.put("now", now);
+		params.put("limit", limit);
+		
+		return jdbcTemplate.query(
+			findUnfinishedSql,
+			params,
+			RowMappers::forUnfinishedImportRequestDto
+		);
+	}
+	
 	@Override
 	public ImportRequestDto findById(Integer id) {
 		try {
@@ -171,7 +324,7 @@ public class JdbcSeriesImportDao implements SeriesImportDao {
 		params.put("request_id", requestId);
 		params.put("created_at", createdAt);
 		params.put("updated_at", updatedAt);
-		params.put("content", content);
+		params.put("content", new SqlLobValue(compress(content)));
 		
 		KeyHolder holder = new GeneratedKeyHolder();
 		
@@ -191,15 +344,57 @@ public class JdbcSeriesImportDao implements SeriesImportDao {
 	
 	@Override
 	public String findRawContentByRequestId(Integer requestId) {
-		try {
-			return jdbcTemplate.queryForObject(
-				findRawContentSql,
-				Collections.singletonMap("request_id", requestId),
-				String.class
+		return readRawContent(requestId, in -> {
+			try {
+				return StreamUtils.copyToString(in, StandardCharsets.UTF_8);
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+		});
+	}
+	
+	// The content is decompressed while the result set is still open, so a caller
+	// may parse it without materializing the whole page as a String.
+	@Override
+	public <T> T readRawContent(Integer requestId, Function<InputStream, T> reader) {
+		ResultSetExtractor<T> extractor = rs -> {
+			if (!rs.next()) {
+				return null;
+			}
+			
+			try (InputStream in = openRawContent(rs.getBinaryStream("compressed_content"))) {
+				if (in != null) {
+					return reader.apply(in);
+				}
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+			
+			// the page was saved before compression has been introduced
+			String content = rs.getString("page_content");
+			if (content == null) {
+				return null;
+			}
+			
+			return reader.apply(
+				new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8))
 			);
-		} catch (EmptyResultDataAccessException ignored) {
-			return null;
-		}
+		};
+		
+		return jdbcTemplate.query(
+			findRawContentSql,
+			Collections.singletonMap("request_id", requestId),
+			extractor
+		);
+	}
+	
+	@Override
+	public int removeRawContent(String status, Date updatedBefore) {
+		Map<String, Object> params = new HashMap<>();
+		params.put("status", status);
+		params.put("updated_before", updatedBefore);
+		
+		return jdbcTemplate.update(removeRawContentSql, params);
 	}
 	
 	@Override
@@ -273,4 +468,24 @@ public class JdbcSeriesImportDao implements SeriesImportDao {
 		);
 	}
 	
+	private static byte[] compress(String content) {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream(content.length() / 4);
+		try (Writer out = new OutputStreamWriter(
+			new GZIPOutputStream(buffer),
+			StandardCharsets.UTF_8
+		)) {
+			out.write(content);
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+		return buffer.toByteArray();
+	}
+	
+	private static InputStream openRawContent(InputStream compressed) throws IOException {
+		if (compressed == null) {
+			return null;
+		}
+		return new GZIPInputStream(compressed);
+	}
+	
 }
@@ -17,6 +17,7 @@
  */
 package ru.mystamps.web.dao.impl;
 
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -26,7 +27,9 @@ import java.util.Set;
 
 import org.apache.commons.lang3.Validate;
 
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
 
 import lombok.RequiredArgsConstructor;
 
@@ -45,14 +48,22 @@ public class JdbcStampsCatalogDao implements StampsCatalogDao {
 	public List<String> add(Set<String> catalogNumbers) {
 		Validate.validState(!"".equals(addCatalogNumberSql), "Query must be non empty");
 		
+		List<String> numbers = new ArrayList<>(catalogNumbers);
+		SqlParameterSource[] batch = new SqlParameterSource[numbers.size()];
+		for (int i = 0; i < batch.length; i++) {
+			batch[i] = new MapSqlParameterSource("code", numbers.get(i));
+		}
+		
+		// a batch takes a single round trip only when a driver rewrites it into one statement
+		// (rewriteBatchedStatements=true for MySQL), otherwise there is a round trip per number
+		int[] affected = jdbcTemplate.batchUpdate(addCatalogNumberSql, batch);
+		
+		// SUCCESS_NO_INFO means that a driver doesn't know whether a row has been inserted,
+		// so such a number is reported as a new one
 		List<String> inserted = new ArrayList<>();
-		for (String number : catalogNumbers) {
-			int affected = jdbcTemplate.update(
-				addCatalogNumberSql,
-				Collections.singletonMap("code", number)
-			);
-			if (affected > 0) {
-				inserted.add(number);
+		for (int i = 0; i < affected.length; i++) {
+			if (affected[i] > 0 || affected[i] == Statement.SUCCESS_NO_INFO) {
+				inserted.add(numbers.get(i));
 			}
 		}
 		
@@ -20,6 +20,7 @@ package ru.mystamps.web.feature.category;
 import java.util.Date;
 import java.util.List;
 
+import ru.mystamps.web.dao.dto.EntityNameDto;
 import ru.mystamps.web.dao.dto.EntityWithParentDto;
 import ru.mystamps.web.dao.dto.LinkEntityDto;
 
@@ -34,8 +35,7 @@ public interface CategoryDao {
 	long countAddedSince(Date date);
 	long countUntranslatedNamesSince(Date date);
 	List<Object[]> getStatisticsOf(Integer collectionId, String lang);
-	List<Integer> findIdsByNames(List<String> names);
-	List<Integer> findIdsByNamePattern(String pattern);
+	List<EntityNameDto> findAllNames();
 	List<LinkEntityDto> findAllAsLinkEntities(String lang);
 	LinkEntityDto findOneAsLinkEntity(String slug, String lang);
 	List<EntityWithParentDto> findCategoriesWithParents(String lang);
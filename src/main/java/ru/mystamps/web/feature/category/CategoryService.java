@@ -22,12 +22,14 @@ import java.util.List;
 
 import ru.mystamps.web.dao.dto.EntityWithParentDto;
 import ru.mystamps.web.dao.dto.LinkEntityDto;
+import ru.mystamps.web.util.NameMatch;
 
 @SuppressWarnings("PMD.TooManyMethods")
 public interface CategoryService {
 	String add(AddCategoryDto dto, Integer userId);
 	List<Integer> findIdsByNames(List<String> names);
 	List<Integer> findIdsWhenNameStartsWith(String name);
+	List<NameMatch> findSimilarNames(String name, int limit);
 	List<LinkEntityDto> findAllAsLinkEntities(String lang);
 	List<EntityWithParentDto> findCategoriesWithParents(String lang);
 	LinkEntityDto findOneAsLinkEntity(String slug, String lang);
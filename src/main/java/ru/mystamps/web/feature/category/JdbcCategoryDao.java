@@ -34,6 +34,7 @@ import org.springframework.jdbc.support.KeyHolder;
 
 import lombok.RequiredArgsConstructor;
 
+import ru.mystamps.web.dao.dto.EntityNameDto;
 import ru.mystamps.web.dao.dto.EntityWithParentDto;
 import ru.mystamps.web.dao.dto.LinkEntityDto;
 import ru.mystamps.web.support.jdbc.RowMappers;
@@ -71,11 +72,8 @@ public class JdbcCategoryDao implements CategoryDao {
 	@Value("${category.count_stamps_by_categories}")
 	private String countStampsByCategoriesSql;
 	
-	@Value("${category.find_ids_by_names}")
-	private String findIdsByNamesSql;
-	
-	@Value("${category.find_ids_by_name_pattern}")
-	private String findIdsByNamePatternSql;
+	@Value("${category.find_all_names}")
+	private String findAllNamesSql;
 	
 	@Value("${category.find_all_categories_names_with_slug}")
 	private String findCategoriesNamesWithSlugSql;
@@ -188,20 +186,11 @@ public class JdbcCategoryDao implements CategoryDao {
 	}
 	
 	@Override
-	public List<Integer> findIdsByNames(List<String> names) {
-		return jdbcTemplate.query(
-			findIdsByNamesSql,
-			Collections.singletonMap("names", names),
-			RowMappers::forInteger
-		);
-	}
-	
-	@Override
-	public List<Integer> findIdsByNamePattern(String pattern) {
+	public List<EntityNameDto> findAllNames() {
 		return jdbcTemplate.query(
-			findIdsByNamePatternSql,
-			Collections.singletonMap("pattern", pattern),
-			RowMappers::forInteger
+			findAllNamesSql,
+			Collections.emptyMap(),
+			RowMappers::forEntityNameDto
 		);
 	}
 	
@@ -20,6 +20,7 @@ package ru.mystamps.web.feature.country;
 import java.util.Date;
 import java.util.List;
 
+import ru.mystamps.web.dao.dto.EntityNameDto;
 import ru.mystamps.web.dao.dto.LinkEntityDto;
 
 @SuppressWarnings("PMD.TooManyMethods")
@@ -33,8 +34,7 @@ public interface CountryDao {
 	long countAddedSince(Date date);
 	long countUntranslatedNamesSince(Date date);
 	List<Object[]> getStatisticsOf(Integer collectionId, String lang);
-	List<Integer> findIdsByNames(List<String> names);
-	List<Integer> findIdsByNamePattern(String pattern);
+	List<EntityNameDto> findAllNames();
 	List<LinkEntityDto> findAllAsLinkEntities(String lang);
 	LinkEntityDto findOneAsLinkEntity(String slug, String lang);
 	String findCountryOfLastCreatedSeriesByUser(Integer userId);
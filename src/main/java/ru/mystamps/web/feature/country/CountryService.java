@@ -21,12 +21,14 @@ import java.util.Date;
 import java.util.List;
 
 import ru.mystamps.web.dao.dto.LinkEntityDto;
+import ru.mystamps.web.util.NameMatch;
 
 @SuppressWarnings("PMD.TooManyMethods")
 public interface CountryService {
 	String add(AddCountryDto dto, Integer userId);
 	List<Integer> findIdsByNames(List<String> names);
 	List<Integer> findIdsWhenNameStartsWith(String name);
+	List<NameMatch> findSimilarNames(String name, int limit);
 	List<LinkEntityDto> findAllAsLinkEntities(String lang);
 	LinkEntityDto findOneAsLinkEntity(String slug, String lang);
 	long countAll();
@@ -21,7 +21,7 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
@@ -37,6 +37,9 @@ import lombok.RequiredArgsConstructor;
 import ru.mystamps.web.dao.dto.LinkEntityDto;
 import ru.mystamps.web.support.spring.security.HasAuthority;
 import ru.mystamps.web.util.LocaleUtils;
+import ru.mystamps.web.util.NameDictionary;
+import ru.mystamps.web.util.NameMatch;
+import ru.mystamps.web.util.ReloadableCache;
 import ru.mystamps.web.util.SlugUtils;
 
 @RequiredArgsConstructor
@@ -46,6 +49,13 @@ public class CountryServiceImpl implements CountryService {
 	private final Logger log;
 	private final CountryDao countryDao;
 	
+	// names and aliases of all the countries for looking them up without going to database
+	private final ReloadableCache<NameDictionary> dictionary =
+		new ReloadableCache<>(
+			() -> new NameDictionary(countryDao.findAllNames()),
+			TimeUnit.MINUTES.toMillis(5)
+		);
+	
 	@Override
 	@Transactional
 	@PreAuthorize(HasAuthority.CREATE_COUNTRY)
@@ -76,6 +86,8 @@ public class CountryServiceImpl implements CountryService {
 		
 		log.info("Country #{} has been created ({})", id, country);
 		
+		dictionary.invalidateAfterCommit();
+		
 		return slug;
 	}
 	
@@ -87,13 +99,7 @@ public class CountryServiceImpl implements CountryService {
 			return Collections.emptyList();
 		}
 		
-		// converting to lowercase to perform a case-insensitive search
-		List<String> lowerCasesNames = names
-			.stream()
-			.map(name -> name.toLowerCase(Locale.ENGLISH))
-			.collect(Collectors.toList());
-		
-		return countryDao.findIdsByNames(lowerCasesNames);
+		return dictionary.get().findIdsByNames(names);
 	}
 	
 	// CheckStyle: ignore LineLength for next 1 line
@@ -103,16 +109,16 @@ public class CountryServiceImpl implements CountryService {
 	public List<Integer> findIdsWhenNameStartsWith(String name) {
 		Validate.isTrue(StringUtils.isNotBlank(name), "Name must be non-blank");
 		
-		// TODO: escape % and _ chars in name
-		Validate.isTrue(
-			!StringUtils.containsAny(name, '%', '_'),
-			"Name must not contain '%' or '_' chars"
-		);
-		
-		// converting to lowercase to perform a case-insensitive search
-		String pattern = name.toLowerCase(Locale.ENGLISH) + '%';
+		return dictionary.get().findIdsWhenNameStartsWith(name);
+	}
+	
+	@Override
+	@Transactional(readOnly = true)
+	public List<NameMatch> findSimilarNames(String name, int limit) {
+		Validate.isTrue(StringUtils.isNotBlank(name), "Name must be non-blank");
+		Validate.isTrue(limit > 0, "Limit must be greater than zero");
 		
-		return countryDao.findIdsByNamePattern(pattern);
+		return dictionary.get().findSimilarNames(name, limit);
 	}
 	
 	@Override
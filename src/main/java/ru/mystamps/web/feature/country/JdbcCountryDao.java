@@ -34,6 +34,7 @@ import org.springframework.jdbc.support.KeyHolder;
 
 import lombok.RequiredArgsConstructor;
 
+import ru.mystamps.web.dao.dto.EntityNameDto;
 import ru.mystamps.web.dao.dto.LinkEntityDto;
 import ru.mystamps.web.support.jdbc.RowMappers;
 
@@ -70,11 +71,8 @@ public class JdbcCountryDao implements CountryDao {
 	@Value("${country.count_stamps_by_countries}")
 	private String countStampsByCountriesSql;
 	
-	@Value("${country.find_ids_by_names}")
-	private String findIdsByNamesSql;
-	
-	@Value("${country.find_ids_by_name_pattern}")
-	private String findIdsByNamePatternSql;
+	@Value("${country.find_all_names}")
+	private String findAllNamesSql;
 	
 	@Value("${country.find_all_countries_names_with_slug}")
 	private String findCountriesNamesWithSlugSql;
@@ -195,20 +193,11 @@ public class JdbcCountryDao implements CountryDao {
 	}
 	
 	@Override
-	public List<Integer> findIdsByNames(List<String> names) {
-		return jdbcTemplate.query(
-			findIdsByNamesSql,
-			Collections.singletonMap("names", names),
-			RowMappers::forInteger
-		);
-	}
-	
-	@Override
-	public List<Integer> findIdsByNamePattern(String pattern) {
+	public List<EntityNameDto> findAllNames() {
 		return jdbcTemplate.query(
-			findIdsByNamePatternSql,
-			Collections.singletonMap("pattern", pattern),
-			RowMappers::forInteger
+			findAllNamesSql,
+			Collections.emptyMap(),
+			RowMappers::forEntityNameDto
 		);
 	}
 	
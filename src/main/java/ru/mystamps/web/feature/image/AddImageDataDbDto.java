@@ -17,6 +17,8 @@
  */
 package ru.mystamps.web.feature.image;
 
+import java.io.InputStream;
+
 import lombok.Getter;
 import lombok.Setter;
 
@@ -24,6 +26,14 @@ import lombok.Setter;
 @Setter
 public class AddImageDataDbDto {
 	private Integer imageId;
-	private byte[] content;
+	
+	// it's read only when the data is being written to database, so the whole content
+	// doesn't have to be loaded into memory
+	private InputStream content;
+	private long contentLength;
+	
 	private boolean preview;
+	
+	// size and format of a preview (for example, "medium.jpeg"); empty for original images
+	private String variant;
 }
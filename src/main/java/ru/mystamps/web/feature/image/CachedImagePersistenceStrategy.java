@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.feature.image;
+
+import lombok.RequiredArgsConstructor;
+
+import org.springframework.web.multipart.MultipartFile;
+
+/**
+ * Decorator that serves image previews from {@link PreviewCache}.
+ *
+ * Original images aren't cached because they're big and rarely requested.
+ */
+@RequiredArgsConstructor
+public class CachedImagePersistenceStrategy implements ImagePersistenceStrategy {
+	
+	private final ImagePersistenceStrategy strategy;
+	private final PreviewCache cache;
+	
+	@Override
+	public void save(MultipartFile file, ImageInfoDto image) {
+		strategy.save(file, image);
+	}
+	
+	@Override
+	public void savePreview(byte[] data, ImageInfoDto preview, PreviewSize size) {
+		strategy.savePreview(data, preview, size);
+		cache.invalidate(preview, size);
+	}
+	
+	@Override
+	public void replacePreview(byte[] data, ImageInfoDto preview, PreviewSize size) {
+		strategy.replacePreview(data, preview, size);
+		cache.invalidate(preview, size);
+	}
+	
+	@Override
+	public ImageDto get(ImageInfoDto image) {
+		return strategy.get(image);
+	}
+	
+	@Override
+	public ImageDto getPreview(ImageInfoDto image, PreviewSize size) {
+		long loadedVersion = cache.getVersion();
+		ImageDto cached = cache.get(image, size);
+		if (cached != null) {
+			return cached;
+		}
+		
+		ImageDto preview = strategy.getPreview(image, size);
+		if (preview == null) {
+			return null;
+		}
+		
+		// read the content once, so the next requests will be served from memory
+		cached = new ImageDto(
+			preview.getType(),
+			preview.getData(),
+			preview.getLastModified(),
+			preview.getVersion()
+		);
+		cache.put(image, size, cached, loadedVersion);
+		
+		return cached;
+	}
+	
+	@Override
+	public void removeIfPossible(ImageInfoDto image) {
+		strategy.removeIfPossible(image);
+		cache.invalidateAll(image);
+	}
+	
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.feature.image;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Image that is stored in database and doesn't keep its content in memory.
+ *
+ * The content is loaded only when {@link #getData()} is invoked. For serving an image
+ * {@link #transferTo(long, long, WritableByteChannel)} should be used instead because it
+ * copies the BLOB into a channel without creating a byte array with the whole content
+ * (although a JDBC driver may buffer it, see {@link JdbcImageDataDao}).
+ *
+ * A modification time isn't stored, so an id of the row is used as a version of the content.
+ */
+class DatabaseImageDto extends ImageDto {
+	
+	private final Integer id;
+	private final long size;
+	private final ImageDataDao imageDataDao;
+	
+	DatabaseImageDto(String type, Integer id, long size, ImageDataDao imageDataDao) {
+		// a row is replaced along with its content, so its id identifies the content
+		super(type, null, -1, String.valueOf(id));
+		this.id = id;
+		this.size = size;
+		this.imageDataDao = imageDataDao;
+	}
+	
+	/**
+	 * Returns the same image but with another type.
+	 */
+	DatabaseImageDto withType(String type) {
+		return new DatabaseImageDto(type, id, size, imageDataDao);
+	}
+	
+	@Override
+	public byte[] getData() {
+		byte[] data = imageDataDao.findContentById(id);
+		if (data == null) {
+			throw new ImagePersistenceException("Content of image data #" + id + " not found");
+		}
+		return data;
+	}
+	
+	@Override
+	public long getSize() {
+		return size;
+	}
+	
+	@Override
+	public void transferTo(long position, long count, WritableByteChannel target)
+		throws IOException {
+		
+		imageDataDao.writeContent(id, position, count, Channels.newOutputStream(target));
+	}
+	
+}
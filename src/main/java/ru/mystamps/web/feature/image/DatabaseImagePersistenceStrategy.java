@@ -17,7 +17,10 @@
  */
 package ru.mystamps.web.feature.image;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
 
 import javax.annotation.PostConstruct;
 
@@ -40,11 +43,14 @@ public class DatabaseImagePersistenceStrategy implements ImagePersistenceStrateg
 	
 	@Override
 	public void save(MultipartFile file, ImageInfoDto image) {
-		try {
+		// the content is passed to a driver as a stream instead of being loaded into a byte array
+		try (InputStream content = file.getInputStream()) {
 			AddImageDataDbDto imageData = new AddImageDataDbDto();
 			imageData.setImageId(image.getId());
-			imageData.setContent(file.getBytes());
+			imageData.setContent(content);
+			imageData.setContentLength(file.getSize());
 			imageData.setPreview(false);
+			imageData.setVariant("");
 			
 			Integer id = imageDataDao.add(imageData);
 			log.info("Image #{}: meta data has been saved to #{}", image.getId(), id);
@@ -56,20 +62,34 @@ public class DatabaseImagePersistenceStrategy implements ImagePersistenceStrateg
 	}
 	
 	@Override
-	public void savePreview(byte[] data, ImageInfoDto image) {
-		AddImageDataDbDto imageData = new AddImageDataDbDto();
-		imageData.setImageId(image.getId());
-		imageData.setContent(data);
-		imageData.setPreview(true);
+	public void savePreview(byte[] data, ImageInfoDto preview, PreviewSize size) {
+		AddImageDataDbDto imageData = createPreviewData(data, preview, size);
+		
+		imageDataDao.add(imageData);
+		
+		log.info("Image #{}: preview ({}) has been saved", preview.getId(), imageData.getVariant());
+	}
+	
+	@Override
+	public void replacePreview(byte[] data, ImageInfoDto preview, PreviewSize size) {
+		AddImageDataDbDto imageData = createPreviewData(data, preview, size);
 		
+		// The removal and the insert are performed within the caller's transaction,
+		// so readers see either the old or the new preview. A new row gets a new id that
+		// is used as a version of the content (see DatabaseImageDto).
+		imageDataDao.removePreview(preview.getId(), imageData.getVariant());
 		imageDataDao.add(imageData);
 		
-		log.info("Image #{}: preview has been saved", image.getId());
+		log.info(
+			"Image #{}: preview ({}) has been replaced",
+			preview.getId(),
+			imageData.getVariant()
+		);
 	}
 	
 	@Override
 	public ImageDto get(ImageInfoDto image) {
-		ImageDto imageDto = imageDataDao.findByImageId(image.getId(), false);
+		DatabaseImageDto imageDto = imageDataDao.findByImageId(image.getId(), false);
 		if (imageDto == null) {
 			log.warn("Image #{}: content not found", image.getId());
 			return null;
@@ -79,14 +99,16 @@ public class DatabaseImagePersistenceStrategy implements ImagePersistenceStrateg
 	}
 	
 	@Override
-	public ImageDto getPreview(ImageInfoDto image) {
-		ImageDto imageDto = imageDataDao.findByImageId(image.getId(), true);
+	public ImageDto getPreview(ImageInfoDto preview, PreviewSize size) {
+		String variant = generateVariant(preview, size);
+		DatabaseImageDto imageDto = imageDataDao.findPreviewByImageId(preview.getId(), variant);
 		if (imageDto == null) {
-			log.info("Image #{}: preview not found", image.getId());
+			log.info("Image #{}: preview ({}) not found", preview.getId(), variant);
 			return null;
 		}
 		
-		return imageDto;
+		// the query returns a type of the original image
+		return imageDto.withType(preview.getType());
 	}
 	
 	@Override
@@ -96,4 +118,22 @@ public class DatabaseImagePersistenceStrategy implements ImagePersistenceStrateg
 		// rolled back.
 	}
 	
+	private static AddImageDataDbDto createPreviewData(
+		byte[] data,
+		ImageInfoDto preview,
+		PreviewSize size) {
+		
+		AddImageDataDbDto imageData = new AddImageDataDbDto();
+		imageData.setImageId(preview.getId());
+		imageData.setContent(new ByteArrayInputStream(data));
+		imageData.setContentLength(data.length);
+		imageData.setPreview(true);
+		imageData.setVariant(generateVariant(preview, size));
+		return imageData;
+	}
+	
+	private static String generateVariant(ImageInfoDto preview, PreviewSize size) {
+		return size.getName() + '.' + preview.getType().toLowerCase(Locale.ENGLISH);
+	}
+	
 }
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.feature.image;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Image that is backed by a file and doesn't keep its content in memory.
+ *
+ * The content is read only when {@link #getData()} is invoked. For serving an image
+ * {@link #transferTo(long, long, WritableByteChannel)} should be used instead because it
+ * lets the OS copy the data without loading the whole file into heap.
+ */
+class FilesystemImageDto extends ImageDto {
+	
+	private final Path path;
+	private final long size;
+	
+	FilesystemImageDto(String type, Path path, BasicFileAttributes attributes) {
+		super(type, null, attributes.lastModifiedTime().toMillis());
+		this.path = path;
+		this.size = attributes.size();
+	}
+	
+	@Override
+	public byte[] getData() {
+		try {
+			return Files.readAllBytes(path);
+		} catch (IOException ex) {
+			throw new ImagePersistenceException(ex);
+		}
+	}
+	
+	@Override
+	public long getSize() {
+		return size;
+	}
+	
+	@Override
+	public void transferTo(long position, long count, WritableByteChannel target)
+		throws IOException {
+		
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long offset = position;
+			long remaining = count;
+			while (remaining > 0) {
+				long transferred = channel.transferTo(offset, remaining, target);
+				if (transferred <= 0) {
+					// the file has been truncated after we got its size
+					break;
+				}
+				offset += transferred;
+				remaining -= transferred;
+			}
+		}
+	}
+	
+}
@@ -19,9 +19,16 @@ package ru.mystamps.web.feature.image;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Locale;
 
 import javax.annotation.PostConstruct;
@@ -30,14 +37,40 @@ import org.slf4j.Logger;
 
 import org.springframework.web.multipart.MultipartFile;
 
+/**
+ * Stores images and their previews on a filesystem.
+ *
+ * Originals are content-addressed: a file is named by a SHA-256 hash of its content and
+ * images_blobs table maps an image to its file. When the same image is uploaded several
+ * times, only one copy is kept on a disk. Previews are spread over subdirectories by an image
+ * id. Both kinds of files are placed into 2 levels of directories with up to 256 entries on each
+ * level, so a directory doesn't have too many files.
+ *
+ * Files are written into temporary files that then are renamed, so readers never see partially
+ * written files. Files that have been stored in flat directories before introducing this scheme
+ * are still readable and can be moved by {@link FlatLayoutMigration}.
+ */
 public class FilesystemImagePersistenceStrategy implements ImagePersistenceStrategy {
 	
+	private static final String HASH_ALGORITHM = "SHA-256";
+	private static final int BUFFER_SIZE = 8192;
+	
 	private final Logger log;
+	private final ImageBlobDao imageBlobDao;
+	private final FileSyncer fileSyncer;
 	private final File storageDir;
 	private final File previewDir;
 	
-	public FilesystemImagePersistenceStrategy(Logger logger, String storageDir, String previewDir) {
+	public FilesystemImagePersistenceStrategy(
+		Logger logger,
+		ImageBlobDao imageBlobDao,
+		FileSyncer fileSyncer,
+		String storageDir,
+		String previewDir) {
+		
 		this.log = logger;
+		this.imageBlobDao = imageBlobDao;
+		this.fileSyncer = fileSyncer;
 		this.storageDir = new File(storageDir);
 		this.previewDir = new File(previewDir);
 	}
@@ -79,10 +112,7 @@ public class FilesystemImagePersistenceStrategy implements ImagePersistenceStrat
 	@Override
 	public void save(MultipartFile file, ImageInfoDto image) {
 		try {
-			Path dest = generateFilePath(storageDir, image);
-			writeToFile(file, dest);
-			
-			log.info("Image data has been written into file {}", dest);
+			writeContent(file, image);
 		
 		} catch (IOException ex) {
 			throw new ImagePersistenceException(ex);
@@ -90,10 +120,10 @@ public class FilesystemImagePersistenceStrategy implements ImagePersistenceStrat
 	}
 	
 	@Override
-	public void savePreview(byte[] data, ImageInfoDto image) {
+	public void savePreview(byte[] data, ImageInfoDto preview, PreviewSize size) {
 		try {
-			Path dest = generateFilePath(previewDir, image);
-			writeToFile(data, dest);
+			Path dest = generatePreviewFilePath(preview, size);
+			writeToFile(data, dest, false);
 			
 			log.info("Image preview data has been written into file {}", dest);
 		
@@ -102,20 +132,108 @@ public class FilesystemImagePersistenceStrategy implements ImagePersistenceStrat
 		}
 	}
 	
+	@Override
+	public void replacePreview(byte[] data, ImageInfoDto preview, PreviewSize size) {
+		try {
+			Path dest = generatePreviewFilePath(preview, size);
+			writeToFile(data, dest, true);
+			
+			log.info("Image preview data has been replaced in file {}", dest);
+		
+		} catch (IOException ex) {
+			throw new ImagePersistenceException(ex);
+		}
+	}
+	
 	@Override
 	public ImageDto get(ImageInfoDto image) {
-		return get(storageDir, image, true);
+		return get(findFilePath(image), image, true);
 	}
 	
 	@Override
-	public ImageDto getPreview(ImageInfoDto image) {
-		return get(previewDir, image, false);
+	public ImageDto getPreview(ImageInfoDto preview, PreviewSize size) {
+		Path dest = generatePreviewFilePath(preview, size);
+		if (!exists(dest)) {
+			// the preview could have been generated before introducing sharding
+			dest = generateFlatPreviewFilePath(preview, size);
+		}
+		return get(dest, preview, false);
+	}
+	
+	/**
+	 * Moves an image from the flat layout into the content-addressed storage.
+	 *
+	 * The image stays readable during the process: a new file is created and registered,
+	 * but the old one is kept because the concurrent requests could have already found it.
+	 * It's removed on the next run of the migration, when the new place is used by all readers.
+	 */
+	void migrateOriginal(Path file, Integer imageId) throws IOException {
+		if (imageBlobDao.findHashByImageId(imageId) != null) {
+			// the image has been registered by a previous run
+			Files.delete(file);
+			log.info("Image #{}: file {} has been removed after migration", imageId, file);
+			return;
+		}
+		
+		String hash = hashFile(file);
+		Path dest = generateBlobPath(hash);
+		if (!exists(dest)) {
+			Files.createDirectories(dest.getParent());
+			linkOrCopy(file, dest);
+			fileSyncer.sync(dest.getParent());
+		}
+		imageBlobDao.add(imageId, hash);
+		
+		log.info("Image #{}: file {} has been migrated", imageId, file);
+	}
+	
+	/**
+	 * Moves a preview from the flat directory into a sharded one.
+	 *
+	 * Like with originals, the old file is removed only when the new one has existed
+	 * before the current run of the migration.
+	 */
+	void migratePreview(
+		Path file,
+		ImageInfoDto preview,
+		PreviewSize size,
+		long migrationStartedAt) throws IOException {
+		
+		Path dest = generatePreviewFilePath(preview, size);
+		if (exists(dest)) {
+			// the preview could have been regenerated during this run, while the requests
+			// that have found the old file are still reading it
+			if (readAttributes(dest).lastModifiedTime().toMillis() < migrationStartedAt) {
+				Files.delete(file);
+			}
+			return;
+		}
+		
+		Files.createDirectories(dest.getParent());
+		linkOrCopy(file, dest);
+		fileSyncer.sync(dest.getParent());
 	}
 	
+	// The other references are counted with a locking read and the file is removed while
+	// the lock is held (that is, before the end of the transaction). A concurrent upload of
+	// the same content waits for the lock when it adds a reference and only after that looks for
+	// the file, so it either prevents the removal or stores the content again.
 	@Override
 	public void removeIfPossible(ImageInfoDto image) {
-		Path dest = generateFilePath(storageDir, image);
+		Path dest = null;
 		try {
+			String hash = imageBlobDao.findHashByImageId(image.getId());
+			if (hash == null) {
+				dest = generateFilePath(storageDir, image);
+			
+			} else if (imageBlobDao.countOtherReferences(hash, image.getId()) == 0) {
+				dest = generateBlobPath(hash);
+			
+			} else {
+				log.info("Image #{}: content is used by other images, keep it", image.getId());
+				return;
+			}
+			
 			Files.deleteIfExists(dest);
 		} catch (Exception ex) { // NOPMD: AvoidCatchingGenericException
 			log.warn("Couldn't delete file {}: {}", dest, ex.getMessage());
@@ -128,20 +246,79 @@ public class FilesystemImagePersistenceStrategy implements ImagePersistenceStrat
 	}
 	
 	// protected to allow spying
-	protected void writeToFile(MultipartFile file, Path dest) throws IOException {
+	protected Path generateBlobPath(String hash) {
+		// 2 levels of directories with 256 subdirectories on each of them
+		return storageDir.toPath()
+			.resolve(hash.substring(0, 2))
+			.resolve(hash.substring(2, 4))
+			.resolve(hash);
+	}
+	
+	// protected to allow spying
+	@SuppressWarnings("checkstyle:magicnumber")
+	protected Path generatePreviewFilePath(ImageInfoDto preview, PreviewSize size) {
+		// ids are sequential, so their lower bytes are distributed evenly
+		int id = preview.getId();
+		return previewDir.toPath()
+			.resolve(String.format("%02x", id & 0xFF))
+			.resolve(String.format("%02x", (id >>> 8) & 0xFF))
+			.resolve(generatePreviewFileName(preview, size));
+	}
+	
+	// protected to allow spying
+	protected Path generateFlatPreviewFilePath(ImageInfoDto preview, PreviewSize size) {
+		return new File(previewDir, generatePreviewFileName(preview, size)).toPath();
+	}
+	
+	// protected to allow spying
+	protected String writeToFile(MultipartFile file, Path dest) throws IOException {
+		MessageDigest digest = createDigest();
+		
 		// we can't use file.transferTo(dest) there because it creates file
 		// relatively to directory from spring.http.multipart.location
 		// in application.properties
 		// See for details: https://jira.spring.io/browse/SPR-12650
-		Files.copy(file.getInputStream(), dest);
+		try (InputStream in = new DigestInputStream(file.getInputStream(), digest)) {
+			Files.copy(in, dest, StandardCopyOption.REPLACE_EXISTING);
+		}
+		
+		return toHex(digest.digest());
 	}
-
+	
+	// protected to allow spying
+	protected void writeToFile(byte[] data, Path dest, boolean replaceExisting)
+		throws IOException {
+		
+		Files.createDirectories(dest.getParent());
+		
+		Path tmp = createTempFile(dest.getParent(), "." + dest.getFileName());
+		try {
+			Files.write(tmp, data, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			fileSyncer.sync(tmp);
+			
+			if (replaceExisting) {
+				moveAtomically(tmp, dest);
+			} else {
+				// fails when the file exists to prevent unexpected rewriting of it
+				Files.move(tmp, dest);
+			}
+			fileSyncer.sync(dest.getParent());
+		
+		} catch (IOException ex) {
+			deleteQuietly(tmp);
+			throw ex;
+		}
+	}
+	
 	// protected to allow spying
-	protected void writeToFile(byte[] data, Path dest) throws IOException {
-		// Default mode is: CREATE, WRITE, and TRUNCATE_EXISTING.
-		// To prevent unexpected rewriting of existing file, we're overriding this behavior by
-		// explicitly specifying options.
-		Files.write(dest, data, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+	protected Path createTempFile(Path dir, String prefix) throws IOException {
+		return Files.createTempFile(dir, prefix, ".tmp");
+	}
+	
+	// protected to allow spying
+	protected void moveAtomically(Path source, Path dest) throws IOException {
+		// on POSIX systems an atomic rename replaces the existing file
+		Files.move(source, dest, StandardCopyOption.ATOMIC_MOVE);
 	}
 	
 	// protected to allow spying
@@ -150,12 +327,11 @@ public class FilesystemImagePersistenceStrategy implements ImagePersistenceStrat
 	}
 	
 	// protected to allow spying
-	protected byte[] toByteArray(Path dest) throws IOException {
-		return Files.readAllBytes(dest);
+	protected BasicFileAttributes readAttributes(Path dest) throws IOException {
+		return Files.readAttributes(dest, BasicFileAttributes.class);
 	}
-
-	private ImageDto get(File dir, ImageInfoDto image, boolean logWarning) {
-		Path dest = generateFilePath(dir, image);
+	
+	private ImageDto get(Path dest, ImageInfoDto image, boolean logWarning) {
 		if (!exists(dest)) {
 			if (logWarning) {
 				log.warn(
@@ -168,14 +344,108 @@ public class FilesystemImagePersistenceStrategy implements ImagePersistenceStrat
 		}
 		
 		try {
-			byte[] content = toByteArray(dest);
-			return new ImageDto(image.getType(), content);
+			// the content will be read only when it's actually needed
+			BasicFileAttributes attributes = readAttributes(dest);
+			return new FilesystemImageDto(image.getType(), dest, attributes);
 		
 		} catch (IOException ex) {
 			throw new ImagePersistenceException(ex);
 		}
 	}
 	
+	private void writeContent(MultipartFile file, ImageInfoDto image) throws IOException {
+		// The hash is unknown until the whole content has been read, so at first it's
+		// written into a temporary file that then is either renamed or removed.
+		Path tmp = createTempFile(storageDir.toPath(), ".upload");
+		try {
+			String hash = writeToFile(file, tmp);
+			
+			// the reference is added before looking for the content to not race
+			// with removeIfPossible()
+			imageBlobDao.add(image.getId(), hash);
+			
+			Path dest = generateBlobPath(hash);
+			if (exists(dest)) {
+				deleteQuietly(tmp);
+				log.info("Image #{}: the same content is already in {}", image.getId(), dest);
+			
+			} else {
+				fileSyncer.sync(tmp);
+				Files.createDirectories(dest.getParent());
+				moveAtomically(tmp, dest);
+				fileSyncer.sync(dest.getParent());
+				log.info("Image data has been written into file {}", dest);
+			}
+		
+		} catch (IOException | RuntimeException ex) { // NOPMD: AvoidCatchingGenericException
+			deleteQuietly(tmp);
+			throw ex;
+		}
+	}
+	
+	private Path findFilePath(ImageInfoDto image) {
+		String hash = imageBlobDao.findHashByImageId(image.getId());
+		if (hash == null) {
+			// the image has been uploaded before introducing content-addressed storage
+			return generateFilePath(storageDir, image);
+		}
+		return generateBlobPath(hash);
+	}
+	
+	private void linkOrCopy(Path source, Path dest) throws IOException {
+		try {
+			// a hard link is created instantly and doesn't require additional space
+			Files.createLink(dest, source);
+		
+		} catch (UnsupportedOperationException ex) {
+			Path tmp = createTempFile(dest.getParent(), ".migration");
+			try {
+				Files.copy(source, tmp, StandardCopyOption.REPLACE_EXISTING);
+				fileSyncer.sync(tmp);
+				moveAtomically(tmp, dest);
+			
+			} catch (IOException copyEx) {
+				deleteQuietly(tmp);
+				throw copyEx;
+			}
+		}
+	}
+	
+	private void deleteQuietly(Path path) {
+		try {
+			Files.deleteIfExists(path);
+		} catch (IOException ex) {
+			log.warn("Couldn't delete temporary file {}: {}", path, ex.getMessage());
+		}
+	}
+	
+	private static String hashFile(Path file) throws IOException {
+		MessageDigest digest = createDigest();
+		try (InputStream in = Files.newInputStream(file)) {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int read;
+			while ((read = in.read(buffer)) != -1) { // NOPMD: AssignmentInOperand
+				digest.update(buffer, 0, read);
+			}
+		}
+		return toHex(digest.digest());
+	}
+	
+	private static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance(HASH_ALGORITHM);
+		} catch (NoSuchAlgorithmException ex) {
+			// every implementation of the Java platform is required to support SHA-256
+			throw new IllegalStateException(ex);
+		}
+	}
+	
+	@SuppressWarnings("checkstyle:magicnumber")
+	private static String toHex(byte[] hash) {
+		// 2 characters per byte, leading zeroes are preserved
+		return String.format("%0" + hash.length * 2 + "x", new BigInteger(1, hash));
+	}
+	
 	private static String generateFileName(ImageInfoDto image) {
 		// TODO(performance): specify initial capacity explicitly
 		return new StringBuilder()
@@ -185,4 +455,18 @@ public class FilesystemImagePersistenceStrategy implements ImagePersistenceStrat
 			.toString();
 	}
 	
+	private static String generatePreviewFileName(ImageInfoDto preview, PreviewSize size) {
+		// previews of the default size are named as before introducing other sizes
+		if (size == PreviewSize.DEFAULT) {
+			return generateFileName(preview);
+		}
+		return new StringBuilder()
+			.append(preview.getId())
+			.append('-')
+			.append(size.getName())
+			.append('.')
+			.append(preview.getType().toLowerCase(Locale.ENGLISH))
+			.toString();
+	}
+	
 }
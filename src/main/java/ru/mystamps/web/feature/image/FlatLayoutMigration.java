@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.feature.image;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.dao.DataIntegrityViolationException;
+
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Moves images and previews from the flat directories into the sharded layout.
+ *
+ * It works in background while the application serves requests: a file is copied into a new
+ * place and the old one is removed only on the next launch, so the requests that have found
+ * the old place still can read it. The migration is idempotent, so it can be interrupted and
+ * started again on the next launch. Images that don't exist in database are moved into
+ * the "orphaned" subdirectory, so they don't break the migration on every launch.
+ */
+@RequiredArgsConstructor
+public class FlatLayoutMigration implements ApplicationListener<ApplicationReadyEvent> {
+	
+	// <id>.<type>, for example, 1.png
+	private static final Pattern ORIGINAL_NAME = Pattern.compile("([0-9]+)\\.(png|jpeg)");
+	
+	// <id>[-<size>].<format>, for example, 1.jpeg or 1-thumb.webp
+	private static final Pattern PREVIEW_NAME =
+		Pattern.compile("([0-9]+)(?:-([a-z]+))?\\.([a-z]+)");
+	
+	private static final String ORPHANED_DIR = "orphaned";
+	
+	private final Logger log;
+	private final FilesystemImagePersistenceStrategy strategy;
+	private final Executor executor;
+	private final String storageDir;
+	private final String previewDir;
+	
+	@Override
+	public void onApplicationEvent(ApplicationReadyEvent event) {
+		executor.execute(this::migrate);
+	}
+	
+	@SuppressWarnings("PMD.AvoidCatchingGenericException")
+	public void migrate() {
+		log.info("Migration of images to the sharded layout has been started");
+		
+		long startedAt = System.currentTimeMillis();
+		try {
+			int originals = migrateOriginals();
+			int previews = migratePreviews(startedAt);
+			
+			if (Thread.currentThread().isInterrupted()) {
+				log.info("Migration of images has been interrupted and will be continued later");
+				return;
+			}
+			
+			log.info(
+				"Migration of images has been completed: {} image(s), {} preview(s) were processed",
+				originals,
+				previews
+			);
+			
+		} catch (IOException | RuntimeException ex) {
+			log.error("Migration of images has failed", ex);
+		}
+	}
+	
+	@SuppressWarnings("PMD.AvoidCatchingGenericException")
+	private int migrateOriginals() throws IOException {
+		int migrated = 0;
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(Paths.get(storageDir))) {
+			for (Path file : files) {
+				// the application is being stopped
+				if (Thread.currentThread().isInterrupted()) {
+					break;
+				}
+				
+				Matcher matcher = ORIGINAL_NAME.matcher(file.getFileName().toString());
+				if (!matcher.matches() || !Files.isRegularFile(file)) {
+					continue;
+				}
+				
+				Integer imageId = Integer.valueOf(matcher.group(1));
+				try {
+					strategy.migrateOriginal(file, imageId);
+					migrated++;
+				} catch (DataIntegrityViolationException ex) {
+					// there is no such image in database, for example, because of a failed upload
+					moveToOrphaned(file, imageId);
+				} catch (IOException | RuntimeException ex) {
+					log.warn("Couldn't migrate image {}: {}", file, ex.getMessage());
+				}
+			}
+		}
+		return migrated;
+	}
+	
+	private int migratePreviews(long startedAt) throws IOException {
+		int migrated = 0;
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(Paths.get(previewDir))) {
+			for (Path file : files) {
+				// the application is being stopped
+				if (Thread.currentThread().isInterrupted()) {
+					break;
+				}
+				
+				String name = file.getFileName().toString().toLowerCase(Locale.ENGLISH);
+				Matcher matcher = PREVIEW_NAME.matcher(name);
+				if (!matcher.matches() || !Files.isRegularFile(file)) {
+					continue;
+				}
+				
+				String sizeName = matcher.group(2);
+				PreviewSize size =
+					sizeName == null ? PreviewSize.DEFAULT : PreviewSize.fromName(sizeName);
+				if (size == null) {
+					log.warn("Preview {} has unknown size, skip it", file);
+					continue;
+				}
+				
+				Integer imageId = Integer.valueOf(matcher.group(1));
+				ImageInfoDto preview = new ImageInfoDto(imageId, matcher.group(3));
+				try {
+					strategy.migratePreview(file, preview, size, startedAt);
+					migrated++;
+				} catch (IOException ex) {
+					log.warn("Couldn't migrate preview {}: {}", file, ex.getMessage());
+				}
+			}
+		}
+		return migrated;
+	}
+	
+	private void moveToOrphaned(Path file, Integer imageId) {
+		Path dest = Paths.get(storageDir, ORPHANED_DIR).resolve(file.getFileName());
+		try {
+			Files.createDirectories(dest.getParent());
+			Files.move(file, dest, StandardCopyOption.REPLACE_EXISTING);
+			log.warn(
+				"Image #{}: not found in database, file {} has been moved to {}",
+				imageId,
+				file,
+				dest
+			);
+		} catch (IOException ex) {
+			log.warn("Couldn't move orphaned image {}: {}", file, ex.getMessage());
+		}
+	}
+	
+}
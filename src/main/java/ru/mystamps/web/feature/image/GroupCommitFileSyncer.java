@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.feature.image;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Groups sync requests from the concurrent writers.
+ *
+ * The first writer waits a bit for the others, then syncs all the requested paths at once and
+ * wakes up the writers. Each path is synced only once per a group, so when several files are
+ * written into the same directory, it's synced once instead of after each file.
+ */
+@RequiredArgsConstructor
+public class GroupCommitFileSyncer implements FileSyncer {
+	
+	private final Logger log;
+	private final FileSyncer syncer;
+	private final long maxDelayMillis;
+	
+	private final Object lock = new Object();
+	
+	// guarded by the lock
+	private Map<Path, CompletableFuture<Void>> pending = new LinkedHashMap<>();
+	
+	// guarded by the lock
+	private boolean flushScheduled;
+	
+	@Override
+	public void sync(Path path) throws IOException {
+		CompletableFuture<Void> result;
+		boolean leader;
+		synchronized (lock) {
+			result = pending.computeIfAbsent(path, key -> new CompletableFuture<>());
+			leader = !flushScheduled;
+			flushScheduled = true;
+		}
+		
+		if (leader) {
+			waitForOthers();
+			flush();
+		}
+		
+		await(result);
+	}
+	
+	private void waitForOthers() {
+		try {
+			TimeUnit.MILLISECONDS.sleep(maxDelayMillis);
+		} catch (InterruptedException ex) {
+			// sync without waiting but keep the flag for the caller
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	@SuppressWarnings("PMD.AvoidCatchingGenericException")
+	private void flush() {
+		Map<Path, CompletableFuture<Void>> batch;
+		synchronized (lock) {
+			batch = pending;
+			pending = new LinkedHashMap<>();
+			flushScheduled = false;
+		}
+		
+		for (Map.Entry<Path, CompletableFuture<Void>> entry : batch.entrySet()) {
+			try {
+				syncer.sync(entry.getKey());
+				entry.getValue().complete(null);
+			} catch (IOException | RuntimeException ex) {
+				// the writers must not wait forever
+				entry.getValue().completeExceptionally(ex);
+			}
+		}
+		
+		log.debug("{} path(s) have been synced at once", batch.size());
+	}
+	
+	private static void await(CompletableFuture<Void> result) throws IOException {
+		try {
+			result.get();
+			
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for sync");
+			
+		} catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException)cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+	
+}
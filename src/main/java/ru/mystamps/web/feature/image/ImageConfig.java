@@ -17,17 +17,30 @@
  */
 package ru.mystamps.web.feature.image;
 
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.commons.lang3.StringUtils;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
 import org.slf4j.LoggerFactory;
 
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
 import org.springframework.context.annotation.Profile;
 import org.springframework.core.env.Environment;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import lombok.RequiredArgsConstructor;
 
+import ru.mystamps.web.support.spring.concurrent.TimedThreadPoolTaskExecutor;
+
 /**
  * Spring configuration that is required for using images in an application.
  *
@@ -41,31 +54,115 @@ public class ImageConfig {
 	public static class Controllers {
 		
 		private final ImageService imageService;
+		private final PreviewRegenerationService previewRegenerationService;
 		
 		@Bean
 		public ImageController imageController() {
-			return new ImageController(imageService);
+			return new ImageController(imageService, previewRegenerationService);
 		}
 		
 	}
 	
 	@RequiredArgsConstructor
-	@Import({ DbStrategyConfig.class, FsStrategyConfig.class })
+	@Import({ DbStrategyConfig.class, PersistentStrategyConfig.class })
 	public static class Services {
 		
 		private final NamedParameterJdbcTemplate jdbcTemplate;
 		private final ImagePersistenceStrategy imagePersistenceStrategy;
+		private final PlatformTransactionManager transactionManager;
+		private final Environment env;
 		
 		@Bean
-		public ImageService imageService(ImageDao imageDao) {
+		public ImageService imageService(
+			ImageDao imageDao,
+			PreviewCache previewCache,
+			@Qualifier("previewExecutor") TimedThreadPoolTaskExecutor previewExecutor) {
+			
+			// a disabled cache would only copy all the previews into memory
+			ImagePersistenceStrategy strategy = imagePersistenceStrategy;
+			if (previewCache.isEnabled()) {
+				strategy = new CachedImagePersistenceStrategy(strategy, previewCache);
+			}
+			
 			return new ImageServiceImpl(
 				LoggerFactory.getLogger(ImageServiceImpl.class),
-				imagePersistenceStrategy,
+				strategy,
 				new TimedImagePreviewStrategy(
 					LoggerFactory.getLogger(TimedImagePreviewStrategy.class),
 					new ThumbnailatorImagePreviewStrategy()
 				),
-				imageDao
+				imageDao,
+				previewExecutor,
+				new TransactionTemplate(transactionManager)
+			);
+		}
+		
+		@Bean
+		public PreviewCache previewCache() {
+			return new PreviewCache(
+				env.getRequiredProperty("app.preview.cache.max-size", Long.class)
+			);
+		}
+		
+		@Bean(name = "previewExecutor")
+		public TimedThreadPoolTaskExecutor previewExecutor() {
+			// generation of previews is CPU bound, so there is no reason to have more threads
+			int threads = Runtime.getRuntime().availableProcessors();
+			
+			TimedThreadPoolTaskExecutor executor = new TimedThreadPoolTaskExecutor(
+				LoggerFactory.getLogger(TimedThreadPoolTaskExecutor.class)
+			);
+			executor.setThreadNamePrefix("preview-");
+			executor.setCorePoolSize(threads);
+			executor.setMaxPoolSize(threads);
+			executor.setQueueCapacity(
+				env.getRequiredProperty("app.preview.generation.queue-capacity", Integer.class)
+			);
+			// previews that haven't been generated will be generated on the first request
+			executor.setWaitForTasksToCompleteOnShutdown(false);
+			return executor;
+		}
+		
+		@Bean
+		public PreviewRegenerationService previewRegenerationService(
+			ImageService imageService,
+			ImageDao imageDao,
+			@Qualifier("previewRegenerationExecutor")
+				TimedThreadPoolTaskExecutor previewRegenerationExecutor,
+			ForkJoinPool previewRegenerationPool) {
+			
+			return new PreviewRegenerationServiceImpl(
+				LoggerFactory.getLogger(PreviewRegenerationServiceImpl.class),
+				imageDao,
+				imageService,
+				previewRegenerationExecutor,
+				previewRegenerationPool,
+				env.getRequiredProperty("app.preview.regeneration.page-size", Integer.class)
+			);
+		}
+		
+		// runs the jobs, while their images are processed by the pool below
+		@Bean(name = "previewRegenerationExecutor")
+		public TimedThreadPoolTaskExecutor previewRegenerationExecutor() {
+			TimedThreadPoolTaskExecutor executor = new TimedThreadPoolTaskExecutor(
+				LoggerFactory.getLogger(TimedThreadPoolTaskExecutor.class)
+			);
+			executor.setThreadNamePrefix("preview-regeneration-");
+			// only one job is running at a time, but the next one could be started
+			// while the previous one is finishing
+			executor.setCorePoolSize(1);
+			executor.setMaxPoolSize(1);
+			executor.setQueueCapacity(1);
+			// a stopped job continues from the last processed page on the next start
+			executor.setWaitForTasksToCompleteOnShutdown(false);
+			return executor;
+		}
+		
+		// only one job is running at a time, so all of them share the same pool
+		@Bean(destroyMethod = "shutdown")
+		public ForkJoinPool previewRegenerationPool() {
+			return new ForkJoinPool(
+				env.getRequiredProperty("app.preview.regeneration.parallelism", Integer.class)
 			);
 		}
 		
@@ -97,21 +194,163 @@ public class ImageConfig {
 		
 	}
 	
+	/**
+	 * Images are stored on a filesystem unless the "objectstorage" profile is active.
+	 */
 	@Profile({ "prod", "travis" })
+	@Import({ FsStrategyConfig.class, ObjectStorageStrategyConfig.class })
+	public static class PersistentStrategyConfig {
+	}
+	
+	@Profile("!objectstorage")
 	@RequiredArgsConstructor
 	public static class FsStrategyConfig {
 		
 		private final Environment env;
+		private final NamedParameterJdbcTemplate jdbcTemplate;
 		
 		@Bean
-		public ImagePersistenceStrategy imagePersistenceStrategy() {
+		public FilesystemImagePersistenceStrategy imagePersistenceStrategy(
+			ImageBlobDao imageBlobDao) {
+			
 			return new FilesystemImagePersistenceStrategy(
 				LoggerFactory.getLogger(FilesystemImagePersistenceStrategy.class),
+				imageBlobDao,
+				createFileSyncer(),
+				env.getRequiredProperty("app.upload.dir"),
+				env.getRequiredProperty("app.preview.dir")
+			);
+		}
+		
+		@Bean
+		public FlatLayoutMigration flatLayoutMigration(
+			FilesystemImagePersistenceStrategy imagePersistenceStrategy,
+			@Qualifier("imagesMigrationExecutor") TimedThreadPoolTaskExecutor executor) {
+			
+			return new FlatLayoutMigration(
+				LoggerFactory.getLogger(FlatLayoutMigration.class),
+				imagePersistenceStrategy,
+				executor,
 				env.getRequiredProperty("app.upload.dir"),
 				env.getRequiredProperty("app.preview.dir")
 			);
 		}
 		
+		@Bean(name = "imagesMigrationExecutor")
+		public TimedThreadPoolTaskExecutor imagesMigrationExecutor() {
+			TimedThreadPoolTaskExecutor executor = new TimedThreadPoolTaskExecutor(
+				LoggerFactory.getLogger(TimedThreadPoolTaskExecutor.class)
+			);
+			executor.setThreadNamePrefix("images-migration-");
+			// the migration is started once on every launch
+			executor.setCorePoolSize(1);
+			executor.setMaxPoolSize(1);
+			executor.setQueueCapacity(1);
+			// the migration is idempotent, so it will be continued on the next launch
+			executor.setWaitForTasksToCompleteOnShutdown(false);
+			return executor;
+		}
+		
+		@Bean
+		public ImageBlobDao imageBlobDao() {
+			return new JdbcImageBlobDao(jdbcTemplate);
+		}
+		
+		private FileSyncer createFileSyncer() {
+			String mode = env.getRequiredProperty("app.upload.fsync");
+			switch (mode) {
+				case "none":
+					return FileSyncer.NONE;
+				case "immediate":
+					return new ImmediateFileSyncer();
+				case "group":
+					return new GroupCommitFileSyncer(
+						LoggerFactory.getLogger(GroupCommitFileSyncer.class),
+						new ImmediateFileSyncer(),
+						env.getRequiredProperty("app.upload.fsync.group-delay", Long.class)
+					);
+				default:
+					throw new IllegalStateException(
+						"Unknown value of app.upload.fsync property: " + mode
+					);
+			}
+		}
+		
+	}
+	
+	@Profile("objectstorage")
+	@RequiredArgsConstructor
+	public static class ObjectStorageStrategyConfig {
+		
+		private final Environment env;
+		
+		@Bean
+		public ImagePersistenceStrategy imagePersistenceStrategy(
+			ObjectStorage objectStorage,
+			@Qualifier("objectStorageExecutor") TimedThreadPoolTaskExecutor executor) {
+			
+			return new ObjectStorageImagePersistenceStrategy(
+				LoggerFactory.getLogger(ObjectStorageImagePersistenceStrategy.class),
+				objectStorage,
+				executor,
+				env.getRequiredProperty("app.object-storage.part-size", Integer.class),
+				env.getRequiredProperty("app.object-storage.upload-parallelism", Integer.class),
+				env.getRequiredProperty("app.object-storage.cache-dir"),
+				env.getRequiredProperty("app.object-storage.cache-max-size", Long.class)
+			);
+		}
+		
+		@Bean
+		public ObjectStorage objectStorage(
+			@Qualifier("objectStorageHttpClient") HttpClient httpClient) {
+			
+			String endpoint = env.getProperty("app.object-storage.s3.endpoint");
+			if (StringUtils.isBlank(endpoint)) {
+				return new LocalObjectStorage(
+					env.getRequiredProperty("app.object-storage.local-dir")
+				);
+			}
+			
+			return new S3ObjectStorage(
+				httpClient,
+				endpoint,
+				env.getRequiredProperty("app.object-storage.s3.region"),
+				env.getRequiredProperty("app.object-storage.s3.bucket"),
+				env.getRequiredProperty("app.object-storage.s3.access-key"),
+				env.getRequiredProperty("app.object-storage.s3.secret-key"),
+				env.getRequiredProperty("app.object-storage.s3.timeout", Long.class)
+			);
+		}
+		
+		@Bean(name = "objectStorageHttpClient", initMethod = "start", destroyMethod = "stop")
+		public HttpClient objectStorageHttpClient() {
+			HttpClient client = new HttpClient(new SslContextFactory());
+			QueuedThreadPool threadPool = new QueuedThreadPool();
+			threadPool.setName("object-storage-http");
+			client.setExecutor(threadPool);
+			client.setMaxConnectionsPerDestination(
+				env.getRequiredProperty("app.object-storage.upload-parallelism", Integer.class)
+			);
+			client.setFollowRedirects(false);
+			return client;
+		}
+		
+		@Bean(name = "objectStorageExecutor")
+		public TimedThreadPoolTaskExecutor objectStorageExecutor() {
+			int threads =
+				env.getRequiredProperty("app.object-storage.upload-parallelism", Integer.class);
+			
+			TimedThreadPoolTaskExecutor executor = new TimedThreadPoolTaskExecutor(
+				LoggerFactory.getLogger(TimedThreadPoolTaskExecutor.class)
+			);
+			executor.setThreadNamePrefix("object-storage-");
+			executor.setCorePoolSize(threads);
+			executor.setMaxPoolSize(threads);
+			// parts are throttled by the strategy, so the queue never grows beyond that
+			executor.setWaitForTasksToCompleteOnShutdown(true);
+			return executor;
+		}
+		
 	}
 	
 }
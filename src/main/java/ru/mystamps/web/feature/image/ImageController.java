@@ -18,13 +18,25 @@
 package ru.mystamps.web.feature.image;
 
 import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.List;
 import java.util.Locale;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Controller;
+import org.springframework.util.DigestUtils;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.ServletWebRequest;
 
 import lombok.RequiredArgsConstructor;
 
@@ -34,10 +46,17 @@ import ru.mystamps.web.Url;
 @RequiredArgsConstructor
 public class ImageController {
 	
+	private static final String JPEG = "jpeg";
+	private static final MediaType WEBP = MediaType.valueOf("image/webp");
+	
 	private final ImageService imageService;
+	private final PreviewRegenerationService previewRegenerationService;
 	
 	@GetMapping(Url.GET_IMAGE_PAGE)
-	public void getImage(@PathVariable("id") Integer imageId, HttpServletResponse response)
+	public void getImage(
+		@PathVariable("id") Integer imageId,
+		HttpServletRequest request,
+		HttpServletResponse response)
 		throws IOException {
 		
 		if (imageId == null) {
@@ -50,16 +69,17 @@ public class ImageController {
 			response.sendError(HttpServletResponse.SC_NOT_FOUND);
 			return;
 		}
-
-		// TODO: set content disposition
-		response.setContentType("image/" + image.getType().toLowerCase(Locale.ENGLISH));
-		response.setContentLength(image.getData().length);
 		
-		response.getOutputStream().write(image.getData());
+		// TODO: set content disposition
+		writeImage(image, String.valueOf(imageId), request, response);
 	}
 	
 	@GetMapping(Url.GET_IMAGE_PREVIEW_PAGE)
-	public void getImagePreview(@PathVariable("id") Integer imageId, HttpServletResponse response)
+	public void getImagePreview(
+		@PathVariable("id") Integer imageId,
+		@RequestParam(name = "size", required = false) String sizeName,
+		HttpServletRequest request,
+		HttpServletResponse response)
 		throws IOException {
 		
 		if (imageId == null) {
@@ -67,18 +87,223 @@ public class ImageController {
 			return;
 		}
 		
-		ImageDto image = imageService.getOrCreatePreview(imageId);
+		PreviewSize size = PreviewSize.DEFAULT;
+		if (sizeName != null) {
+			size = PreviewSize.fromName(sizeName);
+			if (size == null) {
+				response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+				return;
+			}
+		}
+		
+		// a format of a preview depends on the Accept header, so caches must take it into account
+		response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+		
+		String format = selectPreviewFormat(request.getHeader(HttpHeaders.ACCEPT));
+		ImageDto image = imageService.getOrCreatePreview(imageId, size, format);
 		if (image == null) {
 			// return original image when error has occurred
-			getImage(imageId, response);
+			getImage(imageId, request, response);
+			return;
+		}
+		
+		String key = imageId + "-" + size.getName() + '-' + format;
+		writeImage(image, key, request, response);
+	}
+	
+	@GetMapping(path = Url.REGENERATE_PREVIEWS, produces = "text/plain; charset=UTF-8")
+	@ResponseBody
+	public String showPreviewsRegenerationStatus() {
+		return formatStatus(previewRegenerationService.getStatus());
+	}
+	
+	@PostMapping(path = Url.REGENERATE_PREVIEWS, produces = "text/plain; charset=UTF-8")
+	@ResponseBody
+	public String startPreviewsRegeneration(
+		@RequestParam(name = "after", required = false) Integer afterImageId) {
+		
+		boolean started = previewRegenerationService.start(afterImageId);
+		
+		String result = started ? "Started\n" : "Already in progress\n";
+		return result + formatStatus(previewRegenerationService.getStatus());
+	}
+	
+	@PostMapping(
+		path = Url.REGENERATE_PREVIEWS,
+		params = "stop",
+		produces = "text/plain; charset=UTF-8"
+	)
+	@ResponseBody
+	public String stopPreviewsRegeneration() {
+		previewRegenerationService.stop();
+		
+		return "Stopping\n" + formatStatus(previewRegenerationService.getStatus());
+	}
+	
+	private static String formatStatus(PreviewRegenerationStatusDto status) {
+		return String.format(
+			"running: %b%n"
+			+ "completed: %b%n"
+			+ "last processed image: %s%n"
+			+ "processed: %d%n"
+			+ "failed: %d%n"
+			+ "elapsed: %d ms%n"
+			+ "throughput: %.1f images/sec%n",
+			status.isRunning(),
+			status.isCompleted(),
+			status.getLastProcessedImageId(),
+			status.getProcessedCounter(),
+			status.getFailedCounter(),
+			status.getElapsedMillis(),
+			status.getThroughput()
+		);
+	}
+	
+	private static void writeImage(
+		ImageDto image,
+		String key,
+		HttpServletRequest request,
+		HttpServletResponse response)
+		throws IOException {
+		
+		long size = image.getSize();
+		long lastModified = image.getLastModified();
+		String etag = generateEtag(key, image);
+		
+		response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+		
+		// sets ETag and Last-Modified headers and responds with 304 Not Modified
+		// when a client already has the same version of the image
+		if (new ServletWebRequest(request, response).checkNotModified(etag, lastModified)) {
 			return;
 		}
 		
 		response.setContentType("image/" + image.getType().toLowerCase(Locale.ENGLISH));
-		response.setContentLength(image.getData().length);
 		
-		response.getOutputStream().write(image.getData());
+		long start = 0;
+		long end = size - 1;
+		
+		String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+		if (rangeHeader != null && ifRangeMatches(request, etag, lastModified)) {
+			// we don't support multipart/byteranges responses, so in the case of multiple
+			// ranges we ignore them and return the whole content (RFC 7233, section 3.1).
+			// An invalid header is ignored in the same way.
+			HttpRange range = getSingleRange(rangeHeader);
+			if (range != null) {
+				start = range.getRangeStart(size);
+				end = range.getRangeEnd(size);
+				if (start >= size || start > end) {
+					sendRangeNotSatisfiable(response, size);
+					return;
+				}
+				
+				response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+				response.setHeader(
+					HttpHeaders.CONTENT_RANGE,
+					"bytes " + start + '-' + end + '/' + size
+				);
+			}
+		}
+		
+		long count = end - start + 1;
+		response.setContentLengthLong(count);
+		
+		image.transferTo(start, count, Channels.newChannel(response.getOutputStream()));
+	}
+	
+	// WebP previews are much smaller than JPEG ones but not all browsers support them.
+	// Note that we don't rely on wildcards because such browsers also send "image/*".
+	private static String selectPreviewFormat(String acceptHeader) {
+		if (acceptHeader == null) {
+			return JPEG;
+		}
+		
+		try {
+			for (MediaType type : MediaType.parseMediaTypes(acceptHeader)) {
+				if (WEBP.includes(type) && type.getQualityValue() > 0) {
+					return WEBP.getSubtype();
+				}
+			}
+		} catch (InvalidMediaTypeException ignored) { // NOPMD: EmptyCatchBlock
+			// just fall back to the default format
+		}
+		
+		return JPEG;
+	}
+	
+	// A key of the image (its id and a kind of a preview) identifies the image but not its
+	// content because previews could be regenerated. To distinguish different contents, we use
+	// a modification time, a version (for images that are stored in a database) or a hash of
+	// the content (for images that are kept in memory).
+	private static String generateEtag(String key, ImageDto image) {
+		String prefix = "\"" + key + '-' + image.getSize() + '-';
+		
+		long lastModified = image.getLastModified();
+		if (lastModified >= 0) {
+			return prefix + lastModified + '"';
+		}
+		
+		String version = image.getVersion();
+		if (version != null) {
+			return prefix + 'v' + version + '"';
+		}
+		
+		return prefix + DigestUtils.md5DigestAsHex(image.getData()) + '"';
+	}
+	
+	// Returns null when a header has multiple ranges or is malformed.
+	private static HttpRange getSingleRange(String rangeHeader) {
+		List<HttpRange> ranges;
+		try {
+			ranges = HttpRange.parseRanges(rangeHeader);
+		} catch (IllegalArgumentException ignored) {
+			return null;
+		}
+		
+		if (ranges.size() != 1) {
+			return null;
+		}
+		return ranges.get(0);
+	}
+	
+	// See for details: https://tools.ietf.org/html/rfc7233#section-3.2
+	private static boolean ifRangeMatches(
+		HttpServletRequest request,
+		String etag,
+		long lastModified) {
+		
+		String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+		if (ifRange == null) {
+			return true;
+		}
+		
+		if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+			return ifRange.equals(etag);
+		}
+		
+		if (lastModified < 0) {
+			return false;
+		}
+		
+		try {
+			long date = request.getDateHeader(HttpHeaders.IF_RANGE);
+			
+			// HTTP dates don't have milliseconds
+			@SuppressWarnings("checkstyle:magicnumber")
+			boolean sameDate = date / 1000 == lastModified / 1000;
+			
+			return sameDate;
+			
+		} catch (IllegalArgumentException ignored) {
+			return false;
+		}
+	}
+	
+	private static void sendRangeNotSatisfiable(HttpServletResponse response, long size)
+		throws IOException {
+		
+		response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+		response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
 	}
 	
 }
-
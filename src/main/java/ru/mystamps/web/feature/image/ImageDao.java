@@ -24,4 +24,7 @@ public interface ImageDao {
 	void addToSeries(Integer seriesId, Integer imageId);
 	ImageInfoDto findById(Integer imageId);
 	List<Integer> findBySeriesId(Integer seriesId);
+	List<ImageInfoDto> findAfterId(Integer imageId, int limit);
+	Integer findLastRegeneratedImageId();
+	void setLastRegeneratedImageId(Integer imageId);
 }
@@ -17,7 +17,14 @@
  */
 package ru.mystamps.web.feature.image;
 
+import java.io.IOException;
+import java.io.OutputStream;
+
 public interface ImageDataDao {
-	ImageDto findByImageId(Integer imageId, boolean preview);
+	DatabaseImageDto findByImageId(Integer imageId, boolean preview);
+	DatabaseImageDto findPreviewByImageId(Integer imageId, String variant);
+	byte[] findContentById(Integer id);
+	void writeContent(Integer id, long position, long count, OutputStream out) throws IOException;
 	Integer add(AddImageDataDbDto imageData);
+	int removePreview(Integer imageId, String variant);
 }
@@ -17,12 +17,56 @@
  */
 package ru.mystamps.web.feature.image;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import lombok.AllArgsConstructor;
 import lombok.Getter;
-import lombok.RequiredArgsConstructor;
 
 @Getter
-@RequiredArgsConstructor
+@AllArgsConstructor
 public class ImageDto {
 	private final String type;
 	private final byte[] data;
+	
+	/**
+	 * The time of the last modification (in milliseconds since the epoch) or -1,
+	 * if it's unknown.
+	 */
+	private final long lastModified;
+	
+	/**
+	 * An identifier of the image content that changes when the content is replaced or null,
+	 * if it's unknown.
+	 */
+	private final String version;
+	
+	public ImageDto(String type, byte[] data) {
+		this(type, data, -1);
+	}
+	
+	public ImageDto(String type, byte[] data, long lastModified) {
+		this(type, data, lastModified, null);
+	}
+	
+	/**
+	 * Returns size of the image content in bytes.
+	 */
+	public long getSize() {
+		return getData().length;
+	}
+	
+	/**
+	 * Writes {@code count} bytes of the image content starting from {@code position}.
+	 */
+	public void transferTo(long position, long count, WritableByteChannel target)
+		throws IOException {
+		
+		ByteBuffer buffer = ByteBuffer.wrap(getData(), (int)position, (int)count);
+		while (buffer.hasRemaining()) {
+			target.write(buffer);
+		}
+	}
+	
 }
@@ -21,8 +21,9 @@ import org.springframework.web.multipart.MultipartFile;
 
 public interface ImagePersistenceStrategy {
 	void save(MultipartFile file, ImageInfoDto image);
-	void savePreview(byte[] data, ImageInfoDto image);
+	void savePreview(byte[] data, ImageInfoDto preview, PreviewSize size);
+	void replacePreview(byte[] data, ImageInfoDto preview, PreviewSize size);
 	ImageDto get(ImageInfoDto image);
-	ImageDto getPreview(ImageInfoDto image);
+	ImageDto getPreview(ImageInfoDto preview, PreviewSize size);
 	void removeIfPossible(ImageInfoDto image);
 }
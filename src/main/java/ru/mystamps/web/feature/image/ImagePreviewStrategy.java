@@ -18,5 +18,6 @@
 package ru.mystamps.web.feature.image;
 
 public interface ImagePreviewStrategy {
-	byte[] createPreview(byte[] image);
+	byte[] createPreview(byte[] image, PreviewSize size, String format);
+	boolean isSupportedFormat(String format);
 }
@@ -24,7 +24,8 @@ import org.springframework.web.multipart.MultipartFile;
 public interface ImageService {
 	ImageInfoDto save(MultipartFile file);
 	ImageDto get(Integer imageId);
-	ImageDto getOrCreatePreview(Integer imageId);
+	ImageDto getOrCreatePreview(Integer imageId, PreviewSize size, String format);
+	void regeneratePreviews(ImageInfoDto image);
 	void addToSeries(Integer seriesId, Integer imageId);
 	List<Integer> findBySeriesId(Integer seriesId);
 	void removeIfPossible(ImageInfoDto imageInfo);
@@ -17,15 +17,27 @@
  */
 package ru.mystamps.web.feature.image;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.tuple.Pair;
 
 import org.slf4j.Logger;
 
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionOperations;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.web.multipart.MultipartFile;
 
 import org.springframework.security.access.prepost.PreAuthorize;
@@ -42,10 +54,22 @@ import static org.apache.commons.lang3.StringUtils.substringBefore;
 @RequiredArgsConstructor
 public class ImageServiceImpl implements ImageService {
 	
+	// a format that is supported by all browsers
+	private static final String DEFAULT_PREVIEW_FORMAT = "jpeg";
+	
+	// a format that is served only to the browsers that support it
+	private static final String WEBP_PREVIEW_FORMAT = "webp";
+	
 	private final Logger log;
 	private final ImagePersistenceStrategy imagePersistenceStrategy;
 	private final ImagePreviewStrategy imagePreviewStrategy;
 	private final ImageDao imageDao;
+	private final Executor previewExecutor;
+	private final TransactionOperations transactionOperations;
+	
+	// (preview info, size) -> preview that is being generated
+	private final ConcurrentMap<Pair<ImageInfoDto, PreviewSize>, CompletableFuture<ImageDto>>
+		previewsInProgress = new ConcurrentHashMap<>();
 	
 	@Override
 	@Transactional
@@ -80,6 +104,8 @@ public class ImageServiceImpl implements ImageService {
 		
 		imagePersistenceStrategy.save(file, imageInfo);
 		
+		generatePreviewAfterCommit(imageId);
+		
 		return imageInfo;
 	}
 	
@@ -99,29 +125,72 @@ public class ImageServiceImpl implements ImageService {
 	
 	@Override
 	@Transactional
-	public ImageDto getOrCreatePreview(Integer imageId) {
+	public ImageDto getOrCreatePreview(Integer imageId, PreviewSize size, String format) {
 		Validate.isTrue(imageId != null, "Image id must be non null");
 		Validate.isTrue(imageId > 0, "Image id must be greater than zero");
+		Validate.isTrue(size != null, "Preview size must be non null");
+		Validate.isTrue(format != null, "Preview format must be non null");
 		
 		if (!Features.SHOW_IMAGES_PREVIEW.isActive()) {
 			return null;
 		}
 		
-		ImageInfoDto previewInfo = new ImageInfoDto(imageId, "jpeg");
+		String previewFormat = format.toLowerCase(Locale.ENGLISH);
+		if (!imagePreviewStrategy.isSupportedFormat(previewFormat)) {
+			previewFormat = DEFAULT_PREVIEW_FORMAT;
+		}
+		
+		ImageInfoDto previewInfo = new ImageInfoDto(imageId, previewFormat);
 
-		// NB: the race between getPreview() and createReview() is possible.
-		// If this happens, the last request will overwrite the first.
-		ImageDto image = imagePersistenceStrategy.getPreview(previewInfo);
+		ImageDto image = imagePersistenceStrategy.getPreview(previewInfo, size);
 		if (image != null) {
 			return image;
 		}
 		
-		image = get(imageId);
-		if (image == null) {
-			return null;
+		// Only one request generates a preview, the concurrent requests for the same image
+		// are waiting for its result instead of doing the same work.
+		Pair<ImageInfoDto, PreviewSize> key = Pair.of(previewInfo, size);
+		CompletableFuture<ImageDto> task = new CompletableFuture<>();
+		CompletableFuture<ImageDto> inProgress = previewsInProgress.putIfAbsent(key, task);
+		if (inProgress != null) {
+			log.debug("Image #{}: waiting for a preview that is being generated", imageId);
+			return awaitPreview(imageId, inProgress);
+		}
+		
+		try {
+			ImageDto preview = findOrCreatePreview(previewInfo, size);
+			task.complete(preview);
+			return preview;
+			
+		} catch (RuntimeException ex) {
+			task.completeExceptionally(ex);
+			throw ex;
+			
+		} finally {
+			releaseAfterCompletion(key, task);
 		}
-
-		return createPreview(previewInfo, image.getData());
+	}
+	
+	@Override
+	@Transactional
+	public void regeneratePreviews(ImageInfoDto image) {
+		Validate.isTrue(image != null, "Image info must be non null");
+		
+		ImageDto original = imagePersistenceStrategy.get(image);
+		if (original == null) {
+			throw new ImagePersistenceException("Image #" + image.getId() + " not found");
+		}
+		
+		byte[] data = original.getData();
+		for (String format : getPreviewFormats()) {
+			ImageInfoDto previewInfo = new ImageInfoDto(image.getId(), format);
+			for (PreviewSize size : PreviewSize.values()) {
+				byte[] preview = imagePreviewStrategy.createPreview(data, size, format);
+				imagePersistenceStrategy.replacePreview(preview, previewInfo, size);
+			}
+		}
+		
+		log.debug("Image #{}: previews have been regenerated", image.getId());
 	}
 	
 	@Override
@@ -151,13 +220,110 @@ public class ImageServiceImpl implements ImageService {
 		imagePersistenceStrategy.removeIfPossible(imageInfo);
 	}
 	
-	private ImageDto createPreview(ImageInfoDto previewInfo, byte[] image) {
+	// A preview is generated in background after the image has been committed to database,
+	// so the user who uploads an image doesn't wait for it and the first visitor of a series
+	// page gets an already generated preview.
+	private void generatePreviewAfterCommit(Integer imageId) {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			generatePreviewInBackground(imageId);
+			return;
+		}
+		
+		TransactionSynchronizationManager.registerSynchronization(
+			new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					generatePreviewInBackground(imageId);
+				}
+			}
+		);
+	}
+	
+	// The preview is visible to the other requests only after the transaction has been
+	// committed, so until then they should wait for the task instead of generating it again.
+	private void releaseAfterCompletion(
+		Pair<ImageInfoDto, PreviewSize> key,
+		CompletableFuture<ImageDto> task) {
+		
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			previewsInProgress.remove(key, task);
+			return;
+		}
+		
+		TransactionSynchronizationManager.registerSynchronization(
+			new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCompletion(int status) {
+					previewsInProgress.remove(key, task);
+				}
+			}
+		);
+	}
+	
+	@SuppressWarnings("PMD.AvoidCatchingGenericException")
+	private void generatePreviewInBackground(Integer imageId) {
 		try {
-			byte[] preview = imagePreviewStrategy.createPreview(image);
+			previewExecutor.execute(() -> {
+				try {
+					// it's a self-invocation that bypasses the transactional proxy,
+					// so the transaction has to be started explicitly
+					transactionOperations.execute(status ->
+						getOrCreatePreview(imageId, PreviewSize.DEFAULT, DEFAULT_PREVIEW_FORMAT)
+					);
+				} catch (RuntimeException ex) {
+					log.warn("Image #{}: couldn't generate preview in background", imageId, ex);
+				}
+			});
 			
-			imagePersistenceStrategy.savePreview(preview, previewInfo);
+		} catch (RejectedExecutionException ex) {
+			// it's not a problem because a preview will be generated on the first request
+			log.info(
+				"Image #{}: preview generation has been postponed: {}",
+				imageId,
+				ex.getMessage()
+			);
+		}
+	}
+	
+	private ImageDto findOrCreatePreview(ImageInfoDto previewInfo, PreviewSize size) {
+		// a preview could have been created by another request while we were
+		// checking whether it was in progress
+		ImageDto preview = imagePersistenceStrategy.getPreview(previewInfo, size);
+		if (preview != null) {
+			return preview;
+		}
+		
+		ImageDto image = get(previewInfo.getId());
+		if (image == null) {
+			return null;
+		}
+		
+		return createPreview(previewInfo, size, image.getData());
+	}
+	
+	private ImageDto awaitPreview(Integer imageId, CompletableFuture<ImageDto> task) {
+		try {
+			return task.get();
+			
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			log.warn("Image #{}: interrupted while waiting for a preview", imageId);
+			return null;
+			
+		} catch (ExecutionException ex) {
+			log.warn("Image #{}: couldn't get preview", imageId, ex.getCause());
+			return null;
+		}
+	}
+	
+	private ImageDto createPreview(ImageInfoDto previewInfo, PreviewSize size, byte[] image) {
+		try {
+			String format = previewInfo.getType();
+			byte[] preview = imagePreviewStrategy.createPreview(image, size, format);
+			
+			imagePersistenceStrategy.savePreview(preview, previewInfo, size);
 			
-			return new ImageDto("jpeg", preview);
+			return new ImageDto(format, preview);
 			
 		} catch (CreateImagePreviewException | ImagePersistenceException ex) {
 			log.warn("Image #{}: couldn't create/save preview", previewInfo.getId(), ex);
@@ -165,6 +331,13 @@ public class ImageServiceImpl implements ImageService {
 		}
 	}
 	
+	private List<String> getPreviewFormats() {
+		if (imagePreviewStrategy.isSupportedFormat(WEBP_PREVIEW_FORMAT)) {
+			return Arrays.asList(DEFAULT_PREVIEW_FORMAT, WEBP_PREVIEW_FORMAT);
+		}
+		return Collections.singletonList(DEFAULT_PREVIEW_FORMAT);
+	}
+	
 	private static String extractExtensionFromContentType(String contentType) {
 		// "image/jpeg; charset=UTF-8" -> "jpeg"
 		return substringBefore(substringAfter(contentType, "/"), ";");
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.feature.image;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.lang3.Validate;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import lombok.RequiredArgsConstructor;
+
+@RequiredArgsConstructor
+public class JdbcImageBlobDao implements ImageBlobDao {
+	
+	private final NamedParameterJdbcTemplate jdbcTemplate;
+	
+	@Value("${image_blob.add}")
+	private String addImageBlobSql;
+	
+	@Value("${image_blob.find_hash_by_image_id}")
+	private String findHashByImageIdSql;
+	
+	@Value("${image_blob.count_other_references}")
+	private String countOtherReferencesSql;
+	
+	@Override
+	public void add(Integer imageId, String hash) {
+		Map<String, Object> params = new HashMap<>();
+		params.put("image_id", imageId);
+		params.put("hash", hash);
+		
+		int affected = jdbcTemplate.update(addImageBlobSql, params);
+		
+		Validate.validState(
+			affected == 1,
+			"Unexpected number of affected rows after adding image's blob: %d",
+			affected
+		);
+	}
+	
+	@Override
+	public String findHashByImageId(Integer imageId) {
+		try {
+			return jdbcTemplate.queryForObject(
+				findHashByImageIdSql,
+				Collections.singletonMap("image_id", imageId),
+				String.class
+			);
+		} catch (EmptyResultDataAccessException ignored) {
+			return null;
+		}
+	}
+	
+	@Override
+	public long countOtherReferences(String hash, Integer imageId) {
+		Map<String, Object> params = new HashMap<>();
+		params.put("hash", hash);
+		params.put("image_id", imageId);
+		
+		return jdbcTemplate.queryForObject(countOtherReferencesSql, params, Long.class);
+	}
+	
+}
@@ -52,6 +52,15 @@ public class JdbcImageDao implements ImageDao {
 	@Value("${series_image.find_by_series_id}")
 	private String findBySeriesIdSql;
 	
+	@Value("${image.find_after_id}")
+	private String findAfterIdSql;
+	
+	@Value("${previews_regeneration.find_last_image_id}")
+	private String findLastRegeneratedImageIdSql;
+	
+	@Value("${previews_regeneration.set_last_image_id}")
+	private String setLastRegeneratedImageIdSql;
+	
 	@Override
 	public Integer add(String type, String filename) {
 		Map<String, Object> params = new HashMap<>();
@@ -101,4 +110,36 @@ public class JdbcImageDao implements ImageDao {
 		);
 	}
 	
+	@Override
+	public List<ImageInfoDto> findAfterId(Integer imageId, int limit) {
+		Map<String, Object> params = new HashMap<>();
+		params.put("id", imageId);
+		params.put("limit", limit);
+		
+		return jdbcTemplate.query(findAfterIdSql, params, RowMappers::forImageInfoDto);
+	}
+	
+	@Override
+	public Integer findLastRegeneratedImageId() {
+		return jdbcTemplate.queryForObject(
+			findLastRegeneratedImageIdSql,
+			Collections.emptyMap(),
+			Integer.class
+		);
+	}
+	
+	@Override
+	public void setLastRegeneratedImageId(Integer imageId) {
+		int affected = jdbcTemplate.update(
+			setLastRegeneratedImageIdSql,
+			Collections.singletonMap("image_id", imageId)
+		);
+		
+		Validate.validState(
+			affected == 1,
+			"Unexpected number of affected rows after saving progress of previews regeneration: %d",
+			affected
+		);
+	}
+	
 }
@@ -17,6 +17,13 @@
  */
 package ru.mystamps.web.feature.image;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -24,28 +31,39 @@ import org.apache.commons.lang3.Validate;
 
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.ResultSetExtractor;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.support.SqlLobValue;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
 
 import lombok.RequiredArgsConstructor;
 
-import ru.mystamps.web.support.jdbc.RowMappers;
-
 @RequiredArgsConstructor
 public class JdbcImageDataDao implements ImageDataDao {
 	
+	private static final int BUFFER_SIZE = 8192;
+	
 	private final NamedParameterJdbcTemplate jdbcTemplate;
 	
 	@Value("${image_data.find_by_image_id}")
 	private String findByImageIdSql;
 	
+	@Value("${image_data.find_preview_by_image_id}")
+	private String findPreviewByImageIdSql;
+	
+	@Value("${image_data.find_content_by_id}")
+	private String findContentByIdSql;
+	
 	@Value("${image_data.add}")
 	private String addImageDataSql;
 	
+	@Value("${image_data.remove_preview}")
+	private String removePreviewSql;
+	
 	@Override
-	public ImageDto findByImageId(Integer imageId, boolean preview) {
+	public DatabaseImageDto findByImageId(Integer imageId, boolean preview) {
 		Map<String, Object> params = new HashMap<>();
 		params.put("image_id", imageId);
 		params.put("preview", preview);
@@ -54,19 +72,76 @@ public class JdbcImageDataDao implements ImageDataDao {
 			return jdbcTemplate.queryForObject(
 				findByImageIdSql,
 				params,
-				RowMappers::forImageDto
+				this::toDatabaseImageDto
+			);
+		} catch (EmptyResultDataAccessException ignored) {
+			return null;
+		}
+	}
+	
+	@Override
+	public DatabaseImageDto findPreviewByImageId(Integer imageId, String variant) {
+		Map<String, Object> params = new HashMap<>();
+		params.put("image_id", imageId);
+		params.put("variant", variant);
+		
+		try {
+			return jdbcTemplate.queryForObject(
+				findPreviewByImageIdSql,
+				params,
+				this::toDatabaseImageDto
+			);
+		} catch (EmptyResultDataAccessException ignored) {
+			return null;
+		}
+	}
+	
+	@Override
+	public byte[] findContentById(Integer id) {
+		try {
+			return jdbcTemplate.queryForObject(
+				findContentByIdSql,
+				Collections.singletonMap("id", id),
+				(rs, i) -> rs.getBytes("content")
 			);
 		} catch (EmptyResultDataAccessException ignored) {
 			return null;
 		}
 	}
 	
+	// The content is copied while the result set is still open, so we don't create
+	// a byte array with the whole BLOB. Note that a driver may still read the whole value
+	// along with the row: H2 and MySQL Connector/J (unless emulateLocators=true) do this.
+	@Override
+	public void writeContent(Integer id, long position, long count, OutputStream out)
+		throws IOException {
+		
+		ResultSetExtractor<Void> copier = rs -> {
+			if (!rs.next()) {
+				throw new EmptyResultDataAccessException(1);
+			}
+			try (InputStream in = rs.getBinaryStream("content")) {
+				copy(in, position, count, out);
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+			return null;
+		};
+		
+		try {
+			jdbcTemplate.query(findContentByIdSql, Collections.singletonMap("id", id), copier);
+		} catch (UncheckedIOException ex) {
+			throw ex.getCause();
+		}
+	}
+	
 	@Override
 	public Integer add(AddImageDataDbDto imageData) {
 		Map<String, Object> params = new HashMap<>();
 		params.put("image_id", imageData.getImageId());
-		params.put("content", imageData.getContent());
+		params.put("content", toLobValue(imageData));
 		params.put("preview", imageData.isPreview());
+		params.put("variant", imageData.getVariant());
 		
 		KeyHolder holder = new GeneratedKeyHolder();
 		
@@ -85,4 +160,57 @@ public class JdbcImageDataDao implements ImageDataDao {
 		return Integer.valueOf(holder.getKey().intValue());
 	}
 	
+	@Override
+	public int removePreview(Integer imageId, String variant) {
+		Map<String, Object> params = new HashMap<>();
+		params.put("image_id", imageId);
+		params.put("variant", variant);
+		
+		return jdbcTemplate.update(removePreviewSql, params);
+	}
+	
+	// Binds the content by PreparedStatement.setBinaryStream(), so we don't create a byte array
+	// with the whole content. Whether it's sent to a server in chunks depends on a driver:
+	// MySQL Connector/J does this only with useServerPrepStmts=true and buffers it otherwise.
+	private static SqlLobValue toLobValue(AddImageDataDbDto imageData) {
+		return new SqlLobValue(
+			imageData.getContent(),
+			Math.toIntExact(imageData.getContentLength())
+		);
+	}
+	
+	private DatabaseImageDto toDatabaseImageDto(ResultSet rs, int unused) throws SQLException {
+		return new DatabaseImageDto(
+			rs.getString("type"),
+			rs.getInt("id"),
+			rs.getLong("size"),
+			this
+		);
+	}
+	
+	private static void copy(InputStream in, long position, long count, OutputStream out)
+		throws IOException {
+		
+		long skipped = 0;
+		while (skipped < position) {
+			long n = in.skip(position - skipped);
+			if (n <= 0) {
+				return;
+			}
+			skipped += n;
+		}
+		
+		byte[] buffer = new byte[BUFFER_SIZE];
+		long remaining = count;
+		while (remaining > 0) {
+			int read = in.read(buffer, 0, (int)Math.min(buffer.length, remaining));
+			if (read < 0) {
+				break;
+			}
+			out.write(buffer, 0, read);
+			remaining -= read;
+		}
+		out.flush();
+	}
+	
 }
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.feature.image;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Stand-in for an S3-compatible storage that keeps objects in a local directory.
+ *
+ * It's intended for development and tests: the semantics of multipart uploads are the same
+ * (parts are stored separately and an object appears atomically on completion), so
+ * the code that uses {@link ObjectStorage} can be verified without a real service.
+ */
+public class LocalObjectStorage implements ObjectStorage {
+	
+	private static final String UPLOADS_DIR = ".uploads";
+	
+	private final Path root;
+	
+	public LocalObjectStorage(String root) {
+		this.root = Paths.get(root);
+	}
+	
+	@Override
+	public void putObject(String key, byte[] data) throws IOException {
+		Path dest = resolve(key);
+		Files.createDirectories(dest.getParent());
+		
+		Path tmp = Files.createTempFile(dest.getParent(), ".put", ".tmp");
+		try {
+			Files.write(tmp, data);
+			Files.move(tmp, dest, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+	
+	@Override
+	public String initiateMultipartUpload(String key) throws IOException {
+		resolve(key);
+		
+		String uploadId = UUID.randomUUID().toString();
+		Files.createDirectories(getUploadDir(uploadId));
+		return uploadId;
+	}
+	
+	@Override
+	public String uploadPart(String key, String uploadId, int partNumber, byte[] data)
+		throws IOException {
+		
+		Validate.isTrue(partNumber > 0, "Part number must be positive but was %d", partNumber);
+		
+		Path uploadDir = getUploadDir(uploadId);
+		if (!Files.isDirectory(uploadDir)) {
+			throw new NoSuchFileException(uploadDir.toString(), null, "Unknown upload");
+		}
+		
+		Files.write(uploadDir.resolve(String.valueOf(partNumber)), data);
+		return md5(data);
+	}
+	
+	@Override
+	public void completeMultipartUpload(String key, String uploadId, List<String> etags)
+		throws IOException {
+		
+		Path uploadDir = getUploadDir(uploadId);
+		Path dest = resolve(key);
+		Files.createDirectories(dest.getParent());
+		
+		Path tmp = Files.createTempFile(dest.getParent(), ".multipart", ".tmp");
+		try {
+			try (OutputStream out = Files.newOutputStream(tmp)) {
+				for (int i = 0; i < etags.size(); i++) {
+					byte[] part = Files.readAllBytes(uploadDir.resolve(String.valueOf(i + 1)));
+					if (!md5(part).equals(etags.get(i))) {
+						throw new IOException("ETag of part #" + (i + 1) + " doesn't match");
+					}
+					out.write(part);
+				}
+			}
+			Files.move(tmp, dest, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+		
+		abortMultipartUpload(key, uploadId);
+	}
+	
+	@Override
+	public void abortMultipartUpload(String key, String uploadId) throws IOException {
+		Path uploadDir = getUploadDir(uploadId);
+		if (!Files.isDirectory(uploadDir)) {
+			return;
+		}
+		
+		try (Stream<Path> parts = Files.list(uploadDir)) {
+			for (Path part : (Iterable<Path>)parts::iterator) {
+				Files.deleteIfExists(part);
+			}
+		}
+		Files.deleteIfExists(uploadDir);
+	}
+	
+	@Override
+	public InputStream getObject(String key) throws IOException {
+		try {
+			return Files.newInputStream(resolve(key));
+		} catch (NoSuchFileException ex) {
+			return null;
+		}
+	}
+	
+	@Override
+	public void deleteObject(String key) throws IOException {
+		Files.deleteIfExists(resolve(key));
+	}
+	
+	private Path resolve(String key) {
+		Path path = root.resolve(key).normalize();
+		Validate.isTrue(
+			path.startsWith(root.normalize()) && !key.startsWith(UPLOADS_DIR),
+			"Invalid key: %s",
+			key
+		);
+		return path;
+	}
+	
+	private Path getUploadDir(String uploadId) {
+		// parsing guarantees that the id can be safely used as a directory name
+		return root.resolve(UPLOADS_DIR).resolve(UUID.fromString(uploadId).toString());
+	}
+	
+	private static String md5(byte[] data) {
+		try {
+			byte[] digest = MessageDigest.getInstance("MD5").digest(data);
+			return String.format(Locale.ENGLISH, "%032x", new BigInteger(1, digest));
+		} catch (NoSuchAlgorithmException ex) {
+			// every implementation of the Java platform is required to support MD5
+			throw new IllegalStateException(ex);
+		}
+	}
+	
+}
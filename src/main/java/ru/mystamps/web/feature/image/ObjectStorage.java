@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.feature.image;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Minimal subset of an S3-compatible API that is needed for storing images.
+ *
+ * Large objects are uploaded in parts: a client starts an upload, sends parts (possibly
+ * in parallel) and then completes the upload by listing the identifiers (ETags) of the parts
+ * in their order. An object becomes visible only after completion.
+ */
+public interface ObjectStorage {
+	
+	/**
+	 * Uploads a whole object at once. An existing object is replaced.
+	 */
+	void putObject(String key, byte[] data) throws IOException;
+	
+	/**
+	 * @return identifier of the upload that should be passed to the other multipart methods
+	 */
+	String initiateMultipartUpload(String key) throws IOException;
+	
+	/**
+	 * @param partNumber number of a part, starting from 1
+	 * @return ETag of the part
+	 */
+	String uploadPart(String key, String uploadId, int partNumber, byte[] data)
+		throws IOException;
+	
+	void completeMultipartUpload(String key, String uploadId, List<String> etags)
+		throws IOException;
+	
+	void abortMultipartUpload(String key, String uploadId) throws IOException;
+	
+	/**
+	 * @return content of an object or {@code null} when it doesn't exist
+	 */
+	InputStream getObject(String key) throws IOException;
+	
+	void deleteObject(String key) throws IOException;
+	
+}
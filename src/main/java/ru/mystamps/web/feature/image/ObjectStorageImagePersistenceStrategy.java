@@ -0,0 +1,438 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.feature.image;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import javax.annotation.PostConstruct;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import org.slf4j.Logger;
+
+import org.springframework.web.multipart.MultipartFile;
+
+/**
+ * Stores images and their previews in an {@link ObjectStorage}.
+ *
+ * The storage interface follows the semantics of S3, but the only implementation for now is
+ * {@link LocalObjectStorage} that keeps objects in a directory. The directory can be shared
+ * between web nodes (for example, mounted over a network), and then any of them can serve
+ * the images. An image that is bigger than a part size is uploaded by parts that are sent
+ * in parallel; no more than {@code maxPartsInFlight} parts are kept in memory at once.
+ *
+ * Images that have been read from the storage are kept in a local directory, so they are
+ * downloaded only once per node. Previews are also written into this directory right after
+ * generation. The directory is a cache and can be cleaned at any time; it should be cleaned
+ * on all nodes after regeneration of previews because the other nodes aren't notified.
+ * When the total size of the cached files exceeds {@code maxCacheSize}, the least recently
+ * used of them are removed.
+ */
+public class ObjectStorageImagePersistenceStrategy implements ImagePersistenceStrategy {
+	
+	private final Logger log;
+	private final ObjectStorage storage;
+	private final Executor partExecutor;
+	private final int partSize;
+	private final int maxPartsInFlight;
+	private final Path cacheDir;
+	private final long maxCacheSize;
+	
+	// approximate size of the cached files, it's corrected on each eviction
+	private final AtomicLong cacheSize = new AtomicLong();
+	private final AtomicBoolean evicting = new AtomicBoolean();
+	
+	public ObjectStorageImagePersistenceStrategy(
+		Logger logger,
+		ObjectStorage storage,
+		Executor partExecutor,
+		int partSize,
+		int maxPartsInFlight,
+		String cacheDir,
+		long maxCacheSize) {
+		
+		this.log = logger;
+		this.storage = storage;
+		this.partExecutor = partExecutor;
+		this.partSize = partSize;
+		this.maxPartsInFlight = maxPartsInFlight;
+		this.cacheDir = Paths.get(cacheDir);
+		this.maxCacheSize = maxCacheSize;
+	}
+	
+	@PostConstruct
+	public void init() {
+		log.info("Images will be saved into object storage and cached in {} directory", cacheDir);
+		
+		try {
+			Files.createDirectories(cacheDir);
+			
+			long size = findCachedFiles().stream()
+				.mapToLong(file -> file.getValue().size())
+				.sum();
+			cacheSize.set(size);
+			log.info("Cache contains {} byte(s), max size is {} bytes", size, maxCacheSize);
+			
+		} catch (IOException | UncheckedIOException ex) {
+			log.warn(
+				"Couldn't create directory '{}': {}. Images will be downloaded on each request.",
+				cacheDir,
+				ex.getMessage()
+			);
+		}
+	}
+	
+	@Override
+	public void save(MultipartFile file, ImageInfoDto image) {
+		String key = generateKey(image);
+		
+		try (InputStream in = file.getInputStream()) {
+			byte[] firstPart = readPart(in);
+			if (firstPart.length < partSize) {
+				storage.putObject(key, firstPart);
+			} else {
+				uploadByParts(key, firstPart, in);
+			}
+			
+			log.info("Image #{}: data has been uploaded as {}", image.getId(), key);
+		
+		} catch (IOException ex) {
+			throw new ImagePersistenceException(ex);
+		}
+	}
+	
+	@Override
+	public void savePreview(byte[] data, ImageInfoDto preview, PreviewSize size) {
+		String key = generatePreviewKey(preview, size);
+		try {
+			storage.putObject(key, data);
+			cache(key, data);
+			
+			log.info("Image #{}: preview has been uploaded as {}", preview.getId(), key);
+		
+		} catch (IOException ex) {
+			throw new ImagePersistenceException(ex);
+		}
+	}
+	
+	@Override
+	public void replacePreview(byte[] data, ImageInfoDto preview, PreviewSize size) {
+		String key = generatePreviewKey(preview, size);
+		try {
+			// an object storage replaces an object atomically
+			storage.putObject(key, data);
+			cache(key, data);
+			
+			log.info("Image #{}: preview {} has been replaced", preview.getId(), key);
+		
+		} catch (IOException ex) {
+			throw new ImagePersistenceException(ex);
+		}
+	}
+	
+	@Override
+	public ImageDto get(ImageInfoDto image) {
+		ImageDto result = get(generateKey(image), image.getType());
+		if (result == null) {
+			log.warn("Image #{}: content not found", image.getId());
+		}
+		return result;
+	}
+	
+	@Override
+	public ImageDto getPreview(ImageInfoDto preview, PreviewSize size) {
+		return get(generatePreviewKey(preview, size), preview.getType());
+	}
+	
+	@Override
+	public void removeIfPossible(ImageInfoDto image) {
+		String key = generateKey(image);
+		try {
+			storage.deleteObject(key);
+			Files.deleteIfExists(cacheDir.resolve(key));
+		} catch (Exception ex) { // NOPMD: AvoidCatchingGenericException
+			log.warn("Couldn't delete object {}: {}", key, ex.getMessage());
+		}
+	}
+	
+	private ImageDto get(String key, String type) {
+		Path cached = cacheDir.resolve(key);
+		try {
+			boolean downloaded = false;
+			if (!Files.exists(cached)) {
+				try (InputStream in = storage.getObject(key)) {
+					if (in == null) {
+						return null;
+					}
+					writeToCache(cached, in);
+				}
+				downloaded = true;
+				log.debug("Object {} has been cached", key);
+			}
+			
+			BasicFileAttributes attributes =
+				Files.readAttributes(cached, BasicFileAttributes.class);
+			if (downloaded) {
+				addToCacheSize(attributes.size());
+			} else {
+				markAsUsed(cached);
+			}
+			
+			// the content will be read only when it's actually needed
+			return new FilesystemImageDto(type, cached, attributes);
+		
+		} catch (IOException ex) {
+			throw new ImagePersistenceException(ex);
+		}
+	}
+	
+	@SuppressWarnings("PMD.AvoidCatchingGenericException")
+	private void uploadByParts(String key, byte[] firstPart, InputStream in) throws IOException {
+		String uploadId = storage.initiateMultipartUpload(key);
+		
+		List<CompletableFuture<String>> parts = new ArrayList<>();
+		Semaphore inFlight = new Semaphore(maxPartsInFlight);
+		AtomicBoolean failed = new AtomicBoolean();
+		try {
+			byte[] part = firstPart;
+			while (part.length > 0 && !failed.get()) {
+				acquire(inFlight);
+				parts.add(
+					uploadPartAsync(key, uploadId, parts.size() + 1, part)
+						.whenComplete((etag, ex) -> {
+							if (ex != null) {
+								failed.set(true);
+							}
+							inFlight.release();
+						})
+				);
+				part = readPart(in);
+			}
+			
+			List<String> etags = new ArrayList<>(parts.size());
+			for (CompletableFuture<String> future : parts) {
+				etags.add(join(future));
+			}
+			
+			storage.completeMultipartUpload(key, uploadId, etags);
+			log.debug("Object {} has been uploaded by {} part(s)", key, etags.size());
+		
+		} catch (IOException | RuntimeException ex) {
+			parts.forEach(future -> future.cancel(false));
+			abortQuietly(key, uploadId);
+			throw ex;
+		}
+	}
+	
+	private CompletableFuture<String> uploadPartAsync(
+		String key,
+		String uploadId,
+		int partNumber,
+		byte[] data) {
+		
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return storage.uploadPart(key, uploadId, partNumber, data);
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+		}, partExecutor);
+	}
+	
+	private byte[] readPart(InputStream in) throws IOException {
+		byte[] buffer = new byte[partSize];
+		int filled = 0;
+		while (filled < partSize) {
+			int read = in.read(buffer, filled, partSize - filled);
+			if (read < 0) {
+				break;
+			}
+			filled += read;
+		}
+		return filled == partSize ? buffer : Arrays.copyOf(buffer, filled);
+	}
+	
+	private void cache(String key, byte[] data) {
+		Path cached = cacheDir.resolve(key);
+		try {
+			Files.createDirectories(cached.getParent());
+			Path tmp = Files.createTempFile(cached.getParent(), ".cache", ".tmp");
+			try {
+				Files.write(tmp, data);
+				Files.move(tmp, cached, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				Files.deleteIfExists(tmp);
+			}
+			addToCacheSize(data.length);
+			
+		} catch (IOException ex) {
+			// it will be downloaded on the first request
+			log.warn("Couldn't cache object {}: {}", key, ex.getMessage());
+		}
+	}
+	
+	private void addToCacheSize(long size) {
+		if (cacheSize.addAndGet(size) > maxCacheSize) {
+			evictLeastRecentlyUsed();
+		}
+	}
+	
+	// The modification time of a cached file is used as the time of its last usage.
+	private void markAsUsed(Path cached) {
+		try {
+			Files.setLastModifiedTime(cached, FileTime.fromMillis(System.currentTimeMillis()));
+		} catch (IOException ex) {
+			log.debug("Couldn't update modification time of {}: {}", cached, ex.getMessage());
+		}
+	}
+	
+	// Removes files until the cache takes no more than 90% of its max size, so the next
+	// eviction won't happen right after the current one.
+	@SuppressWarnings("checkstyle:magicnumber")
+	private void evictLeastRecentlyUsed() {
+		if (!evicting.compareAndSet(false, true)) {
+			// another thread is already doing that
+			return;
+		}
+		
+		try {
+			List<Pair<Path, BasicFileAttributes>> files = findCachedFiles();
+			files.sort(Comparator.comparing(file -> file.getValue().lastModifiedTime()));
+			
+			long size = files.stream().mapToLong(file -> file.getValue().size()).sum();
+			long targetSize = maxCacheSize / 10 * 9;
+			int evicted = 0;
+			for (Pair<Path, BasicFileAttributes> file : files) {
+				if (size <= targetSize) {
+					break;
+				}
+				Files.deleteIfExists(file.getKey());
+				size -= file.getValue().size();
+				evicted++;
+			}
+			cacheSize.set(size);
+			
+			log.info("{} file(s) have been evicted from the cache, {} byte(s) left", evicted, size);
+		
+		} catch (IOException | UncheckedIOException ex) {
+			log.warn("Couldn't evict files from the cache: {}", ex.getMessage());
+		
+		} finally {
+			evicting.set(false);
+		}
+	}
+	
+	private List<Pair<Path, BasicFileAttributes>> findCachedFiles() throws IOException {
+		List<Pair<Path, BasicFileAttributes>> files = new ArrayList<>();
+		try (Stream<Path> paths = Files.walk(cacheDir)) {
+			for (Path path : (Iterable<Path>)paths::iterator) {
+				// skip the temporary files that are being written
+				if (path.getFileName().toString().startsWith(".")) {
+					continue;
+				}
+				try {
+					BasicFileAttributes attributes =
+						Files.readAttributes(path, BasicFileAttributes.class);
+					if (attributes.isRegularFile()) {
+						files.add(Pair.of(path, attributes));
+					}
+				} catch (NoSuchFileException ignored) { // NOPMD: EmptyCatchBlock
+					// the file has been removed after listing
+				}
+			}
+		}
+		return files;
+	}
+	
+	private void abortQuietly(String key, String uploadId) {
+		try {
+			storage.abortMultipartUpload(key, uploadId);
+		} catch (Exception ex) { // NOPMD: AvoidCatchingGenericException
+			log.warn("Couldn't abort upload {} of object {}: {}", uploadId, key, ex.getMessage());
+		}
+	}
+	
+	private static void writeToCache(Path cached, InputStream in) throws IOException {
+		Files.createDirectories(cached.getParent());
+		
+		// concurrent requests may download the same object; the last one wins
+		Path tmp = Files.createTempFile(cached.getParent(), ".cache", ".tmp");
+		try {
+			Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+			Files.move(tmp, cached, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+	
+	private static String join(CompletableFuture<String> future) throws IOException {
+		try {
+			return future.join();
+		} catch (CompletionException ex) {
+			if (ex.getCause() instanceof UncheckedIOException) {
+				throw ((UncheckedIOException)ex.getCause()).getCause();
+			}
+			throw ex;
+		}
+	}
+	
+	private static void acquire(Semaphore semaphore) throws IOException {
+		try {
+			semaphore.acquire();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for uploading of parts");
+		}
+	}
+	
+	private static String generateKey(ImageInfoDto image) {
+		return "images/" + image.getId() + '.' + image.getType().toLowerCase(Locale.ENGLISH);
+	}
+	
+	private static String generatePreviewKey(ImageInfoDto preview, PreviewSize size) {
+		return "previews/"
+			+ preview.getId()
+			+ '-'
+			+ size.getName()
+			+ '.'
+			+ preview.getType().toLowerCase(Locale.ENGLISH);
+	}
+	
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.feature.image;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.tuple.Pair;
+
+/**
+ * Storage of recently used image previews that are kept in memory.
+ *
+ * The cache is bounded by the total size of the previews (in bytes) rather than by
+ * the number of entries. When the limit is exceeded, the least recently used previews
+ * are evicted.
+ *
+ * @see CachedImagePersistenceStrategy
+ */
+public class PreviewCache {
+	
+	private static final int INITIAL_CAPACITY = 128;
+	private static final float LOAD_FACTOR    = 0.75f;
+	
+	private final long maxSize;
+	
+	// access-ordered, so the eldest entry is the least recently used one
+	private final Map<Pair<ImageInfoDto, PreviewSize>, ImageDto> previews =
+		new LinkedHashMap<>(INITIAL_CAPACITY, LOAD_FACTOR, true);
+	
+	// guarded by "previews"
+	private long currentSize;
+	
+	// guarded by "previews". Incremented on every invalidation, so a preview that has been
+	// loaded concurrently with an invalidation won't be cached.
+	private long version;
+	
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	
+	public PreviewCache(long maxSize) {
+		Validate.isTrue(maxSize >= 0, "Max size of cache must be non-negative");
+		
+		this.maxSize = maxSize;
+	}
+	
+	public boolean isEnabled() {
+		return maxSize > 0;
+	}
+	
+	public long getMaxSize() {
+		return maxSize;
+	}
+	
+	public long getHitsCounter() {
+		return hits.get();
+	}
+	
+	public long getMissesCounter() {
+		return misses.get();
+	}
+	
+	public long getEvictionsCounter() {
+		return evictions.get();
+	}
+	
+	public long getCurrentSize() {
+		synchronized (previews) {
+			return currentSize;
+		}
+	}
+	
+	public int getEntriesCount() {
+		synchronized (previews) {
+			return previews.size();
+		}
+	}
+	
+	// should be read before get(), so a preview that is loaded after a miss can be
+	// passed to put() along with the version it has been loaded at
+	public long getVersion() {
+		synchronized (previews) {
+			return version;
+		}
+	}
+	
+	public ImageDto get(ImageInfoDto image, PreviewSize size) {
+		ImageDto preview;
+		synchronized (previews) {
+			preview = previews.get(Pair.of(image, size));
+		}
+		
+		if (preview == null) {
+			misses.incrementAndGet();
+		} else {
+			hits.incrementAndGet();
+		}
+		
+		return preview;
+	}
+	
+	public void put(
+		ImageInfoDto image,
+		PreviewSize previewSize,
+		ImageDto preview,
+		long loadedVersion) {
+		
+		long size = preview.getSize();
+		if (size > maxSize) {
+			return;
+		}
+		
+		synchronized (previews) {
+			if (loadedVersion != version) {
+				return;
+			}
+			
+			ImageDto previous = previews.put(Pair.of(image, previewSize), preview);
+			if (previous != null) {
+				currentSize -= previous.getSize();
+			}
+			currentSize += size;
+			
+			Iterator<ImageDto> it = previews.values().iterator();
+			while (currentSize > maxSize && it.hasNext()) {
+				ImageDto eldest = it.next();
+				it.remove();
+				currentSize -= eldest.getSize();
+				evictions.incrementAndGet();
+			}
+		}
+	}
+	
+	public void invalidate(ImageInfoDto image, PreviewSize size) {
+		synchronized (previews) {
+			version++;
+			ImageDto removed = previews.remove(Pair.of(image, size));
+			if (removed != null) {
+				currentSize -= removed.getSize();
+			}
+		}
+	}
+	
+	// removes previews of all sizes
+	public void invalidateAll(ImageInfoDto image) {
+		synchronized (previews) {
+			version++;
+			Iterator<Map.Entry<Pair<ImageInfoDto, PreviewSize>, ImageDto>> it =
+				previews.entrySet().iterator();
+			while (it.hasNext()) {
+				Map.Entry<Pair<ImageInfoDto, PreviewSize>, ImageDto> entry = it.next();
+				if (image.getId().equals(entry.getKey().getLeft().getId())) {
+					it.remove();
+					currentSize -= entry.getValue().getSize();
+				}
+			}
+		}
+	}
+	
+}
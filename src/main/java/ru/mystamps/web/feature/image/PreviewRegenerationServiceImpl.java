@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.feature.image;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.Validate;
+
+import org.slf4j.Logger;
+
+import org.springframework.security.access.prepost.PreAuthorize;
+
+import lombok.RequiredArgsConstructor;
+
+import ru.mystamps.web.support.spring.security.HasAuthority;
+
+/**
+ * Regenerates previews of all images, for example, after changing parameters of previews.
+ *
+ * Images are read page by page in the order of their ids and previews of a page are generated
+ * in parallel by a pool that is shared between the jobs. After a page has been processed, the id
+ * of its last image is saved to database, so a stopped (or failed) job continues from this place
+ * on the next start, even after a restart of the application.
+ */
+@RequiredArgsConstructor
+public class PreviewRegenerationServiceImpl implements PreviewRegenerationService {
+	
+	private final Logger log;
+	private final ImageDao imageDao;
+	private final ImageService imageService;
+	private final Executor jobExecutor;
+	private final ForkJoinPool pool;
+	private final int pageSize;
+	
+	private final AtomicBoolean running = new AtomicBoolean();
+	private final AtomicLong processed = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	
+	private volatile boolean stopRequested;
+	private volatile boolean completed;
+	private volatile Integer lastProcessedImageId;
+	private volatile long startedAt;
+	private volatile long finishedAt;
+	
+	@Override
+	@PreAuthorize(HasAuthority.REGENERATE_PREVIEWS)
+	public boolean start(Integer afterImageId) {
+		Validate.isTrue(
+			afterImageId == null || afterImageId >= 0,
+			"Image id must be greater than or equal to zero"
+		);
+		
+		if (!running.compareAndSet(false, true)) {
+			log.info("Previews regeneration is already in progress");
+			return false;
+		}
+		
+		Integer startAfter = afterImageId;
+		if (startAfter == null) {
+			// continue the previous job unless it has been completed
+			startAfter = findLastRegeneratedImageId();
+		}
+		
+		stopRequested = false;
+		completed = false;
+		lastProcessedImageId = startAfter;
+		processed.set(0);
+		failed.set(0);
+		startedAt = System.currentTimeMillis();
+		finishedAt = 0;
+		
+		Integer firstPageAfter = startAfter;
+		try {
+			jobExecutor.execute(() -> regenerate(firstPageAfter));
+			
+		} catch (RejectedExecutionException ex) {
+			running.set(false);
+			throw ex;
+		}
+		
+		log.info("Previews regeneration has been started after image #{}", startAfter);
+		
+		return true;
+	}
+	
+	@Override
+	@PreAuthorize(HasAuthority.REGENERATE_PREVIEWS)
+	public void stop() {
+		if (running.get()) {
+			stopRequested = true;
+			log.info("Previews regeneration will be stopped after the current page");
+		}
+	}
+	
+	@Override
+	@PreAuthorize(HasAuthority.REGENERATE_PREVIEWS)
+	public PreviewRegenerationStatusDto getStatus() {
+		boolean inProgress = running.get();
+		
+		long elapsed = 0;
+		if (startedAt > 0) {
+			long end = inProgress || finishedAt == 0 ? System.currentTimeMillis() : finishedAt;
+			elapsed = end - startedAt;
+		}
+		
+		return new PreviewRegenerationStatusDto(
+			inProgress,
+			completed,
+			lastProcessedImageId,
+			processed.get(),
+			failed.get(),
+			elapsed
+		);
+	}
+	
+	@SuppressWarnings("PMD.AvoidCatchingGenericException")
+	private Integer findLastRegeneratedImageId() {
+		try {
+			Integer lastId = imageDao.findLastRegeneratedImageId();
+			return lastId == null ? 0 : lastId;
+			
+		} catch (RuntimeException ex) {
+			running.set(false);
+			throw ex;
+		}
+	}
+	
+	@SuppressWarnings("PMD.AvoidCatchingGenericException")
+	private void regenerate(Integer afterImageId) {
+		try {
+			Integer lastId = afterImageId;
+			// the thread is interrupted when the application is being stopped
+			while (!stopRequested && !Thread.currentThread().isInterrupted()) {
+				List<ImageInfoDto> images = imageDao.findAfterId(lastId, pageSize);
+				if (images.isEmpty()) {
+					imageDao.setLastRegeneratedImageId(null);
+					completed = true;
+					break;
+				}
+				
+				pool.invoke(new RegeneratePreviewsTask(images, 0, images.size()));
+				
+				// all the images of the page have been processed, so it's safe to continue
+				// from the last of them
+				lastId = images.get(images.size() - 1).getId();
+				imageDao.setLastRegeneratedImageId(lastId);
+				lastProcessedImageId = lastId;
+				
+				log.info("Previews regeneration: {}", formatProgress());
+			}
+			
+		} catch (RuntimeException ex) {
+			log.error(
+				"Previews regeneration has failed after image #{}",
+				lastProcessedImageId,
+				ex
+			);
+			
+		} finally {
+			finishedAt = System.currentTimeMillis();
+			running.set(false);
+		}
+		
+		if (completed) {
+			log.info("Previews regeneration has been completed: {}", formatProgress());
+		} else {
+			log.info(
+				"Previews regeneration has been stopped after image #{}: {}",
+				lastProcessedImageId,
+				formatProgress()
+			);
+		}
+	}
+	
+	private String formatProgress() {
+		PreviewRegenerationStatusDto status = getStatus();
+		return String.format(
+			"processed %d, failed %d, last image #%d, %.1f images/sec",
+			status.getProcessedCounter(),
+			status.getFailedCounter(),
+			status.getLastProcessedImageId(),
+			status.getThroughput()
+		);
+	}
+	
+	@SuppressWarnings("PMD.AvoidCatchingGenericException")
+	private void regeneratePreviews(ImageInfoDto image) {
+		try {
+			imageService.regeneratePreviews(image);
+			processed.incrementAndGet();
+			
+		} catch (RuntimeException ex) {
+			failed.incrementAndGet();
+			log.warn("Image #{}: couldn't regenerate previews", image.getId(), ex);
+		}
+	}
+	
+	// Splits a page into halves until a single image is left. Generation of previews takes much
+	// more time than splitting, so there is no reason to have bigger chunks.
+	@RequiredArgsConstructor
+	private class RegeneratePreviewsTask extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final transient List<ImageInfoDto> images;
+		private final int from;
+		private final int to;
+		
+		@Override
+		protected void compute() {
+			if (to - from == 1) {
+				regeneratePreviews(images.get(from));
+				return;
+			}
+			
+			int middle = (from + to) >>> 1;
+			invokeAll(
+				new RegeneratePreviewsTask(images, from, middle),
+				new RegeneratePreviewsTask(images, middle, to)
+			);
+		}
+		
+	}
+	
+}
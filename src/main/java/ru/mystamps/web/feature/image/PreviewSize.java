@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.feature.image;
+
+import java.util.Locale;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Sizes of image previews.
+ *
+ * A preview fits into a square with a side of the specified size.
+ */
+@Getter
+@RequiredArgsConstructor
+public enum PreviewSize {
+	THUMB(100),
+	MEDIUM(250),
+	LARGE(500);
+	
+	public static final PreviewSize DEFAULT = MEDIUM;
+	
+	private final int maxDimension;
+	
+	/**
+	 * Returns a size by its name (case insensitive) or {@code null} if there is no such size.
+	 */
+	public static PreviewSize fromName(String name) {
+		if (name == null) {
+			return null;
+		}
+		for (PreviewSize size : values()) {
+			if (size.name().equalsIgnoreCase(name)) {
+				return size;
+			}
+		}
+		return null;
+	}
+	
+	public String getName() {
+		return name().toLowerCase(Locale.ENGLISH);
+	}
+	
+}
@@ -0,0 +1,399 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.feature.image;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.apache.commons.text.StringEscapeUtils;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.client.util.BytesContentProvider;
+import org.eclipse.jetty.client.util.InputStreamResponseListener;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.HttpStatus;
+
+/**
+ * Client of an S3-compatible storage (Amazon S3, MinIO, Ceph and others).
+ *
+ * Objects are addressed in the path style ({@code <endpoint>/<bucket>/<key>}), so a bucket
+ * name doesn't have to be a valid host name. Requests are signed with AWS Signature Version 4
+ * and their content is always signed too.
+ */
+public class S3ObjectStorage implements ObjectStorage {
+	
+	private static final String ALGORITHM = "AWS4-HMAC-SHA256";
+	private static final String SERVICE = "s3";
+	private static final String TERMINATOR = "aws4_request";
+	
+	private static final String CONTENT_SHA256_HEADER = "x-amz-content-sha256";
+	private static final String DATE_HEADER = "x-amz-date";
+	
+	// should be sorted and match the headers that are set by newRequest()
+	private static final String SIGNED_HEADERS = "host;x-amz-content-sha256;x-amz-date";
+	
+	private static final DateTimeFormatter DATE_TIME_FORMAT =
+		DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'", Locale.ENGLISH)
+			.withZone(ZoneOffset.UTC);
+	
+	private static final byte[] EMPTY_CONTENT = new byte[0];
+	
+	private static final Pattern UPLOAD_ID = Pattern.compile("<UploadId>([^<]+)</UploadId>");
+	
+	// an error that happens during completion of an upload is reported with 200 status
+	private static final String ERROR_ELEMENT = "<Error>";
+	
+	private static final int MAX_ERROR_LENGTH = 500;
+	
+	private final HttpClient httpClient;
+	private final String scheme;
+	private final String host;
+	private final String basePath;
+	private final String region;
+	private final String bucket;
+	private final String accessKey;
+	private final String secretKey;
+	
+	// Max time to wait for the whole response (in milliseconds).
+	private final long timeout;
+	
+	public S3ObjectStorage(
+		HttpClient httpClient,
+		String endpoint,
+		String region,
+		String bucket,
+		String accessKey,
+		String secretKey,
+		long timeout) {
+		
+		Validate.isTrue(StringUtils.isNotBlank(region), "Region must be non-blank");
+		Validate.isTrue(StringUtils.isNotBlank(bucket), "Bucket must be non-blank");
+		Validate.isTrue(StringUtils.isNotBlank(accessKey), "Access key must be non-blank");
+		Validate.isTrue(StringUtils.isNotBlank(secretKey), "Secret key must be non-blank");
+		
+		URI uri = URI.create(endpoint);
+		Validate.isTrue(
+			uri.getHost() != null,
+			"Endpoint must be an absolute URL but was %s",
+			endpoint
+		);
+		
+		this.httpClient = httpClient;
+		this.scheme = uri.getScheme();
+		// the default port is omitted from the Host header
+		this.host = uri.getPort() == -1 ? uri.getHost() : uri.getHost() + ':' + uri.getPort();
+		this.basePath = StringUtils.removeEnd(StringUtils.defaultString(uri.getRawPath()), "/");
+		this.region = region;
+		this.bucket = bucket;
+		this.accessKey = accessKey;
+		this.secretKey = secretKey;
+		this.timeout = timeout;
+	}
+	
+	@Override
+	public void putObject(String key, byte[] data) throws IOException {
+		ContentResponse response = send(newRequest(HttpMethod.PUT, key, "", data));
+		checkStatus(response, key, HttpStatus.OK_200);
+	}
+	
+	@Override
+	public String initiateMultipartUpload(String key) throws IOException {
+		ContentResponse response = send(newRequest(HttpMethod.POST, key, "uploads=", null));
+		checkStatus(response, key, HttpStatus.OK_200);
+		
+		Matcher matcher = UPLOAD_ID.matcher(response.getContentAsString());
+		if (!matcher.find()) {
+			throw new IOException("Couldn't find id of an upload of " + key + " in a response");
+		}
+		
+		return StringEscapeUtils.unescapeXml(matcher.group(1));
+	}
+	
+	@Override
+	public String uploadPart(String key, String uploadId, int partNumber, byte[] data)
+		throws IOException {
+		
+		Validate.isTrue(partNumber > 0, "Part number must be positive but was %d", partNumber);
+		
+		// parameters should be sorted by name
+		String query = "partNumber=" + partNumber + "&uploadId=" + encode(uploadId, true);
+		ContentResponse response = send(newRequest(HttpMethod.PUT, key, query, data));
+		checkStatus(response, key, HttpStatus.OK_200);
+		
+		String etag = response.getHeaders().get(HttpHeader.ETAG);
+		if (etag == null) {
+			throw new IOException("Part #" + partNumber + " of " + key + " doesn't have ETag");
+		}
+		
+		return etag;
+	}
+	
+	@Override
+	public void completeMultipartUpload(String key, String uploadId, List<String> etags)
+		throws IOException {
+		
+		StringBuilder body = new StringBuilder("<CompleteMultipartUpload>");
+		for (int i = 0; i < etags.size(); i++) {
+			body.append("<Part><PartNumber>")
+				.append(i + 1)
+				.append("</PartNumber><ETag>")
+				.append(StringEscapeUtils.escapeXml10(etags.get(i)))
+				.append("</ETag></Part>");
+		}
+		body.append("</CompleteMultipartUpload>");
+		
+		String query = "uploadId=" + encode(uploadId, true);
+		byte[] content = body.toString().getBytes(StandardCharsets.UTF_8);
+		ContentResponse response = send(newRequest(HttpMethod.POST, key, query, content));
+		checkStatus(response, key, HttpStatus.OK_200);
+		
+		String result = response.getContentAsString();
+		if (StringUtils.contains(result, ERROR_ELEMENT)) {
+			throw new IOException(
+				"Couldn't complete upload of " + key + ": "
+				+ StringUtils.abbreviate(result, MAX_ERROR_LENGTH)
+			);
+		}
+	}
+	
+	@Override
+	public void abortMultipartUpload(String key, String uploadId) throws IOException {
+		String query = "uploadId=" + encode(uploadId, true);
+		ContentResponse response = send(newRequest(HttpMethod.DELETE, key, query, null));
+		// an upload that doesn't exist has been aborted or completed already
+		checkStatus(response, key, HttpStatus.NO_CONTENT_204, HttpStatus.NOT_FOUND_404);
+	}
+	
+	@Override
+	public InputStream getObject(String key) throws IOException {
+		InputStreamResponseListener listener = new InputStreamResponseListener();
+		newRequest(HttpMethod.GET, key, "", null).send(listener);
+		
+		Response response = await(() -> listener.get(timeout, TimeUnit.MILLISECONDS));
+		
+		// the content is read by a caller, so we don't keep it in memory
+		InputStream content = listener.getInputStream();
+		if (response.getStatus() == HttpStatus.OK_200) {
+			return content;
+		}
+		
+		content.close();
+		if (response.getStatus() == HttpStatus.NOT_FOUND_404) {
+			return null;
+		}
+		
+		throw new IOException(
+			"Couldn't get " + key + ": unexpected status " + response.getStatus()
+		);
+	}
+	
+	@Override
+	public void deleteObject(String key) throws IOException {
+		ContentResponse response = send(newRequest(HttpMethod.DELETE, key, "", null));
+		checkStatus(response, key, HttpStatus.NO_CONTENT_204, HttpStatus.NOT_FOUND_404);
+	}
+	
+	/**
+	 * Creates a value of the Authorization header.
+	 *
+	 * @param path URI-encoded path of a request
+	 * @param query URI-encoded query string with the parameters sorted by name
+	 */
+	String createAuthorization(
+		String method,
+		String path,
+		String query,
+		String contentHash,
+		String dateTime) {
+		
+		String canonicalRequest = String.join(
+			"\n",
+			method,
+			path,
+			query,
+			"host:" + host,
+			CONTENT_SHA256_HEADER + ':' + contentHash,
+			DATE_HEADER + ':' + dateTime,
+			"",
+			SIGNED_HEADERS,
+			contentHash
+		);
+		
+		String date = dateTime.substring(0, dateTime.indexOf('T'));
+		String scope = String.join("/", date, region, SERVICE, TERMINATOR);
+		String stringToSign = String.join(
+			"\n",
+			ALGORITHM,
+			dateTime,
+			scope,
+			toHex(sha256(canonicalRequest.getBytes(StandardCharsets.UTF_8)))
+		);
+		
+		byte[] signingKey = hmac(("AWS4" + secretKey).getBytes(StandardCharsets.UTF_8), date);
+		signingKey = hmac(signingKey, region);
+		signingKey = hmac(signingKey, SERVICE);
+		signingKey = hmac(signingKey, TERMINATOR);
+		String signature = toHex(hmac(signingKey, stringToSign));
+		
+		return ALGORITHM
+			+ " Credential=" + accessKey + '/' + scope
+			+ ",SignedHeaders=" + SIGNED_HEADERS
+			+ ",Signature=" + signature;
+	}
+	
+	private Request newRequest(HttpMethod method, String key, String query, byte[] data) {
+		Validate.isTrue(StringUtils.isNotEmpty(key), "Key must be non-empty");
+		
+		byte[] content = data == null ? EMPTY_CONTENT : data;
+		String path = basePath + '/' + encode(bucket, true) + '/' + encode(key, false);
+		String contentHash = toHex(sha256(content));
+		String dateTime = DATE_TIME_FORMAT.format(Instant.now());
+		
+		StringBuilder url = new StringBuilder(scheme).append("://").append(host).append(path);
+		if (!query.isEmpty()) {
+			url.append('?').append(query);
+		}
+		
+		Request request = httpClient.newRequest(URI.create(url.toString()))
+			.method(method)
+			.timeout(timeout, TimeUnit.MILLISECONDS)
+			.header(HttpHeader.HOST, host)
+			.header(CONTENT_SHA256_HEADER, contentHash)
+			.header(DATE_HEADER, dateTime)
+			.header(
+				HttpHeader.AUTHORIZATION,
+				createAuthorization(method.asString(), path, query, contentHash, dateTime)
+			);
+		
+		if (data != null) {
+			request.content(new BytesContentProvider(data));
+		}
+		
+		return request;
+	}
+	
+	private ContentResponse send(Request request) throws IOException {
+		return await(request::send);
+	}
+	
+	private static <T> T await(ResponseSupplier<T> supplier) throws IOException {
+		try {
+			return supplier.get();
+		
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a response");
+		
+		} catch (TimeoutException | ExecutionException ex) {
+			throw new IOException(ex);
+		}
+	}
+	
+	private static void checkStatus(ContentResponse response, String key, int... expected)
+		throws IOException {
+		
+		int status = response.getStatus();
+		for (int code : expected) {
+			if (status == code) {
+				return;
+			}
+		}
+		
+		throw new IOException(
+			"Request to " + key + " has failed with status " + status + ": "
+			+ StringUtils.abbreviate(response.getContentAsString(), MAX_ERROR_LENGTH)
+		);
+	}
+	
+	// encodes all characters except the unreserved ones (RFC 3986)
+	private static String encode(String value, boolean encodeSlash) {
+		StringBuilder sb = new StringBuilder();
+		for (byte ch : value.getBytes(StandardCharsets.UTF_8)) {
+			boolean unreserved = ch >= 'A' && ch <= 'Z'
+				|| ch >= 'a' && ch <= 'z'
+				|| ch >= '0' && ch <= '9'
+				|| ch == '-' || ch == '_' || ch == '.' || ch == '~'
+				|| ch == '/' && !encodeSlash;
+			if (unreserved) {
+				sb.append((char)ch);
+			} else {
+				sb.append(String.format(Locale.ENGLISH, "%%%02X", ch & 0xFF));
+			}
+		}
+		return sb.toString();
+	}
+	
+	private static byte[] sha256(byte[] data) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(data);
+		} catch (NoSuchAlgorithmException ex) {
+			// every implementation of the Java platform is required to support SHA-256
+			throw new IllegalStateException(ex);
+		}
+	}
+	
+	private static byte[] hmac(byte[] key, String data) {
+		try {
+			Mac mac = Mac.getInstance("HmacSHA256");
+			mac.init(new SecretKeySpec(key, "HmacSHA256"));
+			return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+		} catch (NoSuchAlgorithmException | InvalidKeyException ex) {
+			// every implementation of the Java platform is required to support HmacSHA256
+			throw new IllegalStateException(ex);
+		}
+	}
+	
+	private static String toHex(byte[] data) {
+		StringBuilder sb = new StringBuilder(data.length * 2);
+		for (byte b : data) {
+			sb.append(String.format(Locale.ENGLISH, "%02x", b & 0xFF));
+		}
+		return sb.toString();
+	}
+	
+	@FunctionalInterface
+	private interface ResponseSupplier<T> {
+		T get() throws InterruptedException, TimeoutException, ExecutionException;
+	}
+	
+}
@@ -20,26 +20,30 @@ package ru.mystamps.web.feature.image;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.imageio.ImageIO;
 
 import net.coobird.thumbnailator.Thumbnails;
 
 public class ThumbnailatorImagePreviewStrategy implements ImagePreviewStrategy {
 	
-	private static final int WIDTH  = 250;
-	private static final int HEIGHT = 250;
-	
 	// The value could be between 0.0 and 1.0 where 0.0 indicates the minimum quality
 	// and 1.0 indicates the maximum quality.
 	private static final double QUALITY = 0.5;
 	
+	// format -> is it supported? (lookup of ImageIO plugins isn't cheap)
+	private final Map<String, Boolean> supportedFormats = new ConcurrentHashMap<>();
+	
 	@Override
-	public byte[] createPreview(byte[] image) {
+	public byte[] createPreview(byte[] image, PreviewSize size, String format) {
 		try {
 			ByteArrayOutputStream resultStream = new ByteArrayOutputStream();
 			
 			Thumbnails.of(new ByteArrayInputStream(image))
-				.size(WIDTH, HEIGHT)
-				.outputFormat("JPEG")
+				.size(size.getMaxDimension(), size.getMaxDimension())
+				.outputFormat(format)
 				.outputQuality(QUALITY)
 				.toOutputStream(resultStream);
 			return resultStream.toByteArray();
@@ -52,4 +56,14 @@ public class ThumbnailatorImagePreviewStrategy implements ImagePreviewStrategy {
 		}
 	}
 	
+	// JPEG and PNG are supported out of the box while other formats (like WebP)
+	// require an ImageIO plugin to be on a classpath
+	@Override
+	public boolean isSupportedFormat(String format) {
+		return supportedFormats.computeIfAbsent(
+			format,
+			name -> ImageIO.getImageWritersByFormatName(name).hasNext()
+		);
+	}
+	
 }
@@ -31,7 +31,7 @@ public class TimedImagePreviewStrategy implements ImagePreviewStrategy {
 	private final ImagePreviewStrategy strategy;
 	
 	@Override
-	public byte[] createPreview(byte[] image) {
+	public byte[] createPreview(byte[] image, PreviewSize size, String format) {
 		// Why we don't use Spring's StopWatch?
 		// 1) because its javadoc says that it's not intended for production
 		// 2) because we don't want to have strong dependencies on the Spring Framework
@@ -42,11 +42,13 @@ public class TimedImagePreviewStrategy implements ImagePreviewStrategy {
 		// make method body too complicated by adding many try/catches and I believe that such
 		// exception will never happen because it would mean that we're using API in a wrong way.
 		timer.start();
-		byte[] result = strategy.createPreview(image);
+		byte[] result = strategy.createPreview(image, size, format);
 		timer.stop();
 		
 		log.debug(
-			"Image preview has been generated in {} msecs: {} -> {} bytes",
+			"Image preview ({}, {}) has been generated in {} msecs: {} -> {} bytes",
+			size.getName(),
+			format,
 			timer.getTime(),
 			// let's hope that it won't throw IllegalStateException :)
 			ArrayUtils.getLength(image),
@@ -56,4 +58,9 @@ public class TimedImagePreviewStrategy implements ImagePreviewStrategy {
 		return result;
 	}
 	
+	@Override
+	public boolean isSupportedFormat(String format) {
+		return strategy.isSupportedFormat(format);
+	}
+	
 }
@@ -25,7 +25,7 @@ import java.util.Map;
 import org.apache.commons.lang3.Validate;
 
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.ResultSetExtractor;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
@@ -51,15 +51,12 @@ public class JdbcParticipantDao implements ParticipantDao {
 	@Value("${transaction_participant.find_sellers_with_parent_names}")
 	private String findSellersWithParentNamesSql;
 	
-	@Value("${transaction_participant.find_seller_id_by_name_and_url}")
-	private String findSellerIdSql;
+	@Value("${transaction_participant.find_all_sellers}")
+	private String findAllSellersSql;
 	
 	@Value("${transaction_participant_group.find_all}")
 	private String findAllGroupsSql;
 	
-	@Value("${transaction_participant_group.find_id_by_name}")
-	private String findGroupIdByNameSql;
-	
 	@Override
 	public Integer add(AddParticipantDbDto participant) {
 		Map<String, Object> params = new HashMap<>();
@@ -103,16 +100,17 @@ public class JdbcParticipantDao implements ParticipantDao {
 	}
 	
 	@Override
-	public Integer findSellerId(String name, String url) {
-		Map<String, Object> params = new HashMap<>();
-		params.put("name", name);
-		params.put("url", url);
+	public Map<SellerDto, Integer> findAllSellers() {
+		ResultSetExtractor<Map<SellerDto, Integer>> extractor = rs -> {
+			Map<SellerDto, Integer> sellers = new HashMap<>();
+			while (rs.next()) {
+				SellerDto seller = new SellerDto(rs.getString("name"), rs.getString("url"));
+				sellers.put(seller, rs.getInt("id"));
+			}
+			return sellers;
+		};
 		
-		try {
-			return jdbcTemplate.queryForObject(findSellerIdSql, params, Integer.class);
-		} catch (EmptyResultDataAccessException ignored) {
-			return null;
-		}
+		return jdbcTemplate.query(findAllSellersSql, Collections.emptyMap(), extractor);
 	}
 	
 	@Override
@@ -120,18 +118,4 @@ public class JdbcParticipantDao implements ParticipantDao {
 		return jdbcTemplate.query(findAllGroupsSql, RowMappers::forEntityWithIdDto);
 	}
 	
-	@Override
-	public Integer findGroupIdByName(String name) {
-		try {
-			return jdbcTemplate.queryForObject(
-				findGroupIdByNameSql,
-				Collections.singletonMap("name", name),
-				Integer.class
-			);
-			
-		} catch (EmptyResultDataAccessException ignored) {
-			return null;
-		}
-	}
-	
 }
@@ -18,6 +18,7 @@
 package ru.mystamps.web.feature.participant;
 
 import java.util.List;
+import java.util.Map;
 
 import ru.mystamps.web.dao.dto.EntityWithIdDto;
 import ru.mystamps.web.dao.dto.EntityWithParentDto;
@@ -26,7 +27,6 @@ public interface ParticipantDao {
 	Integer add(AddParticipantDbDto participant);
 	List<EntityWithParentDto> findBuyersWithParents();
 	List<EntityWithParentDto> findSellersWithParents();
-	Integer findSellerId(String name, String url);
+	Map<SellerDto, Integer> findAllSellers();
 	List<EntityWithIdDto> findAllGroups();
-	Integer findGroupIdByName(String name);
 }
@@ -17,7 +17,9 @@
  */
 package ru.mystamps.web.feature.participant;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import ru.mystamps.web.dao.dto.EntityWithIdDto;
 import ru.mystamps.web.dao.dto.EntityWithParentDto;
@@ -27,6 +29,7 @@ public interface ParticipantService {
 	List<EntityWithParentDto> findBuyersWithParents();
 	List<EntityWithParentDto> findSellersWithParents();
 	Integer findSellerId(String name, String url);
+	Map<SellerDto, Integer> findSellerIds(Collection<SellerDto> sellers);
 	List<EntityWithIdDto> findAllGroups();
 	Integer findGroupIdByName(String name);
 }
@@ -17,7 +17,10 @@
  */
 package ru.mystamps.web.feature.participant;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
@@ -33,6 +36,7 @@ import lombok.RequiredArgsConstructor;
 import ru.mystamps.web.dao.dto.EntityWithIdDto;
 import ru.mystamps.web.dao.dto.EntityWithParentDto;
 import ru.mystamps.web.support.spring.security.HasAuthority;
+import ru.mystamps.web.util.ReloadableCache;
 
 @RequiredArgsConstructor
 public class ParticipantServiceImpl implements ParticipantService {
@@ -40,6 +44,11 @@ public class ParticipantServiceImpl implements ParticipantService {
 	private final Logger log;
 	private final ParticipantDao participantDao;
 	
+	private final ReloadableCache<SellerDirectory> directory = new ReloadableCache<>(
+		() -> new SellerDirectory(participantDao.findAllSellers(), participantDao.findAllGroups()),
+		TimeUnit.MINUTES.toMillis(5)
+	);
+	
 	@Override
 	@Transactional
 	@PreAuthorize(HasAuthority.ADD_PARTICIPANT)
@@ -58,6 +67,8 @@ public class ParticipantServiceImpl implements ParticipantService {
 		
 		Integer id = participantDao.add(participant);
 		
+		directory.invalidateAfterCommit();
+		
 		log.info("Participant #{} has been created ({})", id, participant);
 		
 		return id;
@@ -83,7 +94,15 @@ public class ParticipantServiceImpl implements ParticipantService {
 		Validate.isTrue(StringUtils.isNotBlank(name), "Seller name must be non-blank");
 		Validate.isTrue(StringUtils.isNotBlank(url), "Seller url must be non-blank");
 		
-		return participantDao.findSellerId(name, url);
+		return directory.get().findSellerId(new SellerDto(name, url));
+	}
+	
+	@Override
+	@Transactional(readOnly = true)
+	public Map<SellerDto, Integer> findSellerIds(Collection<SellerDto> sellers) {
+		Validate.isTrue(sellers != null, "Sellers must be non null");
+		
+		return directory.get().findSellerIds(sellers);
 	}
 	
 	@Override
@@ -99,7 +118,7 @@ public class ParticipantServiceImpl implements ParticipantService {
 	public Integer findGroupIdByName(String name) {
 		Validate.isTrue(StringUtils.isNotBlank(name), "Group name must be non-blank");
 		
-		return participantDao.findGroupIdByName(name);
+		return directory.get().findGroupIdByName(name);
 	}
 	
 }
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.feature.participant;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import ru.mystamps.web.dao.dto.EntityWithIdDto;
+
+/**
+ * In-memory index of all the sellers and participant groups.
+ *
+ * The number of sellers is small, so the whole set fits into memory and
+ * can be looked up during import without querying a database.
+ *
+ * Names and urls are compared case-insensitively like the database does.
+ */
+class SellerDirectory {
+	
+	private final Map<SellerDto, Integer> sellers;
+	private final Map<String, Integer> groups;
+	
+	SellerDirectory(Map<SellerDto, Integer> sellers, Collection<EntityWithIdDto> groups) {
+		this.sellers = new HashMap<>(sellers.size());
+		for (Map.Entry<SellerDto, Integer> entry : sellers.entrySet()) {
+			this.sellers.put(normalize(entry.getKey()), entry.getValue());
+		}
+		
+		this.groups = new HashMap<>(groups.size());
+		for (EntityWithIdDto group : groups) {
+			this.groups.put(normalize(group.getName()), group.getId());
+		}
+	}
+	
+	public Integer findSellerId(SellerDto seller) {
+		return sellers.get(normalize(seller));
+	}
+	
+	public Map<SellerDto, Integer> findSellerIds(Collection<SellerDto> sellers) {
+		Map<SellerDto, Integer> result = new HashMap<>();
+		for (SellerDto seller : sellers) {
+			Integer id = findSellerId(seller);
+			if (id != null) {
+				result.put(seller, id);
+			}
+		}
+		return result;
+	}
+	
+	public Integer findGroupIdByName(String name) {
+		return groups.get(normalize(name));
+	}
+	
+	private static SellerDto normalize(SellerDto seller) {
+		return new SellerDto(normalize(seller.getName()), normalize(seller.getUrl()));
+	}
+	
+	private static String normalize(String value) {
+		return value == null ? null : value.toLowerCase(Locale.ROOT);
+	}
+	
+}
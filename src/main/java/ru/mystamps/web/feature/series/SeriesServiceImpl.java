@@ -20,7 +20,6 @@ package ru.mystamps.web.feature.series;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
-import java.util.Set;
 
 import org.apache.commons.lang3.Validate;
 
@@ -36,6 +35,7 @@ import ru.mystamps.web.feature.image.ImageInfoDto;
 import ru.mystamps.web.feature.image.ImageService;
 import ru.mystamps.web.service.StampsCatalogService;
 import ru.mystamps.web.support.spring.security.HasAuthority;
+import ru.mystamps.web.util.CatalogNumberRangeSet;
 import ru.mystamps.web.util.CatalogUtils;
 
 // TODO: move stamps related methods to separate interface (#88)
@@ -344,7 +344,7 @@ public class SeriesServiceImpl implements SeriesService {
 		StampsCatalogService catalogService,
 		String numbers) {
 		
-		Set<String> parsedNumbers = CatalogUtils.parseCatalogNumbers(numbers);
+		CatalogNumberRangeSet parsedNumbers = CatalogUtils.parseCatalogNumbers(numbers);
 		if (!parsedNumbers.isEmpty()) {
 			catalogService.add(parsedNumbers);
 			catalogService.addToSeries(seriesId, parsedNumbers);
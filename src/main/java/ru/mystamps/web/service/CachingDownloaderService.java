@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.service;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+
+import org.slf4j.Logger;
+
+import lombok.RequiredArgsConstructor;
+
+import ru.mystamps.web.service.dto.CachedDownloadDto;
+import ru.mystamps.web.service.dto.DownloadResult;
+import ru.mystamps.web.service.dto.DownloadResult.Code;
+
+/**
+ * Serves repeated downloads from {@link DiskDownloadCache}.
+ *
+ * A cached copy is used as is while it's fresh according to the Cache-Control header.
+ * After that it's revalidated by a conditional request with the ETag and Last-Modified values.
+ */
+@RequiredArgsConstructor
+public class CachingDownloaderService implements DownloaderService {
+	
+	// a response can't be stored
+	private static final long NOT_CACHEABLE = -1;
+	
+	private final Logger log;
+	private final DownloaderService service;
+	private final DiskDownloadCache cache;
+	
+	@Override
+	public DownloadResult download(String url) {
+		CachedDownloadDto cached = cache.get(url);
+		long now = System.currentTimeMillis();
+		
+		if (cached == null) {
+			DownloadResult result = service.download(url);
+			store(url, result, now);
+			return result;
+		}
+		
+		if (cached.isFresh(now)) {
+			// TODO(security): fix possible log injection
+			log.debug("Cached copy of '{}' is used", url);
+			return cached.toResult();
+		}
+		
+		DownloadResult result =
+			service.downloadIfModified(url, cached.getEtag(), cached.getLastModified());
+		
+		if (result.getCode() == Code.NOT_MODIFIED) {
+			log.debug("Cached copy of '{}' has been revalidated", url);
+			
+			long freshUntil = getFreshUntil(result.getCacheControl(), now);
+			if (freshUntil == NOT_CACHEABLE) {
+				cache.remove(url);
+				return cached.toResult();
+			}
+			
+			// a server may change validators without changing a content
+			CachedDownloadDto revalidated =
+				cached.revalidated(result.getEtag(), result.getLastModified(), freshUntil);
+			cache.put(revalidated);
+			
+			return revalidated.toResult();
+		}
+		
+		if (result.getCode() == Code.FILE_NOT_FOUND) {
+			cache.remove(url);
+		}
+		
+		// the stale copy is kept when a site is temporarily unavailable
+		store(url, result, now);
+		
+		return result;
+	}
+	
+	private void store(String url, DownloadResult result, long now) {
+		if (!result.hasSucceeded()) {
+			return;
+		}
+		
+		long freshUntil = getFreshUntil(result.getCacheControl(), now);
+		if (freshUntil == NOT_CACHEABLE) {
+			return;
+		}
+		
+		// a copy that can neither be used as is nor be revalidated is useless
+		boolean hasValidators = result.getEtag() != null || result.getLastModified() != null;
+		if (freshUntil <= now && !hasValidators) {
+			return;
+		}
+		
+		cache.put(new CachedDownloadDto(
+			url,
+			result.getContentType(),
+			result.getEtag(),
+			result.getLastModified(),
+			freshUntil,
+			result.getData()
+		));
+	}
+	
+	/**
+	 * Calculates the time until which a response is fresh.
+	 *
+	 * Only the directives that matter for a private cache are taken into account.
+	 */
+	private static long getFreshUntil(String cacheControl, long now) {
+		if (cacheControl == null) {
+			return now;
+		}
+		
+		long maxAge = 0;
+		String[] directives = StringUtils.split(cacheControl.toLowerCase(Locale.ENGLISH), ',');
+		for (String directive : directives) {
+			String name = StringUtils.substringBefore(directive, "=").trim();
+			switch (name) {
+				case "no-store":
+					return NOT_CACHEABLE;
+				case "no-cache":
+					return now;
+				case "max-age":
+					String value = StringUtils.substringAfter(directive, "=");
+					maxAge = NumberUtils.toLong(StringUtils.strip(value, " \""), 0);
+					break;
+				default:
+					break;
+			}
+		}
+		
+		return now + TimeUnit.SECONDS.toMillis(maxAge);
+	}
+	
+}
@@ -25,4 +25,5 @@ public interface CronService {
 	void sendDailyStatistics();
 	AdminDailyReport getDailyReport();
 	void purgeUsersActivations();
+	void purgeDownloadedContent();
 }
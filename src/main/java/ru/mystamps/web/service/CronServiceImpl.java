@@ -47,6 +47,7 @@ import ru.mystamps.web.support.spring.security.HasAuthority;
 public class CronServiceImpl implements CronService {
 	private static final String EVERY_DAY_AT_00_00 = "0 0 0 * * *";
 	private static final String EVERY_DAY_AT_00_30 = "0 30 0 * * *";
+	private static final String EVERY_DAY_AT_01_00 = "0 0 1 * * *";
 	
 	private final Logger log;
 	private final CategoryService categoryService;
@@ -57,6 +58,10 @@ public class CronServiceImpl implements CronService {
 	private final UserService userService;
 	private final UsersActivationService usersActivationService;
 	private final MailService mailService;
+	private final SeriesImportService seriesImportService;
+	
+	// how long (in days) downloaded pages are kept after a series has been imported
+	private final int rawContentRetentionDays;
 
 	@Override
 	@Scheduled(cron = EVERY_DAY_AT_00_00)
@@ -142,4 +147,11 @@ public class CronServiceImpl implements CronService {
 		}
 	}
 	
+	@Override
+	@Scheduled(cron = EVERY_DAY_AT_01_00)
+	public void purgeDownloadedContent() {
+		Date importedBefore = DateUtils.addDays(new Date(), -rawContentRetentionDays);
+		seriesImportService.purgeDownloadedContent(importedBefore);
+	}
+	
 }
@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.lang3.StringUtils;
+
+import org.slf4j.Logger;
+
+import org.springframework.util.DigestUtils;
+
+import ru.mystamps.web.service.dto.CachedDownloadDto;
+
+/**
+ * Keeps the downloaded files in a directory, one file per URL.
+ *
+ * The total size of the files is bounded: when it's exceeded, the least recently used files
+ * are removed. A time of the last access is kept as a modification time of a file, so the order
+ * survives a restart.
+ */
+public class DiskDownloadCache {
+	
+	private static final String SUFFIX = ".entry";
+	
+	// initial capacity and load factor are the defaults of LinkedHashMap
+	private static final int INITIAL_CAPACITY = 16;
+	private static final float LOAD_FACTOR = 0.75f;
+	
+	private final Logger log;
+	private final Path dir;
+	private final long maxSize;
+	private final boolean enabled;
+	
+	// sizes of the files in order of access: the least recently used goes first
+	private final Map<String, Long> index =
+		new LinkedHashMap<>(INITIAL_CAPACITY, LOAD_FACTOR, true);
+	private long totalSize;
+	
+	/**
+	 * @param maxSize max total size of the cached files (in bytes), zero disables the cache
+	 */
+	public DiskDownloadCache(Logger log, String dir, long maxSize) {
+		this.log = log;
+		this.dir = Paths.get(dir);
+		this.maxSize = maxSize;
+		this.enabled = maxSize > 0 && loadIndex();
+	}
+	
+	/**
+	 * @return a cached copy of a file or {@code null}
+	 */
+	public CachedDownloadDto get(String url) {
+		if (!enabled) {
+			return null;
+		}
+		
+		String key = toKey(url);
+		synchronized (index) {
+			if (index.get(key) == null) {
+				return null;
+			}
+		}
+		
+		// a file could be removed concurrently, in this case we just get a cache miss
+		Path file = toPath(key);
+		try {
+			CachedDownloadDto entry = read(file);
+			if (!url.equals(entry.getUrl())) {
+				return null;
+			}
+			Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+			return entry;
+		
+		} catch (IOException ex) {
+			log.warn("Couldn't read cached copy of '{}': {}", url, ex.getMessage());
+			remove(url);
+			return null;
+		}
+	}
+	
+	public void put(CachedDownloadDto entry) {
+		if (!enabled) {
+			return;
+		}
+		
+		String key = toKey(entry.getUrl());
+		Path file = toPath(key);
+		try {
+			Path tmp = Files.createTempFile(dir, "." + key, ".tmp");
+			try {
+				write(tmp, entry);
+				// on POSIX systems an atomic rename replaces the existing file
+				Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				Files.deleteIfExists(tmp);
+			}
+			
+			long size = Files.size(file);
+			synchronized (index) {
+				Long previous = index.put(key, size);
+				totalSize += size - (previous == null ? 0 : previous);
+				evictIfNeeded();
+			}
+		
+		} catch (IOException ex) {
+			log.warn("Couldn't cache '{}': {}", entry.getUrl(), ex.getMessage());
+		}
+	}
+	
+	public void remove(String url) {
+		if (!enabled) {
+			return;
+		}
+		
+		String key = toKey(url);
+		synchronized (index) {
+			Long size = index.remove(key);
+			if (size != null) {
+				totalSize -= size;
+			}
+			deleteQuietly(toPath(key));
+		}
+	}
+	
+	private boolean loadIndex() {
+		try {
+			Files.createDirectories(dir);
+			
+			List<Path> files;
+			try (Stream<Path> stream = Files.list(dir)) {
+				files = stream
+					.filter(path -> path.getFileName().toString().endsWith(SUFFIX))
+					.sorted(Comparator.comparing(DiskDownloadCache::getLastModifiedTime))
+					.collect(Collectors.toList());
+			}
+			
+			synchronized (index) {
+				for (Path file : files) {
+					long size = Files.size(file);
+					index.put(StringUtils.removeEnd(file.getFileName().toString(), SUFFIX), size);
+					totalSize += size;
+				}
+				evictIfNeeded();
+			}
+			
+			log.info(
+				"Download cache in {} contains {} file(s) ({} bytes)",
+				dir,
+				index.size(),
+				totalSize
+			);
+			return true;
+		
+		} catch (IOException | UncheckedIOException ex) {
+			log.warn("Download cache has been disabled: couldn't use {}: {}", dir, ex.getMessage());
+			return false;
+		}
+	}
+	
+	// must be invoked while holding the lock on the index
+	private void evictIfNeeded() {
+		Iterator<Map.Entry<String, Long>> it = index.entrySet().iterator();
+		while (totalSize > maxSize && it.hasNext()) {
+			Map.Entry<String, Long> eldest = it.next();
+			it.remove();
+			totalSize -= eldest.getValue();
+			deleteQuietly(toPath(eldest.getKey()));
+		}
+	}
+	
+	private Path toPath(String key) {
+		return dir.resolve(key + SUFFIX);
+	}
+	
+	private void deleteQuietly(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException ex) {
+			log.warn("Couldn't remove {}: {}", file, ex.getMessage());
+		}
+	}
+	
+	private static String toKey(String url) {
+		return DigestUtils.md5DigestAsHex(url.getBytes(StandardCharsets.UTF_8));
+	}
+	
+	private static FileTime getLastModifiedTime(Path file) {
+		try {
+			return Files.getLastModifiedTime(file);
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+	
+	private static void write(Path file, CachedDownloadDto entry) throws IOException {
+		try (DataOutputStream out =
+			new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+			out.writeUTF(entry.getUrl());
+			writeNullable(out, entry.getContentType());
+			writeNullable(out, entry.getEtag());
+			writeNullable(out, entry.getLastModified());
+			out.writeLong(entry.getFreshUntil());
+			out.writeInt(entry.getData().length);
+			out.write(entry.getData());
+		}
+	}
+	
+	private static CachedDownloadDto read(Path file) throws IOException {
+		try (DataInputStream in =
+			new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			String url = in.readUTF();
+			String contentType = readNullable(in);
+			String etag = readNullable(in);
+			String lastModified = readNullable(in);
+			long freshUntil = in.readLong();
+			byte[] data = new byte[in.readInt()];
+			in.readFully(data);
+			return new CachedDownloadDto(url, contentType, etag, lastModified, freshUntil, data);
+		}
+	}
+	
+	private static void writeNullable(DataOutputStream out, String value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			out.writeUTF(value);
+		}
+	}
+	
+	private static String readNullable(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+	
+}
@@ -17,8 +17,30 @@
  */
 package ru.mystamps.web.service;
 
+import java.util.concurrent.CompletableFuture;
+
 import ru.mystamps.web.service.dto.DownloadResult;
 
 public interface DownloaderService {
 	DownloadResult download(String url);
+	
+	/**
+	 * Downloads a file only when it differs from a copy that has the specified validators.
+	 *
+	 * When a file hasn't been modified, a result with the {@code NOT_MODIFIED} code is returned.
+	 * An implementation that doesn't support conditional requests always downloads a file.
+	 *
+	 * @param etag a value of the ETag header of the copy (or null)
+	 * @param lastModified a value of the Last-Modified header of the copy (or null)
+	 */
+	default DownloadResult downloadIfModified(String url, String etag, String lastModified) {
+		return download(url);
+	}
+	
+	/**
+	 * Downloads a file without blocking a caller (if an implementation supports that).
+	 */
+	default CompletableFuture<DownloadResult> downloadAsync(String url) {
+		return CompletableFuture.completedFuture(download(url));
+	}
 }
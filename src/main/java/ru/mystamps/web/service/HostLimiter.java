@@ -0,0 +1,413 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.Validate;
+
+import org.slf4j.Logger;
+
+import ru.mystamps.web.service.dto.HostLimits;
+import ru.mystamps.web.service.dto.HostStatisticsDto;
+
+/**
+ * Limits how hard we hit a single site.
+ *
+ * For every host it maintains:
+ * - a token bucket that limits the rate of requests,
+ * - a max number of concurrent requests,
+ * - a circuit breaker that rejects requests for a while after a number of consecutive failures.
+ *   When this time has passed, a single trial request is allowed and its result decides
+ *   whether the circuit will be closed or will stay open.
+ *
+ * A state of a host that hasn't been used for a while (and doesn't hold anything worth
+ * keeping, like an open circuit or a partially drained bucket) is evicted.
+ */
+public class HostLimiter {
+	
+	private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+	
+	private final Logger log;
+	private final HostLimits defaultLimits;
+	private final int failureThreshold;
+	private final long openDurationNanos;
+	private final long maxWaitNanos;
+	private final long idleTimeoutNanos;
+	private final AtomicLong nextEviction;
+	
+	private final Map<String, HostLimits> limitsByHost = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, HostState> states = new ConcurrentHashMap<>();
+	
+	/**
+	 * @param failureThreshold number of consecutive failures after which a circuit is opened
+	 * @param openDuration how long (in milliseconds) a circuit stays open
+	 * @param maxWait how long (in milliseconds) a request may wait for a token and
+	 *                a free connection
+	 * @param idleTimeout how long (in milliseconds) a state of an unused host is kept
+	 */
+	public HostLimiter(
+		Logger log,
+		HostLimits defaultLimits,
+		int failureThreshold,
+		long openDuration,
+		long maxWait,
+		long idleTimeout) {
+		
+		Validate.isTrue(failureThreshold > 0, "Failure threshold must be greater than zero");
+		Validate.isTrue(openDuration >= 0, "Open duration must be non negative");
+		Validate.isTrue(maxWait >= 0, "Max wait time must be non negative");
+		Validate.isTrue(idleTimeout > 0, "Idle timeout must be greater than zero");
+		validate(defaultLimits);
+		
+		this.log = log;
+		this.defaultLimits = defaultLimits;
+		this.failureThreshold = failureThreshold;
+		this.openDurationNanos = TimeUnit.MILLISECONDS.toNanos(openDuration);
+		this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWait);
+		this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeout);
+		this.nextEviction = new AtomicLong(System.nanoTime() + idleTimeoutNanos);
+	}
+	
+	public HostLimits getDefaultLimits() {
+		return defaultLimits;
+	}
+	
+	/**
+	 * Overrides the default limits for a host.
+	 */
+	public void setLimits(String host, HostLimits limits) {
+		Validate.isTrue(host != null, "Host must be non null");
+		validate(limits);
+		
+		String key = normalize(host);
+		limitsByHost.put(key, limits);
+		states.remove(key);
+		
+		log.info("Limits for '{}' have been set: {}", key, limits);
+	}
+	
+	/**
+	 * Waits for a permission to perform a request to the host.
+	 *
+	 * When it returns {@code true}, a caller must invoke {@link #release(String, boolean)}
+	 * after performing a request.
+	 *
+	 * @return {@code false} when the host is considered unavailable or when a request
+	 *         would have to wait for a token or a free connection for too long
+	 */
+	public boolean acquire(String host) throws InterruptedException {
+		evictIdleStates(System.nanoTime());
+		
+		HostState state = enter(host);
+		state.requests.incrementAndGet();
+		
+		if (!state.allowRequest(System.nanoTime())) {
+			state.rejected.incrementAndGet();
+			state.leave(System.nanoTime());
+			log.debug("Request to '{}' has been rejected: circuit is open", host);
+			return false;
+		}
+		
+		boolean acquired = false;
+		boolean tokenReserved = false;
+		try {
+			long delay = state.reserveToken(System.nanoTime());
+			tokenReserved = true;
+			if (delay > maxWaitNanos) {
+				state.rejected.incrementAndGet();
+				log.debug("Request to '{}' has been rejected: rate limit is exceeded", host);
+				return false;
+			}
+			if (delay > 0) {
+				state.delayed.incrementAndGet();
+				TimeUnit.NANOSECONDS.sleep(delay);
+			}
+			
+			acquired = state.connections.tryAcquire(maxWaitNanos - delay, TimeUnit.NANOSECONDS);
+			if (!acquired) {
+				state.rejected.incrementAndGet();
+				log.debug("Request to '{}' has been rejected: no free connections", host);
+			}
+			return acquired;
+		
+		} finally {
+			if (!acquired) {
+				// a request that hasn't been performed shouldn't make others wait
+				if (tokenReserved) {
+					state.refundToken();
+				}
+				state.cancelTrial();
+				state.leave(System.nanoTime());
+			}
+		}
+	}
+	
+	/**
+	 * Returns a connection and records the result of a request.
+	 *
+	 * @param failed whether a request has failed because of a host (timeouts, server errors, etc)
+	 */
+	public void release(String host, boolean failed) {
+		HostState state = getState(host);
+		state.connections.release();
+		
+		if (!failed) {
+			if (state.onSuccess()) {
+				log.info("Circuit for '{}' has been closed", host);
+			}
+			state.leave(System.nanoTime());
+			return;
+		}
+		
+		state.failed.incrementAndGet();
+		if (state.onFailure(System.nanoTime())) {
+			log.warn(
+				"Circuit for '{}' has been opened for {} ms after {} consecutive failures",
+				host,
+				TimeUnit.NANOSECONDS.toMillis(openDurationNanos),
+				failureThreshold
+			);
+		}
+		state.leave(System.nanoTime());
+	}
+	
+	public List<HostStatisticsDto> getStatistics() {
+		List<HostStatisticsDto> result = new ArrayList<>(states.size());
+		for (Map.Entry<String, HostState> entry : states.entrySet()) {
+			HostState state = entry.getValue();
+			result.add(new HostStatisticsDto(
+				entry.getKey(),
+				state.requests.get(),
+				state.delayed.get(),
+				state.rejected.get(),
+				state.failed.get(),
+				state.maxConnections - state.connections.availablePermits(),
+				state.isOpen()
+			));
+		}
+		result.sort(Comparator.comparing(HostStatisticsDto::getHost));
+		return result;
+	}
+	
+	// a state that is being evicted can't be used, so we retry with a fresh one
+	private HostState enter(String host) {
+		while (true) {
+			HostState state = getState(host);
+			if (state.enter(System.nanoTime())) {
+				return state;
+			}
+		}
+	}
+	
+	private void evictIdleStates(long now) {
+		long next = nextEviction.get();
+		if (now - next < 0 || !nextEviction.compareAndSet(next, now + idleTimeoutNanos)) {
+			return;
+		}
+		
+		for (Map.Entry<String, HostState> entry : states.entrySet()) {
+			HostState state = entry.getValue();
+			if (state.evictIfIdle(now) && states.remove(entry.getKey(), state)) {
+				log.debug("State of '{}' has been evicted", entry.getKey());
+			}
+		}
+	}
+	
+	private HostState getState(String host) {
+		String key = normalize(host);
+		return states.computeIfAbsent(
+			key,
+			name -> new HostState(limitsByHost.getOrDefault(name, defaultLimits), System.nanoTime())
+		);
+	}
+	
+	private static String normalize(String host) {
+		return host.toLowerCase(Locale.ENGLISH);
+	}
+	
+	private static void validate(HostLimits limits) {
+		Validate.isTrue(limits != null, "Limits must be non null");
+		Validate.isTrue(limits.getRate() >= 0, "Rate must be non negative");
+		Validate.isTrue(limits.getBurst() > 0, "Burst must be greater than zero");
+		Validate.isTrue(
+			limits.getMaxConnections() > 0,
+			"Max connections must be greater than zero"
+		);
+	}
+	
+	private class HostState {
+		private final AtomicLong requests = new AtomicLong();
+		private final AtomicLong delayed = new AtomicLong();
+		private final AtomicLong rejected = new AtomicLong();
+		private final AtomicLong failed = new AtomicLong();
+		
+		private final double rate;
+		private final int burst;
+		private final int maxConnections;
+		private final Semaphore connections;
+		
+		// token bucket, the number of tokens becomes negative when requests are waiting for them
+		private double tokens;
+		private long lastRefill;
+		
+		// circuit breaker
+		private int consecutiveFailures;
+		private boolean open;
+		private long openUntil;
+		private boolean trialInProgress;
+		
+		// eviction
+		private int users;
+		private long lastUsed;
+		private boolean evicted;
+		
+		HostState(HostLimits limits, long now) {
+			this.rate = limits.getRate();
+			this.burst = limits.getBurst();
+			this.maxConnections = limits.getMaxConnections();
+			this.connections = new Semaphore(maxConnections, true);
+			this.tokens = burst;
+			this.lastRefill = now;
+			this.lastUsed = now;
+		}
+		
+		/**
+		 * @return {@code false} when the state has been evicted and must not be used
+		 */
+		synchronized boolean enter(long now) {
+			if (evicted) {
+				return false;
+			}
+			users++;
+			lastUsed = now;
+			return true;
+		}
+		
+		synchronized void leave(long now) {
+			users--;
+			lastUsed = now;
+		}
+		
+		synchronized boolean evictIfIdle(long now) {
+			if (users > 0 || open || consecutiveFailures > 0 || now - lastUsed < idleTimeoutNanos) {
+				return false;
+			}
+			
+			// a fresh state starts with a full bucket, so we can't drop one that is not full yet
+			if (rate > 0) {
+				refill(now);
+				if (tokens < burst) {
+					return false;
+				}
+			}
+			
+			evicted = true;
+			return true;
+		}
+		
+		/**
+		 * Takes a token and returns how long (in nanoseconds) a caller should wait for it.
+		 */
+		synchronized long reserveToken(long now) {
+			if (rate <= 0) {
+				return 0;
+			}
+			
+			refill(now);
+			tokens--;
+			
+			if (tokens >= 0) {
+				return 0;
+			}
+			return (long)(-tokens * NANOS_PER_SECOND / rate);
+		}
+		
+		/**
+		 * Returns a token that has been reserved by a request that won't be performed.
+		 */
+		synchronized void refundToken() {
+			if (rate <= 0) {
+				return;
+			}
+			tokens = Math.min(burst, tokens + 1);
+		}
+		
+		private void refill(long now) {
+			tokens = Math.min(burst, tokens + (now - lastRefill) * rate / NANOS_PER_SECOND);
+			lastRefill = now;
+		}
+		
+		synchronized boolean allowRequest(long now) {
+			if (!open) {
+				return true;
+			}
+			if (now - openUntil < 0 || trialInProgress) {
+				return false;
+			}
+			trialInProgress = true;
+			return true;
+		}
+		
+		synchronized void cancelTrial() {
+			trialInProgress = false;
+		}
+		
+		/**
+		 * @return whether the circuit has been closed
+		 */
+		synchronized boolean onSuccess() {
+			boolean wasOpen = open;
+			consecutiveFailures = 0;
+			open = false;
+			trialInProgress = false;
+			return wasOpen;
+		}
+		
+		/**
+		 * @return whether the circuit has been opened
+		 */
+		synchronized boolean onFailure(long now) {
+			consecutiveFailures++;
+			trialInProgress = false;
+			
+			if (!open && consecutiveFailures < failureThreshold) {
+				return false;
+			}
+			
+			boolean wasClosed = !open;
+			open = true;
+			openUntil = now + openDurationNanos;
+			return wasClosed;
+		}
+		
+		synchronized boolean isOpen() {
+			return open;
+		}
+	}
+	
+}
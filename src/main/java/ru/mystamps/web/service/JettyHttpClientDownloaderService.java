@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.service;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.commons.lang3.ArrayUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpStatus;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.security.access.prepost.PreAuthorize;
+
+import lombok.RequiredArgsConstructor;
+
+import ru.mystamps.web.service.dto.DownloadResult;
+import ru.mystamps.web.service.dto.DownloadResult.Code;
+import ru.mystamps.web.support.spring.security.HasAuthority;
+
+/**
+ * Downloads files by a shared Jetty's {@link HttpClient}.
+ *
+ * It keeps connections to a server alive between downloads and doesn't block a thread while
+ * waiting for a response.
+ */
+@RequiredArgsConstructor
+public class JettyHttpClientDownloaderService implements DownloaderService {
+	
+	private static final Logger LOG =
+		LoggerFactory.getLogger(JettyHttpClientDownloaderService.class);
+	
+	// TODO: make it configurable
+	private static final String USER_AGENT =
+		"Mozilla/5.0 (X11; Fedora; Linux x86_64; rv:46.0) Gecko/20100101 Firefox/46.0";
+	
+	private final HttpClient httpClient;
+	
+	// Only types listed here will be downloaded. For other types, INVALID_FILE_TYPE error
+	// will be returned. An empty array (or null) means that all types are allowed.
+	private final String[] allowedContentTypes;
+	
+	// Max time to wait for the whole response (in milliseconds).
+	private final long timeout;
+	
+	// Max size of a response body (in bytes). Downloading of a larger file is aborted
+	// as soon as the limit is exceeded.
+	private final int maxBodySize;
+	
+	@Override
+	@PreAuthorize(HasAuthority.DOWNLOAD_IMAGE)
+	public DownloadResult download(String fileUrl) {
+		return await(send(fileUrl, null, null));
+	}
+	
+	@Override
+	@PreAuthorize(HasAuthority.DOWNLOAD_IMAGE)
+	public DownloadResult downloadIfModified(String fileUrl, String etag, String lastModified) {
+		return await(send(fileUrl, etag, lastModified));
+	}
+	
+	@Override
+	@PreAuthorize(HasAuthority.DOWNLOAD_IMAGE)
+	public CompletableFuture<DownloadResult> downloadAsync(String fileUrl) {
+		return send(fileUrl, null, null);
+	}
+	
+	private static DownloadResult await(CompletableFuture<DownloadResult> future) {
+		try {
+			return future.get();
+		
+		} catch (InterruptedException ignored) {
+			LOG.debug("Couldn't download file: interrupted");
+			Thread.currentThread().interrupt();
+			return DownloadResult.failed(Code.UNEXPECTED_ERROR);
+		
+		} catch (ExecutionException ex) {
+			LOG.warn("Couldn't download file", ex.getCause());
+			return DownloadResult.failed(Code.UNEXPECTED_ERROR);
+		}
+	}
+	
+	private CompletableFuture<DownloadResult> send(
+		String fileUrl,
+		String etag,
+		String lastModified) {
+		
+		// TODO(security): fix possible log injection
+		LOG.debug("Downloading '{}'", fileUrl);
+		
+		URI uri = parseUrl(fileUrl);
+		if (uri == null) {
+			return CompletableFuture.completedFuture(DownloadResult.failed(Code.INVALID_URL));
+		}
+		
+		ResponseCollector collector = new ResponseCollector();
+		
+		// We don't support redirects because they allow to bypass some of our validations.
+		Request request = httpClient.newRequest(uri)
+			.agent(USER_AGENT)
+			.followRedirects(false)
+			.timeout(timeout, TimeUnit.MILLISECONDS);
+		
+		if (etag != null) {
+			request.header(HttpHeader.IF_NONE_MATCH, etag);
+		}
+		if (lastModified != null) {
+			request.header(HttpHeader.IF_MODIFIED_SINCE, lastModified);
+		}
+		
+		request.send(collector);
+		
+		return collector.result;
+	}
+	
+	private static URI parseUrl(String fileUrl) {
+		try {
+			URI uri = new URI(fileUrl);
+			String scheme = uri.getScheme();
+			if (uri.getHost() == null
+				|| !("http".equalsIgnoreCase(scheme) || "https".equalsIgnoreCase(scheme))) {
+				LOG.error("Couldn't download file: unsupported URL: {}", fileUrl);
+				return null;
+			}
+			return uri;
+		
+		} catch (URISyntaxException ex) {
+			LOG.error("Couldn't download file: invalid URL: {}", ex.getMessage());
+			return null;
+		}
+	}
+	
+	private Code validateResponse(Response response) {
+		int status = response.getStatus();
+		if (status == HttpStatus.MOVED_TEMPORARILY_302
+			|| status == HttpStatus.MOVED_PERMANENTLY_301) {
+			LOG.debug("Couldn't download file: redirects are disallowed");
+			return Code.INVALID_REDIRECT;
+		}
+		
+		if (status == HttpStatus.NOT_FOUND_404) {
+			LOG.debug("Couldn't download file: not found on the server");
+			return Code.FILE_NOT_FOUND;
+		}
+		
+		if (status != HttpStatus.OK_200) {
+			LOG.debug("Couldn't download file: unexpected response status {}", status);
+			return Code.UNEXPECTED_ERROR;
+		}
+		
+		// We need only the first part from "text/html; charset=UTF-8"
+		String contentType = StringUtils.substringBefore(
+			response.getHeaders().get(HttpHeader.CONTENT_TYPE),
+			";"
+		);
+		
+		if (ArrayUtils.isNotEmpty(allowedContentTypes)
+			&& !ArrayUtils.contains(allowedContentTypes, contentType)) {
+			// TODO(security): fix possible log injection
+			LOG.debug("Couldn't download file: unsupported file type '{}'", contentType);
+			return Code.INVALID_FILE_TYPE;
+		}
+		
+		long contentLength =
+			response.getHeaders().getLongField(HttpHeader.CONTENT_LENGTH.asString());
+		if (contentLength > maxBodySize) {
+			LOG.debug("Couldn't download file: it's too large ({} bytes)", contentLength);
+			return Code.FILE_TOO_LARGE;
+		}
+		
+		return Code.SUCCESS;
+	}
+	
+	/**
+	 * Accumulates a response body and aborts a response as soon as it turns out to be invalid.
+	 */
+	private class ResponseCollector extends Response.Listener.Adapter {
+		
+		private final CompletableFuture<DownloadResult> result = new CompletableFuture<>();
+		private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+		private Code failure;
+		private boolean notModified;
+		
+		@Override
+		public void onHeaders(Response response) {
+			if (response.getStatus() == HttpStatus.NOT_MODIFIED_304) {
+				notModified = true;
+				return;
+			}
+			
+			Code code = validateResponse(response);
+			if (code != Code.SUCCESS) {
+				abort(response, code);
+			}
+		}
+		
+		@Override
+		public void onContent(Response response, ByteBuffer content) {
+			int length = content.remaining();
+			if (body.size() + length > maxBodySize) {
+				LOG.debug("Couldn't download file: it's larger than {} bytes", maxBodySize);
+				abort(response, Code.FILE_TOO_LARGE);
+				return;
+			}
+			
+			byte[] chunk = new byte[length];
+			content.get(chunk);
+			body.write(chunk, 0, length);
+		}
+		
+		@Override
+		public void onComplete(Result response) {
+			if (failure != null) {
+				result.complete(DownloadResult.failed(failure));
+				return;
+			}
+			
+			if (response.isFailed()) {
+				Throwable ex = response.getFailure();
+				if (ex instanceof TimeoutException) {
+					LOG.debug("Couldn't download file: timeout has been exceeded");
+				} else {
+					LOG.warn("Couldn't download file", ex);
+				}
+				result.complete(DownloadResult.failed(Code.UNEXPECTED_ERROR));
+				return;
+			}
+			
+			HttpFields headers = response.getResponse().getHeaders();
+			String etag = headers.get(HttpHeader.ETAG);
+			String lastModified = headers.get(HttpHeader.LAST_MODIFIED);
+			String cacheControl = headers.get(HttpHeader.CACHE_CONTROL);
+			
+			if (notModified) {
+				result.complete(DownloadResult.notModified(etag, lastModified, cacheControl));
+				return;
+			}
+			
+			result.complete(DownloadResult.succeeded(
+				body.toByteArray(),
+				headers.get(HttpHeader.CONTENT_TYPE),
+				etag,
+				lastModified,
+				cacheControl
+			));
+		}
+		
+		private void abort(Response response, Code code) {
+			failure = code;
+			response.abort(new IllegalStateException("Download aborted: " + code));
+		}
+		
+	}
+	
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.service;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+
+import lombok.RequiredArgsConstructor;
+
+import ru.mystamps.web.service.dto.DownloadResult;
+import ru.mystamps.web.service.dto.DownloadResult.Code;
+
+/**
+ * Performs downloads within the limits of {@link HostLimiter}.
+ */
+@RequiredArgsConstructor
+public class RateLimitedDownloaderService implements DownloaderService {
+	
+	private final Logger log;
+	private final DownloaderService service;
+	private final HostLimiter hostLimiter;
+	
+	@Override
+	public DownloadResult download(String url) {
+		return limit(url, () -> service.download(url));
+	}
+	
+	@Override
+	public DownloadResult downloadIfModified(String url, String etag, String lastModified) {
+		return limit(url, () -> service.downloadIfModified(url, etag, lastModified));
+	}
+	
+	private DownloadResult limit(String url, Supplier<DownloadResult> downloader) {
+		String host = extractHost(url);
+		if (host == null) {
+			// an invalid URL will be rejected by a downloader
+			return downloader.get();
+		}
+		
+		try {
+			if (!hostLimiter.acquire(host)) {
+				// TODO(security): fix possible log injection
+				log.info("Couldn't download '{}': host is overloaded or unavailable", url);
+				return DownloadResult.failed(Code.UNEXPECTED_ERROR);
+			}
+		
+		} catch (InterruptedException ignored) {
+			log.debug("Couldn't download file: interrupted while waiting for its turn");
+			Thread.currentThread().interrupt();
+			return DownloadResult.failed(Code.UNEXPECTED_ERROR);
+		}
+		
+		boolean failed = true;
+		try {
+			DownloadResult result = downloader.get();
+			// only errors like timeouts or server failures could mean that a host has problems
+			failed = result.getCode() == Code.UNEXPECTED_ERROR;
+			return result;
+		
+		} finally {
+			hostLimiter.release(host, failed);
+		}
+	}
+	
+	private static String extractHost(String url) {
+		if (url == null) {
+			return null;
+		}
+		
+		try {
+			return new URI(url).getHost();
+		
+		} catch (URISyntaxException ignored) {
+			return null;
+		}
+	}
+	
+}
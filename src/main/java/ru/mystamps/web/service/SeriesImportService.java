@@ -17,12 +17,17 @@
  */
 package ru.mystamps.web.service;
 
+import java.io.InputStream;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
 
 import ru.mystamps.web.dao.dto.ImportRequestDto;
 import ru.mystamps.web.dao.dto.ImportRequestFullInfo;
 import ru.mystamps.web.dao.dto.ImportRequestInfo;
 import ru.mystamps.web.dao.dto.SeriesParsedDataDto;
+import ru.mystamps.web.dao.dto.UnfinishedImportRequestDto;
 import ru.mystamps.web.feature.participant.AddParticipantDto;
 import ru.mystamps.web.feature.series.AddSeriesDto;
 import ru.mystamps.web.feature.series.AddSeriesSalesDto;
@@ -31,6 +36,7 @@ import ru.mystamps.web.service.dto.RequestImportDto;
 
 public interface SeriesImportService {
 	Integer addRequest(RequestImportDto dto, Integer userId);
+	Map<String, Integer> addRequests(List<String> urls, Integer userId);
 	// @todo #695 SeriesImportService.addSeries(): introduce DTO object
 	Integer addSeries(
 		AddSeriesDto dto,
@@ -40,11 +46,17 @@ public interface SeriesImportService {
 		Integer userId
 	);
 	void changeStatus(Integer requestId, String oldStatus, String newStatus);
+	boolean acquireLease(Integer requestId, String status);
+	boolean giveUp(Integer requestId, int attempts, String oldStatus, String newStatus);
+	List<UnfinishedImportRequestDto> findUnfinishedRequests(int limit);
 	ImportRequestDto findById(Integer requestId);
 	void saveDownloadedContent(Integer requestId, String content);
 	String getDownloadedContent(Integer requestId);
+	<T> T readDownloadedContent(Integer requestId, Function<InputStream, T> reader);
+	int purgeDownloadedContent(Date importedBefore);
 	void saveParsedData(Integer requestId, RawParsedDataDto data);
 	SeriesParsedDataDto getParsedData(Integer requestId, String lang);
 	ImportRequestInfo findRequestInfo(Integer seriesId);
 	List<ImportRequestFullInfo> findAll();
+	Map<String, Long> countRequestsByStatus();
 }
@@ -17,19 +17,29 @@
  */
 package ru.mystamps.web.service;
 
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.Function;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.time.DateUtils;
 
 import org.slf4j.Logger;
 
 import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionOperations;
 
 import org.springframework.security.access.prepost.PreAuthorize;
 
@@ -46,6 +56,7 @@ import ru.mystamps.web.dao.dto.ImportRequestInfo;
 import ru.mystamps.web.dao.dto.ImportSeriesDbDto;
 import ru.mystamps.web.dao.dto.SeriesParsedDataDto;
 import ru.mystamps.web.dao.dto.SeriesSalesParsedDataDbDto;
+import ru.mystamps.web.dao.dto.UnfinishedImportRequestDto;
 import ru.mystamps.web.feature.participant.AddParticipantDto;
 import ru.mystamps.web.feature.participant.ParticipantService;
 import ru.mystamps.web.feature.series.AddSeriesDto;
@@ -56,12 +67,16 @@ import ru.mystamps.web.service.dto.RequestImportDto;
 import ru.mystamps.web.service.dto.SeriesExtractedInfo;
 import ru.mystamps.web.support.spring.security.HasAuthority;
 import ru.mystamps.web.util.CatalogUtils;
+import ru.mystamps.web.validation.ValidationRules;
 
 // it complains on "Request id must be non null"
 @SuppressWarnings("PMD.AvoidDuplicateLiterals")
 @RequiredArgsConstructor
 public class SeriesImportServiceImpl implements SeriesImportService {
 	
+	// max number of requests that are inserted by a single batch
+	private static final int BATCH_SIZE = 500;
+	
 	private final Logger log;
 	private final SeriesImportDao seriesImportDao;
 	private final SeriesService seriesService;
@@ -71,6 +86,12 @@ public class SeriesImportServiceImpl implements SeriesImportService {
 	private final ParticipantService participantService;
 	private final ApplicationEventPublisher eventPublisher;
 	
+	// runs a batch in a nested transaction, so its failure rolls back only to a savepoint
+	private final TransactionOperations nestedTransaction;
+	
+	// how long (in seconds) a request can be processed before it's considered abandoned
+	private final int leaseDuration;
+	
 	@Override
 	@Transactional
 	@PreAuthorize(HasAuthority.IMPORT_SERIES)
@@ -102,6 +123,109 @@ public class SeriesImportServiceImpl implements SeriesImportService {
 		return id;
 	}
 	
+	/**
+	 * Creates requests for many URLs at once.
+	 *
+	 * Invalid URLs, duplicates and URLs that have been requested before are skipped.
+	 *
+	 * @return ids of the created requests by their (encoded) URLs
+	 */
+	@Override
+	@Transactional
+	@PreAuthorize(HasAuthority.IMPORT_SERIES)
+	public Map<String, Integer> addRequests(List<String> urls, Integer userId) {
+		Validate.isTrue(urls != null, "URLs must be non null");
+		Validate.isTrue(userId != null, "Current user id must be non null");
+		
+		Set<String> encodedUrls = new LinkedHashSet<>();
+		for (String url : urls) {
+			String encodedUrl = encodeUrl(url);
+			if (encodedUrl == null) {
+				log.info("Ignored invalid URL for importing series: '{}'", url);
+				continue;
+			}
+			encodedUrls.add(encodedUrl);
+		}
+		
+		Map<String, Integer> created = new LinkedHashMap<>();
+		List<String> pending = new ArrayList<>(encodedUrls);
+		Date now = new Date();
+		
+		for (int from = 0; from < pending.size(); from += BATCH_SIZE) {
+			List<String> batch = pending.subList(from, Math.min(from + BATCH_SIZE, pending.size()));
+			
+			Set<String> existingUrls = seriesImportDao.findIdsByUrls(batch).keySet();
+			
+			List<ImportSeriesDbDto> requests = new ArrayList<>(batch.size());
+			for (String url : batch) {
+				if (existingUrls.contains(url)) {
+					continue;
+				}
+				ImportSeriesDbDto importRequest = new ImportSeriesDbDto();
+				importRequest.setUrl(url);
+				importRequest.setStatus(SeriesImportRequestStatus.UNPROCESSED);
+				importRequest.setUpdatedAt(now);
+				importRequest.setRequestedAt(now);
+				importRequest.setRequestedBy(userId);
+				requests.add(importRequest);
+			}
+			
+			if (requests.isEmpty()) {
+				continue;
+			}
+			
+			created.putAll(addAll(requests));
+		}
+		
+		log.info(
+			"{} request(s) for importing series have been created ({} URL(s) were skipped)",
+			created.size(),
+			urls.size() - created.size()
+		);
+		
+		return created;
+	}
+	
+	// the requests are inserted by a single batch and, when it conflicts with a concurrent
+	// import, one by one in order to skip only the URLs that have been requested meanwhile
+	private Map<String, Integer> addAll(List<ImportSeriesDbDto> requests) {
+		List<String> urls = new ArrayList<>(requests.size());
+		for (ImportSeriesDbDto request : requests) {
+			urls.add(request.getUrl());
+		}
+		
+		try {
+			nestedTransaction.execute(status -> {
+				seriesImportDao.addAll(requests);
+				return null;
+			});
+			return seriesImportDao.findIdsByUrls(urls);
+			
+		} catch (DuplicateKeyException ex) {
+			log.info(
+				"Some of {} request(s) for importing series have been created concurrently: {}",
+				requests.size(),
+				ex.getMessage()
+			);
+		}
+		
+		Map<String, Integer> created = new LinkedHashMap<>();
+		for (ImportSeriesDbDto request : requests) {
+			try {
+				Integer id = nestedTransaction.execute(status -> seriesImportDao.add(request));
+				created.put(request.getUrl(), id);
+				
+			} catch (DuplicateKeyException ex) {
+				log.info(
+					"Request for importing series from '{}' has been created concurrently",
+					request.getUrl()
+				);
+			}
+		}
+		
+		return created;
+	}
+	
 	@Override
 	@Transactional
 	@PreAuthorize(HasAuthority.IMPORT_SERIES)
@@ -148,6 +272,53 @@ public class SeriesImportServiceImpl implements SeriesImportService {
 		seriesImportDao.changeStatus(requestId, now, oldStatus, newStatus);
 	}
 	
+	@Override
+	@Transactional
+	public boolean acquireLease(Integer requestId, String status) {
+		Validate.isTrue(requestId != null, "Request id must be non null");
+		Validate.isTrue(StringUtils.isNotBlank(status), "Status must be non-blank");
+		
+		Date now = new Date();
+		Date lockedUntil = DateUtils.addSeconds(now, leaseDuration);
+		
+		return seriesImportDao.acquireLease(requestId, status, now, lockedUntil);
+	}
+	
+	// Changes the status only when the request is still in the state in which it has been read:
+	// the number of attempts is the same and nobody holds a lease on it.
+	@Override
+	@Transactional
+	public boolean giveUp(Integer requestId, int attempts, String oldStatus, String newStatus) {
+		Validate.isTrue(requestId != null, "Request id must be non null");
+		Validate.isTrue(StringUtils.isNotBlank(oldStatus), "Old status must be non-blank");
+		Validate.isTrue(StringUtils.isNotBlank(newStatus), "New status must be non-blank");
+		Validate.isTrue(!oldStatus.equals(newStatus), "Statuses must be different");
+		
+		Date now = new Date();
+		
+		return seriesImportDao.giveUp(requestId, attempts, now, oldStatus, newStatus);
+	}
+	
+	@Override
+	@Transactional(readOnly = true)
+	public List<UnfinishedImportRequestDto> findUnfinishedRequests(int limit) {
+		Validate.isTrue(limit > 0, "Limit must be greater than zero");
+		
+		// events about the recently updated requests may still be waiting in the queues
+		Date now = new Date();
+		Date updatedBefore = DateUtils.addSeconds(now, -leaseDuration);
+		
+		return seriesImportDao.findUnfinished(
+			Arrays.asList(
+				SeriesImportRequestStatus.UNPROCESSED,
+				SeriesImportRequestStatus.DOWNLOADING_SUCCEEDED
+			),
+			updatedBefore,
+			now,
+			limit
+		);
+	}
+	
 	@Override
 	@Transactional(readOnly = true)
 	@PreAuthorize(HasAuthority.IMPORT_SERIES)
@@ -184,6 +355,30 @@ public class SeriesImportServiceImpl implements SeriesImportService {
 		return seriesImportDao.findRawContentByRequestId(requestId);
 	}
 	
+	@Override
+	@Transactional(readOnly = true)
+	public <T> T readDownloadedContent(Integer requestId, Function<InputStream, T> reader) {
+		Validate.isTrue(requestId != null, "Request id must be non null");
+		Validate.isTrue(reader != null, "Reader must be non null");
+		
+		return seriesImportDao.readRawContent(requestId, reader);
+	}
+	
+	@Override
+	@Transactional
+	public int purgeDownloadedContent(Date importedBefore) {
+		Validate.isTrue(importedBefore != null, "Date must be non null");
+		
+		int removed = seriesImportDao.removeRawContent(
+			SeriesImportRequestStatus.IMPORT_SUCCEEDED,
+			importedBefore
+		);
+		
+		log.info("Removed downloaded content of {} imported request(s)", removed);
+		
+		return removed;
+	}
+	
 	@Override
 	@Transactional
 	public void saveParsedData(Integer requestId, RawParsedDataDto data) {
@@ -282,6 +477,37 @@ public class SeriesImportServiceImpl implements SeriesImportService {
 		return seriesImportDao.findAll();
 	}
 	
+	@Override
+	@Transactional(readOnly = true)
+	@PreAuthorize(HasAuthority.IMPORT_SERIES)
+	public Map<String, Long> countRequestsByStatus() {
+		return seriesImportDao.countByStatus();
+	}
+	
+	private static String encodeUrl(String url) {
+		if (StringUtils.isBlank(url)) {
+			return null;
+		}
+		
+		try {
+			URI uri = new URI(url.trim());
+			String scheme = uri.getScheme();
+			if (uri.getHost() == null
+				|| !("http".equalsIgnoreCase(scheme) || "https".equalsIgnoreCase(scheme))) {
+				return null;
+			}
+			
+			String encodedUrl = uri.toASCIIString();
+			if (encodedUrl.length() > ValidationRules.IMPORT_REQUEST_URL_MAX_LENGTH) {
+				return null;
+			}
+			return encodedUrl;
+		
+		} catch (URISyntaxException ignored) {
+			return null;
+		}
+	}
+	
 	private static Integer getFirstElement(List<Integer> list) {
 		if (list.isEmpty()) {
 			return null;
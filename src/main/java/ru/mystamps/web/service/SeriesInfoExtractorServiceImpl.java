@@ -22,13 +22,11 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.regex.Matcher;
+import java.util.function.BiFunction;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import org.apache.commons.lang3.StringUtils;
@@ -45,28 +43,16 @@ import ru.mystamps.web.feature.country.CountryService;
 import ru.mystamps.web.feature.participant.ParticipantService;
 import ru.mystamps.web.service.dto.RawParsedDataDto;
 import ru.mystamps.web.service.dto.SeriesExtractedInfo;
+import ru.mystamps.web.util.CatalogNumberRangeSet;
+import ru.mystamps.web.util.NameMatch;
 import ru.mystamps.web.validation.ValidationRules;
 
 @RequiredArgsConstructor
 @SuppressWarnings({ "PMD.TooManyMethods", "PMD.GodClass" })
 public class SeriesInfoExtractorServiceImpl implements SeriesInfoExtractorService {
 	
-	// Related to RELEASE_YEAR_REGEXP and used in unit tests.
-	protected static final int MAX_SUPPORTED_RELEASE_YEAR = 2099;
-	
-	// Regular expression matches release year of the stamps (from 1840 till 2099).
-	private static final Pattern RELEASE_YEAR_REGEXP =
-		Pattern.compile("(?<year>18[4-9][0-9]|19[0-9]{2}|20[0-9]{2})г?");
-	
-	// Regular expression matches number of the stamps in a series (from 1 to 99).
-	private static final Pattern NUMBER_OF_STAMPS_REGEXP = Pattern.compile(
-		"(?<quantity>[1-9][0-9]?)( (беззубцовые|зубцовых))? (мар(ок|ки)|блоков)",
-		Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE
-	);
-	
-	// Regular expression matches range of Michel catalog numbers (from 1 to 9999).
-	private static final Pattern MICHEL_NUMBERS_REGEXP =
-		Pattern.compile("#[ ]?(?<begin>[1-9][0-9]{0,3})-(?<end>[1-9][0-9]{0,3})");
+	// Used in unit tests.
+	protected static final int MAX_SUPPORTED_RELEASE_YEAR = SeriesInfoScanner.MAX_RELEASE_YEAR;
 	
 	// CheckStyle: ignore LineLength for next 4 lines
 	private static final Pattern VALID_CATEGORY_NAME_EN = Pattern.compile(ValidationRules.CATEGORY_NAME_EN_REGEXP);
@@ -88,10 +74,12 @@ public class SeriesInfoExtractorServiceImpl implements SeriesInfoExtractorServic
 	public SeriesExtractedInfo extract(RawParsedDataDto data) {
 		List<Integer> categoryIds = extractCategory(data.getCategoryName());
 		List<Integer> countryIds = extractCountry(data.getCountryName());
-		Integer releaseYear = extractReleaseYear(data.getReleaseYear());
-		Integer quantity = extractQuantity(data.getQuantity());
-		Boolean perforated = extractPerforated(data.getPerforated());
-		Set<String> michelNumbers = extractMichelNumbers(data.getMichelNumbers());
+		// the fields are often extracted from the same element, so we re-use the scanner
+		SeriesInfoScanner scanner = new SeriesInfoScanner();
+		Integer releaseYear = extractReleaseYear(data.getReleaseYear(), scanner);
+		Integer quantity = extractQuantity(data.getQuantity(), scanner);
+		Boolean perforated = extractPerforated(data.getPerforated(), scanner);
+		Set<String> michelNumbers = extractMichelNumbers(data.getMichelNumbers(), scanner);
 		Integer sellerId = extractSeller(data.getSellerName(), data.getSellerUrl());
 		Integer sellerGroupId = extractSellerGroup(sellerId, data.getSellerUrl());
 		String sellerName = extractSellerName(sellerId, data.getSellerName());
@@ -148,6 +136,17 @@ public class SeriesInfoExtractorServiceImpl implements SeriesInfoExtractorServic
 			}
 		}
 		
+		NameMatch match = findBestMatch(candidates, categoryService::findSimilarNames);
+		if (match != null) {
+			log.debug(
+				"Found similar category: '{}' (#{}), score: {}",
+				match.getName(),
+				match.getId(),
+				match.getScore()
+			);
+			return Collections.singletonList(match.getId());
+		}
+		
 		log.debug("Could not extract category from a fragment");
 		
 		return Collections.emptyList();
@@ -196,33 +195,50 @@ public class SeriesInfoExtractorServiceImpl implements SeriesInfoExtractorServic
 			}
 		}
 		
+		NameMatch match = findBestMatch(candidates, countryService::findSimilarNames);
+		if (match != null) {
+			log.debug(
+				"Found similar country: '{}' (#{}), score: {}",
+				match.getName(),
+				match.getId(),
+				match.getScore()
+			);
+			return Collections.singletonList(match.getId());
+		}
+		
 		log.debug("Could not extract country from a fragment");
 		
 		return Collections.emptyList();
 	}
 	
 	protected Integer extractReleaseYear(String fragment) {
+		return extractReleaseYear(fragment, new SeriesInfoScanner());
+	}
+	
+	protected Integer extractQuantity(String fragment) {
+		return extractQuantity(fragment, new SeriesInfoScanner());
+	}
+	
+	protected Boolean extractPerforated(String fragment) {
+		return extractPerforated(fragment, new SeriesInfoScanner());
+	}
+	
+	protected Set<String> extractMichelNumbers(String fragment) {
+		return extractMichelNumbers(fragment, new SeriesInfoScanner());
+	}
+	
+	private Integer extractReleaseYear(String fragment, SeriesInfoScanner scanner) {
 		if (StringUtils.isBlank(fragment)) {
 			return null;
 		}
 		
 		log.debug("Determining release year from a fragment: '{}'", fragment);
 		
-		String[] candidates = StringUtils.split(fragment);
-		for (String candidate : candidates) {
-			Matcher matcher = RELEASE_YEAR_REGEXP.matcher(candidate);
-			if (!matcher.matches()) {
-				continue;
-			}
-			
-			try {
-				Integer year = Integer.valueOf(matcher.group("year"));
-				log.debug("Release year is {}", year);
-				return year;
-				
-			} catch (NumberFormatException ignored) { // NOPMD: EmptyCatchBlock
-				// continue with the next element
-			}
+		scanner.scan(fragment);
+		Integer year = scanner.getReleaseYear();
+		if (year != null) {
+			log.debug("Release year is {}", year);
+			return year;
 		}
 		
 		log.debug("Could not extract release year from a fragment");
@@ -230,20 +246,18 @@ public class SeriesInfoExtractorServiceImpl implements SeriesInfoExtractorServic
 		return null;
 	}
 	
-	protected Integer extractQuantity(String fragment) {
+	private Integer extractQuantity(String fragment, SeriesInfoScanner scanner) {
 		if (StringUtils.isBlank(fragment)) {
 			return null;
 		}
 		
 		log.debug("Determining quantity from a fragment: '{}'", fragment);
 		
-		Matcher matcher = NUMBER_OF_STAMPS_REGEXP.matcher(fragment);
-		if (matcher.find()) {
-			Integer quantity = Integer.valueOf(matcher.group("quantity"));
-			if (quantity <= ValidationRules.MAX_STAMPS_IN_SERIES) {
-				log.debug("Quantity is {}", quantity);
-				return quantity;
-			}
+		scanner.scan(fragment);
+		Integer quantity = scanner.getQuantity();
+		if (quantity != null) {
+			log.debug("Quantity is {}", quantity);
+			return quantity;
 		}
 		
 		log.debug("Could not extract quantity from a fragment");
@@ -252,16 +266,15 @@ public class SeriesInfoExtractorServiceImpl implements SeriesInfoExtractorServic
 	}
 	
 	// @todo #782 Series import: add integration test for extracting perforation flag
-	protected Boolean extractPerforated(String fragment) {
+	private Boolean extractPerforated(String fragment, SeriesInfoScanner scanner) {
 		if (StringUtils.isBlank(fragment)) {
 			return null;
 		}
 		
 		log.debug("Determining perforation from a fragment: '{}'", fragment);
 		
-		boolean withoutPerforation = StringUtils.containsIgnoreCase(fragment, "б/з")
-			|| StringUtils.containsIgnoreCase(fragment, "беззубцовые");
-		if (withoutPerforation) {
+		scanner.scan(fragment);
+		if (scanner.isWithoutPerforation()) {
 			log.debug("Perforation is false");
 			return Boolean.FALSE;
 		}
@@ -273,24 +286,19 @@ public class SeriesInfoExtractorServiceImpl implements SeriesInfoExtractorServic
 	
 	// @todo #694 SeriesInfoExtractorServiceImpl: support for a single Michel number
 	// @todo #694 SeriesInfoExtractorServiceImpl: support for a comma separated Michel numbers
-	protected Set<String> extractMichelNumbers(String fragment) {
+	private Set<String> extractMichelNumbers(String fragment, SeriesInfoScanner scanner) {
 		if (StringUtils.isBlank(fragment)) {
 			return Collections.emptySet();
 		}
 		
 		log.debug("Determining michel numbers from a fragment: '{}'", fragment);
 		
-		Matcher matcher = MICHEL_NUMBERS_REGEXP.matcher(fragment);
-		if (matcher.find()) {
-			Integer begin = Integer.valueOf(matcher.group("begin"));
-			Integer end = Integer.valueOf(matcher.group("end"));
-			if (begin < end) {
-				Set<String> numbers = IntStream.rangeClosed(begin, end)
-					.mapToObj(String::valueOf)
-					.collect(Collectors.toCollection(LinkedHashSet::new));
-				log.debug("Extracted michel numbers: {}", numbers);
-				return numbers;
-			}
+		scanner.scan(fragment);
+		if (scanner.getMichelBegin() > 0) {
+			Set<String> numbers =
+				CatalogNumberRangeSet.ofRange(scanner.getMichelBegin(), scanner.getMichelEnd());
+			log.debug("Extracted michel numbers: {}", numbers);
+			return numbers;
 		}
 		
 		log.debug("Could not extract michel numbers from a fragment");
@@ -404,6 +412,26 @@ public class SeriesInfoExtractorServiceImpl implements SeriesInfoExtractorServic
 		}
 	}
 	
+	// Picks the most similar name among the best matches of every candidate.
+	// Used only as a last resort when neither exact nor prefix lookups have found anything.
+	private static NameMatch findBestMatch(
+		List<String> candidates,
+		BiFunction<String, Integer, List<NameMatch>> findSimilarNames) {
+		
+		NameMatch best = null;
+		for (String candidate : candidates) {
+			List<NameMatch> matches = findSimilarNames.apply(candidate, 1);
+			if (matches.isEmpty()) {
+				continue;
+			}
+			NameMatch match = matches.get(0);
+			if (best == null || match.getScore() > best.getScore()) {
+				best = match;
+			}
+		}
+		return best;
+	}
+	
 	private static boolean validCategoryName(String name) {
 		if (name.length() < ValidationRules.CATEGORY_NAME_MIN_LENGTH) {
 			return false;
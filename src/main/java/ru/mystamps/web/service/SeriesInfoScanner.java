@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.service;
+
+import ru.mystamps.web.validation.ValidationRules;
+
+/**
+ * Looks for a release year, a number of stamps, a perforation and a range of Michel numbers
+ * in a text.
+ *
+ * It replaces a set of regular expressions (and matches the same texts as they did) and works
+ * without splitting a text into strings. The last scanned text is remembered, so when several
+ * fields of a series have been extracted from the same element, the text is scanned only once.
+ * The class isn't thread-safe.
+ */
+class SeriesInfoScanner {
+	
+	// Release year of the stamps (from 1840 till 2099), optionally followed by "г".
+	static final int MAX_RELEASE_YEAR = 2099;
+	private static final int MIN_RELEASE_YEAR = ValidationRules.MIN_RELEASE_YEAR;
+	private static final int YEAR_LENGTH = 4;
+	private static final char YEAR_SUFFIX = 'г';
+	
+	// Number of the stamps in a series (from 1 to 99) that is followed by one of the units
+	// and, optionally, by a perforation before them. For example: "5 беззубцовые марок".
+	// The words are separated by a single space. As with a regular expression, a number could
+	// be a part of a word, so "(5 марок)" and "№15 марок" contain 5 and 15.
+	private static final int MAX_QUANTITY_LENGTH = 2;
+	private static final String[] QUANTITY_ADJECTIVES = { "беззубцовые", "зубцовых" };
+	private static final String[] QUANTITY_UNITS = { "марок", "марки", "блоков" };
+	
+	// Presence of any of these words means that the stamps are imperforated.
+	private static final String[] WITHOUT_PERFORATION = { "б/з", "беззубцовые" };
+	
+	// Range of Michel catalog numbers (from 1 to 9999). For example: "#1-10" or "# 1-10".
+	private static final char MICHEL_PREFIX = '#';
+	private static final int MAX_MICHEL_NUMBER_LENGTH = 4;
+	
+	private static final int NOT_FOUND = -1;
+	
+	private String text;
+	
+	private int releaseYear;
+	private int quantity;
+	private boolean withoutPerforation;
+	private int michelBegin;
+	private int michelEnd;
+	private boolean michelNumbersFound;
+	
+	// used by the parsing methods to return a position after a parsed number
+	private int parsedEnd;
+	
+	public void scan(String fragment) {
+		if (fragment.equals(text)) {
+			return;
+		}
+		
+		text = fragment;
+		releaseYear = NOT_FOUND;
+		quantity = NOT_FOUND;
+		withoutPerforation = false;
+		michelBegin = NOT_FOUND;
+		michelEnd = NOT_FOUND;
+		michelNumbersFound = false;
+		
+		findQuantity();
+		
+		int length = fragment.length();
+		int pos = 0;
+		while (pos < length) {
+			if (Character.isWhitespace(fragment.charAt(pos))) {
+				pos++;
+				continue;
+			}
+			
+			int start = pos;
+			while (pos < length && !Character.isWhitespace(fragment.charAt(pos))) {
+				pos++;
+			}
+			int end = pos;
+			
+			if (releaseYear == NOT_FOUND) {
+				releaseYear = parseReleaseYear(start, end);
+			}
+			
+			if (!withoutPerforation) {
+				withoutPerforation = containsAny(start, end, WITHOUT_PERFORATION);
+			}
+			
+			if (!michelNumbersFound) {
+				findMichelNumbers(start, end);
+			}
+		}
+	}
+	
+	public Integer getReleaseYear() {
+		return releaseYear == NOT_FOUND ? null : releaseYear;
+	}
+	
+	public Integer getQuantity() {
+		return quantity == NOT_FOUND ? null : quantity;
+	}
+	
+	public boolean isWithoutPerforation() {
+		return withoutPerforation;
+	}
+	
+	// Returns -1 when a range hasn't been found or is invalid (for example, "#3-1").
+	public int getMichelBegin() {
+		return michelBegin;
+	}
+	
+	public int getMichelEnd() {
+		return michelEnd;
+	}
+	
+	private int parseReleaseYear(int start, int end) {
+		int length = end - start;
+		if (length == YEAR_LENGTH + 1 && text.charAt(end - 1) == YEAR_SUFFIX) {
+			length--;
+		}
+		if (length != YEAR_LENGTH) {
+			return NOT_FOUND;
+		}
+		
+		int year = parseNumber(start, start + length, YEAR_LENGTH);
+		if (parsedEnd != start + length) {
+			return NOT_FOUND;
+		}
+		if (year < MIN_RELEASE_YEAR || year > MAX_RELEASE_YEAR) {
+			return NOT_FOUND;
+		}
+		
+		return year;
+	}
+	
+	// Searches for "number unit" or "number adjective unit". Only the first occurrence counts
+	// even when the number is too large.
+	private void findQuantity() {
+		int length = text.length();
+		for (int pos = 0; pos < length; pos++) {
+			int number = parseNumber(pos, length, MAX_QUANTITY_LENGTH);
+			if (number == NOT_FOUND) {
+				continue;
+			}
+			
+			int unitStart = skipSpace(parsedEnd);
+			if (unitStart == NOT_FOUND) {
+				continue;
+			}
+			
+			if (!startsWithAny(unitStart, QUANTITY_UNITS)) {
+				int adjectiveEnd = findAnyAt(unitStart, QUANTITY_ADJECTIVES);
+				unitStart = adjectiveEnd == NOT_FOUND ? NOT_FOUND : skipSpace(adjectiveEnd);
+				if (unitStart == NOT_FOUND || !startsWithAny(unitStart, QUANTITY_UNITS)) {
+					continue;
+				}
+			}
+			
+			if (number <= ValidationRules.MAX_STAMPS_IN_SERIES) {
+				quantity = number;
+			}
+			return;
+		}
+	}
+	
+	// Returns a position after a single space or -1 when there is no space at this position.
+	private int skipSpace(int pos) {
+		if (pos < text.length() && text.charAt(pos) == ' ') {
+			return pos + 1;
+		}
+		return NOT_FOUND;
+	}
+	
+	// Searches for "#begin-end" or "# begin-end" where both numbers don't start with zero.
+	// As with a regular expression, only the first occurrence of the pattern counts.
+	private void findMichelNumbers(int start, int end) {
+		for (int pos = start; pos < end; pos++) {
+			if (text.charAt(pos) != MICHEL_PREFIX) {
+				continue;
+			}
+			
+			int numberStart = pos + 1;
+			if (numberStart == end && end < text.length() && text.charAt(end) == ' ') {
+				numberStart++;
+			}
+			
+			int begin = parseNumber(numberStart, text.length(), MAX_MICHEL_NUMBER_LENGTH);
+			if (begin == NOT_FOUND || parsedEnd >= text.length() || text.charAt(parsedEnd) != '-') {
+				continue;
+			}
+			
+			int last = parseNumber(parsedEnd + 1, text.length(), MAX_MICHEL_NUMBER_LENGTH);
+			if (last == NOT_FOUND) {
+				continue;
+			}
+			
+			michelNumbersFound = true;
+			if (begin < last) {
+				michelBegin = begin;
+				michelEnd = last;
+			}
+			return;
+		}
+	}
+	
+	// Parses up to maxLength digits of a positive number that doesn't start with zero.
+	// A position after the last digit is stored in parsedEnd.
+	private int parseNumber(int start, int end, int maxLength) {
+		parsedEnd = start;
+		if (start >= end || text.charAt(start) < '1' || text.charAt(start) > '9') {
+			return NOT_FOUND;
+		}
+		
+		int result = 0;
+		int pos = start;
+		while (pos < end && pos - start < maxLength && isDigit(text.charAt(pos))) {
+			result = result * 10 + text.charAt(pos) - '0';
+			pos++;
+		}
+		parsedEnd = pos;
+		
+		return result;
+	}
+	
+	private boolean startsWithAny(int start, String[] words) {
+		return findAnyAt(start, words) != NOT_FOUND;
+	}
+	
+	// Returns a position after a word that starts at this position or -1 when there is none.
+	private int findAnyAt(int start, String[] words) {
+		for (String word : words) {
+			if (text.regionMatches(true, start, word, 0, word.length())) {
+				return start + word.length();
+			}
+		}
+		return NOT_FOUND;
+	}
+	
+	private boolean containsAny(int start, int end, String[] words) {
+		for (String word : words) {
+			for (int pos = start; pos + word.length() <= end; pos++) {
+				if (text.regionMatches(true, pos, word, 0, word.length())) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+	
+	private static boolean isDigit(char ch) {
+		return ch >= '0' && ch <= '9';
+	}
+	
+}
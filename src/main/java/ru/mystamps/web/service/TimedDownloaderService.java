@@ -17,6 +17,8 @@
  */
 package ru.mystamps.web.service;
 
+import java.util.concurrent.CompletableFuture;
+
 import org.apache.commons.lang3.time.StopWatch;
 
 import org.slf4j.Logger;
@@ -58,4 +60,21 @@ public class TimedDownloaderService implements DownloaderService {
 		return result;
 	}
 	
+	@Override
+	public CompletableFuture<DownloadResult> downloadAsync(String url) {
+		StopWatch timer = new StopWatch();
+		timer.start();
+		
+		return service.downloadAsync(url).whenComplete((result, ex) -> {
+			timer.stop();
+			if (result != null && result.hasSucceeded()) {
+				log.debug(
+					"{} bytes have been downloaded in {} msecs",
+					result.getData().length,
+					timer.getTime()
+				);
+			}
+		});
+	}
+	
 }
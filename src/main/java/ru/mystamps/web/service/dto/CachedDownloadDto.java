@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.service.dto;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+@Getter
+@RequiredArgsConstructor
+public class CachedDownloadDto {
+	private final String url;
+	private final String contentType;
+	private final String etag;
+	private final String lastModified;
+	// time (in milliseconds since epoch) until which a copy could be used without revalidation
+	private final long freshUntil;
+	private final byte[] data;
+	
+	public boolean isFresh(long now) {
+		return now < freshUntil;
+	}
+	
+	/**
+	 * Returns a copy that has been revalidated by a response with the specified headers.
+	 *
+	 * Validators that are absent in a response are kept as is.
+	 */
+	public CachedDownloadDto revalidated(String newEtag, String newLastModified, long time) {
+		return new CachedDownloadDto(
+			url,
+			contentType,
+			newEtag == null ? etag : newEtag,
+			newLastModified == null ? lastModified : newLastModified,
+			time,
+			data
+		);
+	}
+	
+	public DownloadResult toResult() {
+		return DownloadResult.succeeded(data, contentType, etag, lastModified, null);
+	}
+	
+}
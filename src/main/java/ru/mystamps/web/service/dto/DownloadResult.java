@@ -33,12 +33,56 @@ public class DownloadResult {
 	private final byte[] data;
 	private final String contentType;
 	
+	// values of the ETag, Last-Modified and Cache-Control headers (or null)
+	private final String etag;
+	private final String lastModified;
+	private final String cacheControl;
+	
 	public static DownloadResult failed(Code code) {
-		return new DownloadResult(code, ArrayUtils.EMPTY_BYTE_ARRAY, StringUtils.EMPTY);
+		return new DownloadResult(
+			code,
+			ArrayUtils.EMPTY_BYTE_ARRAY,
+			StringUtils.EMPTY,
+			null,
+			null,
+			null
+		);
 	}
 	
 	public static DownloadResult succeeded(byte[] data, String contentType) {
-		return new DownloadResult(Code.SUCCESS, data, contentType);
+		return succeeded(data, contentType, null, null, null);
+	}
+	
+	public static DownloadResult succeeded(
+		byte[] data,
+		String contentType,
+		String etag,
+		String lastModified,
+		String cacheControl) {
+		
+		return new DownloadResult(
+			Code.SUCCESS,
+			data,
+			contentType,
+			etag,
+			lastModified,
+			cacheControl
+		);
+	}
+	
+	public static DownloadResult notModified(
+		String etag,
+		String lastModified,
+		String cacheControl) {
+		
+		return new DownloadResult(
+			Code.NOT_MODIFIED,
+			ArrayUtils.EMPTY_BYTE_ARRAY,
+			StringUtils.EMPTY,
+			etag,
+			lastModified,
+			cacheControl
+		);
 	}
 	
 	public boolean hasFailed() {
@@ -59,6 +103,9 @@ public class DownloadResult {
 		INVALID_REDIRECT,
 		INVALID_FILE_TYPE,
 		FILE_NOT_FOUND,
+		FILE_TOO_LARGE,
+		// a response to a conditional request: a cached copy of a file is still valid
+		NOT_MODIFIED,
 		INSUFFICIENT_PERMISSIONS,
 		UNEXPECTED_ERROR,
 	}
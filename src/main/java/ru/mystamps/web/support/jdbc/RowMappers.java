@@ -27,7 +27,6 @@ import ru.mystamps.web.dao.dto.*; // NOPMD: UnusedImports
 import ru.mystamps.web.feature.collection.CollectionInfoDto;
 import ru.mystamps.web.feature.collection.SeriesInCollectionDto;
 import ru.mystamps.web.feature.collection.SeriesInCollectionWithPriceDto;
-import ru.mystamps.web.feature.image.ImageDto;
 import ru.mystamps.web.feature.image.ImageInfoDto;
 import ru.mystamps.web.feature.series.PurchaseAndSaleDto;
 import ru.mystamps.web.feature.series.SeriesFullInfoDto;
@@ -298,13 +297,6 @@ public final class RowMappers {
 		);
 	}
 	
-	public static ImageDto forImageDto(ResultSet rs, int unused) throws SQLException {
-		return new ImageDto(
-			rs.getString("type"),
-			rs.getBytes("data")
-		);
-	}
-	
 	public static ImageInfoDto forImageInfoDto(ResultSet rs, int unused) throws SQLException {
 		return new ImageInfoDto(
 			rs.getInt("id"),
@@ -319,6 +311,14 @@ public final class RowMappers {
 		);
 	}
 	
+	public static EntityNameDto forEntityNameDto(ResultSet rs, int unused) throws SQLException {
+		return new EntityNameDto(
+			rs.getInt("id"),
+			rs.getString("name"),
+			rs.getBoolean("alias")
+		);
+	}
+	
 	public static EntityWithParentDto forEntityWithParentDto(ResultSet rs, int unused)
 		throws SQLException {
 		
@@ -329,6 +329,20 @@ public final class RowMappers {
 		);
 	}
 	
+	public static UnfinishedImportRequestDto forUnfinishedImportRequestDto(
+		ResultSet rs,
+		int unused)
+		throws SQLException {
+		
+		return new UnfinishedImportRequestDto(
+			rs.getInt("id"),
+			rs.getString("url"),
+			rs.getString("status"),
+			rs.getInt("attempts"),
+			rs.getTimestamp("locked_until")
+		);
+	}
+	
 	public static ImportRequestDto forImportRequestDto(ResultSet rs, int unused)
 		throws SQLException {
 		
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.support.spring.concurrent;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.slf4j.Logger;
+
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.SmartApplicationListener;
+import org.springframework.core.Ordered;
+
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Listener that handles events by another listener in a thread of the specified executor.
+ *
+ * Allows to process every stage of a pipeline by its own pool. When the executor is full,
+ * an event is dropped (and logged) instead of blocking a thread that has published it.
+ */
+@RequiredArgsConstructor
+public class AsyncApplicationListener<E extends ApplicationEvent>
+	implements SmartApplicationListener {
+	
+	private final Logger log;
+	private final Class<E> eventType;
+	private final ApplicationListener<E> listener;
+	private final Executor executor;
+	
+	@Override
+	public boolean supportsEventType(Class<? extends ApplicationEvent> type) {
+		return eventType.isAssignableFrom(type);
+	}
+	
+	@Override
+	public boolean supportsSourceType(Class<?> sourceType) {
+		return true;
+	}
+	
+	@Override
+	public int getOrder() {
+		return Ordered.LOWEST_PRECEDENCE;
+	}
+	
+	@Override
+	public void onApplicationEvent(ApplicationEvent event) {
+		E typedEvent = eventType.cast(event);
+		try {
+			executor.execute(() -> handle(typedEvent));
+		} catch (RejectedExecutionException ex) {
+			log.warn("{} has been rejected: {}", eventType.getSimpleName(), ex.getMessage());
+		}
+	}
+	
+	@SuppressWarnings("PMD.AvoidCatchingGenericException")
+	private void handle(E event) {
+		try {
+			listener.onApplicationEvent(event);
+		} catch (RuntimeException ex) {
+			// otherwise the exception would be printed only to stderr
+			log.error("Failed to handle {}", eventType.getSimpleName(), ex);
+			throw ex;
+		}
+	}
+	
+}
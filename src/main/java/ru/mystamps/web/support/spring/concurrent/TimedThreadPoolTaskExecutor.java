@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.support.spring.concurrent;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * Thread pool that measures how long tasks are waiting in the queue and how long
+ * they're being executed.
+ *
+ * Besides logging, it keeps counters that could be used for monitoring.
+ */
+public class TimedThreadPoolTaskExecutor extends ThreadPoolTaskExecutor {
+	
+	private static final long serialVersionUID = 1L;
+	
+	private final transient Logger log;
+	
+	private final AtomicLong completedTasks = new AtomicLong();
+	private final AtomicLong failedTasks = new AtomicLong();
+	private final AtomicLong rejectedTasks = new AtomicLong();
+	private final AtomicLong totalWaitTime = new AtomicLong();
+	private final AtomicLong totalExecutionTime = new AtomicLong();
+	
+	public TimedThreadPoolTaskExecutor(Logger logger) {
+		this.log = logger;
+		setTaskDecorator(this::decorate);
+	}
+	
+	@Override
+	public void execute(Runnable task) {
+		try {
+			super.execute(task);
+		} catch (TaskRejectedException ex) {
+			onRejection();
+			throw ex;
+		}
+	}
+	
+	@Override
+	public Future<?> submit(Runnable task) {
+		try {
+			return super.submit(task);
+		} catch (TaskRejectedException ex) {
+			onRejection();
+			throw ex;
+		}
+	}
+	
+	@Override
+	public <T> Future<T> submit(Callable<T> task) {
+		try {
+			return super.submit(task);
+		} catch (TaskRejectedException ex) {
+			onRejection();
+			throw ex;
+		}
+	}
+	
+	/**
+	 * Returns number of tasks that are waiting for execution.
+	 */
+	public int getQueueSize() {
+		return getThreadPoolExecutor().getQueue().size();
+	}
+	
+	public long getCompletedTasksCounter() {
+		return completedTasks.get();
+	}
+	
+	public long getFailedTasksCounter() {
+		return failedTasks.get();
+	}
+	
+	public long getRejectedTasksCounter() {
+		return rejectedTasks.get();
+	}
+	
+	/**
+	 * Returns average time (in milliseconds) that a task was waiting in the queue.
+	 */
+	public long getAverageWaitTime() {
+		return average(totalWaitTime.get());
+	}
+	
+	/**
+	 * Returns average time (in milliseconds) of a task execution.
+	 */
+	public long getAverageExecutionTime() {
+		return average(totalExecutionTime.get());
+	}
+	
+	private Runnable decorate(Runnable task) {
+		long enqueuedAt = System.nanoTime();
+		
+		return () -> {
+			long startedAt = System.nanoTime();
+			boolean failed = true;
+			try {
+				task.run();
+				failed = false;
+			} finally {
+				long finishedAt = System.nanoTime();
+				long waitTime = TimeUnit.NANOSECONDS.toMillis(startedAt - enqueuedAt);
+				long executionTime = TimeUnit.NANOSECONDS.toMillis(finishedAt - startedAt);
+				
+				totalWaitTime.addAndGet(waitTime);
+				totalExecutionTime.addAndGet(executionTime);
+				if (failed) {
+					failedTasks.incrementAndGet();
+				}
+				completedTasks.incrementAndGet();
+				
+				log.debug(
+					"Task has been {} in {} msecs (waited in queue: {} msecs, queue size: {})",
+					failed ? "failed" : "executed",
+					executionTime,
+					waitTime,
+					getQueueSize()
+				);
+			}
+		};
+	}
+	
+	private void onRejection() {
+		long rejected = rejectedTasks.incrementAndGet();
+		log.warn(
+			"Task has been rejected: queue is full (queue size: {}, rejected so far: {})",
+			getQueueSize(),
+			rejected
+		);
+	}
+	
+	private long average(long total) {
+		long completed = completedTasks.get();
+		if (completed == 0) {
+			return 0;
+		}
+		return total / completed;
+	}
+	
+}
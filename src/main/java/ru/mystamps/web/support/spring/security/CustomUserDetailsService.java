@@ -84,6 +84,7 @@ public class CustomUserDetailsService implements UserDetailsService {
 			authorities.add(Authority.DOWNLOAD_IMAGE);
 			authorities.add(Authority.IMPORT_SERIES);
 			authorities.add(Authority.MANAGE_TOGGLZ);
+			authorities.add(Authority.REGENERATE_PREVIEWS);
 			authorities.add(Authority.VIEW_DAILY_STATS);
 			authorities.add(Authority.VIEW_SERIES_SALES);
 			authorities.add(Authority.VIEW_SITE_EVENTS);
@@ -86,9 +86,13 @@ public class SecurityConfig extends WebSecurityConfigurerAdapter {
 				.mvcMatchers(Url.ADD_PARTICIPANT_PAGE).hasAuthority(StringAuthority.ADD_PARTICIPANT)
 				.mvcMatchers(Url.ADD_SERIES_PAGE).hasAuthority(StringAuthority.CREATE_SERIES)
 				.mvcMatchers(Url.REQUEST_IMPORT_SERIES_PAGE).hasAuthority(StringAuthority.IMPORT_SERIES)
+				.mvcMatchers(Url.BULK_IMPORT_REQUESTS).hasAuthority(StringAuthority.IMPORT_SERIES)
 				.mvcMatchers(Url.SITE_EVENTS_PAGE).hasAuthority(StringAuthority.VIEW_SITE_EVENTS)
 				.mvcMatchers(Url.SUGGEST_SERIES_COUNTRY).hasAuthority(StringAuthority.CREATE_SERIES)
 				.mvcMatchers(Url.DAILY_STATISTICS).hasAuthority(StringAuthority.VIEW_DAILY_STATS)
+				.mvcMatchers(Url.DOWNLOADS_STATISTICS).hasAuthority(StringAuthority.VIEW_DAILY_STATS)
+				.mvcMatchers(Url.PREVIEWS_STATISTICS).hasAuthority(StringAuthority.VIEW_DAILY_STATS)
+				.mvcMatchers(Url.REGENERATE_PREVIEWS).hasAuthority(StringAuthority.REGENERATE_PREVIEWS)
 				// @todo #884 /collection/{slug}/estimation: only owner should have access to estimation page
 				.mvcMatchers(Url.ESTIMATION_COLLECTION_PAGE).hasAnyAuthority(StringAuthority.ADD_SERIES_PRICE)
 				.regexMatchers(HttpMethod.POST, "/series/[0-9]+")
@@ -30,6 +30,7 @@ public final class StringAuthority {
 	public static final String DOWNLOAD_IMAGE         = "DOWNLOAD_IMAGE";
 	public static final String IMPORT_SERIES          = "IMPORT_SERIES";
 	public static final String MANAGE_TOGGLZ          = "MANAGE_TOGGLZ";
+	public static final String REGENERATE_PREVIEWS    = "REGENERATE_PREVIEWS";
 	public static final String UPDATE_COLLECTION      = "UPDATE_COLLECTION";
 	public static final String VIEW_DAILY_STATS       = "VIEW_DAILY_STATS";
 	public static final String VIEW_SERIES_SALES      = "VIEW_SERIES_SALES";
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.util;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.math.NumberUtils;
+
+/**
+ * Set of catalog numbers that keeps consecutive numbers (like "1-500") as ranges.
+ *
+ * Numbers are stored as sorted and non-overlapping ranges of integers. Codes that aren't
+ * plain numbers (like "10a" or "010") are kept as is. The set is read-only and creates
+ * strings only on iteration: numbers in an ascending order go first and codes follow them.
+ **/
+public final class CatalogNumberRangeSet extends AbstractSet<String> {
+	
+	public static final CatalogNumberRangeSet EMPTY =
+		new CatalogNumberRangeSet(Collections.emptyList(), Collections.emptySet());
+	
+	// numbers with more digits may not fit into an integer
+	static final int MAX_NUMBER_LENGTH = 9;
+	
+	private final int[] begins;
+	private final int[] ends;
+	private final Set<String> codes;
+	private final int size;
+	
+	/**
+	 * @param ranges pairs of the first and the last numbers of ranges in any order
+	 * @param codes catalog numbers that can't be represented as integers
+	 */
+	CatalogNumberRangeSet(List<int[]> ranges, Collection<String> codes) {
+		List<int[]> sorted = new ArrayList<>(ranges);
+		sorted.sort(Comparator.comparingInt(range -> range[0]));
+		
+		int[] mergedBegins = new int[sorted.size()];
+		int[] mergedEnds = new int[sorted.size()];
+		int count = 0;
+		long total = 0;
+		for (int[] range : sorted) {
+			Validate.isTrue(range[0] >= 0, "Catalog number must be non negative");
+			Validate.isTrue(range[0] <= range[1], "Range must be in an ascending order");
+			
+			// overlapping and adjacent ranges are merged: [ 1-3, 2-5, 6 ] => [ 1-6 ]
+			if (count > 0 && range[0] <= (long)mergedEnds[count - 1] + 1) {
+				if (range[1] > mergedEnds[count - 1]) {
+					total += range[1] - mergedEnds[count - 1];
+					mergedEnds[count - 1] = range[1];
+				}
+				continue;
+			}
+			
+			mergedBegins[count] = range[0];
+			mergedEnds[count] = range[1];
+			total += range[1] - range[0] + 1L;
+			count++;
+		}
+		
+		this.begins = Arrays.copyOf(mergedBegins, count);
+		this.ends = Arrays.copyOf(mergedEnds, count);
+		this.codes = Collections.unmodifiableSet(new LinkedHashSet<>(codes));
+		
+		total += this.codes.size();
+		Validate.isTrue(total <= Integer.MAX_VALUE, "Too many catalog numbers: %d", total);
+		this.size = (int)total;
+	}
+	
+	public static CatalogNumberRangeSet ofRange(int begin, int end) {
+		return new CatalogNumberRangeSet(
+			Collections.singletonList(new int[] { begin, end }),
+			Collections.emptySet()
+		);
+	}
+	
+	/**
+	 * Checks whether a catalog number is a plain number that can be stored in a range.
+	 *
+	 * Numbers with leading zeros are treated as codes because "010" and "10" are different.
+	 */
+	public static boolean isPlainNumber(String number) {
+		if (number.length() > MAX_NUMBER_LENGTH || !NumberUtils.isDigits(number)) {
+			return false;
+		}
+		return number.length() == 1 || number.charAt(0) != '0';
+	}
+	
+	public int getRangesCount() {
+		return begins.length;
+	}
+	
+	public int getBegin(int rangeIndex) {
+		return begins[rangeIndex];
+	}
+	
+	public int getEnd(int rangeIndex) {
+		return ends[rangeIndex];
+	}
+	
+	public Set<String> getCodes() {
+		return codes;
+	}
+	
+	@Override
+	public int size() {
+		return size;
+	}
+	
+	@Override
+	public boolean contains(Object obj) {
+		if (!(obj instanceof String)) {
+			return false;
+		}
+		
+		String number = (String)obj;
+		if (!isPlainNumber(number)) {
+			return codes.contains(number);
+		}
+		
+		// the last range that starts before or with the number
+		int value = Integer.parseInt(number);
+		int idx = Arrays.binarySearch(begins, value);
+		if (idx < 0) {
+			idx = -idx - 2;
+		}
+		return idx >= 0 && value <= ends[idx];
+	}
+	
+	// "[1-500, 10a]" instead of all the numbers
+	@Override
+	public String toString() {
+		return "[" + CatalogUtils.toShortForm(this) + "]";
+	}
+	
+	@Override
+	public Iterator<String> iterator() {
+		return new Iterator<String>() {
+			private final Iterator<String> codesIterator = codes.iterator();
+			private int rangeIndex;
+			private long next = begins.length > 0 ? begins[0] : 0;
+			
+			@Override
+			public boolean hasNext() {
+				return rangeIndex < begins.length || codesIterator.hasNext();
+			}
+			
+			@Override
+			public String next() {
+				if (rangeIndex >= begins.length) {
+					return codesIterator.next();
+				}
+				
+				String result = String.valueOf(next);
+				if (next < ends[rangeIndex]) {
+					next++;
+				} else {
+					rangeIndex++;
+					if (rangeIndex < begins.length) {
+						next = begins[rangeIndex];
+					}
+				}
+				return result;
+			}
+		};
+	}
+	
+}
@@ -19,13 +19,11 @@ package ru.mystamps.web.util;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
-import java.util.stream.IntStream;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
@@ -43,15 +41,11 @@ public final class CatalogUtils {
 		new Comparator<String>() {
 			@Override
 			public int compare(String lhs, String rhs) {
-				try {
-					Integer left = Integer.valueOf(lhs);
-					Integer right = Integer.valueOf(rhs);
-					return left.compareTo(right);
-				
-				} catch (NumberFormatException ex) {
+				// checking instead of catching NumberFormatException as it's much cheaper
+				if (!isComparableNumber(lhs) || !isComparableNumber(rhs)) {
 					return 1;
 				}
-				
+				return Integer.compare(Integer.parseInt(lhs), Integer.parseInt(rhs));
 			}
 		};
 	
@@ -76,6 +70,11 @@ public final class CatalogUtils {
 			return StringUtils.EMPTY;
 		}
 		
+		// ranges are already sorted, so we don't need to iterate over all the numbers
+		if (catalogNumbers instanceof CatalogNumberRangeSet) {
+			return toShortForm((CatalogNumberRangeSet)catalogNumbers);
+		}
+		
 		Set<String> numbers = new TreeSet<>(STR_AFTER_INT);
 		numbers.addAll(catalogNumbers);
 		
@@ -115,22 +114,28 @@ public final class CatalogUtils {
 	}
 	
 	/**
-	 * Parses comma-delimited string and converts catalog numbers to set of strings.
+	 * Parses comma-delimited string and converts catalog numbers to a set of ranges.
 	 **/
-	public static Set<String> parseCatalogNumbers(String catalogNumbers) {
+	public static CatalogNumberRangeSet parseCatalogNumbers(String catalogNumbers) {
 		
 		if (StringUtils.isEmpty(catalogNumbers)) {
-			return Collections.emptySet();
+			return CatalogNumberRangeSet.EMPTY;
 		}
 		
-		Set<String> result = new LinkedHashSet<>();
+		List<int[]> ranges = new ArrayList<>();
+		Set<String> codes = new LinkedHashSet<>();
 		for (String number : StringUtils.split(catalogNumbers, ',')) {
 			Validate.isTrue(!number.trim().isEmpty(), "Catalog number must be non empty");
 			
 			String[] range = StringUtils.split(number, '-');
 			switch (range.length) {
 				case 1:
-					result.add(number);
+					if (CatalogNumberRangeSet.isPlainNumber(number)) {
+						int value = Integer.parseInt(number);
+						ranges.add(new int[] { value, value });
+					} else {
+						codes.add(number);
+					}
 					break;
 				case 2:
 					try {
@@ -138,10 +143,8 @@ public final class CatalogUtils {
 						Integer end   = Integer.valueOf(range[1]);
 						Validate.isTrue(begin < end, "Range must be in an ascending order");
 						
-						// [ 1,2 ] => [ 1,2] => [ "1","2" ]
-						IntStream.rangeClosed(begin, end)
-							.mapToObj(String::valueOf)
-							.forEach(result::add);
+						// "1-500" => [ 1, 500 ]
+						ranges.add(new int[] { begin, end });
 						
 					} catch (NumberFormatException ex) {
 						throw new IllegalArgumentException(
@@ -157,7 +160,39 @@ public final class CatalogUtils {
 			}
 		}
 		
-		return result;
+		return new CatalogNumberRangeSet(ranges, codes);
+	}
+	
+	private static String toShortForm(CatalogNumberRangeSet numbers) {
+		List<String> groups = new ArrayList<>(numbers.getRangesCount() + numbers.getCodes().size());
+		for (int i = 0; i < numbers.getRangesCount(); i++) {
+			String first = String.valueOf(numbers.getBegin(i));
+			int length = numbers.getEnd(i) - numbers.getBegin(i) + 1;
+			if (length == ONE_ELEMENT_SIZE) {
+				groups.add(first);
+				continue;
+			}
+			
+			String last = String.valueOf(numbers.getEnd(i));
+			if (length == TWO_ELEMENTS_SIZE) {
+				groups.add(first);
+				groups.add(last);
+			
+			// save sequence as range
+			} else {
+				groups.add(first + "-" + last);
+			}
+		}
+		
+		groups.addAll(numbers.getCodes());
+		
+		return String.join(", ", groups);
+	}
+	
+	// unlike CatalogNumberRangeSet.isPlainNumber(), numbers with leading zeros are compared too
+	private static boolean isComparableNumber(String number) {
+		return number.length() <= CatalogNumberRangeSet.MAX_NUMBER_LENGTH
+			&& NumberUtils.isDigits(number);
 	}
 	
 	private static void addBufferToGroups(List<String> buffer, List<String> groups) {
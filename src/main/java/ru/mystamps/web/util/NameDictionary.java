@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import lombok.RequiredArgsConstructor;
+
+import ru.mystamps.web.dao.dto.EntityNameDto;
+
+/**
+ * Immutable in-memory index of entity names for a case-insensitive lookup.
+ *
+ * An exact lookup takes into account names and aliases, a lookup by a prefix takes into
+ * account only names.
+ *
+ * A fuzzy lookup compares trigrams of transliterated names and aliases, so it tolerates
+ * misspellings and finds "Rossiya" by "Россия".
+ */
+public class NameDictionary {
+	
+	// Similarity (Dice coefficient of trigrams) below which names are considered different.
+	// For example, it tolerates a missing or an extra letter in a name of 6-7 letters.
+	public static final double MIN_SIMILARITY = 0.6;
+	
+	private final Map<String, Set<Integer>> idsByName = new HashMap<>();
+	private final Node prefixes = new Node();
+	
+	// transliterated names and for every trigram the indexes of names that have it
+	private final List<TransliteratedName> transliterated = new ArrayList<>();
+	private final Map<String, List<Integer>> namesByTrigram = new HashMap<>();
+	
+	public NameDictionary(Collection<EntityNameDto> names) {
+		for (EntityNameDto entry : names) {
+			if (entry.getName() == null) {
+				continue;
+			}
+			
+			String name = toLowerCase(entry.getName());
+			Integer id = entry.getId();
+			
+			idsByName.computeIfAbsent(name, key -> new LinkedHashSet<>()).add(id);
+			
+			if (!entry.isAlias()) {
+				prefixes.add(name, id);
+			}
+			
+			addTransliterated(entry.getName(), id);
+		}
+	}
+	
+	public List<Integer> findIdsByNames(Collection<String> names) {
+		Set<Integer> result = new LinkedHashSet<>();
+		for (String name : names) {
+			Set<Integer> ids = idsByName.get(toLowerCase(name));
+			if (ids != null) {
+				result.addAll(ids);
+			}
+		}
+		return new ArrayList<>(result);
+	}
+	
+	public List<Integer> findIdsWhenNameStartsWith(String prefix) {
+		Node node = prefixes.find(toLowerCase(prefix));
+		if (node == null) {
+			return Collections.emptyList();
+		}
+		return new ArrayList<>(node.ids);
+	}
+	
+	/**
+	 * Find names that are similar to the given one.
+	 *
+	 * @return matches ordered by descending score, one per entity
+	 */
+	public List<NameMatch> findSimilarNames(String name, int limit) {
+		Set<String> trigrams = toTrigrams(TransliterationUtils.toLatin(name));
+		if (trigrams.isEmpty()) {
+			return Collections.emptyList();
+		}
+		
+		int[] common = new int[transliterated.size()];
+		for (String trigram : trigrams) {
+			for (Integer idx : namesByTrigram.getOrDefault(trigram, Collections.emptyList())) {
+				common[idx]++;
+			}
+		}
+		
+		Map<Integer, NameMatch> bestById = new HashMap<>();
+		for (int idx = 0; idx < common.length; idx++) {
+			if (common[idx] == 0) {
+				continue;
+			}
+			
+			TransliteratedName candidate = transliterated.get(idx);
+			double score = 2.0 * common[idx] / (trigrams.size() + candidate.trigramsCount);
+			if (score < MIN_SIMILARITY) {
+				continue;
+			}
+			
+			NameMatch best = bestById.get(candidate.id);
+			if (best == null || best.getScore() < score) {
+				bestById.put(candidate.id, new NameMatch(candidate.id, candidate.name, score));
+			}
+		}
+		
+		return bestById.values()
+			.stream()
+			.sorted(
+				Comparator.comparingDouble(NameMatch::getScore)
+					.reversed()
+					.thenComparing(NameMatch::getId)
+			)
+			.limit(limit)
+			.collect(Collectors.toList());
+	}
+	
+	private void addTransliterated(String name, Integer id) {
+		Set<String> trigrams = toTrigrams(TransliterationUtils.toLatin(name));
+		if (trigrams.isEmpty()) {
+			return;
+		}
+		
+		Integer idx = transliterated.size();
+		transliterated.add(new TransliteratedName(id, name, trigrams.size()));
+		
+		for (String trigram : trigrams) {
+			namesByTrigram.computeIfAbsent(trigram, key -> new ArrayList<>()).add(idx);
+		}
+	}
+	
+	// "sweden" -> [ "  s", " sw", "swe", "wed", "ede", "den", "en " ]
+	// The padding gives more weight to the beginning of a word, where typos are rare.
+	private static Set<String> toTrigrams(String text) {
+		if (text.isEmpty()) {
+			return Collections.emptySet();
+		}
+		
+		String padded = "  " + text + ' ';
+		Set<String> trigrams = new HashSet<>();
+		for (int i = 0; i + 3 <= padded.length(); i++) {
+			trigrams.add(padded.substring(i, i + 3));
+		}
+		return trigrams;
+	}
+	
+	// converting to lowercase to perform a case-insensitive search
+	private static String toLowerCase(String name) {
+		return name.toLowerCase(Locale.ENGLISH);
+	}
+	
+	// A node of a prefix tree that knows ids of all the names that start with its prefix.
+	private static class Node {
+		private final Map<Character, Node> children = new HashMap<>();
+		private final Set<Integer> ids = new LinkedHashSet<>();
+		
+		public void add(String name, Integer id) {
+			Node node = this;
+			node.ids.add(id);
+			for (int i = 0; i < name.length(); i++) {
+				node = node.children.computeIfAbsent(name.charAt(i), ch -> new Node());
+				node.ids.add(id);
+			}
+		}
+		
+		public Node find(String prefix) {
+			Node node = this;
+			for (int i = 0; i < prefix.length() && node != null; i++) {
+				node = node.children.get(prefix.charAt(i));
+			}
+			return node;
+		}
+	}
+	
+	@RequiredArgsConstructor
+	private static class TransliteratedName {
+		private final Integer id;
+		private final String name;
+		private final int trigramsCount;
+	}
+	
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Loads a value on the first usage and keeps it until it's invalidated or expired.
+ *
+ * Invalidation works only within a single instance of the application, so the value also
+ * expires after a while to pick up the changes that have been made by the other instances.
+ */
+public class ReloadableCache<T> {
+	
+	private final Supplier<T> loader;
+	private final long ttlNanos;
+	
+	// incremented on every invalidation, so a value that has been loaded concurrently
+	// with an invalidation won't be cached
+	private final Object lock = new Object();
+	private long version;
+	
+	private volatile Entry<T> entry;
+	
+	/**
+	 * @param ttl how long (in milliseconds) a loaded value is kept
+	 */
+	public ReloadableCache(Supplier<T> loader, long ttl) {
+		this.loader = loader;
+		this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttl);
+	}
+	
+	public T get() {
+		Entry<T> current = entry;
+		if (current != null && current.expiresAt - System.nanoTime() > 0) {
+			return current.value;
+		}
+		
+		long loadedVersion;
+		synchronized (lock) {
+			loadedVersion = version;
+		}
+		
+		long loadedAt = System.nanoTime();
+		T result = loader.get();
+		
+		synchronized (lock) {
+			if (loadedVersion == version) {
+				entry = new Entry<>(result, loadedAt + ttlNanos);
+			}
+		}
+		
+		return result;
+	}
+	
+	// A new entity becomes visible to others only after commit, so we have to drop the
+	// value after that. Otherwise, it could be reloaded without the entity in between.
+	public void invalidateAfterCommit() {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			invalidate();
+			return;
+		}
+		
+		TransactionSynchronizationManager.registerSynchronization(
+			new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					invalidate();
+				}
+			}
+		);
+	}
+	
+	public void invalidate() {
+		synchronized (lock) {
+			version++;
+			entry = null;
+		}
+	}
+	
+	@RequiredArgsConstructor
+	private static class Entry<T> {
+		private final T value;
+		// System.nanoTime() after which the value has to be reloaded
+		private final long expiresAt;
+	}
+	
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.util;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+
+public final class TransliterationUtils {
+	
+	private static final Map<Character, String> CYRILLIC_TO_LATIN = new HashMap<>();
+	
+	static {
+		String[] letters = {
+			"а", "a", "б", "b", "в", "v", "г", "g", "д", "d", "е", "e", "ё", "e",
+			"ж", "zh", "з", "z", "и", "i", "й", "y", "к", "k", "л", "l", "м", "m",
+			"н", "n", "о", "o", "п", "p", "р", "r", "с", "s", "т", "t", "у", "u",
+			"ф", "f", "х", "kh", "ц", "ts", "ч", "ch", "ш", "sh", "щ", "shch", "ъ", "",
+			"ы", "y", "ь", "", "э", "e", "ю", "yu", "я", "ya"
+		};
+		for (int i = 0; i < letters.length; i += 2) {
+			CYRILLIC_TO_LATIN.put(letters[i].charAt(0), letters[i + 1]);
+		}
+	}
+	
+	private TransliterationUtils() {
+	}
+	
+	/**
+	 * Convert a text to a form that can be compared regardless of a case, accents and
+	 * an alphabet.
+	 *
+	 * Russian letters are transliterated to Latin ones, accents are removed and all the
+	 * characters except letters and digits are replaced by a single space. For example,
+	 * "Россия" becomes "rossiya" and "Côte d'Ivoire" becomes "cote d ivoire".
+	 */
+	public static String toLatin(String text) {
+		Validate.isTrue(text != null, "Text must be non null");
+		
+		String lowerCased = text.toLowerCase(Locale.ENGLISH);
+		
+		StringBuilder result = new StringBuilder(lowerCased.length());
+		boolean pendingSpace = false;
+		for (int i = 0; i < lowerCased.length(); i++) {
+			char ch = lowerCased.charAt(i);
+			String latin = CYRILLIC_TO_LATIN.get(ch);
+			
+			if (latin == null && !Character.isLetterOrDigit(ch)) {
+				pendingSpace = result.length() > 0;
+				continue;
+			}
+			
+			if (pendingSpace) {
+				result.append(' ');
+				pendingSpace = false;
+			}
+			
+			if (latin == null) {
+				result.append(ch);
+			} else {
+				result.append(latin);
+			}
+		}
+		
+		// accents are removed only after transliteration as "й" would become "и" otherwise
+		return StringUtils.stripAccents(result.toString());
+	}
+	
+}
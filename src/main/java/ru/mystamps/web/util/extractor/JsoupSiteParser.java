@@ -17,6 +17,16 @@
  */
 package ru.mystamps.web.util.extractor;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.apache.commons.lang3.ObjectUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
@@ -27,9 +37,16 @@ import org.slf4j.LoggerFactory;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.select.Evaluator;
+import org.jsoup.select.NodeFilter;
+import org.jsoup.select.NodeTraversor;
+import org.jsoup.select.QueryParser;
+import org.jsoup.select.Selector;
 
 import lombok.AccessLevel;
 import lombok.Getter;
+import lombok.RequiredArgsConstructor;
 import lombok.Setter;
 
 // Getters/setters are being used in unit tests
@@ -55,6 +72,11 @@ public class JsoupSiteParser implements SiteParser {
 	private String priceLocator;
 	private String currencyValue;
 	
+	// CSS selectors are parsed only once, on the first usage or when a field is being set
+	@Getter(AccessLevel.NONE)
+	@Setter(AccessLevel.NONE)
+	private final Map<String, Evaluator> evaluators = new ConcurrentHashMap<>();
+	
 	@Override
 	public boolean setField(String name, String value) {
 		Validate.validState(StringUtils.isNotBlank(name), "Field name must be non-blank");
@@ -62,6 +84,11 @@ public class JsoupSiteParser implements SiteParser {
 		
 		boolean valid = true;
 		
+		if (name.endsWith("-locator") && !isValidLocator(value)) {
+			LOG.warn("Invalid CSS selector '{}' for the field '{}'", value, name);
+			return false;
+		}
+		
 		switch (name) {
 			
 			case "name":
@@ -140,6 +167,11 @@ public class JsoupSiteParser implements SiteParser {
 		return url.startsWith(matchedUrl);
 	}
 	
+	@Override
+	public String getMatchedUrl() {
+		return matchedUrl;
+	}
+	
 	/**
 	 * Parse HTML document to get info about series.
 	 *
@@ -151,21 +183,51 @@ public class JsoupSiteParser implements SiteParser {
 		
 		String baseUri = matchedUrl;
 		Document doc = Jsoup.parse(htmlPage, baseUri);
+		
+		return parse(doc);
+	}
+	
+	/**
+	 * Parse HTML document that is read from a stream in UTF-8.
+	 *
+	 * It's cheaper than {@link #parse(String)} when the page is already stored somewhere
+	 * because it doesn't need a copy of the whole page as a String.
+	 *
+	 * @return info about a series from the document
+	 */
+	@Override
+	public SeriesInfo parse(InputStream htmlPage) {
+		Validate.isTrue(htmlPage != null, "Page content must be non-null");
+		
+		try {
+			String baseUri = matchedUrl;
+			Document doc = Jsoup.parse(htmlPage, StandardCharsets.UTF_8.name(), baseUri);
+			
+			return parse(doc);
+			
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+	
+	private SeriesInfo parse(Document doc) {
 		Element body = doc.body();
 		
+		Map<String, Element> found = selectFirstElements(body);
+		
 		SeriesInfo info = new SeriesInfo();
 		
-		info.setCategoryName(extractCategory(body));
-		info.setCountryName(extractCountry(body));
-		info.setImageUrl(extractImageUrl(body));
-		info.setIssueDate(extractIssueDate(body));
-		info.setQuantity(extractQuantity(body));
-		info.setPerforated(extractPerforated(body));
-		info.setMichelNumbers(extractMichelNumbers(body));
-		info.setSellerName(extractSellerName(body));
-		info.setSellerUrl(extractSellerUrl(body));
-		info.setPrice(extractPrice(body));
-		info.setCurrency(extractCurrency(body));
+		info.setCategoryName(extractCategory(found));
+		info.setCountryName(extractCountry(found));
+		info.setImageUrl(extractImageUrl(found));
+		info.setIssueDate(extractIssueDate(found));
+		info.setQuantity(extractQuantity(found));
+		info.setPerforated(extractPerforated(found));
+		info.setMichelNumbers(extractMichelNumbers(found));
+		info.setSellerName(extractSellerName(found));
+		info.setSellerUrl(extractSellerUrl(found));
+		info.setPrice(extractPrice(found));
+		info.setCurrency(extractCurrency(found));
 		
 		return info;
 	}
@@ -175,10 +237,43 @@ public class JsoupSiteParser implements SiteParser {
 		return name;
 	}
 	
-	protected String extractCategory(Element body) {
+	/**
+	 * Find the first element for every locator by a single traversal of the document.
+	 *
+	 * The same locator that is used for several fields is evaluated only once.
+	 *
+	 * @return found elements by their locators
+	 */
+	protected Map<String, Element> selectFirstElements(Element body) {
+		Map<String, Evaluator> pending = new HashMap<>();
+		for (String locator : Arrays.asList(
+			categoryLocator,
+			countryLocator,
+			shortDescriptionLocator,
+			imageUrlLocator,
+			issueDateLocator,
+			sellerLocator,
+			priceLocator
+		)) {
+			if (locator != null) {
+				pending.put(locator, evaluators.computeIfAbsent(locator, QueryParser::parse));
+			}
+		}
+		
+		Map<String, Element> found = new HashMap<>();
+		if (pending.isEmpty()) {
+			return found;
+		}
+		
+		NodeTraversor.filter(new FirstElementsFinder(body, pending, found), body);
+		
+		return found;
+	}
+	
+	protected String extractCategory(Map<String, Element> found) {
 		String locator = ObjectUtils.firstNonNull(categoryLocator, shortDescriptionLocator);
 		
-		String category = getTextOfTheFirstElement(body, locator);
+		String category = getTextOfTheFirstElement(found, locator);
 		if (category == null) {
 			return null;
 		}
@@ -187,10 +282,10 @@ public class JsoupSiteParser implements SiteParser {
 		return category;
 	}
 	
-	protected String extractCountry(Element body) {
+	protected String extractCountry(Map<String, Element> found) {
 		String locator = ObjectUtils.firstNonNull(countryLocator, shortDescriptionLocator);
 		
-		String country = getTextOfTheFirstElement(body, locator);
+		String country = getTextOfTheFirstElement(found, locator);
 		if (country == null) {
 			return null;
 		}
@@ -199,12 +294,12 @@ public class JsoupSiteParser implements SiteParser {
 		return country;
 	}
 	
-	protected String extractImageUrl(Element body) {
+	protected String extractImageUrl(Map<String, Element> found) {
 		if (imageUrlLocator == null) {
 			return null;
 		}
 		
-		Element elem = body.selectFirst(imageUrlLocator);
+		Element elem = found.get(imageUrlLocator);
 		if (elem == null) {
 			return null;
 		}
@@ -215,10 +310,10 @@ public class JsoupSiteParser implements SiteParser {
 		return StringUtils.trimToNull(url);
 	}
 	
-	protected String extractIssueDate(Element body) {
+	protected String extractIssueDate(Map<String, Element> found) {
 		String locator = ObjectUtils.firstNonNull(issueDateLocator, shortDescriptionLocator);
 		
-		String date = getTextOfTheFirstElement(body, locator);
+		String date = getTextOfTheFirstElement(found, locator);
 		if (date == null) {
 			return null;
 		}
@@ -227,8 +322,8 @@ public class JsoupSiteParser implements SiteParser {
 		return date;
 	}
 	
-	protected String extractQuantity(Element body) {
-		String quantity = getTextOfTheFirstElement(body, shortDescriptionLocator);
+	protected String extractQuantity(Map<String, Element> found) {
+		String quantity = getTextOfTheFirstElement(found, shortDescriptionLocator);
 		if (quantity == null) {
 			return null;
 		}
@@ -237,8 +332,8 @@ public class JsoupSiteParser implements SiteParser {
 		return quantity;
 	}
 	
-	protected String extractPerforated(Element body) {
-		String perforated = getTextOfTheFirstElement(body, shortDescriptionLocator);
+	protected String extractPerforated(Map<String, Element> found) {
+		String perforated = getTextOfTheFirstElement(found, shortDescriptionLocator);
 		if (perforated == null) {
 			return null;
 		}
@@ -248,8 +343,8 @@ public class JsoupSiteParser implements SiteParser {
 	}
 	
 	// @todo #694 Support for a separate locator for a field with michel numbers
-	protected String extractMichelNumbers(Element body) {
-		String description = getTextOfTheFirstElement(body, shortDescriptionLocator);
+	protected String extractMichelNumbers(Map<String, Element> found) {
+		String description = getTextOfTheFirstElement(found, shortDescriptionLocator);
 		if (description == null) {
 			return null;
 		}
@@ -259,8 +354,8 @@ public class JsoupSiteParser implements SiteParser {
 		
 	}
 	
-	protected String extractSellerName(Element body) {
-		String sellerName = getTextOfTheFirstElement(body, sellerLocator);
+	protected String extractSellerName(Map<String, Element> found) {
+		String sellerName = getTextOfTheFirstElement(found, sellerLocator);
 		if (sellerName == null) {
 			return null;
 		}
@@ -269,12 +364,12 @@ public class JsoupSiteParser implements SiteParser {
 		return sellerName;
 	}
 	
-	protected String extractSellerUrl(Element body) {
+	protected String extractSellerUrl(Map<String, Element> found) {
 		if (sellerLocator == null) {
 			return null;
 		}
 		
-		Element elem = body.selectFirst(sellerLocator);
+		Element elem = found.get(sellerLocator);
 		if (elem == null) {
 			return null;
 		}
@@ -284,8 +379,8 @@ public class JsoupSiteParser implements SiteParser {
 		return url;
 	}
 	
-	protected String extractPrice(Element body) {
-		String price = getTextOfTheFirstElement(body, priceLocator);
+	protected String extractPrice(Map<String, Element> found) {
+		String price = getTextOfTheFirstElement(found, priceLocator);
 		if (price == null) {
 			return null;
 		}
@@ -294,7 +389,7 @@ public class JsoupSiteParser implements SiteParser {
 		return price;
 	}
 	
-	protected String extractCurrency(Element body) {
+	protected String extractCurrency(Map<String, Element> found) {
 		if (currencyValue == null) {
 			return null;
 		}
@@ -303,12 +398,12 @@ public class JsoupSiteParser implements SiteParser {
 		return currencyValue;
 	}
 	
-	private static String getTextOfTheFirstElement(Element body, String locator) {
+	private static String getTextOfTheFirstElement(Map<String, Element> found, String locator) {
 		if (locator == null) {
 			return null;
 		}
 		
-		Element elem = body.selectFirst(locator);
+		Element elem = found.get(locator);
 		if (elem == null) {
 			return null;
 		}
@@ -316,4 +411,46 @@ public class JsoupSiteParser implements SiteParser {
 		return elem.text();
 	}
 	
+	private boolean isValidLocator(String locator) {
+		try {
+			evaluators.computeIfAbsent(locator, QueryParser::parse);
+			return true;
+		} catch (Selector.SelectorParseException | IllegalArgumentException ex) {
+			return false;
+		}
+	}
+	
+	// Visits elements in the document order (like Element.selectFirst() does) and stops
+	// as soon as all the locators have been matched.
+	@RequiredArgsConstructor
+	private static class FirstElementsFinder implements NodeFilter {
+		private final Element root;
+		private final Map<String, Evaluator> pending;
+		private final Map<String, Element> found;
+		
+		@Override
+		public FilterResult head(Node node, int depth) {
+			if (!(node instanceof Element)) {
+				return FilterResult.CONTINUE;
+			}
+			
+			Element elem = (Element)node;
+			Iterator<Map.Entry<String, Evaluator>> it = pending.entrySet().iterator();
+			while (it.hasNext()) {
+				Map.Entry<String, Evaluator> entry = it.next();
+				if (entry.getValue().matches(root, elem)) {
+					found.put(entry.getKey(), elem);
+					it.remove();
+				}
+			}
+			
+			return pending.isEmpty() ? FilterResult.STOP : FilterResult.CONTINUE;
+		}
+		
+		@Override
+		public FilterResult tail(Node node, int depth) {
+			return FilterResult.CONTINUE;
+		}
+	}
+	
 }
@@ -17,9 +17,13 @@
  */
 package ru.mystamps.web.util.extractor;
 
+import java.io.InputStream;
+
 public interface SiteParser {
 	boolean setField(String name, String value);
 	boolean isFullyInitialized();
 	boolean canParse(String url);
+	String getMatchedUrl();
 	SeriesInfo parse(String htmlPage);
+	SeriesInfo parse(InputStream htmlPage);
 }
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.util.extractor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+
+import org.slf4j.Logger;
+
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Finds a site parser that is able to handle a given URL.
+ *
+ * Parsers are indexed by a host of their matched URL and then by the URL itself (in a prefix
+ * tree), so a lookup takes time proportional to the length of the URL and doesn't depend
+ * on a number of parsers. When several parsers match a URL, the one with the longest
+ * matched URL wins.
+ *
+ * The index is immutable and is replaced as a whole by {@link #reload(Collection)}, so
+ * parsers can be changed at runtime without blocking the lookups.
+ */
+@RequiredArgsConstructor
+public class SiteParserRegistry {
+	
+	private final Logger log;
+	
+	private volatile Index index = new Index(Collections.emptyList());
+	
+	public void reload(Collection<SiteParser> parsers) {
+		Validate.isTrue(parsers != null, "Parsers must be non null");
+		
+		index = new Index(parsers);
+		
+		log.info("Registered site parsers: {}", index.getParsers());
+	}
+	
+	public SiteParser findParser(String url) {
+		Validate.isTrue(url != null, "Site URL must be non null");
+		
+		return index.find(url);
+	}
+	
+	public List<SiteParser> getParsers() {
+		return index.getParsers();
+	}
+	
+	// Returns a host part of URL (http://example.com:80/path -> example.com) or null when
+	// the URL ends before the host does.
+	static String extractHost(String url) {
+		int start = url.indexOf("://");
+		if (start < 0) {
+			return null;
+		}
+		start += "://".length();
+		
+		int end = StringUtils.indexOfAny(url.substring(start), ":/?#");
+		if (end <= 0) {
+			return null;
+		}
+		
+		return url.substring(start, start + end);
+	}
+	
+	private static class Node {
+		private final Map<Character, Node> children = new HashMap<>();
+		private SiteParser parser;
+		
+		public void add(String url, SiteParser parser) {
+			Node node = this;
+			for (int i = 0; i < url.length(); i++) {
+				node = node.children.computeIfAbsent(url.charAt(i), ch -> new Node());
+			}
+			// the first one wins like it was before we've got the index
+			if (node.parser == null) {
+				node.parser = parser;
+			}
+		}
+		
+		public SiteParser findLongestPrefix(String url) {
+			Node node = this;
+			SiteParser found = node.parser;
+			for (int i = 0; i < url.length(); i++) {
+				node = node.children.get(url.charAt(i));
+				if (node == null) {
+					break;
+				}
+				if (node.parser != null) {
+					found = node.parser;
+				}
+			}
+			return found;
+		}
+	}
+	
+	private static class Index {
+		private final List<SiteParser> parsers;
+		private final Map<String, Node> byHost = new HashMap<>();
+		
+		// parsers with URLs like http://example that may match any host
+		private final Node withoutHost = new Node();
+		
+		Index(Collection<SiteParser> parsers) {
+			this.parsers = Collections.unmodifiableList(new ArrayList<>(parsers));
+			
+			for (SiteParser parser : parsers) {
+				String matchedUrl = parser.getMatchedUrl();
+				Validate.isTrue(matchedUrl != null, "Matched URL of '%s' must be non null", parser);
+				
+				String host = extractHost(matchedUrl);
+				Node root = host == null
+					? withoutHost
+					: byHost.computeIfAbsent(host, key -> new Node());
+				root.add(matchedUrl, parser);
+			}
+		}
+		
+		public List<SiteParser> getParsers() {
+			return parsers;
+		}
+		
+		public SiteParser find(String url) {
+			String host = extractHost(url);
+			Node root = host == null ? null : byHost.get(host);
+			if (root != null) {
+				SiteParser parser = root.findLongestPrefix(url);
+				if (parser != null) {
+					return parser;
+				}
+			}
+			return withoutHost.findLongestPrefix(url);
+		}
+	}
+	
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.util.extractor;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.lang3.StringUtils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Creates site parsers from properties like app.site-parser[0].name = example.
+ */
+@RequiredArgsConstructor
+public class SiteParsersLoader {
+	
+	public static final String PROPERTY_PREFIX = "app.site-parser";
+	
+	private final Logger log;
+	
+	// properties of app.site-parser[n] that are handled by someone else
+	private final Collection<String> ignoredFields;
+	
+	/**
+	 * Create parsers from the properties.
+	 *
+	 * Properties without the app.site-parser prefix are skipped. Parsers that aren't fully
+	 * initialized are logged and skipped too.
+	 *
+	 * @return fully initialized parsers by their numbers
+	 */
+	@SuppressWarnings("PMD.AvoidInstantiatingObjectsInLoops")
+	public Map<Integer, SiteParser> load(Map<String, String> properties) {
+		Map<Integer, SiteParser> parsers = new TreeMap<>();
+		
+		for (Map.Entry<String, String> entry : properties.entrySet()) {
+			String name = entry.getKey();
+			if (!name.startsWith(PROPERTY_PREFIX)) {
+				continue;
+			}
+			
+			String propertyValue = entry.getValue();
+			log.trace("Detected property '{}' with value {}", name, propertyValue);
+			
+			// extract parser number (app.site-parser[2].name -> 2)
+			String strNum = StringUtils.substringBetween(name, "[", "]");
+			if (StringUtils.isBlank(strNum)) {
+				log.warn("Ignored property '{}': could not extract index", name);
+				continue;
+			}
+			
+			// extract parser property (app.site-parser[2].name -> name)
+			String fieldName = StringUtils.substringAfterLast(name, ".");
+			if (StringUtils.isBlank(fieldName)) {
+				log.warn("Ignored property '{}': could not extract property name", name);
+				continue;
+			}
+			
+			if (ignoredFields.contains(fieldName)) {
+				continue;
+			}
+			
+			Integer num = Integer.valueOf(strNum);
+			SiteParser parser = parsers.computeIfAbsent(num, key -> createParser());
+			
+			boolean validProperty = parser.setField(fieldName, propertyValue);
+			if (!validProperty) {
+				log.warn("Ignored property '{}': unknown, unsupported or invalid", name);
+			}
+		}
+		
+		parsers.entrySet().removeIf(entry -> {
+			if (entry.getValue().isFullyInitialized()) {
+				return false;
+			}
+			log.warn(
+				"Ignored non-fully initialized site parser ({}[{}])",
+				PROPERTY_PREFIX,
+				entry.getKey()
+			);
+			return true;
+		});
+		
+		return parsers;
+	}
+	
+	private static SiteParser createParser() {
+		return new TimedSiteParser(
+			LoggerFactory.getLogger(TimedSiteParser.class),
+			new JsoupSiteParser()
+		);
+	}
+	
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.util.extractor;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.lang3.StringUtils;
+
+import org.slf4j.Logger;
+
+import org.springframework.scheduling.annotation.Scheduled;
+
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Replaces site parsers when a file with their definitions has been modified.
+ *
+ * The file has the same format as application.properties. When it's empty or doesn't
+ * contain any fully initialized parser, the current parsers are kept.
+ */
+@RequiredArgsConstructor
+public class SiteParsersReloader {
+	
+	private final Logger log;
+	private final SiteParsersLoader loader;
+	private final SiteParserRegistry registry;
+	
+	// path to a file with parsers, reloading is disabled when it's blank
+	private final String file;
+	
+	private long lastModified;
+	
+	@Scheduled(fixedDelayString = "${app.import.site-parsers.reload-interval}")
+	public void reloadIfModified() {
+		if (StringUtils.isBlank(file)) {
+			return;
+		}
+		
+		Path path = Paths.get(file);
+		try {
+			if (!Files.isRegularFile(path)) {
+				return;
+			}
+			
+			long modified = Files.getLastModifiedTime(path).toMillis();
+			if (modified == lastModified) {
+				return;
+			}
+			lastModified = modified;
+			
+			Map<Integer, SiteParser> parsers = loader.load(readProperties(path));
+			if (parsers.isEmpty()) {
+				log.warn("File {} doesn't have valid site parsers. Current ones are kept", path);
+				return;
+			}
+			
+			log.info("Reloading site parsers from {}", path);
+			registry.reload(parsers.values());
+			
+		} catch (IOException ex) {
+			log.warn("Couldn't reload site parsers from {}: {}", path, ex.getMessage());
+		}
+	}
+	
+	private static Map<String, String> readProperties(Path path) throws IOException {
+		Properties properties = new Properties();
+		try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+			properties.load(reader);
+		}
+		
+		Map<String, String> result = new HashMap<>();
+		for (String name : properties.stringPropertyNames()) {
+			result.put(name, properties.getProperty(name));
+		}
+		return result;
+	}
+	
+}
@@ -17,6 +17,8 @@
  */
 package ru.mystamps.web.util.extractor;
 
+import java.io.InputStream;
+
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.time.StopWatch;
 
@@ -46,6 +48,11 @@ public class TimedSiteParser implements SiteParser {
 		return parser.canParse(url);
 	}
 	
+	@Override
+	public String getMatchedUrl() {
+		return parser.getMatchedUrl();
+	}
+	
 	@Override
 	public SeriesInfo parse(String htmlPage) {
 		// Why we don't use Spring's StopWatch?
@@ -72,6 +79,21 @@ public class TimedSiteParser implements SiteParser {
 		return result;
 	}
 	
+	@Override
+	public SeriesInfo parse(InputStream htmlPage) {
+		StopWatch timer = new StopWatch();
+		
+		timer.start();
+		SeriesInfo result = parser.parse(htmlPage);
+		timer.stop();
+		
+		if (result != null) {
+			log.debug("HTML page has been parsed in {} msecs", timer.getTime());
+		}
+		
+		return result;
+	}
+	
 	@Override
 	public String toString() {
 		return parser.toString();
@@ -0,0 +1,55 @@
+/**
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.controller.editor
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+@SuppressWarnings(['ClassJavadoc', 'MethodName', 'NoDef', 'NoTabCharacter', 'TrailingWhitespace'])
+class ExpandCatalogNumbersEditorTest extends Specification {
+	
+	private final ExpandCatalogNumbersEditor editor = new ExpandCatalogNumbersEditor()
+	
+	@Unroll
+	def 'setAsText() should set null when text is "#text"'(String text) {
+		when:
+			editor.setAsText(text)
+		then:
+			editor.value == null
+		where:
+			text | _
+			null | _
+			''   | _
+			'  ' | _
+	}
+	
+	def 'setAsText() should expand a range and remove spaces'() {
+		when:
+			editor.setAsText(' 1 - 3, 5 ')
+		then:
+			editor.value == '1,2,3,5'
+	}
+	
+	def 'setAsText() should put plain numbers in ascending order before other codes'() {
+		when:
+			editor.setAsText('10a,1-3')
+		then:
+			editor.value == '1,2,3,10a'
+	}
+	
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.controller.event
+
+import java.util.concurrent.Executor
+import java.util.concurrent.RejectedExecutionException
+import java.util.function.IntSupplier
+
+import org.slf4j.helpers.NOPLogger
+
+import org.springframework.context.ApplicationEventPublisher
+
+import spock.lang.Specification
+
+@SuppressWarnings(['ClassJavadoc', 'MethodName', 'NoDef', 'NoTabCharacter', 'TrailingWhitespace'])
+class ImportRequestsFeederTest extends Specification {
+	
+	private final ApplicationEventPublisher eventPublisher = Mock()
+	private final Executor sameThreadExecutor = { Runnable task -> task.run() } as Executor
+	
+	@SuppressWarnings('ClosureAsLastMethodParameter')
+	def 'feed() should publish an event for every request'() {
+		given:
+			ImportRequestsFeeder feeder = createFeeder({ 0 } as IntSupplier)
+		when:
+			feeder.feed([ 'http://example.org/1': 1, 'http://example.org/2': 2 ])
+		then:
+			1 * eventPublisher.publishEvent({ ImportRequestCreated event ->
+				event.requestId == 1 && event.url == 'http://example.org/1'
+			})
+		and:
+			1 * eventPublisher.publishEvent({ ImportRequestCreated event ->
+				event.requestId == 2 && event.url == 'http://example.org/2'
+			})
+	}
+	
+	def 'feed() should wait while queue is full'() {
+		given:
+			int checks = 0
+			IntSupplier queuedTasks = { checks++ < 2 ? 1 : 0 } as IntSupplier
+		and:
+			ImportRequestsFeeder feeder = createFeeder(queuedTasks)
+		when:
+			feeder.feed([ 'http://example.org': 1 ])
+		then:
+			checks == 3
+		and:
+			1 * eventPublisher.publishEvent(_ as ImportRequestCreated)
+	}
+	
+	def 'feed() should not fail when executor is full'() {
+		given:
+			ImportRequestsFeeder feeder = new ImportRequestsFeeder(
+				NOPLogger.NOP_LOGGER,
+				eventPublisher,
+				{ Runnable task -> throw new RejectedExecutionException() } as Executor,
+				{ 0 } as IntSupplier,
+				1
+			)
+		when:
+			feeder.feed([ 'http://example.org': 1 ])
+		then:
+			noExceptionThrown()
+		and:
+			0 * eventPublisher.publishEvent(_)
+	}
+	
+	def 'feed() should do nothing when there are no requests'() {
+		given:
+			ImportRequestsFeeder feeder = createFeeder({ 0 } as IntSupplier)
+		when:
+			feeder.feed([:])
+		then:
+			0 * eventPublisher.publishEvent(_)
+	}
+	
+	private ImportRequestsFeeder createFeeder(IntSupplier queuedTasks) {
+		return new ImportRequestsFeeder(
+			NOPLogger.NOP_LOGGER,
+			eventPublisher,
+			sameThreadExecutor,
+			queuedTasks,
+			1
+		)
+	}
+	
+}
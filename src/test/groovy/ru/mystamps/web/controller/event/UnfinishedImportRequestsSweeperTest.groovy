@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.controller.event
+
+import org.slf4j.helpers.NOPLogger
+
+import org.springframework.context.ApplicationEventPublisher
+
+import spock.lang.Specification
+
+import ru.mystamps.web.Db.SeriesImportRequestStatus
+import ru.mystamps.web.dao.dto.UnfinishedImportRequestDto
+import ru.mystamps.web.service.SeriesImportService
+
+@SuppressWarnings(['ClassJavadoc', 'MethodName', 'NoDef', 'NoTabCharacter', 'TrailingWhitespace'])
+class UnfinishedImportRequestsSweeperTest extends Specification {
+	
+	private static final int MAX_ATTEMPTS = 3
+	private static final long RETRY_DELAY = 60
+	private static final String URL = 'http://example.com'
+	
+	private final SeriesImportService seriesImportService = Mock()
+	private final ApplicationEventPublisher eventPublisher = Mock()
+	
+	private final UnfinishedImportRequestsSweeper sweeper = new UnfinishedImportRequestsSweeper(
+		NOPLogger.NOP_LOGGER,
+		seriesImportService,
+		eventPublisher,
+		MAX_ATTEMPTS,
+		RETRY_DELAY,
+		10
+	)
+	
+	def 'sweep() should publish event that corresponds to status of request'() {
+		given:
+			seriesImportService.findUnfinishedRequests(10) >> [
+				new UnfinishedImportRequestDto(1, URL, SeriesImportRequestStatus.UNPROCESSED, 0, null),
+				new UnfinishedImportRequestDto(
+					2,
+					URL,
+					SeriesImportRequestStatus.DOWNLOADING_SUCCEEDED,
+					0,
+					null
+				)
+			]
+		when:
+			sweeper.sweep()
+		then:
+			1 * eventPublisher.publishEvent({
+				it instanceof ImportRequestCreated && it.requestId == 1 && it.url == URL
+			})
+		and:
+			1 * eventPublisher.publishEvent({
+				it instanceof DownloadingSucceeded && it.requestId == 2 && it.url == URL
+			})
+	}
+	
+	def 'sweep() should not retry request until backoff delay has passed'() {
+		given:
+			// after 2 attempts the delay is doubled
+			Date lockedUntil = new Date(System.currentTimeMillis() - RETRY_DELAY * 1000)
+			seriesImportService.findUnfinishedRequests(10) >> [
+				new UnfinishedImportRequestDto(
+					1,
+					URL,
+					SeriesImportRequestStatus.UNPROCESSED,
+					2,
+					lockedUntil
+				)
+			]
+		when:
+			sweeper.sweep()
+		then:
+			0 * eventPublisher.publishEvent(_)
+	}
+	
+	def 'sweep() should retry request when backoff delay has passed'() {
+		given:
+			Date lockedUntil = new Date(System.currentTimeMillis() - RETRY_DELAY * 1000)
+			seriesImportService.findUnfinishedRequests(10) >> [
+				new UnfinishedImportRequestDto(
+					1,
+					URL,
+					SeriesImportRequestStatus.UNPROCESSED,
+					1,
+					lockedUntil
+				)
+			]
+		when:
+			sweeper.sweep()
+		then:
+			1 * eventPublisher.publishEvent(_ as ImportRequestCreated)
+	}
+	
+	def 'sweep() should mark request as failed after max attempts'() {
+		given:
+			seriesImportService.findUnfinishedRequests(10) >> [
+				new UnfinishedImportRequestDto(
+					1,
+					URL,
+					SeriesImportRequestStatus.DOWNLOADING_SUCCEEDED,
+					MAX_ATTEMPTS,
+					new Date()
+				)
+			]
+		when:
+			sweeper.sweep()
+		then:
+			1 * seriesImportService.giveUp(
+				1,
+				MAX_ATTEMPTS,
+				SeriesImportRequestStatus.DOWNLOADING_SUCCEEDED,
+				SeriesImportRequestStatus.PARSING_FAILED
+			) >> true
+		and:
+			0 * eventPublisher.publishEvent(_)
+	}
+	
+	def 'sweep() should not resume request that has been leased while giving up'() {
+		given:
+			seriesImportService.findUnfinishedRequests(10) >> [
+				new UnfinishedImportRequestDto(
+					1,
+					URL,
+					SeriesImportRequestStatus.UNPROCESSED,
+					MAX_ATTEMPTS,
+					new Date()
+				)
+			]
+		and:
+			seriesImportService.giveUp(1, MAX_ATTEMPTS, _ as String, _ as String) >> false
+		when:
+			sweeper.sweep()
+		then:
+			0 * eventPublisher.publishEvent(_)
+	}
+	
+	def 'sweep() should continue when a request could not be resumed'() {
+		given:
+			seriesImportService.findUnfinishedRequests(10) >> [
+				new UnfinishedImportRequestDto(
+					1,
+					URL,
+					SeriesImportRequestStatus.UNPROCESSED,
+					MAX_ATTEMPTS,
+					new Date()
+				),
+				new UnfinishedImportRequestDto(2, URL, SeriesImportRequestStatus.UNPROCESSED, 0, null)
+			]
+		and:
+			seriesImportService.giveUp(1, _ as Integer, _ as String, _ as String) >> {
+				throw new IllegalStateException('status has been changed')
+			}
+		when:
+			sweeper.sweep()
+		then:
+			1 * eventPublisher.publishEvent({ it instanceof ImportRequestCreated && it.requestId == 2 })
+	}
+	
+}
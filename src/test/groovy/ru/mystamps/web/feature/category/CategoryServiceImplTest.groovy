@@ -19,8 +19,6 @@ package ru.mystamps.web.feature.category
 
 import static io.qala.datagen.RandomShortApi.nullOr
 import static io.qala.datagen.RandomShortApi.nullOrBlank
-import static io.qala.datagen.RandomValue.between
-import static io.qala.datagen.StringModifier.Impls.oneOf
 
 import org.slf4j.helpers.NOPLogger
 
@@ -28,6 +26,7 @@ import spock.lang.Specification
 import spock.lang.Unroll
 
 import ru.mystamps.web.dao.dto.EntityWithParentDto
+import ru.mystamps.web.dao.dto.EntityNameDto
 import ru.mystamps.web.dao.dto.LinkEntityDto
 import ru.mystamps.web.service.TestObjects
 import ru.mystamps.web.tests.DateUtils
@@ -150,16 +149,40 @@ class CategoryServiceImplTest extends Specification {
 			service.findIdsByNames(names) == []
 	}
 	
-	def 'findIdsByNames() should invoke dao, pass argument and return result from dao'() {
+	def 'findIdsByNames() should find ids by names and aliases regardless of case'() {
 		given:
-			List<String> expectedNames = Random.listOfStrings()
-			List<Integer> expectedResult = Random.listOfIntegers()
+			categoryDao.findAllNames() >> [
+				new EntityNameDto(1, 'Sport', false),
+				new EntityNameDto(1, 'Спорт', false),
+				new EntityNameDto(2, 'Athletics', true)
+			]
+		expect:
+			service.findIdsByNames([ 'sport' ]) == [ 1 ]
+			service.findIdsByNames([ 'Спорт', 'ATHLETICS', 'Unknown' ]) == [ 1, 2 ]
+	}
+	
+	def 'findIdsByNames() should load names from dao only once'() {
 		when:
-			List<Integer> result = service.findIdsByNames(expectedNames)
+			service.findIdsByNames([ 'Sport' ])
+			service.findIdsByNames([ 'Спорт' ])
 		then:
-			1 * categoryDao.findIdsByNames(expectedNames) >> expectedResult
+			1 * categoryDao.findAllNames() >> []
+	}
+	
+	def 'findIdsByNames() should reload names after a new category has been added'() {
+		given:
+			categoryDao.add(_ as AddCategoryDbDto) >> Random.id()
 		and:
-			result == expectedResult
+			categoryDao.findAllNames() >> []
+			service.findIdsByNames([ 'Sport' ])
+		when:
+			service.add(form, Random.userId())
+		and:
+			List<Integer> result = service.findIdsByNames([ 'Sport' ])
+		then:
+			1 * categoryDao.findAllNames() >> [ new EntityNameDto(3, 'Sport', false) ]
+		and:
+			result == [ 3 ]
 	}
 	
 	//
@@ -173,27 +196,27 @@ class CategoryServiceImplTest extends Specification {
 			thrown IllegalArgumentException
 	}
 	
-	def 'findIdsWhenNameStartsWith() should throw exception when name contains percent or underscore character'() {
+	def 'findIdsWhenNameStartsWith() should treat percent and underscore as ordinary characters'() {
 		given:
-			String invalidName = between(1, 10).with(oneOf('%_')).english()
-		when:
-			service.findIdsWhenNameStartsWith(invalidName)
-		then:
-			thrown IllegalArgumentException
+			categoryDao.findAllNames() >> [
+				new EntityNameDto(1, 'Sport', false),
+				new EntityNameDto(2, '100%_test', false)
+			]
+		expect:
+			service.findIdsWhenNameStartsWith('Spo_') == []
+			service.findIdsWhenNameStartsWith('Spo%') == []
+			service.findIdsWhenNameStartsWith('100%_') == [ 2 ]
 	}
 	
-	def 'findIdsWhenNameStartsWith() should invoke dao, pass argument and return result from dao'() {
+	def 'findIdsWhenNameStartsWith() should find ids by beginning of names but not aliases'() {
 		given:
-			String name = between(1, 10).english().toLowerCase()
-			String expectedPattern = name + '%'
-		and:
-			List<Integer> expectedResult = Random.listOfIntegers()
-		when:
-			List<Integer> result = service.findIdsWhenNameStartsWith(name)
-		then:
-			1 * categoryDao.findIdsByNamePattern(expectedPattern) >> expectedResult
-		and:
-			result == expectedResult
+			categoryDao.findAllNames() >> [
+				new EntityNameDto(1, 'Sport', false),
+				new EntityNameDto(2, 'Athletics', true)
+			]
+		expect:
+			service.findIdsWhenNameStartsWith('spo') == [ 1 ]
+			service.findIdsWhenNameStartsWith('Athletic') == []
 	}
 	
 	//
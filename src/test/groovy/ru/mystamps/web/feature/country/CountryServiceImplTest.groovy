@@ -19,14 +19,13 @@ package ru.mystamps.web.feature.country
 
 import static io.qala.datagen.RandomShortApi.nullOr
 import static io.qala.datagen.RandomShortApi.nullOrBlank
-import static io.qala.datagen.RandomValue.between
-import static io.qala.datagen.StringModifier.Impls.oneOf
 
 import spock.lang.Specification
 import spock.lang.Unroll
 
 import org.slf4j.helpers.NOPLogger
 
+import ru.mystamps.web.dao.dto.EntityNameDto
 import ru.mystamps.web.dao.dto.LinkEntityDto
 import ru.mystamps.web.service.TestObjects
 import ru.mystamps.web.tests.DateUtils
@@ -149,16 +148,40 @@ class CountryServiceImplTest extends Specification {
 			service.findIdsByNames(names) == []
 	}
 	
-	def 'findIdsByNames() should invoke dao, pass argument and return result from dao'() {
+	def 'findIdsByNames() should find ids by names and aliases regardless of case'() {
 		given:
-			List<String> expectedNames = Random.listOfStrings()
-			List<Integer> expectedResult = Random.listOfIntegers()
+			countryDao.findAllNames() >> [
+				new EntityNameDto(1, 'Italy', false),
+				new EntityNameDto(1, 'Италия', false),
+				new EntityNameDto(2, 'Italia', true)
+			]
+		expect:
+			service.findIdsByNames([ 'italy' ]) == [ 1 ]
+			service.findIdsByNames([ 'Италия', 'ITALIA', 'Unknown' ]) == [ 1, 2 ]
+	}
+	
+	def 'findIdsByNames() should load names from dao only once'() {
 		when:
-			List<Integer> result = service.findIdsByNames(expectedNames)
+			service.findIdsByNames([ 'Italy' ])
+			service.findIdsByNames([ 'Италия' ])
 		then:
-			1 * countryDao.findIdsByNames(expectedNames) >> expectedResult
+			1 * countryDao.findAllNames() >> []
+	}
+	
+	def 'findIdsByNames() should reload names after a new country has been added'() {
+		given:
+			countryDao.add(_ as AddCountryDbDto) >> Random.id()
 		and:
-			result == expectedResult
+			countryDao.findAllNames() >> []
+			service.findIdsByNames([ 'Italy' ])
+		when:
+			service.add(form, Random.userId())
+		and:
+			List<Integer> result = service.findIdsByNames([ 'Italy' ])
+		then:
+			1 * countryDao.findAllNames() >> [ new EntityNameDto(3, 'Italy', false) ]
+		and:
+			result == [ 3 ]
 	}
 	
 	//
@@ -172,27 +195,27 @@ class CountryServiceImplTest extends Specification {
 			thrown IllegalArgumentException
 	}
 	
-	def 'findIdsWhenNameStartsWith() should throw exception when name contains percent or underscore character'() {
+	def 'findIdsWhenNameStartsWith() should treat percent and underscore as ordinary characters'() {
 		given:
-			String invalidName = between(1, 10).with(oneOf('%_')).english()
-		when:
-			service.findIdsWhenNameStartsWith(invalidName)
-		then:
-			thrown IllegalArgumentException
+			countryDao.findAllNames() >> [
+				new EntityNameDto(1, 'Italy', false),
+				new EntityNameDto(2, '100%_test', false)
+			]
+		expect:
+			service.findIdsWhenNameStartsWith('Ita_') == []
+			service.findIdsWhenNameStartsWith('Ita%') == []
+			service.findIdsWhenNameStartsWith('100%_') == [ 2 ]
 	}
 	
-	def 'findIdsWhenNameStartsWith() should invoke dao, pass argument and return result from dao'() {
+	def 'findIdsWhenNameStartsWith() should find ids by beginning of names but not aliases'() {
 		given:
-			String name = between(1, 10).english().toLowerCase()
-			String expectedPattern = name + '%'
-		and:
-			List<Integer> expectedResult = Random.listOfIntegers()
-		when:
-			List<Integer> result = service.findIdsWhenNameStartsWith(name)
-		then:
-			1 * countryDao.findIdsByNamePattern(expectedPattern) >> expectedResult
-		and:
-			result == expectedResult
+			countryDao.findAllNames() >> [
+				new EntityNameDto(1, 'Italy', false),
+				new EntityNameDto(2, 'Italia', true)
+			]
+		expect:
+			service.findIdsWhenNameStartsWith('ita') == [ 1 ]
+			service.findIdsWhenNameStartsWith('Itali') == []
 	}
 	
 	//
@@ -0,0 +1,194 @@
+/**
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.feature.image
+
+import spock.lang.Specification
+
+@SuppressWarnings(['ClassJavadoc', 'MethodName', 'NoDef', 'NoTabCharacter', 'TrailingWhitespace'])
+class CachedImagePersistenceStrategyTest extends Specification {
+	
+	private final ImagePersistenceStrategy origStrategy = Mock()
+	
+	private final PreviewCache cache = new PreviewCache(10)
+	
+	private CachedImagePersistenceStrategy strategy
+	
+	def setup() {
+		strategy = new CachedImagePersistenceStrategy(origStrategy, cache)
+	}
+	
+	//
+	// Tests for getPreview()
+	//
+	
+	def 'getPreview() should query original strategy only once'() {
+		given:
+			ImageInfoDto image = new ImageInfoDto(1, 'jpeg')
+		when:
+			ImageDto first = strategy.getPreview(image, PreviewSize.MEDIUM)
+			ImageDto second = strategy.getPreview(image, PreviewSize.MEDIUM)
+		then:
+			1 * origStrategy.getPreview(image, PreviewSize.MEDIUM) >>
+				new ImageDto('jpeg', '12345'.bytes)
+		and:
+			first.data == '12345'.bytes
+			second.data == '12345'.bytes
+		and:
+			cache.hitsCounter == 1
+			cache.missesCounter == 1
+			cache.entriesCount == 1
+	}
+	
+	def 'getPreview() should not cache absent previews'() {
+		given:
+			ImageInfoDto image = new ImageInfoDto(1, 'jpeg')
+		when:
+			strategy.getPreview(image, PreviewSize.MEDIUM)
+			strategy.getPreview(image, PreviewSize.MEDIUM)
+		then:
+			2 * origStrategy.getPreview(image, PreviewSize.MEDIUM) >> null
+	}
+	
+	def 'getPreview() should evict least recently used previews when cache is full'() {
+		given:
+			ImageInfoDto first = new ImageInfoDto(1, 'jpeg')
+			ImageInfoDto second = new ImageInfoDto(2, 'jpeg')
+			ImageInfoDto third = new ImageInfoDto(3, 'jpeg')
+		and:
+			origStrategy.getPreview(_ as ImageInfoDto, _ as PreviewSize) >> {
+				new ImageDto('jpeg', '1234'.bytes)
+			}
+		when:
+			strategy.getPreview(first, PreviewSize.MEDIUM)
+			strategy.getPreview(second, PreviewSize.MEDIUM)
+			strategy.getPreview(first, PreviewSize.MEDIUM)
+			strategy.getPreview(third, PreviewSize.MEDIUM)
+		then:
+			cache.evictionsCounter == 1
+			cache.currentSize == 8
+		when:
+			strategy.getPreview(first, PreviewSize.MEDIUM)
+		then:
+			cache.hitsCounter == 2
+	}
+	
+	def 'getPreview() should not cache previews that are bigger than the cache'() {
+		given:
+			ImageInfoDto image = new ImageInfoDto(1, 'jpeg')
+		when:
+			strategy.getPreview(image, PreviewSize.MEDIUM)
+		then:
+			1 * origStrategy.getPreview(image, PreviewSize.MEDIUM) >>
+				new ImageDto('jpeg', ('x' * 11).bytes)
+		and:
+			cache.currentSize == 0
+	}
+	
+	def 'getPreview() should cache previews of different sizes separately'() {
+		given:
+			ImageInfoDto image = new ImageInfoDto(1, 'jpeg')
+		when:
+			ImageDto thumb = strategy.getPreview(image, PreviewSize.THUMB)
+			ImageDto large = strategy.getPreview(image, PreviewSize.LARGE)
+		then:
+			1 * origStrategy.getPreview(image, PreviewSize.THUMB) >> new ImageDto('jpeg', 't'.bytes)
+			1 * origStrategy.getPreview(image, PreviewSize.LARGE) >> new ImageDto('jpeg', 'l'.bytes)
+		and:
+			thumb.data == 't'.bytes
+			large.data == 'l'.bytes
+	}
+	
+	//
+	// Tests for savePreview()
+	//
+	
+	def 'savePreview() should invalidate cached preview'() {
+		given:
+			ImageInfoDto image = new ImageInfoDto(1, 'jpeg')
+		and:
+			byte[] data = 'new'.bytes
+		and:
+			origStrategy.getPreview(image, PreviewSize.MEDIUM) >> new ImageDto('jpeg', 'old'.bytes)
+		and:
+			strategy.getPreview(image, PreviewSize.MEDIUM)
+		when:
+			strategy.savePreview(data, image, PreviewSize.MEDIUM)
+		then:
+			1 * origStrategy.savePreview(data, image, PreviewSize.MEDIUM)
+		and:
+			cache.currentSize == 0
+	}
+	
+	def 'getPreview() should not cache a preview that has been invalidated while loading'() {
+		given:
+			ImageInfoDto image = new ImageInfoDto(1, 'jpeg')
+		when:
+			strategy.getPreview(image, PreviewSize.MEDIUM)
+			strategy.getPreview(image, PreviewSize.MEDIUM)
+		then:
+			// the preview is replaced by another thread while we're reading the old one
+			1 * origStrategy.getPreview(image, PreviewSize.MEDIUM) >> {
+				strategy.replacePreview('new'.bytes, image, PreviewSize.MEDIUM)
+				return new ImageDto('jpeg', 'old'.bytes)
+			}
+		and:
+			1 * origStrategy.getPreview(image, PreviewSize.MEDIUM) >> new ImageDto('jpeg', 'new'.bytes)
+	}
+	
+	//
+	// Tests for replacePreview()
+	//
+	
+	def 'replacePreview() should invalidate cached preview'() {
+		given:
+			ImageInfoDto image = new ImageInfoDto(1, 'jpeg')
+		and:
+			byte[] data = 'new'.bytes
+		and:
+			origStrategy.getPreview(image, PreviewSize.MEDIUM) >> new ImageDto('jpeg', 'old'.bytes)
+		and:
+			strategy.getPreview(image, PreviewSize.MEDIUM)
+		when:
+			strategy.replacePreview(data, image, PreviewSize.MEDIUM)
+		then:
+			1 * origStrategy.replacePreview(data, image, PreviewSize.MEDIUM)
+		and:
+			cache.currentSize == 0
+	}
+	
+	//
+	// Tests for removeIfPossible()
+	//
+	
+	def 'removeIfPossible() should invalidate cached previews of all sizes'() {
+		given:
+			ImageInfoDto image = new ImageInfoDto(1, 'jpeg')
+		and:
+			origStrategy.getPreview(image, _ as PreviewSize) >> new ImageDto('jpeg', 'old'.bytes)
+		and:
+			strategy.getPreview(image, PreviewSize.MEDIUM)
+			strategy.getPreview(image, PreviewSize.THUMB)
+		when:
+			strategy.removeIfPossible(image)
+		then:
+			1 * origStrategy.removeIfPossible(image)
+		and:
+			cache.currentSize == 0
+	}
+	
+}
@@ -17,6 +17,8 @@
  */
 package ru.mystamps.web.feature.image
 
+import java.nio.channels.Channels
+
 import org.slf4j.helpers.NOPLogger
 
 import org.springframework.web.multipart.MultipartFile
@@ -32,6 +34,8 @@ class DatabaseImagePersistenceStrategyTest extends Specification {
 	private final MultipartFile multipartFile = Mock()
 	private final ImageInfoDto imageInfoDto = TestObjects.createImageInfoDto()
 	
+	private static final Integer DATA_ID = 42
+	
 	private ImagePersistenceStrategy strategy
 	
 	def setup() {
@@ -50,7 +54,7 @@ class DatabaseImagePersistenceStrategyTest extends Specification {
 	
 	def "save() should convert IOException to ImagePersistenceException"() {
 		given:
-			multipartFile.bytes >> { throw new IOException() }
+			multipartFile.inputStream >> { throw new IOException() }
 		when:
 			strategy.save(multipartFile, imageInfoDto)
 		then:
@@ -65,14 +69,17 @@ class DatabaseImagePersistenceStrategyTest extends Specification {
 			Integer expectedImageId = imageInfoDto.id
 		and:
 			byte[] expectedContent = 'test'.bytes
-			multipartFile.bytes >> expectedContent
+			multipartFile.inputStream >> new ByteArrayInputStream(expectedContent)
+			multipartFile.size >> expectedContent.length
 		when:
 			strategy.save(multipartFile, imageInfoDto)
 		then:
 			1 * imageDataDao.add({ AddImageDataDbDto imageData ->
 				assert imageData?.imageId == expectedImageId
-				assert imageData?.content == expectedContent
+				assert imageData?.content?.bytes == expectedContent
+				assert imageData?.contentLength == expectedContent.length
 				assert imageData?.preview == false
+				assert imageData?.variant == ''
 				return true
 			})
 	}
@@ -88,12 +95,36 @@ class DatabaseImagePersistenceStrategyTest extends Specification {
 		and:
 			byte[] expectedContent = 'test'.bytes
 		when:
-			strategy.savePreview(expectedContent, imageInfoDto)
+			strategy.savePreview(expectedContent, imageInfoDto, PreviewSize.LARGE)
 		then:
 			1 * imageDataDao.add({ AddImageDataDbDto imageData ->
 				assert imageData?.imageId == expectedImageId
-				assert imageData?.content == expectedContent
+				assert imageData?.content?.bytes == expectedContent
+				assert imageData?.contentLength == expectedContent.length
 				assert imageData?.preview == true
+				assert imageData?.variant == 'large.png'
+				return true
+			})
+	}
+	
+	//
+	// Tests for replacePreview()
+	//
+	
+	@SuppressWarnings(['ClosureAsLastMethodParameter', 'UnnecessaryReturnKeyword'])
+	def 'replacePreview() should remove existing preview and add a new one'() {
+		given:
+			byte[] expectedContent = 'test'.bytes
+		when:
+			strategy.replacePreview(expectedContent, imageInfoDto, PreviewSize.MEDIUM)
+		then:
+			1 * imageDataDao.removePreview(imageInfoDto.id, 'medium.png') >> 1
+		then:
+			1 * imageDataDao.add({ AddImageDataDbDto imageData ->
+				assert imageData?.imageId == imageInfoDto.id
+				assert imageData?.content?.bytes == expectedContent
+				assert imageData?.preview == true
+				assert imageData?.variant == 'medium.png'
 				return true
 			})
 	}
@@ -115,7 +146,7 @@ class DatabaseImagePersistenceStrategyTest extends Specification {
 		given:
 			Integer expectedImageId = imageInfoDto.id
 		and:
-			ImageDto expectedImageDto = TestObjects.createImageDto()
+			DatabaseImageDto expectedImageDto = createDatabaseImageDto()
 		when:
 			ImageDto result = strategy.get(imageInfoDto)
 		then:
@@ -130,9 +161,9 @@ class DatabaseImagePersistenceStrategyTest extends Specification {
 	
 	def 'getPreview() should return null when image data dao returned null'() {
 		given:
-			imageDataDao.findByImageId(_ as Integer, _ as Boolean) >> null
+			imageDataDao.findPreviewByImageId(_ as Integer, _ as String) >> null
 		when:
-			ImageDto result = strategy.getPreview(imageInfoDto)
+			ImageDto result = strategy.getPreview(imageInfoDto, PreviewSize.MEDIUM)
 		then:
 			result == null
 	}
@@ -141,13 +172,42 @@ class DatabaseImagePersistenceStrategyTest extends Specification {
 		given:
 			Integer expectedImageId = imageInfoDto.id
 		and:
-			ImageDto expectedImageDto = TestObjects.createImageDto()
+			DatabaseImageDto expectedImageDto = createDatabaseImageDto()
 		when:
-			ImageDto result = strategy.getPreview(imageInfoDto)
+			ImageDto result = strategy.getPreview(imageInfoDto, PreviewSize.THUMB)
 		then:
-			1 * imageDataDao.findByImageId(expectedImageId, true) >> expectedImageDto
+			1 * imageDataDao.findPreviewByImageId(expectedImageId, 'thumb.png') >> expectedImageDto
 		and:
-			result == expectedImageDto
+			result.type == imageInfoDto.type
+			result.size == expectedImageDto.size
+	}
+	
+	def 'getPreview() should load content only when it is requested'() {
+		given:
+			byte[] expectedContent = 'test'.bytes
+		and:
+			imageDataDao.findPreviewByImageId(_ as Integer, _ as String) >> createDatabaseImageDto()
+		when:
+			ImageDto result = strategy.getPreview(imageInfoDto, PreviewSize.THUMB)
+		then:
+			0 * imageDataDao.findContentById(_ as Integer)
+		when:
+			byte[] data = result.data
+		then:
+			1 * imageDataDao.findContentById(DATA_ID) >> expectedContent
+		and:
+			data == expectedContent
+	}
+	
+	def 'getPreview() should stream content of the requested range'() {
+		given:
+			imageDataDao.findPreviewByImageId(_ as Integer, _ as String) >> createDatabaseImageDto()
+		and:
+			ImageDto result = strategy.getPreview(imageInfoDto, PreviewSize.THUMB)
+		when:
+			result.transferTo(1, 2, Channels.newChannel(new ByteArrayOutputStream()))
+		then:
+			1 * imageDataDao.writeContent(DATA_ID, 1, 2, _ as OutputStream)
 	}
 	
 	//
@@ -161,4 +221,8 @@ class DatabaseImagePersistenceStrategyTest extends Specification {
 			noExceptionThrown()
 	}
 	
+	private DatabaseImageDto createDatabaseImageDto() {
+		return new DatabaseImageDto('PNG', DATA_ID, 4, imageDataDao)
+	}
+	
 }
@@ -23,7 +23,12 @@ import org.springframework.web.multipart.MultipartFile
 
 import spock.lang.Specification
 
+import java.nio.channels.Channels
+import java.nio.file.FileAlreadyExistsException
+import java.nio.file.Files
 import java.nio.file.Path
+import java.nio.file.Paths
+import java.security.MessageDigest
 
 import ru.mystamps.web.service.TestObjects
 
@@ -35,50 +40,100 @@ class FilesystemImagePersistenceStrategyTest extends Specification {
 	private final MultipartFile multipartFile = Mock()
 	private final ImageInfoDto imageInfoDto = TestObjects.createImageInfoDto()
 	private final Path mockFile = Mock(Path)
+	private final ImageBlobDao imageBlobDao = Mock()
 	
 	@SuppressWarnings('SpaceAfterComma') // false positive
 	private final ImagePersistenceStrategy strategy = Spy(
 		FilesystemImagePersistenceStrategy,
-		constructorArgs:[NOPLogger.NOP_LOGGER, STORAGE_DIR, PREVIEW_DIR]
+		constructorArgs:[NOPLogger.NOP_LOGGER, imageBlobDao, FileSyncer.NONE, STORAGE_DIR, PREVIEW_DIR]
 	)
 	
 	//
 	// Tests for save()
 	//
 	
-	def 'save() should save a file onto the file system'() {
+	def 'save() should store a file under a hash of its content in sharded directories'() {
+		given:
+			File dir = Files.createTempDirectory('images').toFile()
+			ImagePersistenceStrategy fsStrategy = new FilesystemImagePersistenceStrategy(
+				NOPLogger.NOP_LOGGER,
+				imageBlobDao,
+				FileSyncer.NONE,
+				dir.path,
+				dir.path
+			)
+		and:
+			String hash = sha256('content')
+			File expectedFile = new File(dir, hash[0..1] + '/' + hash[2..3] + '/' + hash)
+		and:
+			multipartFile.inputStream >> new ByteArrayInputStream('content'.bytes)
 		when:
-			strategy.save(multipartFile, imageInfoDto)
+			fsStrategy.save(multipartFile, imageInfoDto)
+		then:
+			1 * imageBlobDao.add(imageInfoDto.id, hash)
+		and:
+			expectedFile.bytes == 'content'.bytes
+		and: 'a temporary file has been renamed'
+			dir.list() == [ hash[0..1] ] as String[]
+		cleanup:
+			dir.deleteDir()
+	}
+	
+	def 'save() should store the same content only once'() {
+		given:
+			File dir = Files.createTempDirectory('images').toFile()
+			ImagePersistenceStrategy fsStrategy = new FilesystemImagePersistenceStrategy(
+				NOPLogger.NOP_LOGGER,
+				imageBlobDao,
+				FileSyncer.NONE,
+				dir.path,
+				dir.path
+			)
+		and:
+			String hash = sha256('content')
+			File shardDir = new File(dir, hash[0..1] + '/' + hash[2..3])
+		and:
+			multipartFile.inputStream >> { new ByteArrayInputStream('content'.bytes) }
+		when:
+			fsStrategy.save(multipartFile, new ImageInfoDto(1, 'PNG'))
+			fsStrategy.save(multipartFile, new ImageInfoDto(2, 'PNG'))
 		then:
-			1 * strategy.writeToFile(_ as MultipartFile, _ as Path) >> { }
+			1 * imageBlobDao.add(1, hash)
+			1 * imageBlobDao.add(2, hash)
+		and:
+			shardDir.list() == [ hash ] as String[]
+			dir.list() == [ hash[0..1] ] as String[]
+		cleanup:
+			dir.deleteDir()
 	}
 	
-	@SuppressWarnings(['ClosureAsLastMethodParameter', 'UnnecessaryReturnKeyword'])
-	def 'save() should save a file into a configured directory'() {
+	def 'save() should add a reference before looking for the same content'() {
 		given:
-			String expectedDirectoryName = STORAGE_DIR
+			strategy.createTempFile(_ as Path, _ as String) >> Paths.get(STORAGE_DIR, '.upload.tmp')
+			strategy.writeToFile(_ as MultipartFile, _ as Path) >> 'cafe'
 		when:
 			strategy.save(multipartFile, imageInfoDto)
 		then:
-			1 * strategy.writeToFile(_ as MultipartFile, { Path path ->
-				assert path?.parent?.toString() == expectedDirectoryName
-				return true
-			}) >> { }
+			1 * imageBlobDao.add(imageInfoDto.id, 'cafe')
+		then:
+			1 * strategy.exists(_ as Path) >> true
 	}
 	
-	@SuppressWarnings(['ClosureAsLastMethodParameter', 'UnnecessaryReturnKeyword'])
-	def 'save() should give a proper name to a file'() {
+	def 'save() should remove a temporary file when a reference can\'t be added'() {
 		given:
-			String expectedExtension = imageInfoDto.type.toLowerCase()
-			String expectedName = imageInfoDto.id
-			String expectedFileName = expectedName + '.' + expectedExtension
+			File tmp = File.createTempFile('upload', '')
+			tmp.deleteOnExit()
+		and:
+			strategy.createTempFile(_ as Path, _ as String) >> tmp.toPath()
+			strategy.writeToFile(_ as MultipartFile, _ as Path) >> 'cafe'
+		and:
+			imageBlobDao.add(imageInfoDto.id, 'cafe') >> { throw new IllegalStateException() }
 		when:
 			strategy.save(multipartFile, imageInfoDto)
 		then:
-			1 * strategy.writeToFile(_ as MultipartFile, { Path path ->
-				assert path?.fileName?.toString() == expectedFileName
-				return true
-			}) >> { }
+			thrown IllegalStateException
+		and:
+			!tmp.exists()
 	}
 	
 	def 'save() should convert IOException to ImagePersistenceException'() {
@@ -90,6 +145,8 @@ class FilesystemImagePersistenceStrategyTest extends Specification {
 			ImagePersistenceException ex = thrown()
 		and:
 			ex.cause instanceof IOException
+		and:
+			0 * imageBlobDao.add(_, _)
 	}
 	
 	//
@@ -113,7 +170,7 @@ class FilesystemImagePersistenceStrategyTest extends Specification {
 		and:
 			strategy.generateFilePath(_ as File, _ as ImageInfoDto) >> mockFile
 		and:
-			strategy.toByteArray(_ as Path) >> { throw new IOException() }
+			strategy.readAttributes(_ as Path) >> { throw new IOException() }
 		when:
 			strategy.get(imageInfoDto)
 		then:
@@ -122,22 +179,338 @@ class FilesystemImagePersistenceStrategyTest extends Specification {
 			ex.cause instanceof IOException
 	}
 	
-	def 'get() should return result with correct type and content'() {
+	def 'get() should return result with correct type, size and content'() {
 		given:
 			String expectedType = imageInfoDto.type
 		and:
 			byte[] expectedData = 'any data'.bytes
 		and:
-			strategy.exists(_ as Path) >> true
-		and:
-			strategy.generateFilePath(_ as File, _ as ImageInfoDto) >> mockFile
+			File file = File.createTempFile('image', '.png')
+			file.deleteOnExit()
+			file.bytes = expectedData
 		and:
-			strategy.toByteArray(_ as Path) >> expectedData
+			strategy.generateFilePath(_ as File, _ as ImageInfoDto) >> file.toPath()
 		when:
 			ImageDto result = strategy.get(imageInfoDto)
 		then:
 			result.type == expectedType
+			result.size == expectedData.length
+			result.lastModified == file.lastModified()
 			result.data == expectedData
+		cleanup:
+			file.delete()
+	}
+	
+	def 'get() should find a file by a hash of its content'() {
+		given:
+			File file = File.createTempFile('image', '')
+			file.deleteOnExit()
+			file.bytes = 'any data'.bytes
+		and:
+			imageBlobDao.findHashByImageId(imageInfoDto.id) >> 'cafe'
+			strategy.generateBlobPath('cafe') >> file.toPath()
+		when:
+			ImageDto result = strategy.get(imageInfoDto)
+		then:
+			result.data == 'any data'.bytes
+		cleanup:
+			file.delete()
+	}
+	
+	def 'get() should transfer only requested part of a file'() {
+		given:
+			File file = File.createTempFile('image', '.png')
+			file.deleteOnExit()
+			file.bytes = '0123456789'.bytes
+		and:
+			strategy.generateFilePath(_ as File, _ as ImageInfoDto) >> file.toPath()
+		and:
+			ByteArrayOutputStream out = new ByteArrayOutputStream()
+		when:
+			strategy.get(imageInfoDto).transferTo(2, 5, Channels.newChannel(out))
+		then:
+			out.toByteArray() == '23456'.bytes
+		cleanup:
+			file.delete()
+	}
+	
+	//
+	// Tests for savePreview()
+	//
+	
+	def 'savePreview() should not overwrite an existing file'() {
+		given:
+			File dir = Files.createTempDirectory('previews').toFile()
+			File preview = new File(dir, 'preview.jpeg')
+			preview.bytes = 'old'.bytes
+		and:
+			strategy.generatePreviewFilePath(_ as ImageInfoDto, _ as PreviewSize) >> preview.toPath()
+		when:
+			strategy.savePreview('new'.bytes, imageInfoDto, PreviewSize.MEDIUM)
+		then:
+			ImagePersistenceException ex = thrown()
+		and:
+			ex.cause instanceof FileAlreadyExistsException
+		and:
+			preview.bytes == 'old'.bytes
+			dir.list() == [ 'preview.jpeg' ] as String[]
+		cleanup:
+			dir.deleteDir()
+	}
+	
+	//
+	// Tests for getPreview()
+	//
+	
+	@SuppressWarnings('ClosureAsLastMethodParameter')
+	def 'getPreview() should find a preview in a sharded directory'() {
+		given:
+			ImageInfoDto preview = new ImageInfoDto(0x1234, 'jpeg')
+		and:
+			String expectedPath = [ PREVIEW_DIR, '34', '12', '4660-thumb.jpeg' ]
+				.join(File.separator)
+		when:
+			strategy.getPreview(preview, PreviewSize.THUMB)
+		then:
+			1 * strategy.exists({ Path path -> path.toString() == expectedPath }) >> false
+	}
+	
+	def 'getPreview() should fall back to a flat directory'() {
+		given:
+			File file = File.createTempFile('preview', '.jpeg')
+			file.deleteOnExit()
+			file.bytes = 'preview'.bytes
+		and:
+			strategy.generateFlatPreviewFilePath(_ as ImageInfoDto, _ as PreviewSize) >> file.toPath()
+		when:
+			ImageDto result = strategy.getPreview(imageInfoDto, PreviewSize.MEDIUM)
+		then:
+			result.data == 'preview'.bytes
+		cleanup:
+			file.delete()
+	}
+	
+	//
+	// Tests for replacePreview()
+	//
+	
+	def 'replacePreview() should replace content of an existing file'() {
+		given:
+			File dir = Files.createTempDirectory('previews').toFile()
+			File preview = new File(dir, 'preview.jpeg')
+			preview.bytes = 'old'.bytes
+		and:
+			strategy.generatePreviewFilePath(_ as ImageInfoDto, _ as PreviewSize) >> preview.toPath()
+		when:
+			strategy.replacePreview('new'.bytes, imageInfoDto, PreviewSize.MEDIUM)
+		then:
+			preview.bytes == 'new'.bytes
+		and: 'a temporary file has been renamed'
+			dir.list() == [ 'preview.jpeg' ] as String[]
+		cleanup:
+			dir.deleteDir()
+	}
+	
+	def 'replacePreview() should keep old content and remove temporary file on failure'() {
+		given:
+			File dir = Files.createTempDirectory('previews').toFile()
+			File preview = new File(dir, 'preview.jpeg')
+			preview.bytes = 'old'.bytes
+		and:
+			strategy.generatePreviewFilePath(_ as ImageInfoDto, _ as PreviewSize) >> preview.toPath()
+			strategy.moveAtomically(_ as Path, _ as Path) >> { throw new IOException() }
+		when:
+			strategy.replacePreview('new'.bytes, imageInfoDto, PreviewSize.MEDIUM)
+		then:
+			ImagePersistenceException ex = thrown()
+		and:
+			ex.cause instanceof IOException
+		and:
+			preview.bytes == 'old'.bytes
+			dir.list() == [ 'preview.jpeg' ] as String[]
+		cleanup:
+			dir.deleteDir()
+	}
+	
+	//
+	// Tests for removeIfPossible()
+	//
+	
+	def 'removeIfPossible() should remove a file that isn\'t used by other images'() {
+		given:
+			File file = File.createTempFile('image', '')
+			file.deleteOnExit()
+		and:
+			imageBlobDao.findHashByImageId(imageInfoDto.id) >> 'cafe'
+			imageBlobDao.countOtherReferences('cafe', imageInfoDto.id) >> 0L
+			strategy.generateBlobPath('cafe') >> file.toPath()
+		when:
+			strategy.removeIfPossible(imageInfoDto)
+		then:
+			!file.exists()
+	}
+	
+	def 'removeIfPossible() should keep a file that is used by other images'() {
+		given:
+			File file = File.createTempFile('image', '')
+			file.deleteOnExit()
+		and:
+			imageBlobDao.findHashByImageId(imageInfoDto.id) >> 'cafe'
+			imageBlobDao.countOtherReferences('cafe', imageInfoDto.id) >> 1L
+			strategy.generateBlobPath('cafe') >> file.toPath()
+		when:
+			strategy.removeIfPossible(imageInfoDto)
+		then:
+			file.exists()
+		cleanup:
+			file.delete()
+	}
+	
+	//
+	// Tests for migrateOriginal()
+	//
+	
+	def 'migrateOriginal() should copy a file into the content-addressed storage'() {
+		given:
+			File dir = Files.createTempDirectory('images').toFile()
+			FilesystemImagePersistenceStrategy fsStrategy = new FilesystemImagePersistenceStrategy(
+				NOPLogger.NOP_LOGGER,
+				imageBlobDao,
+				FileSyncer.NONE,
+				dir.path,
+				dir.path
+			)
+		and:
+			File legacyFile = new File(dir, '5.png')
+			legacyFile.bytes = 'content'.bytes
+		and:
+			String hash = sha256('content')
+			File expectedFile = new File(dir, hash[0..1] + '/' + hash[2..3] + '/' + hash)
+		when:
+			fsStrategy.migrateOriginal(legacyFile.toPath(), 5)
+		then:
+			1 * imageBlobDao.findHashByImageId(5) >> null
+			1 * imageBlobDao.add(5, hash)
+		and:
+			// the concurrent requests could have already found the old file
+			legacyFile.exists()
+			expectedFile.bytes == 'content'.bytes
+		cleanup:
+			dir.deleteDir()
+	}
+	
+	def 'migrateOriginal() should only remove a file that has been already migrated'() {
+		given:
+			File file = File.createTempFile('image', '.png')
+			file.deleteOnExit()
+		and:
+			imageBlobDao.findHashByImageId(5) >> 'cafe'
+		when:
+			strategy.migrateOriginal(file.toPath(), 5)
+		then:
+			0 * imageBlobDao.add(_, _)
+		and:
+			!file.exists()
+	}
+	
+	//
+	// Tests for migratePreview()
+	//
+	
+	def 'migratePreview() should copy a file into a sharded directory'() {
+		given:
+			File dir = Files.createTempDirectory('previews').toFile()
+			FilesystemImagePersistenceStrategy fsStrategy = new FilesystemImagePersistenceStrategy(
+				NOPLogger.NOP_LOGGER,
+				imageBlobDao,
+				FileSyncer.NONE,
+				dir.path,
+				dir.path
+			)
+		and:
+			File legacyFile = new File(dir, '258-large.jpeg')
+			legacyFile.bytes = 'preview'.bytes
+		when:
+			fsStrategy.migratePreview(
+				legacyFile.toPath(),
+				new ImageInfoDto(258, 'jpeg'),
+				PreviewSize.LARGE,
+				System.currentTimeMillis()
+			)
+		then:
+			legacyFile.exists()
+			new File(dir, '02/01/258-large.jpeg').bytes == 'preview'.bytes
+		cleanup:
+			dir.deleteDir()
+	}
+	
+	def 'migratePreview() should remove a file that has been migrated by a previous run'() {
+		given:
+			File dir = Files.createTempDirectory('previews').toFile()
+			FilesystemImagePersistenceStrategy fsStrategy = new FilesystemImagePersistenceStrategy(
+				NOPLogger.NOP_LOGGER,
+				imageBlobDao,
+				FileSyncer.NONE,
+				dir.path,
+				dir.path
+			)
+		and:
+			File legacyFile = new File(dir, '258-large.jpeg')
+			legacyFile.bytes = 'preview'.bytes
+		and:
+			long migrationStartedAt = System.currentTimeMillis()
+		and:
+			File migratedFile = new File(dir, '02/01/258-large.jpeg')
+			migratedFile.parentFile.mkdirs()
+			migratedFile.bytes = 'preview'.bytes
+			migratedFile.setLastModified(migrationStartedAt - 60000)
+		when:
+			fsStrategy.migratePreview(
+				legacyFile.toPath(),
+				new ImageInfoDto(258, 'jpeg'),
+				PreviewSize.LARGE,
+				migrationStartedAt
+			)
+		then:
+			!legacyFile.exists()
+			migratedFile.bytes == 'preview'.bytes
+		cleanup:
+			dir.deleteDir()
+	}
+	
+	def 'migratePreview() should keep a file when a preview has been regenerated during this run'() {
+		given:
+			File dir = Files.createTempDirectory('previews').toFile()
+			FilesystemImagePersistenceStrategy fsStrategy = new FilesystemImagePersistenceStrategy(
+				NOPLogger.NOP_LOGGER,
+				imageBlobDao,
+				FileSyncer.NONE,
+				dir.path,
+				dir.path
+			)
+		and:
+			File legacyFile = new File(dir, '258-large.jpeg')
+			legacyFile.bytes = 'old'.bytes
+		and:
+			File regeneratedFile = new File(dir, '02/01/258-large.jpeg')
+			regeneratedFile.parentFile.mkdirs()
+			regeneratedFile.bytes = 'new'.bytes
+		when:
+			fsStrategy.migratePreview(
+				legacyFile.toPath(),
+				new ImageInfoDto(258, 'jpeg'),
+				PreviewSize.LARGE,
+				regeneratedFile.lastModified() - 60000
+			)
+		then:
+			legacyFile.exists()
+			regeneratedFile.bytes == 'new'.bytes
+		cleanup:
+			dir.deleteDir()
+	}
+	
+	private static String sha256(String content) {
+		return MessageDigest.getInstance('SHA-256').digest(content.bytes).encodeHex().toString()
 	}
 	
 }
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.feature.image
+
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.concurrent.Executor
+
+import org.slf4j.helpers.NOPLogger
+
+import org.springframework.dao.DataIntegrityViolationException
+import org.springframework.dao.QueryTimeoutException
+
+@SuppressWarnings(['ClassJavadoc', 'MethodName', 'NoDef', 'NoTabCharacter', 'TrailingWhitespace'])
+class FlatLayoutMigrationTest extends Specification {
+	
+	private final File storageDir = Files.createTempDirectory('images').toFile()
+	private final File previewDir = Files.createTempDirectory('previews').toFile()
+	private final ImageBlobDao imageBlobDao = Mock()
+	
+	@SuppressWarnings('SpaceAfterComma') // false positive
+	private final FilesystemImagePersistenceStrategy strategy = Spy(
+		FilesystemImagePersistenceStrategy,
+		constructorArgs:[
+			NOPLogger.NOP_LOGGER,
+			imageBlobDao,
+			FileSyncer.NONE,
+			storageDir.path,
+			previewDir.path
+		]
+	)
+	
+	private final FlatLayoutMigration migration = new FlatLayoutMigration(
+		NOPLogger.NOP_LOGGER,
+		strategy,
+		{ Runnable task -> task.run() } as Executor,
+		storageDir.path,
+		previewDir.path
+	)
+	
+	def cleanup() {
+		storageDir.deleteDir()
+		previewDir.deleteDir()
+	}
+	
+	def 'migrate() should migrate only images from the flat directory'() {
+		given:
+			new File(storageDir, '1.png').bytes = 'image'.bytes
+			new File(storageDir, '2.jpeg').bytes = 'image'.bytes
+			new File(storageDir, '.upload123.tmp').bytes = 'image'.bytes
+			new File(storageDir, 'readme.txt').bytes = 'text'.bytes
+			new File(storageDir, 'ab').mkdir()
+		when:
+			migration.migrate()
+		then:
+			1 * strategy.migrateOriginal(_ as Path, 1) >> { }
+			1 * strategy.migrateOriginal(_ as Path, 2) >> { }
+			0 * strategy.migrateOriginal(_, _)
+	}
+	
+	def 'migrate() should migrate previews of known sizes'() {
+		given:
+			new File(previewDir, '1.jpeg').bytes = 'preview'.bytes
+			new File(previewDir, '2-thumb.webp').bytes = 'preview'.bytes
+			new File(previewDir, '3-huge.jpeg').bytes = 'preview'.bytes
+		when:
+			migration.migrate()
+		then:
+			1 * strategy.migratePreview(
+				_ as Path,
+				new ImageInfoDto(1, 'jpeg'),
+				PreviewSize.DEFAULT,
+				_ as Long
+			) >> { }
+			1 * strategy.migratePreview(
+				_ as Path,
+				new ImageInfoDto(2, 'webp'),
+				PreviewSize.THUMB,
+				_ as Long
+			) >> { }
+			0 * strategy.migratePreview(_, _, _, _)
+	}
+	
+	def 'migrate() should continue after a file that could not be migrated'() {
+		given:
+			new File(storageDir, '1.png').bytes = 'image'.bytes
+			new File(storageDir, '2.png').bytes = 'image'.bytes
+		when:
+			migration.migrate()
+		then:
+			1 * strategy.migrateOriginal(_ as Path, 1) >> { throw new IOException() }
+			1 * strategy.migrateOriginal(_ as Path, 2) >> { }
+	}
+	
+	def 'migrate() should move aside an image that doesn\'t exist in database'() {
+		given:
+			new File(storageDir, '1.png').bytes = 'orphan'.bytes
+			new File(storageDir, '2.png').bytes = 'image'.bytes
+		and:
+			imageBlobDao.add(1, _ as String) >> { throw new DataIntegrityViolationException('FK') }
+		when:
+			migration.migrate()
+		then:
+			!new File(storageDir, '1.png').exists()
+			new File(storageDir, 'orphaned/1.png').text == 'orphan'
+		and:
+			!new File(storageDir, '2.png').exists()
+	}
+	
+	def 'migrate() should continue after a database error'() {
+		given:
+			new File(storageDir, '1.png').bytes = 'image'.bytes
+			new File(storageDir, '2.png').bytes = 'image'.bytes
+		when:
+			migration.migrate()
+		then:
+			1 * strategy.migrateOriginal(_ as Path, 1) >> { throw new QueryTimeoutException('') }
+			1 * strategy.migrateOriginal(_ as Path, 2) >> { }
+		and:
+			new File(storageDir, '1.png').exists()
+	}
+	
+	def 'migrate() should stop when its thread has been interrupted'() {
+		given:
+			new File(storageDir, '1.png').bytes = 'image'.bytes
+			new File(previewDir, '1.jpeg').bytes = 'preview'.bytes
+		and:
+			// a thread is interrupted when the executor is being shut down
+			Thread.currentThread().interrupt()
+		when:
+			migration.migrate()
+		then:
+			0 * strategy.migrateOriginal(_, _)
+			0 * strategy.migratePreview(_, _, _, _)
+		cleanup:
+			Thread.interrupted()
+	}
+	
+	def 'onApplicationEvent() should start migration'() {
+		given:
+			new File(storageDir, '1.png').bytes = 'image'.bytes
+		when:
+			migration.onApplicationEvent(null)
+		then:
+			1 * strategy.migrateOriginal(_ as Path, 1) >> { }
+	}
+	
+}
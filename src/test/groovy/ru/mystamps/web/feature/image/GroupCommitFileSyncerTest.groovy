@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.feature.image
+
+import spock.lang.Specification
+
+import java.nio.file.Path
+import java.nio.file.Paths
+
+import org.slf4j.helpers.NOPLogger
+
+@SuppressWarnings(['ClassJavadoc', 'MethodName', 'NoDef', 'NoTabCharacter', 'TrailingWhitespace'])
+class GroupCommitFileSyncerTest extends Specification {
+	
+	private final FileSyncer origSyncer = Mock()
+	
+	def 'sync() should sync a path once for all concurrent writers'() {
+		given:
+			// big enough for starting all the threads
+			FileSyncer syncer = new GroupCommitFileSyncer(NOPLogger.NOP_LOGGER, origSyncer, 500)
+		and:
+			Path dir = Paths.get('/tmp/previews')
+			Path file = Paths.get('/tmp/previews/1.jpeg')
+		when:
+			List<Thread> writers = [
+				Thread.start { syncer.sync(file) },
+				Thread.start { syncer.sync(dir) },
+				Thread.start { syncer.sync(dir) },
+			]
+			writers*.join()
+		then:
+			1 * origSyncer.sync(file)
+			1 * origSyncer.sync(dir)
+	}
+	
+	def 'sync() should sync a path again in the next group'() {
+		given:
+			FileSyncer syncer = new GroupCommitFileSyncer(NOPLogger.NOP_LOGGER, origSyncer, 0)
+		and:
+			Path dir = Paths.get('/tmp/previews')
+		when:
+			syncer.sync(dir)
+			syncer.sync(dir)
+		then:
+			2 * origSyncer.sync(dir)
+	}
+	
+	def 'sync() should throw exception when path could not be synced'() {
+		given:
+			FileSyncer syncer = new GroupCommitFileSyncer(NOPLogger.NOP_LOGGER, origSyncer, 0)
+		and:
+			origSyncer.sync(_ as Path) >> { throw new IOException('disk failure') }
+		when:
+			syncer.sync(Paths.get('/tmp/previews'))
+		then:
+			IOException ex = thrown()
+		and:
+			ex.message == 'disk failure'
+	}
+	
+}
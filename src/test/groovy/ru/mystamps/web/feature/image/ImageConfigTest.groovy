@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.feature.image
+
+import org.springframework.context.annotation.AnnotationConfigApplicationContext
+import org.springframework.core.env.MapPropertySource
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate
+import org.springframework.mock.web.MockMultipartFile
+import org.springframework.transaction.PlatformTransactionManager
+import org.springframework.transaction.TransactionDefinition
+import org.springframework.transaction.support.AbstractPlatformTransactionManager
+import org.springframework.transaction.support.DefaultTransactionStatus
+import org.springframework.transaction.support.TransactionCallback
+import org.springframework.transaction.support.TransactionTemplate
+
+import spock.lang.Specification
+
+import ru.mystamps.web.support.spring.concurrent.TimedThreadPoolTaskExecutor
+
+@SuppressWarnings(['ClassJavadoc', 'MethodName', 'NoDef', 'NoTabCharacter', 'TrailingWhitespace'])
+class ImageConfigTest extends Specification {
+	
+	private static final long TIMEOUT_MILLIS = 5000
+	
+	private final ImageDao imageDao = Mock()
+	private final ImagePersistenceStrategy imagePersistenceStrategy = Mock()
+	
+	private AnnotationConfigApplicationContext context
+	
+	def setup() {
+		context = new AnnotationConfigApplicationContext()
+		context.environment.propertySources.addFirst(new MapPropertySource('test', [
+			'app.preview.cache.max-size': '0',
+			'app.preview.generation.queue-capacity': '10',
+			'app.preview.regeneration.page-size': '10',
+			'app.preview.regeneration.parallelism': '1',
+		]))
+		context.beanFactory.registerSingleton('jdbcTemplate', Stub(NamedParameterJdbcTemplate))
+		context.beanFactory.registerSingleton('transactionManager', new NoOpTransactionManager())
+		context.beanFactory.registerSingleton('imagePersistenceStrategy', imagePersistenceStrategy)
+		// replaces the bean that is defined by the configuration
+		context.beanFactory.registerSingleton('imageDao', imageDao)
+		context.register(ImageConfig.Services)
+		context.refresh()
+	}
+	
+	def cleanup() {
+		context.close()
+	}
+	
+	def 'uploaded image should be passed to the managed executor for generating its preview'() {
+		given:
+			ImageService imageService = context.getBean(ImageService)
+			TimedThreadPoolTaskExecutor previewExecutor =
+				context.getBean('previewExecutor', TimedThreadPoolTaskExecutor)
+			TransactionTemplate transaction =
+				new TransactionTemplate(context.getBean(PlatformTransactionManager))
+		and:
+			MockMultipartFile file =
+				new MockMultipartFile('image', 'test.png', 'image/png', 'image'.bytes)
+		when:
+			ImageInfoDto image = transaction.execute({ status ->
+				imageService.save(file)
+			} as TransactionCallback<ImageInfoDto>)
+		and:
+			// the preview is generated after commit, so we're waiting until the task has finished
+			long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS
+			while (previewExecutor.completedTasksCounter == 0
+				&& System.currentTimeMillis() < deadline) {
+				Thread.sleep(10)
+			}
+		then:
+			1 * imageDao.add('PNG', 'test.png') >> 1
+			1 * imagePersistenceStrategy.save(file, _ as ImageInfoDto)
+		and:
+			image?.id == 1
+			previewExecutor.completedTasksCounter == 1
+	}
+	
+	// manages transactions that don't have any resources, so only the synchronizations are
+	// invoked on commit
+	private static class NoOpTransactionManager extends AbstractPlatformTransactionManager {
+		
+		@Override
+		protected Object doGetTransaction() {
+			return new Object()
+		}
+		
+		@Override
+		protected void doBegin(Object transaction, TransactionDefinition definition) {
+		}
+		
+		@Override
+		protected void doCommit(DefaultTransactionStatus status) {
+		}
+		
+		@Override
+		protected void doRollback(DefaultTransactionStatus status) {
+		}
+		
+	}
+	
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.feature.image
+
+import javax.servlet.http.HttpServletResponse
+
+import org.springframework.http.HttpHeaders
+import org.springframework.mock.web.MockHttpServletRequest
+import org.springframework.mock.web.MockHttpServletResponse
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+@SuppressWarnings(['ClassJavadoc', 'MethodName', 'NoDef', 'NoTabCharacter', 'TrailingWhitespace'])
+class ImageControllerTest extends Specification {
+	
+	private static final Integer IMAGE_ID = 1
+	
+	private final ImageService imageService = Mock()
+	private final PreviewRegenerationService previewRegenerationService = Mock()
+	
+	private final ImageController controller =
+		new ImageController(imageService, previewRegenerationService)
+	
+	def setup() {
+		imageService.get(IMAGE_ID) >> new ImageDto('png', 'test'.bytes)
+	}
+	
+	def 'getImage() should return the whole image with validators'() {
+		when:
+			MockHttpServletResponse response = getImage([:])
+		then:
+			response.status == HttpServletResponse.SC_OK
+			response.contentAsString == 'test'
+			response.contentType == 'image/png'
+			response.getHeader(HttpHeaders.ACCEPT_RANGES) == 'bytes'
+			response.getHeader(HttpHeaders.ETAG) != null
+	}
+	
+	def 'getImage() should respond with 304 when a client has the same version'() {
+		given:
+			String etag = getImage([:]).getHeader(HttpHeaders.ETAG)
+		when:
+			MockHttpServletResponse response = getImage([ (HttpHeaders.IF_NONE_MATCH): etag ])
+		then:
+			response.status == HttpServletResponse.SC_NOT_MODIFIED
+			response.contentAsByteArray.length == 0
+	}
+	
+	def 'getImage() should return a part of the image for a single range'() {
+		when:
+			MockHttpServletResponse response = getImage([ (HttpHeaders.RANGE): 'bytes=1-2' ])
+		then:
+			response.status == HttpServletResponse.SC_PARTIAL_CONTENT
+			response.contentAsString == 'es'
+			response.getHeader(HttpHeaders.CONTENT_RANGE) == 'bytes 1-2/4'
+			response.contentLengthLong == 2
+	}
+	
+	@Unroll
+	def 'getImage() should respond with 416 for range "#range"'(String range) {
+		when:
+			MockHttpServletResponse response = getImage([ (HttpHeaders.RANGE): range ])
+		then:
+			response.status == HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE
+			response.getHeader(HttpHeaders.CONTENT_RANGE) == 'bytes */4'
+		where:
+			range         | _
+			'bytes=4-'    | _
+			'bytes=10-20' | _
+	}
+	
+	@Unroll
+	def 'getImage() should return the whole image for range "#range"'(String range) {
+		when:
+			MockHttpServletResponse response = getImage([ (HttpHeaders.RANGE): range ])
+		then:
+			response.status == HttpServletResponse.SC_OK
+			response.contentAsString == 'test'
+			response.getHeader(HttpHeaders.CONTENT_RANGE) == null
+		where:
+			range             | _
+			'bytes=0-0,2-3'   | _
+			'bytes=abc'       | _
+	}
+	
+	def 'getImage() should return a part of the image when If-Range matches'() {
+		given:
+			String etag = getImage([:]).getHeader(HttpHeaders.ETAG)
+		when:
+			MockHttpServletResponse response = getImage([
+				(HttpHeaders.RANGE): 'bytes=0-1',
+				(HttpHeaders.IF_RANGE): etag
+			])
+		then:
+			response.status == HttpServletResponse.SC_PARTIAL_CONTENT
+			response.contentAsString == 'te'
+	}
+	
+	@Unroll
+	def 'getImage() should return the whole image when If-Range is "#ifRange"'(String ifRange) {
+		when:
+			MockHttpServletResponse response = getImage([
+				(HttpHeaders.RANGE): 'bytes=0-1',
+				(HttpHeaders.IF_RANGE): ifRange
+			])
+		then:
+			response.status == HttpServletResponse.SC_OK
+			response.contentAsString == 'test'
+		where:
+			ifRange                         | _
+			'"1-4-outdated"'                | _
+			'Wed, 21 Oct 2015 07:28:00 GMT' | _
+	}
+	
+	def 'getImage() should generate different ETags for different contents of the same size'() {
+		when:
+			MockHttpServletResponse first = getImage([:])
+			MockHttpServletResponse second = getImage([:])
+		then:
+			// the content has been regenerated between the requests
+			2 * imageService.get(IMAGE_ID) >>> [
+				new ImageDto('png', 'test'.bytes),
+				new ImageDto('png', 'TEST'.bytes)
+			]
+		and:
+			first.getHeader(HttpHeaders.ETAG) != second.getHeader(HttpHeaders.ETAG)
+	}
+	
+	def 'getImage() should generate different ETags for different versions of the same image'() {
+		when:
+			MockHttpServletResponse first = getImage([:])
+			MockHttpServletResponse second = getImage([:])
+		then:
+			2 * imageService.get(IMAGE_ID) >>> [
+				new ImageDto('png', 'test'.bytes, -1, '10'),
+				new ImageDto('png', 'test'.bytes, -1, '11')
+			]
+		and:
+			first.getHeader(HttpHeaders.ETAG) != second.getHeader(HttpHeaders.ETAG)
+	}
+	
+	private MockHttpServletResponse getImage(Map<String, String> headers) {
+		MockHttpServletRequest request = new MockHttpServletRequest('GET', '/image/' + IMAGE_ID)
+		headers.each { name, value -> request.addHeader(name, value) }
+		
+		MockHttpServletResponse response = new MockHttpServletResponse()
+		controller.getImage(IMAGE_ID, request, response)
+		
+		return response
+	}
+	
+}
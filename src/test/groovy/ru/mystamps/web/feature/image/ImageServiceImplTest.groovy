@@ -17,11 +17,19 @@
  */
 package ru.mystamps.web.feature.image
 
+import org.springframework.transaction.support.TransactionCallback
+import org.springframework.transaction.support.TransactionOperations
+import org.springframework.transaction.support.TransactionSynchronization
+import org.springframework.transaction.support.TransactionSynchronizationManager
 import org.springframework.web.multipart.MultipartFile
 
 import spock.lang.Specification
 import spock.lang.Unroll
 
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executor
+import java.util.concurrent.RejectedExecutionException
+
 import org.slf4j.helpers.NOPLogger
 
 import ru.mystamps.web.Db
@@ -35,12 +43,16 @@ class ImageServiceImplTest extends Specification {
 	private final MultipartFile multipartFile = Mock()
 	private final ImagePreviewStrategy imagePreviewStrategy = Mock()
 	private final ImagePersistenceStrategy imagePersistenceStrategy = Mock()
+	private final Executor previewExecutor = Mock()
+	private final TransactionOperations transactionOperations = Mock()
 	
 	private final ImageService service = new ImageServiceImpl(
 		NOPLogger.NOP_LOGGER,
 		imagePersistenceStrategy,
 		imagePreviewStrategy,
-		imageDao
+		imageDao,
+		previewExecutor,
+		transactionOperations
 	)
 	
 	def setup() {
@@ -203,6 +215,38 @@ class ImageServiceImplTest extends Specification {
 			actualImageInfo == expectedImageInfo
 	}
 	
+	@SuppressWarnings(['ClosureAsLastMethodParameter', 'UnnecessaryReturnKeyword'])
+	def "save() should generate preview in background"() {
+		given:
+			Runnable task = null
+		when:
+			service.save(multipartFile)
+		then:
+			1 * previewExecutor.execute(_ as Runnable) >> { Runnable passedTask -> task = passedTask }
+		when:
+			task.run()
+		then:
+			1 * transactionOperations.execute(_ as TransactionCallback) >> {
+				TransactionCallback callback -> callback.doInTransaction(null)
+			}
+		and:
+			imagePreviewStrategy.isSupportedFormat('jpeg') >> true
+		and:
+			1 * imagePersistenceStrategy.getPreview({ ImageInfoDto passedImage ->
+				assert passedImage?.id == 17
+				return true
+			}, PreviewSize.DEFAULT) >> TestObjects.createImageDto()
+	}
+	
+	def "save() should not fail when preview generation queue is full"() {
+		given:
+			previewExecutor.execute(_ as Runnable) >> { throw new RejectedExecutionException() }
+		when:
+			ImageInfoDto imageInfo = service.save(multipartFile)
+		then:
+			imageInfo?.id == 17
+	}
+	
 	//
 	// Tests for get()
 	//
@@ -280,7 +324,7 @@ class ImageServiceImplTest extends Specification {
 	@Unroll
 	def "getOrCreatePreview() should throw exception if image id is #imageId"(Integer imageId) {
 		when:
-			service.getOrCreatePreview(imageId)
+			service.getOrCreatePreview(imageId, PreviewSize.DEFAULT, 'jpeg')
 		then:
 			thrown IllegalArgumentException
 		where:
@@ -298,17 +342,172 @@ class ImageServiceImplTest extends Specification {
 		and:
 			ImageDto expectedImageDto = TestObjects.createImageDto()
 		when:
-			ImageDto actualImageDto = service.getOrCreatePreview(expectedImageId)
+			ImageDto actualImageDto = service.getOrCreatePreview(
+				expectedImageId,
+				PreviewSize.THUMB,
+				expectedImageType
+			)
 		then:
+			imagePreviewStrategy.isSupportedFormat(expectedImageType) >> true
+		and:
 			1 * imagePersistenceStrategy.getPreview({ ImageInfoDto passedImage ->
 				assert passedImage?.id == expectedImageId
 				assert passedImage?.type == expectedImageType
 				return true
-			}) >> expectedImageDto
+			}, PreviewSize.THUMB) >> expectedImageDto
 		and:
 			actualImageDto == expectedImageDto
 	}
 	
+	@SuppressWarnings(['ClosureAsLastMethodParameter', 'UnnecessaryReturnKeyword'])
+	def "getOrCreatePreview() should fall back to JPEG when format isn't supported"() {
+		when:
+			service.getOrCreatePreview(7, PreviewSize.DEFAULT, 'webp')
+		then:
+			imagePreviewStrategy.isSupportedFormat('webp') >> false
+		and:
+			1 * imagePersistenceStrategy.getPreview({ ImageInfoDto passedImage ->
+				assert passedImage?.type == 'jpeg'
+				return true
+			}, PreviewSize.DEFAULT) >> TestObjects.createImageDto()
+	}
+	
+	@SuppressWarnings('UnnecessaryReturnKeyword')
+	def "getOrCreatePreview() should generate preview only once for concurrent requests"() {
+		given:
+			CountDownLatch previewStarted = new CountDownLatch(1)
+			CountDownLatch previewAllowed = new CountDownLatch(1)
+		and:
+			byte[] savedPreview = null
+			imagePreviewStrategy.isSupportedFormat(_ as String) >> true
+			imagePersistenceStrategy.getPreview(_ as ImageInfoDto, _ as PreviewSize) >> {
+				return savedPreview == null ? null : new ImageDto('jpeg', savedPreview)
+			}
+			imagePersistenceStrategy.savePreview(
+				_ as byte[],
+				_ as ImageInfoDto,
+				_ as PreviewSize
+			) >> { args -> savedPreview = args[0] }
+		and:
+			imageDao.findById(_ as Integer) >> TestObjects.createImageInfoDto()
+			imagePersistenceStrategy.get(_ as ImageInfoDto) >> TestObjects.createImageDto()
+		and:
+			ImageDto leaderResult = null
+			ImageDto followerResult = null
+		when:
+			Thread leader = Thread.start {
+				leaderResult = service.getOrCreatePreview(7, PreviewSize.DEFAULT, 'jpeg')
+			}
+			previewStarted.await()
+			Thread follower = Thread.start {
+				followerResult = service.getOrCreatePreview(7, PreviewSize.DEFAULT, 'jpeg')
+			}
+			// let the leader finish only when the follower is blocked: either on waiting
+			// for the leader's result or (when the deduplication is broken) on generating
+			// its own preview
+			long deadline = System.currentTimeMillis() + 5000
+			while (follower.state != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10)
+			}
+			previewAllowed.countDown()
+			leader.join()
+			follower.join()
+		then:
+			1 * imagePreviewStrategy.createPreview(_ as byte[], PreviewSize.DEFAULT, 'jpeg') >> {
+				previewStarted.countDown()
+				previewAllowed.await()
+				return 'preview'.bytes
+			}
+		and:
+			leaderResult?.data == 'preview'.bytes
+			followerResult?.data == 'preview'.bytes
+	}
+	
+	def "getOrCreatePreview() should share a generated preview until the transaction completes"() {
+		given:
+			imagePreviewStrategy.isSupportedFormat(_ as String) >> true
+			// the preview isn't visible to the other transactions until it has been committed
+			imagePersistenceStrategy.getPreview(_ as ImageInfoDto, _ as PreviewSize) >> null
+			imageDao.findById(_ as Integer) >> TestObjects.createImageInfoDto()
+			imagePersistenceStrategy.get(_ as ImageInfoDto) >> TestObjects.createImageDto()
+		and:
+			TransactionSynchronizationManager.initSynchronization()
+		when:
+			service.getOrCreatePreview(7, PreviewSize.DEFAULT, 'jpeg')
+			ImageDto result = service.getOrCreatePreview(7, PreviewSize.DEFAULT, 'jpeg')
+		then:
+			1 * imagePreviewStrategy.createPreview(_ as byte[], PreviewSize.DEFAULT, 'jpeg') >>
+				'preview'.bytes
+		and:
+			result?.data == 'preview'.bytes
+		when:
+			TransactionSynchronizationManager.synchronizations*.afterCompletion(
+				TransactionSynchronization.STATUS_ROLLED_BACK
+			)
+			TransactionSynchronizationManager.clearSynchronization()
+		and:
+			service.getOrCreatePreview(7, PreviewSize.DEFAULT, 'jpeg')
+		then:
+			1 * imagePreviewStrategy.createPreview(_ as byte[], PreviewSize.DEFAULT, 'jpeg') >>
+				'preview'.bytes
+		cleanup:
+			if (TransactionSynchronizationManager.synchronizationActive) {
+				TransactionSynchronizationManager.clearSynchronization()
+			}
+	}
+	
+	//
+	// Tests for regeneratePreviews()
+	//
+	
+	def "regeneratePreviews() should throw exception if image info is null"() {
+		when:
+			service.regeneratePreviews(null)
+		then:
+			thrown IllegalArgumentException
+	}
+	
+	def "regeneratePreviews() should throw exception if image doesn't exist"() {
+		given:
+			imagePersistenceStrategy.get(_ as ImageInfoDto) >> null
+		when:
+			service.regeneratePreviews(TestObjects.createImageInfoDto())
+		then:
+			thrown ImagePersistenceException
+	}
+	
+	def "regeneratePreviews() should replace previews of all sizes"() {
+		given:
+			ImageInfoDto image = TestObjects.createImageInfoDto()
+			ImageInfoDto previewInfo = new ImageInfoDto(image.id, 'jpeg')
+		and:
+			imagePersistenceStrategy.get(image) >> TestObjects.createImageDto()
+			imagePreviewStrategy.isSupportedFormat('webp') >> false
+		when:
+			service.regeneratePreviews(image)
+		then:
+			PreviewSize.values().length * imagePreviewStrategy.createPreview(
+				_ as byte[],
+				_ as PreviewSize,
+				'jpeg'
+			) >> 'preview'.bytes
+		and:
+			1 * imagePersistenceStrategy.replacePreview(_, previewInfo, PreviewSize.THUMB)
+			1 * imagePersistenceStrategy.replacePreview(_, previewInfo, PreviewSize.MEDIUM)
+			1 * imagePersistenceStrategy.replacePreview(_, previewInfo, PreviewSize.LARGE)
+	}
+	
+	def "regeneratePreviews() should also replace WebP previews when the format is supported"() {
+		given:
+			imagePersistenceStrategy.get(_ as ImageInfoDto) >> TestObjects.createImageDto()
+			imagePreviewStrategy.isSupportedFormat('webp') >> true
+		when:
+			service.regeneratePreviews(TestObjects.createImageInfoDto())
+		then:
+			PreviewSize.values().length * imagePreviewStrategy.createPreview(_, _, 'jpeg')
+			PreviewSize.values().length * imagePreviewStrategy.createPreview(_, _, 'webp')
+	}
+	
 	//
 	// Tests for addToSeries()
 	//
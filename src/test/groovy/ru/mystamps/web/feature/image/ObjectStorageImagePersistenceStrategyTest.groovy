@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.feature.image
+
+import java.nio.file.Files
+import java.util.concurrent.Executor
+
+import org.slf4j.helpers.NOPLogger
+
+import org.springframework.web.multipart.MultipartFile
+
+import spock.lang.Specification
+
+import ru.mystamps.web.service.TestObjects
+
+@SuppressWarnings(['ClassJavadoc', 'MethodName', 'NoDef', 'NoTabCharacter', 'TrailingWhitespace'])
+class ObjectStorageImagePersistenceStrategyTest extends Specification {
+	
+	private static final int PART_SIZE = 4
+	
+	private final File storageDir = Files.createTempDirectory('objects').toFile()
+	private final File cacheDir = Files.createTempDirectory('objects-cache').toFile()
+	
+	private final MultipartFile multipartFile = Mock()
+	private final ImageInfoDto imageInfoDto = TestObjects.createImageInfoDto()
+	
+	@SuppressWarnings('SpaceAfterComma') // false positive
+	private final ObjectStorage storage = Spy(
+		LocalObjectStorage,
+		constructorArgs:[ storageDir.path ]
+	)
+	
+	private final ObjectStorageImagePersistenceStrategy strategy =
+		new ObjectStorageImagePersistenceStrategy(
+			NOPLogger.NOP_LOGGER,
+			storage,
+			{ Runnable task -> task.run() } as Executor,
+			PART_SIZE,
+			2,
+			cacheDir.path,
+			Long.MAX_VALUE
+		)
+	
+	def setup() {
+		strategy.init()
+	}
+	
+	def cleanup() {
+		storageDir.deleteDir()
+		cacheDir.deleteDir()
+	}
+	
+	//
+	// Tests for save()
+	//
+	
+	def 'save() should upload a small image at once'() {
+		given:
+			multipartFile.inputStream >> new ByteArrayInputStream('abc'.bytes)
+		when:
+			strategy.save(multipartFile, imageInfoDto)
+		then:
+			0 * storage.initiateMultipartUpload(_ as String)
+		and:
+			strategy.get(imageInfoDto).data == 'abc'.bytes
+	}
+	
+	def 'save() should upload a big image by parts'() {
+		given:
+			multipartFile.inputStream >> new ByteArrayInputStream('abcdefghij'.bytes)
+		when:
+			strategy.save(multipartFile, imageInfoDto)
+		then:
+			1 * storage.uploadPart(_ as String, _ as String, 1, 'abcd'.bytes)
+			1 * storage.uploadPart(_ as String, _ as String, 2, 'efgh'.bytes)
+			1 * storage.uploadPart(_ as String, _ as String, 3, 'ij'.bytes)
+		and:
+			strategy.get(imageInfoDto).data == 'abcdefghij'.bytes
+	}
+	
+	def 'save() should abort upload when a part has not been uploaded'() {
+		given:
+			multipartFile.inputStream >> new ByteArrayInputStream('abcdefghij'.bytes)
+		and:
+			storage.uploadPart(_ as String, _ as String, 2, _ as byte[]) >> {
+				throw new IOException('network error')
+			}
+		when:
+			strategy.save(multipartFile, imageInfoDto)
+		then:
+			ImagePersistenceException ex = thrown()
+		and:
+			ex.cause instanceof IOException
+		and:
+			1 * storage.abortMultipartUpload(_ as String, _ as String)
+		and:
+			0 * storage.completeMultipartUpload(_ as String, _ as String, _ as List)
+	}
+	
+	def 'save() should convert IOException to ImagePersistenceException'() {
+		given:
+			multipartFile.inputStream >> { throw new IOException() }
+		when:
+			strategy.save(multipartFile, imageInfoDto)
+		then:
+			ImagePersistenceException ex = thrown()
+		and:
+			ex.cause instanceof IOException
+	}
+	
+	//
+	// Tests for get()
+	//
+	
+	def 'get() should return null when object does not exist'() {
+		when:
+			ImageDto result = strategy.get(imageInfoDto)
+		then:
+			result == null
+	}
+	
+	def 'get() should download an image only once'() {
+		given:
+			multipartFile.inputStream >> new ByteArrayInputStream('abc'.bytes)
+			strategy.save(multipartFile, imageInfoDto)
+		when:
+			strategy.get(imageInfoDto)
+			ImageDto result = strategy.get(imageInfoDto)
+		then:
+			1 * storage.getObject(_ as String)
+		and:
+			result.type == imageInfoDto.type
+			result.size == 3
+			result.data == 'abc'.bytes
+	}
+	
+	//
+	// Tests for savePreview() and replacePreview()
+	//
+	
+	def 'savePreview() should make preview available without downloading'() {
+		when:
+			strategy.savePreview('preview'.bytes, imageInfoDto, PreviewSize.THUMB)
+			ImageDto result = strategy.getPreview(imageInfoDto, PreviewSize.THUMB)
+		then:
+			0 * storage.getObject(_ as String)
+		and:
+			result.data == 'preview'.bytes
+	}
+	
+	def 'savePreview() should evict the least recently used files when the cache is full'() {
+		given:
+			File oldest = new File(cacheDir, 'previews/1-medium.jpeg')
+			File older = new File(cacheDir, 'previews/2-medium.jpeg')
+			oldest.parentFile.mkdirs()
+			oldest.bytes = 'abcd'.bytes
+			oldest.lastModified = 1000
+			older.bytes = 'abcd'.bytes
+			older.lastModified = 2000
+		and:
+			ObjectStorageImagePersistenceStrategy strategy =
+				new ObjectStorageImagePersistenceStrategy(
+					NOPLogger.NOP_LOGGER,
+					storage,
+					{ Runnable task -> task.run() } as Executor,
+					PART_SIZE,
+					2,
+					cacheDir.path,
+					10
+				)
+			strategy.init()
+		when:
+			strategy.savePreview('abcd'.bytes, new ImageInfoDto(3, 'jpeg'), PreviewSize.MEDIUM)
+		then:
+			!oldest.exists()
+			older.exists()
+			new File(cacheDir, 'previews/3-medium.jpeg').exists()
+	}
+	
+	def 'replacePreview() should replace stored and cached preview'() {
+		given:
+			strategy.savePreview('old'.bytes, imageInfoDto, PreviewSize.THUMB)
+		when:
+			strategy.replacePreview('new'.bytes, imageInfoDto, PreviewSize.THUMB)
+		then:
+			strategy.getPreview(imageInfoDto, PreviewSize.THUMB).data == 'new'.bytes
+		and:
+			storage.getObject("previews/${imageInfoDto.id}-thumb.png").bytes == 'new'.bytes
+	}
+	
+	//
+	// Tests for removeIfPossible()
+	//
+	
+	def 'removeIfPossible() should remove object'() {
+		given:
+			multipartFile.inputStream >> new ByteArrayInputStream('abc'.bytes)
+			strategy.save(multipartFile, imageInfoDto)
+		when:
+			strategy.removeIfPossible(imageInfoDto)
+		then:
+			strategy.get(imageInfoDto) == null
+	}
+	
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.feature.image
+
+import spock.lang.Specification
+
+import java.util.concurrent.Executor
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.RejectedExecutionException
+
+import org.slf4j.helpers.NOPLogger
+
+@SuppressWarnings(['ClassJavadoc', 'MethodName', 'NoDef', 'NoTabCharacter', 'TrailingWhitespace'])
+class PreviewRegenerationServiceImplTest extends Specification {
+	
+	private static final int PAGE_SIZE = 2
+	
+	private static final ForkJoinPool POOL = new ForkJoinPool(2)
+	
+	private final ImageDao imageDao = Mock()
+	private final ImageService imageService = Mock()
+	
+	// runs a job in the current thread, so we can check its results right after start()
+	private final Executor executor = { Runnable task -> task.run() } as Executor
+	
+	private final PreviewRegenerationService service = new PreviewRegenerationServiceImpl(
+		NOPLogger.NOP_LOGGER,
+		imageDao,
+		imageService,
+		executor,
+		POOL,
+		PAGE_SIZE
+	)
+	
+	//
+	// Tests for start()
+	//
+	
+	def 'start() should throw exception when image id is negative'() {
+		when:
+			service.start(-1)
+		then:
+			thrown IllegalArgumentException
+	}
+	
+	def 'start() should regenerate previews of all images page by page'() {
+		when:
+			boolean started = service.start(null)
+		then:
+			1 * imageDao.findAfterId(0, PAGE_SIZE) >> [ image(1), image(2) ]
+			1 * imageDao.findAfterId(2, PAGE_SIZE) >> [ image(3) ]
+			1 * imageDao.findAfterId(3, PAGE_SIZE) >> []
+		and:
+			3 * imageService.regeneratePreviews(_ as ImageInfoDto)
+		and:
+			1 * imageDao.setLastRegeneratedImageId(2)
+			1 * imageDao.setLastRegeneratedImageId(3)
+			1 * imageDao.setLastRegeneratedImageId(null)
+		and:
+			started
+		and:
+			!service.status.running
+			service.status.completed
+			service.status.lastProcessedImageId == 3
+			service.status.processedCounter == 3
+			service.status.failedCounter == 0
+	}
+	
+	def 'start() should continue after a failed image'() {
+		given:
+			imageDao.findAfterId(0, PAGE_SIZE) >> [ image(1), image(2) ]
+			imageDao.findAfterId(2, PAGE_SIZE) >> []
+		and:
+			imageService.regeneratePreviews(image(1)) >> { throw new ImagePersistenceException('oops') }
+		when:
+			service.start(null)
+		then:
+			service.status.processedCounter == 1
+			service.status.failedCounter == 1
+			service.status.completed
+	}
+	
+	def 'start() should begin after the specified image'() {
+		when:
+			service.start(10)
+		then:
+			1 * imageDao.findAfterId(10, PAGE_SIZE) >> []
+	}
+	
+	def 'start() should save progress of a stopped job'() {
+		given:
+			imageDao.findAfterId(0, PAGE_SIZE) >> [ image(1), image(2) ]
+			imageService.regeneratePreviews(_ as ImageInfoDto) >> { service.stop() }
+		when:
+			service.start(null)
+		then:
+			1 * imageDao.setLastRegeneratedImageId(2)
+			0 * imageDao.setLastRegeneratedImageId(null)
+		and:
+			!service.status.completed
+			service.status.lastProcessedImageId == 2
+	}
+	
+	def 'start() should stop a job when its thread has been interrupted'() {
+		given:
+			// a thread is interrupted when the executor is being shut down
+			Executor interruptingExecutor = { Runnable task ->
+				Thread.currentThread().interrupt()
+				task.run()
+			} as Executor
+		and:
+			PreviewRegenerationService interruptedService = new PreviewRegenerationServiceImpl(
+				NOPLogger.NOP_LOGGER,
+				imageDao,
+				imageService,
+				interruptingExecutor,
+				POOL,
+				PAGE_SIZE
+			)
+		when:
+			interruptedService.start(5)
+		then:
+			0 * imageDao.findAfterId(_ as Integer, _ as Integer)
+		and:
+			!interruptedService.status.running
+			!interruptedService.status.completed
+		cleanup:
+			Thread.interrupted()
+	}
+	
+	def 'start() should resume a job from the saved progress'() {
+		given:
+			imageDao.findLastRegeneratedImageId() >> 2
+		when:
+			service.start(null)
+		then:
+			1 * imageDao.findAfterId(2, PAGE_SIZE) >> []
+		and:
+			service.status.completed
+	}
+	
+	def 'start() should begin from the first image when there is no saved progress'() {
+		given:
+			imageDao.findLastRegeneratedImageId() >> null
+		when:
+			service.start(null)
+		then:
+			1 * imageDao.findAfterId(0, PAGE_SIZE) >> []
+	}
+	
+	def 'start() should allow to start a job again when progress could not be read'() {
+		given:
+			imageDao.findLastRegeneratedImageId() >> { throw new IllegalStateException('oops') }
+		when:
+			service.start(null)
+		then:
+			thrown IllegalStateException
+		and:
+			!service.status.running
+	}
+	
+	def 'start() should not start a job when another one is in progress'() {
+		given:
+			PreviewRegenerationService service = new PreviewRegenerationServiceImpl(
+				NOPLogger.NOP_LOGGER,
+				imageDao,
+				imageService,
+				Mock(Executor),
+				POOL,
+				PAGE_SIZE
+			)
+		when:
+			boolean first = service.start(null)
+			boolean second = service.start(null)
+		then:
+			first
+			!second
+		and:
+			service.status.running
+	}
+	
+	def 'start() should allow to start a job again after it has been rejected'() {
+		given:
+			Executor executor = Mock()
+			PreviewRegenerationService service = new PreviewRegenerationServiceImpl(
+				NOPLogger.NOP_LOGGER,
+				imageDao,
+				imageService,
+				executor,
+				POOL,
+				PAGE_SIZE
+			)
+		and:
+			executor.execute(_ as Runnable) >> { throw new RejectedExecutionException() }
+		when:
+			service.start(null)
+		then:
+			thrown RejectedExecutionException
+		and:
+			!service.status.running
+	}
+	
+	//
+	// Tests for getStatus()
+	//
+	
+	def 'getStatus() should report zero throughput when nothing has been started'() {
+		when:
+			PreviewRegenerationStatusDto status = service.status
+		then:
+			!status.running
+			status.elapsedMillis == 0
+			status.throughput == 0
+	}
+	
+	private static ImageInfoDto image(Integer id) {
+		return new ImageInfoDto(id, 'PNG')
+	}
+	
+}
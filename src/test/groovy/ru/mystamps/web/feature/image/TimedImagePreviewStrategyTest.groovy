@@ -41,9 +41,9 @@ class TimedImagePreviewStrategyTest extends Specification {
 	@SuppressWarnings([ 'FactoryMethodName', 'LineLength', /* false positive: */ 'UnnecessaryBooleanExpression' ])
 	def 'createPreview() should pass #expectedData and return #expectedResult'(byte[] expectedData, byte[] expectedResult) {
 		when:
-			byte[] result = strategy.createPreview(expectedData)
+			byte[] result = strategy.createPreview(expectedData, PreviewSize.MEDIUM, 'jpeg')
 		then:
-			1 * origStrategy.createPreview(expectedData) >> expectedResult
+			1 * origStrategy.createPreview(expectedData, PreviewSize.MEDIUM, 'jpeg') >> expectedResult
 		and:
 			result == expectedResult
 		where:
@@ -52,4 +52,17 @@ class TimedImagePreviewStrategyTest extends Specification {
 			'foo'.bytes  || 'foobar'.bytes
 	}
 	
+	//
+	// Tests for isSupportedFormat()
+	//
+	
+	def 'isSupportedFormat() should return result of original strategy'() {
+		when:
+			boolean result = strategy.isSupportedFormat('webp')
+		then:
+			1 * origStrategy.isSupportedFormat('webp') >> true
+		and:
+			result
+	}
+	
 }
@@ -166,7 +166,7 @@ class ParticipantServiceImplTest extends Specification {
 			ex.message == 'Seller url must be non-blank'
 	}
 	
-	def 'findSellerId() should invoke dao and return its result'() {
+	def 'findSellerId() should find seller by name and url'() {
 		given:
 			String expectedName = Random.sellerName()
 			String expectedUrl = Random.url()
@@ -174,11 +174,120 @@ class ParticipantServiceImplTest extends Specification {
 		when:
 			Integer result = service.findSellerId(expectedName, expectedUrl)
 		then:
-			1 * participantDao.findSellerId(expectedName, expectedUrl) >> expectedResult
+			1 * participantDao.findAllSellers() >> [
+				(new SellerDto(expectedName, expectedUrl)): expectedResult,
+				(new SellerDto(expectedName, 'http://example.org')): Random.id()
+			]
+			1 * participantDao.findAllGroups() >> []
 		and:
 			result == expectedResult
 	}
 	
+	def 'findSellerId() should ignore case of name and url'() {
+		when:
+			Integer result = service.findSellerId('EXAMPLE Seller', 'HTTP://Example.ORG/')
+		then:
+			1 * participantDao.findAllSellers() >> [
+				(new SellerDto('Example seller', 'http://example.org/')): 10
+			]
+			1 * participantDao.findAllGroups() >> []
+		and:
+			result == 10
+	}
+	
+	def 'findSellerId() should return null when seller has not been found'() {
+		when:
+			Integer result = service.findSellerId(Random.sellerName(), Random.url())
+		then:
+			1 * participantDao.findAllSellers() >> [:]
+			1 * participantDao.findAllGroups() >> []
+		and:
+			result == null
+	}
+	
+	def 'findSellerId() should load sellers only once'() {
+		when:
+			service.findSellerId(Random.sellerName(), Random.url())
+			service.findSellerId(Random.sellerName(), Random.url())
+		then:
+			1 * participantDao.findAllSellers() >> [:]
+			1 * participantDao.findAllGroups() >> []
+	}
+	
+	def 'findSellerId() should reload sellers after a participant has been added'() {
+		given:
+			String expectedName = Random.sellerName()
+			String expectedUrl = Random.url()
+			Integer expectedResult = Random.id()
+		and:
+			AddParticipantForm form = new AddParticipantForm()
+			form.setName(expectedName)
+			form.setUrl(expectedUrl)
+			form.setBuyer(false)
+			form.setSeller(true)
+		and:
+			participantDao.findAllGroups() >> []
+		when:
+			Integer resultBeforeAdd = service.findSellerId(expectedName, expectedUrl)
+			service.add(form)
+			Integer resultAfterAdd = service.findSellerId(expectedName, expectedUrl)
+		then:
+			2 * participantDao.findAllSellers() >>> [
+				[:],
+				[ (new SellerDto(expectedName, expectedUrl)): expectedResult ]
+			]
+			1 * participantDao.add(_ as AddParticipantDbDto) >> expectedResult
+		and:
+			resultBeforeAdd == null
+			resultAfterAdd == expectedResult
+	}
+	
+	//
+	// Tests for findSellerIds()
+	//
+	
+	def 'findSellerIds() should throw exception when sellers are null'() {
+		when:
+			service.findSellerIds(null)
+		then:
+			IllegalArgumentException ex = thrown()
+			ex.message == 'Sellers must be non null'
+	}
+	
+	def 'findSellerIds() should resolve all sellers by a single query'() {
+		given:
+			SellerDto firstSeller = new SellerDto(Random.sellerName(), Random.url())
+			SellerDto secondSeller = new SellerDto(Random.sellerName(), Random.url())
+			SellerDto unknownSeller = new SellerDto(Random.sellerName(), Random.url())
+			Integer firstId = Random.id()
+			Integer secondId = Random.id()
+		when:
+			Map<SellerDto, Integer> result =
+				service.findSellerIds([ firstSeller, secondSeller, unknownSeller, firstSeller ])
+		then:
+			1 * participantDao.findAllSellers() >> [
+				(new SellerDto(firstSeller.name, firstSeller.url)): firstId,
+				(new SellerDto(secondSeller.name, secondSeller.url)): secondId
+			]
+			1 * participantDao.findAllGroups() >> []
+		and:
+			result == [ (firstSeller): firstId, (secondSeller): secondId ]
+	}
+	
+	def 'findSellerIds() should ignore case of names and urls'() {
+		given:
+			SellerDto seller = new SellerDto('EXAMPLE Seller', 'HTTP://Example.ORG/')
+		when:
+			Map<SellerDto, Integer> result = service.findSellerIds([ seller ])
+		then:
+			1 * participantDao.findAllSellers() >> [
+				(new SellerDto('Example seller', 'http://example.org/')): 10
+			]
+			1 * participantDao.findAllGroups() >> []
+		and:
+			result == [ (seller): 10 ]
+	}
+	
 	//
 	// Tests for findAllGroups()
 	//
@@ -206,16 +315,40 @@ class ParticipantServiceImplTest extends Specification {
 			ex.message == 'Group name must be non-blank'
 	}
 	
-	def 'findGroupIdByName() should invoke dao and return its result'() {
+	def 'findGroupIdByName() should find group by name'() {
 		given:
 			String expectedName = Random.participantGroupName()
 			Integer expectedResult = Random.id()
 		when:
 			Integer result = service.findGroupIdByName(expectedName)
 		then:
-			1 * participantDao.findGroupIdByName(expectedName) >> expectedResult
+			1 * participantDao.findAllSellers() >> [:]
+			1 * participantDao.findAllGroups() >> [
+				new EntityWithIdDto(Random.id(), 'example.org'),
+				new EntityWithIdDto(expectedResult, expectedName)
+			]
 		and:
 			result == expectedResult
 	}
 	
+	def 'findGroupIdByName() should ignore case of name'() {
+		when:
+			Integer result = service.findGroupIdByName('EXAMPLE.org')
+		then:
+			1 * participantDao.findAllSellers() >> [:]
+			1 * participantDao.findAllGroups() >> [ new EntityWithIdDto(20, 'example.ORG') ]
+		and:
+			result == 20
+	}
+	
+	def 'findGroupIdByName() should return null when group has not been found'() {
+		when:
+			Integer result = service.findGroupIdByName(Random.participantGroupName())
+		then:
+			1 * participantDao.findAllSellers() >> [:]
+			1 * participantDao.findAllGroups() >> []
+		and:
+			result == null
+	}
+	
 }
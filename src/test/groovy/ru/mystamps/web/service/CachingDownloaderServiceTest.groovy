@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.service
+
+import java.nio.file.Files
+import java.nio.file.Path
+
+import org.slf4j.helpers.NOPLogger
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import ru.mystamps.web.service.dto.DownloadResult
+
+@SuppressWarnings(['ClassJavadoc', 'MethodName', 'NoDef', 'NoTabCharacter', 'TrailingWhitespace'])
+class CachingDownloaderServiceTest extends Specification {
+	
+	private static final String URL = 'http://example.org/page'
+	private static final byte[] CONTENT = 'content'.bytes
+	
+	private final DownloaderService downloader = Mock()
+	
+	private Path dir
+	private DownloaderService service
+	
+	def setup() {
+		dir = Files.createTempDirectory('download-cache')
+		service = new CachingDownloaderService(
+			NOPLogger.NOP_LOGGER,
+			downloader,
+			new DiskDownloadCache(NOPLogger.NOP_LOGGER, dir.toString(), 1024 * 1024)
+		)
+	}
+	
+	def cleanup() {
+		dir.toFile().deleteDir()
+	}
+	
+	def 'download() should use a fresh copy without making a request'() {
+		given:
+			1 * downloader.download(URL) >> response(null, null, 'max-age=60')
+			service.download(URL)
+		when:
+			DownloadResult result = service.download(URL)
+		then:
+			0 * downloader._
+		and:
+			result.hasSucceeded()
+			result.data == CONTENT
+			result.contentType == 'text/html'
+	}
+	
+	def 'download() should revalidate a stale copy'() {
+		given:
+			1 * downloader.download(URL) >> response('"v1"', 'Mon, 01 Oct 2018 00:00:00 GMT', null)
+			service.download(URL)
+		when:
+			DownloadResult result = service.download(URL)
+		then:
+			1 * downloader.downloadIfModified(URL, '"v1"', 'Mon, 01 Oct 2018 00:00:00 GMT') >>
+				DownloadResult.notModified('"v1"', null, null)
+		and:
+			result.hasSucceeded()
+			result.data == CONTENT
+	}
+	
+	def 'download() should update validators of a copy that has been revalidated'() {
+		given:
+			1 * downloader.download(URL) >> response('"v1"', 'Mon, 01 Oct 2018 00:00:00 GMT', null)
+			service.download(URL)
+		and:
+			1 * downloader.downloadIfModified(URL, '"v1"', 'Mon, 01 Oct 2018 00:00:00 GMT') >>
+				DownloadResult.notModified('"v2"', null, null)
+			service.download(URL)
+		when:
+			service.download(URL)
+		then:
+			1 * downloader.downloadIfModified(URL, '"v2"', 'Mon, 01 Oct 2018 00:00:00 GMT') >>
+				DownloadResult.notModified(null, null, null)
+	}
+	
+	def 'download() should replace a copy that has been modified'() {
+		given:
+			1 * downloader.download(URL) >> response('"v1"', null, 'no-cache')
+			service.download(URL)
+		and:
+			1 * downloader.downloadIfModified(URL, '"v1"', null) >>
+				DownloadResult.succeeded('new'.bytes, 'text/html', '"v2"', null, 'no-cache')
+			service.download(URL)
+		when:
+			service.download(URL)
+		then:
+			1 * downloader.downloadIfModified(URL, '"v2"', null) >>
+				DownloadResult.notModified(null, null, null)
+	}
+	
+	@Unroll
+	def 'download() should not store a response with Cache-Control: #cacheControl and ETag: #etag'(
+		String cacheControl,
+		String etag) {
+		
+		given:
+			1 * downloader.download(URL) >> response(etag, null, cacheControl)
+			service.download(URL)
+		when:
+			service.download(URL)
+		then:
+			1 * downloader.download(URL) >> response(etag, null, cacheControl)
+		where:
+			cacheControl          | etag
+			'no-store'            | '"v1"'
+			'max-age=60,no-store' | null
+			null                  | null
+			'no-cache'            | null
+	}
+	
+	def 'download() should not store failed downloads'() {
+		given:
+			1 * downloader.download(URL) >> DownloadResult.failed(DownloadResult.Code.UNEXPECTED_ERROR)
+			service.download(URL)
+		when:
+			service.download(URL)
+		then:
+			1 * downloader.download(URL) >> response(null, null, 'max-age=60')
+	}
+	
+	private static DownloadResult response(String etag, String lastModified, String cacheControl) {
+		return DownloadResult.succeeded(CONTENT, 'text/html', etag, lastModified, cacheControl)
+	}
+	
+}
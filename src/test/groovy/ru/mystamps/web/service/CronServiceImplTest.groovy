@@ -17,6 +17,8 @@
  */
 package ru.mystamps.web.service
 
+import org.apache.commons.lang3.time.DateUtils
+
 import org.slf4j.helpers.NOPLogger
 
 import spock.lang.Specification
@@ -41,6 +43,7 @@ class CronServiceImplTest extends Specification {
 	private final MailService mailService = Mock()
 	private final UserService userService = Mock()
 	private final UsersActivationService usersActivationService = Mock()
+	private final SeriesImportService seriesImportService = Mock()
 	
 	private final CronService service = new CronServiceImpl(
 		NOPLogger.NOP_LOGGER,
@@ -51,7 +54,9 @@ class CronServiceImplTest extends Specification {
 		suspiciousActivityService,
 		userService,
 		usersActivationService,
-		mailService
+		mailService,
+		seriesImportService,
+		7
 	)
 	
 	private static void assertMidnight(Date date) {
@@ -237,5 +242,21 @@ class CronServiceImplTest extends Specification {
 			0 * usersActivationService.remove(_ as String)
 	}
 	
+	//
+	// Tests for purgeDownloadedContent()
+	//
+	
+	def "purgeDownloadedContent() should remove content of requests imported before the retention period"() {
+		given:
+			Date now = new Date()
+		when:
+			service.purgeDownloadedContent()
+		then:
+			1 * seriesImportService.purgeDownloadedContent({ Date date ->
+				assert DateUtils.addDays(date, 7) >= now
+				assert DateUtils.addDays(date, 7) <= new Date()
+				return true
+			})
+	}
+	
 }
-
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.service
+
+import java.nio.file.Files
+import java.nio.file.Path
+
+import org.slf4j.helpers.NOPLogger
+
+import spock.lang.Specification
+
+import ru.mystamps.web.service.dto.CachedDownloadDto
+
+@SuppressWarnings(['ClassJavadoc', 'MethodName', 'NoDef', 'NoTabCharacter', 'TrailingWhitespace'])
+class DiskDownloadCacheTest extends Specification {
+	
+	private Path dir
+	
+	def setup() {
+		dir = Files.createTempDirectory('download-cache')
+	}
+	
+	def cleanup() {
+		dir.toFile().deleteDir()
+	}
+	
+	def 'get() should return null when there is no cached copy'() {
+		given:
+			DiskDownloadCache cache = createCache(1024)
+		expect:
+			cache.get('http://example.org') == null
+	}
+	
+	def 'get() should return a copy that has been put'() {
+		given:
+			DiskDownloadCache cache = createCache(1024)
+		and:
+			cache.put(new CachedDownloadDto(
+				'http://example.org',
+				'text/html',
+				'"v1"',
+				null,
+				100L,
+				[ 1, 2, 3 ] as byte[]
+			))
+		when:
+			CachedDownloadDto result = cache.get('http://example.org')
+		then:
+			result.url == 'http://example.org'
+			result.contentType == 'text/html'
+			result.etag == '"v1"'
+			result.lastModified == null
+			result.freshUntil == 100L
+			result.data == [ 1, 2, 3 ] as byte[]
+	}
+	
+	def 'get() should return copies that have been stored before a restart'() {
+		given:
+			createCache(1024).put(createEntry('http://example.org', 10))
+		when:
+			CachedDownloadDto result = createCache(1024).get('http://example.org')
+		then:
+			result != null
+	}
+	
+	def 'put() should evict the least recently used copies when max size is exceeded'() {
+		given:
+			DiskDownloadCache cache = createCache(250)
+		and:
+			cache.put(createEntry('http://example.org/1', 100))
+			cache.put(createEntry('http://example.org/2', 100))
+		and:
+			cache.get('http://example.org/1')
+		when:
+			cache.put(createEntry('http://example.org/3', 100))
+		then:
+			cache.get('http://example.org/1') != null
+			cache.get('http://example.org/2') == null
+			cache.get('http://example.org/3') != null
+	}
+	
+	def 'remove() should remove a cached copy'() {
+		given:
+			DiskDownloadCache cache = createCache(1024)
+		and:
+			cache.put(createEntry('http://example.org', 10))
+		when:
+			cache.remove('http://example.org')
+		then:
+			cache.get('http://example.org') == null
+	}
+	
+	def 'cache should do nothing when max size is zero'() {
+		given:
+			DiskDownloadCache cache = createCache(0)
+		when:
+			cache.put(createEntry('http://example.org', 10))
+		then:
+			cache.get('http://example.org') == null
+	}
+	
+	private DiskDownloadCache createCache(long maxSize) {
+		return new DiskDownloadCache(NOPLogger.NOP_LOGGER, dir.toString(), maxSize)
+	}
+	
+	private static CachedDownloadDto createEntry(String url, int size) {
+		return new CachedDownloadDto(url, 'text/html', null, null, 0L, new byte[size])
+	}
+	
+}
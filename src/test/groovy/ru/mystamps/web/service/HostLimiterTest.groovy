@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.service
+
+import java.util.concurrent.TimeUnit
+
+import org.slf4j.helpers.NOPLogger
+
+import spock.lang.Specification
+
+import ru.mystamps.web.service.dto.HostLimits
+import ru.mystamps.web.service.dto.HostStatisticsDto
+
+@SuppressWarnings(['ClassJavadoc', 'MethodName', 'NoDef', 'NoTabCharacter', 'TrailingWhitespace'])
+class HostLimiterTest extends Specification {
+	
+	private static final String HOST = 'example.org'
+	private static final HostLimits NO_RATE_LIMIT = new HostLimits(0, 1, 2)
+	
+	def 'constructor should throw exception if failure threshold is not positive'() {
+		when:
+			new HostLimiter(NOPLogger.NOP_LOGGER, NO_RATE_LIMIT, 0, 1000, 0, 1000)
+		then:
+			IllegalArgumentException ex = thrown()
+			ex.message == 'Failure threshold must be greater than zero'
+	}
+	
+	def 'setLimits() should throw exception if max connections is not positive'() {
+		given:
+			HostLimiter limiter = createLimiter(NO_RATE_LIMIT, 1, 1000)
+		when:
+			limiter.setLimits(HOST, new HostLimits(1, 1, 0))
+		then:
+			IllegalArgumentException ex = thrown()
+			ex.message == 'Max connections must be greater than zero'
+	}
+	
+	def 'acquire() should reject a request when all connections are busy'() {
+		given:
+			HostLimiter limiter = createLimiter(NO_RATE_LIMIT, 1, 1000)
+		expect:
+			limiter.acquire(HOST)
+			limiter.acquire(HOST)
+			!limiter.acquire(HOST)
+		and:
+			limiter.statistics[0].activeConnections == 2
+			limiter.statistics[0].rejectedCounter == 1
+	}
+	
+	def 'acquire() should allow a request when a connection has been released'() {
+		given:
+			HostLimiter limiter = createLimiter(new HostLimits(0, 1, 1), 1, 1000)
+		and:
+			limiter.acquire(HOST)
+			limiter.release(HOST, false)
+		expect:
+			limiter.acquire(HOST)
+	}
+	
+	def 'acquire() should delay a request when the rate has been exceeded'() {
+		given:
+			HostLimiter limiter = createLimiter(new HostLimits(5, 1, 2), 1, 1000, 1000)
+		and:
+			limiter.acquire(HOST)
+			limiter.release(HOST, false)
+		when:
+			long started = System.nanoTime()
+			limiter.acquire(HOST)
+			long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started)
+		then:
+			// 5 requests per second means one request per 200 ms
+			elapsed >= 150
+		and:
+			limiter.statistics[0].delayedCounter == 1
+	}
+	
+	def 'acquire() should reject a request that would wait for a token for too long'() {
+		given:
+			// one request per 100 seconds
+			HostLimiter limiter = createLimiter(new HostLimits(0.01, 1, 2), 1, 1000, 1000)
+		and:
+			limiter.acquire(HOST)
+			limiter.release(HOST, false)
+		when:
+			long started = System.nanoTime()
+			boolean acquired = limiter.acquire(HOST)
+			long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started)
+		then:
+			!acquired
+			elapsed < 1000
+		and:
+			limiter.statistics[0].rejectedCounter == 1
+	}
+	
+	def 'acquire() should return a token of a rejected request'() {
+		given:
+			HostLimiter limiter = createLimiter(new HostLimits(5, 1, 1), 1, 1000, 0)
+		and:
+			limiter.acquire(HOST)
+		and:
+			// no free connections and no tokens: it's rejected and returns the token
+			limiter.acquire(HOST)
+		and:
+			sleep(250)
+			limiter.release(HOST, false)
+		when:
+			long started = System.nanoTime()
+			boolean acquired = limiter.acquire(HOST)
+			long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started)
+		then:
+			// the token has been refilled meanwhile, so we don't wait for the rejected request
+			acquired
+			elapsed < 150
+	}
+	
+	def 'acquire() should evict states of hosts that have been idle for a while'() {
+		given:
+			HostLimiter limiter = createLimiter(NO_RATE_LIMIT, 1, 1000, 0, 50)
+		and:
+			limiter.acquire('example.com')
+			limiter.release('example.com', false)
+		and:
+			sleep(100)
+		when:
+			limiter.acquire(HOST)
+		then:
+			limiter.statistics*.host == [ HOST ]
+	}
+	
+	def 'acquire() should not evict a state of a host with active requests'() {
+		given:
+			HostLimiter limiter = createLimiter(NO_RATE_LIMIT, 1, 1000, 0, 50)
+		and:
+			limiter.acquire('example.com')
+		and:
+			sleep(100)
+		when:
+			limiter.acquire(HOST)
+		then:
+			limiter.statistics*.host == [ 'example.com', HOST ]
+	}
+	
+	def 'acquire() should not delay requests to different hosts'() {
+		given:
+			HostLimiter limiter = createLimiter(new HostLimits(0.01, 1, 2), 1, 1000)
+		and:
+			limiter.acquire('example.com')
+		when:
+			long started = System.nanoTime()
+			limiter.acquire(HOST)
+			long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started)
+		then:
+			elapsed < 1000
+	}
+	
+	def 'acquire() should use limits that have been set for a host'() {
+		given:
+			HostLimiter limiter = createLimiter(NO_RATE_LIMIT, 1, 1000)
+		and:
+			limiter.setLimits('EXAMPLE.org', new HostLimits(0, 1, 1))
+		expect:
+			limiter.acquire(HOST)
+			!limiter.acquire(HOST)
+	}
+	
+	def 'acquire() should reject requests when circuit is open'() {
+		given:
+			HostLimiter limiter = createLimiter(NO_RATE_LIMIT, 2, TimeUnit.MINUTES.toMillis(1))
+		and:
+			2.times {
+				limiter.acquire(HOST)
+				limiter.release(HOST, true)
+			}
+		expect:
+			!limiter.acquire(HOST)
+		and:
+			HostStatisticsDto stats = limiter.statistics[0]
+			stats.circuitOpen
+			stats.failedCounter == 2
+			stats.rejectedCounter == 1
+	}
+	
+	def 'acquire() should allow a single trial request after circuit has been open for a while'() {
+		given:
+			HostLimiter limiter = createLimiter(NO_RATE_LIMIT, 1, 0)
+		and:
+			limiter.acquire(HOST)
+			limiter.release(HOST, true)
+		expect:
+			limiter.acquire(HOST)
+			!limiter.acquire(HOST)
+	}
+	
+	def 'release() should close circuit after a successful trial request'() {
+		given:
+			HostLimiter limiter = createLimiter(NO_RATE_LIMIT, 1, 0)
+		and:
+			limiter.acquire(HOST)
+			limiter.release(HOST, true)
+		and:
+			limiter.acquire(HOST)
+		when:
+			limiter.release(HOST, false)
+		then:
+			!limiter.statistics[0].circuitOpen
+		and:
+			limiter.acquire(HOST)
+			limiter.acquire(HOST)
+	}
+	
+	private static HostLimiter createLimiter(
+		HostLimits limits,
+		int failureThreshold,
+		long openDuration) {
+		
+		return createLimiter(limits, failureThreshold, openDuration, 0)
+	}
+	
+	private static HostLimiter createLimiter(
+		HostLimits limits,
+		int failureThreshold,
+		long openDuration,
+		long maxWait) {
+		
+		return createLimiter(limits, failureThreshold, openDuration, maxWait, 60000)
+	}
+	
+	private static HostLimiter createLimiter(
+		HostLimits limits,
+		int failureThreshold,
+		long openDuration,
+		long maxWait,
+		long idleTimeout) {
+		
+		return new HostLimiter(
+			NOPLogger.NOP_LOGGER,
+			limits,
+			failureThreshold,
+			openDuration,
+			maxWait,
+			idleTimeout
+		)
+	}
+	
+}
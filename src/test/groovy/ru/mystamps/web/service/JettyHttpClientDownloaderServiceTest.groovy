@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.service
+
+import javax.servlet.http.HttpServletRequest
+import javax.servlet.http.HttpServletResponse
+
+import org.eclipse.jetty.client.HttpClient
+import org.eclipse.jetty.server.Request
+import org.eclipse.jetty.server.Server
+import org.eclipse.jetty.server.ServerConnector
+import org.eclipse.jetty.server.handler.AbstractHandler
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import ru.mystamps.web.service.dto.DownloadResult
+
+@SuppressWarnings(['ClassJavadoc', 'MethodName', 'NoDef', 'NoTabCharacter', 'TrailingWhitespace'])
+class JettyHttpClientDownloaderServiceTest extends Specification {
+	
+	private static final int MAX_BODY_SIZE = 100
+	
+	private final Server server = new Server(0)
+	private final HttpClient httpClient = new HttpClient()
+	
+	private DownloaderService service
+	private String baseUrl
+	
+	def setup() {
+		server.setHandler(new TestHandler())
+		server.start()
+		httpClient.start()
+		
+		int port = ((ServerConnector)server.getConnectors()[0]).getLocalPort()
+		baseUrl = 'http://localhost:' + port
+		
+		service = new JettyHttpClientDownloaderService(
+			httpClient,
+			[ 'text/html' ] as String[],
+			5000,
+			MAX_BODY_SIZE
+		)
+	}
+	
+	def cleanup() {
+		httpClient.stop()
+		server.stop()
+	}
+	
+	def 'download() should return content and its type'() {
+		when:
+			DownloadResult result = service.download(baseUrl + '/ok')
+		then:
+			result.hasSucceeded()
+			result.dataAsString == '<p>test</p>'
+			result.contentType.startsWith('text/html')
+	}
+	
+	def 'downloadAsync() should complete a future with the result'() {
+		when:
+			DownloadResult result = service.downloadAsync(baseUrl + '/ok').get()
+		then:
+			result.hasSucceeded()
+	}
+	
+	def 'download() should return validators and caching directives'() {
+		when:
+			DownloadResult result = service.download(baseUrl + '/cached')
+		then:
+			result.hasSucceeded()
+			result.etag == '"v1"'
+			result.cacheControl == 'max-age=60'
+	}
+	
+	@Unroll
+	def 'downloadIfModified() should return #expectedCode when ETag is #etag'(
+		String etag,
+		DownloadResult.Code expectedCode) {
+		
+		when:
+			DownloadResult result = service.downloadIfModified(baseUrl + '/cached', etag, null)
+		then:
+			result.code == expectedCode
+		where:
+			etag   || expectedCode
+			'"v1"' || DownloadResult.Code.NOT_MODIFIED
+			'"v0"' || DownloadResult.Code.SUCCESS
+	}
+	
+	@Unroll
+	def 'download() should fail with #expectedCode when accessing #path'(
+		String path,
+		DownloadResult.Code expectedCode) {
+		
+		when:
+			DownloadResult result = service.download(baseUrl + path)
+		then:
+			result.code == expectedCode
+		where:
+			path         || expectedCode
+			'/missing'   || DownloadResult.Code.FILE_NOT_FOUND
+			'/redirect'  || DownloadResult.Code.INVALID_REDIRECT
+			'/image'     || DownloadResult.Code.INVALID_FILE_TYPE
+			'/large'     || DownloadResult.Code.FILE_TOO_LARGE
+			'/streamed'  || DownloadResult.Code.FILE_TOO_LARGE
+			'/error'     || DownloadResult.Code.UNEXPECTED_ERROR
+	}
+	
+	@Unroll
+	def 'download() should fail with INVALID_URL for #url'(String url) {
+		when:
+			DownloadResult result = service.download(url)
+		then:
+			result.code == DownloadResult.Code.INVALID_URL
+		where:
+			url << [ 'not a url', 'ftp://example.org/file', 'file:///etc/passwd' ]
+	}
+	
+	static class TestHandler extends AbstractHandler {
+		
+		@Override
+		void handle(
+			String target,
+			Request baseRequest,
+			HttpServletRequest request,
+			HttpServletResponse response) {
+			
+			baseRequest.setHandled(true)
+			
+			switch (target) {
+				case '/ok':
+					response.setContentType('text/html; charset=UTF-8')
+					response.writer.write('<p>test</p>')
+					break
+				case '/cached':
+					response.setHeader('ETag', '"v1"')
+					response.setHeader('Cache-Control', 'max-age=60')
+					if (request.getHeader('If-None-Match') == '"v1"') {
+						response.setStatus(HttpServletResponse.SC_NOT_MODIFIED)
+						break
+					}
+					response.setContentType('text/html')
+					response.writer.write('<p>cached</p>')
+					break
+				case '/redirect':
+					response.sendRedirect('/ok')
+					break
+				case '/image':
+					response.setContentType('image/png')
+					response.outputStream.write(new byte[10])
+					break
+				case '/large':
+					response.setContentType('text/html')
+					response.setContentLength(MAX_BODY_SIZE + 1)
+					response.outputStream.write(new byte[MAX_BODY_SIZE + 1])
+					break
+				case '/streamed':
+					// chunked response without Content-Length header
+					response.setContentType('text/html')
+					for (int i = 0; i <= MAX_BODY_SIZE; i++) {
+						response.outputStream.write(65)
+						response.flushBuffer()
+					}
+					break
+				case '/error':
+					response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR)
+					break
+				default:
+					response.sendError(HttpServletResponse.SC_NOT_FOUND)
+			}
+		}
+		
+	}
+	
+}
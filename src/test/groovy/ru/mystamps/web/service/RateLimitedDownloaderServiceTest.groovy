@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.service
+
+import java.util.concurrent.TimeUnit
+
+import org.slf4j.helpers.NOPLogger
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import ru.mystamps.web.service.dto.DownloadResult
+import ru.mystamps.web.service.dto.HostLimits
+import ru.mystamps.web.service.dto.HostStatisticsDto
+
+@SuppressWarnings(['ClassJavadoc', 'MethodName', 'NoDef', 'NoTabCharacter', 'TrailingWhitespace'])
+class RateLimitedDownloaderServiceTest extends Specification {
+	
+	private static final String URL = 'http://example.org/page'
+	
+	private final DownloaderService downloader = Mock()
+	private final HostLimiter hostLimiter = new HostLimiter(
+		NOPLogger.NOP_LOGGER,
+		new HostLimits(0, 1, 1),
+		1,
+		TimeUnit.MINUTES.toMillis(1),
+		0,
+		TimeUnit.MINUTES.toMillis(10)
+	)
+	
+	private final DownloaderService service = new RateLimitedDownloaderService(
+		NOPLogger.NOP_LOGGER,
+		downloader,
+		hostLimiter
+	)
+	
+	def 'download() should not download a file when host is unavailable'() {
+		given:
+			hostLimiter.acquire('example.org')
+			hostLimiter.release('example.org', true)
+		when:
+			DownloadResult result = service.download(URL)
+		then:
+			0 * downloader.download(_)
+		and:
+			result.code == DownloadResult.Code.UNEXPECTED_ERROR
+	}
+	
+	def 'download() should bypass host limiter for invalid url'() {
+		given:
+			DownloadResult expectedResult = DownloadResult.failed(DownloadResult.Code.INVALID_URL)
+		when:
+			DownloadResult result = service.download('not a url')
+		then:
+			1 * downloader.download('not a url') >> expectedResult
+		and:
+			result == expectedResult
+		and:
+			hostLimiter.statistics.isEmpty()
+	}
+	
+	@Unroll
+	def 'download() should count #code result as #failures failure(s) of a host'(
+		DownloadResult.Code code,
+		long failures) {
+		
+		given:
+			downloader.download(URL) >> DownloadResult.failed(code)
+		when:
+			service.download(URL)
+		then:
+			HostStatisticsDto stats = hostLimiter.statistics[0]
+			stats.failedCounter == failures
+			stats.activeConnections == 0
+		where:
+			code                                  || failures
+			DownloadResult.Code.UNEXPECTED_ERROR  || 1
+			DownloadResult.Code.FILE_NOT_FOUND    || 0
+			DownloadResult.Code.INVALID_FILE_TYPE || 0
+	}
+	
+	def 'download() should release a connection when downloader throws exception'() {
+		given:
+			downloader.download(URL) >> { throw new IllegalStateException('oops') }
+		when:
+			service.download(URL)
+		then:
+			thrown(IllegalStateException)
+		and:
+			HostStatisticsDto stats = hostLimiter.statistics[0]
+			stats.failedCounter == 1
+			stats.activeConnections == 0
+	}
+	
+}
@@ -22,11 +22,16 @@ import static io.qala.datagen.RandomShortApi.nullOr
 import static io.qala.datagen.RandomShortApi.nullOrBlank
 import static io.qala.datagen.RandomValue.between
 
+import java.util.function.Function
+
 import spock.lang.Specification
 
 import org.slf4j.helpers.NOPLogger
 
 import org.springframework.context.ApplicationEventPublisher
+import org.springframework.dao.DuplicateKeyException
+import org.springframework.transaction.support.TransactionCallback
+import org.springframework.transaction.support.TransactionOperations
 
 import ru.mystamps.web.controller.dto.RequestImportForm
 import ru.mystamps.web.controller.event.ParsingFailed
@@ -52,6 +57,8 @@ import ru.mystamps.web.tests.Random
 @SuppressWarnings(['ClassJavadoc', 'MethodName', 'NoDef', 'NoTabCharacter', 'TrailingWhitespace'])
 class SeriesImportServiceImplTest extends Specification {
 	
+	private static final int LEASE_DURATION = 300
+	
 	private final SeriesImportDao seriesImportDao = Mock()
 	private final SeriesService seriesService = Mock()
 	private final SeriesSalesService seriesSalesService = Mock()
@@ -59,6 +66,9 @@ class SeriesImportServiceImplTest extends Specification {
 	private final SeriesInfoExtractorService extractorService = Mock()
 	private final ParticipantService participantService = Mock()
 	private final ApplicationEventPublisher eventPublisher = Mock()
+	private final TransactionOperations nestedTransaction = { TransactionCallback callback ->
+		callback.doInTransaction(null)
+	} as TransactionOperations
 	
 	private SeriesImportService service
 	private RequestImportForm form
@@ -72,7 +82,9 @@ class SeriesImportServiceImplTest extends Specification {
 			seriesSalesImportService,
 			extractorService,
 			participantService,
-			eventPublisher
+			eventPublisher,
+			nestedTransaction,
+			LEASE_DURATION
 		)
 		form = new RequestImportForm()
 	}
@@ -169,6 +181,151 @@ class SeriesImportServiceImplTest extends Specification {
 			}) >> Random.id()
 	}
 	
+	//
+	// Tests for addRequests()
+	//
+	
+	def 'addRequests() should throw exception if urls are null'() {
+		when:
+			service.addRequests(null, Random.userId())
+		then:
+			IllegalArgumentException ex = thrown()
+			ex.message == 'URLs must be non null'
+	}
+	
+	def 'addRequests() should throw exception if user id is null'() {
+		when:
+			service.addRequests([], null)
+		then:
+			IllegalArgumentException ex = thrown()
+			ex.message == 'Current user id must be non null'
+	}
+	
+	@SuppressWarnings(['ClosureAsLastMethodParameter', 'UnnecessaryReturnKeyword'])
+	def 'addRequests() should skip invalid and duplicated urls'() {
+		given:
+			List<String> urls = [
+				'http://example.org/1',
+				'  ',
+				'ftp://example.org/2',
+				'not a url',
+				'http://example.org/1'
+			]
+		when:
+			Map<String, Integer> result = service.addRequests(urls, Random.userId())
+		then:
+			1 * seriesImportDao.findIdsByUrls(['http://example.org/1']) >> [:]
+		and:
+			1 * seriesImportDao.addAll({ List<ImportSeriesDbDto> requests ->
+				assert requests*.url == ['http://example.org/1']
+				return true
+			})
+		and:
+			1 * seriesImportDao.findIdsByUrls(['http://example.org/1']) >> ['http://example.org/1': 10]
+		and:
+			result == ['http://example.org/1': 10]
+	}
+	
+	@SuppressWarnings(['ClosureAsLastMethodParameter', 'UnnecessaryReturnKeyword'])
+	def 'addRequests() should skip urls that have been requested before'() {
+		given:
+			List<String> urls = [ 'http://example.org/1', 'http://example.org/2' ]
+		when:
+			Map<String, Integer> result = service.addRequests(urls, Random.userId())
+		then:
+			1 * seriesImportDao.findIdsByUrls(urls) >> ['http://example.org/1': 5]
+		and:
+			1 * seriesImportDao.addAll({ List<ImportSeriesDbDto> requests ->
+				assert requests*.url == ['http://example.org/2']
+				return true
+			})
+		and:
+			1 * seriesImportDao.findIdsByUrls(['http://example.org/2']) >> ['http://example.org/2': 6]
+		and:
+			result == ['http://example.org/2': 6]
+	}
+	
+	def 'addRequests() should not insert anything when all urls have been requested before'() {
+		given:
+			List<String> urls = [ 'http://example.org/1' ]
+		when:
+			Map<String, Integer> result = service.addRequests(urls, Random.userId())
+		then:
+			1 * seriesImportDao.findIdsByUrls(urls) >> ['http://example.org/1': 5]
+		and:
+			0 * seriesImportDao.addAll(_)
+		and:
+			result.isEmpty()
+	}
+	
+	@SuppressWarnings(['ClosureAsLastMethodParameter', 'UnnecessaryReturnKeyword'])
+	def 'addRequests() should pass user id, status and dates to dao'() {
+		given:
+			Integer expectedUserId = Random.userId()
+		and:
+			seriesImportDao.findIdsByUrls(_) >> [:]
+		when:
+			service.addRequests([ 'https://example.org' ], expectedUserId)
+		then:
+			1 * seriesImportDao.addAll({ List<ImportSeriesDbDto> requests ->
+				ImportSeriesDbDto request = requests.get(0)
+				assert request.status == SeriesImportRequestStatus.UNPROCESSED
+				assert request.requestedBy == expectedUserId
+				assert DateUtils.roughlyEqual(request.requestedAt, new Date())
+				assert DateUtils.roughlyEqual(request.updatedAt, new Date())
+				return true
+			})
+	}
+	
+	def 'addRequests() should insert requests by batches'() {
+		given:
+			List<String> urls = (1..1001).collect { 'http://example.org/' + it }
+		and:
+			seriesImportDao.findIdsByUrls(_) >> [:]
+		when:
+			service.addRequests(urls, Random.userId())
+		then:
+			3 * seriesImportDao.addAll(_)
+	}
+	
+	@SuppressWarnings('ClosureAsLastMethodParameter')
+	def 'addRequests() should skip urls that have been requested concurrently'() {
+		given:
+			List<String> urls = [ 'http://example.org/1', 'http://example.org/2' ]
+		and:
+			DuplicateKeyException conflict = new DuplicateKeyException('Duplicate entry')
+		when:
+			Map<String, Integer> result = service.addRequests(urls, Random.userId())
+		then:
+			1 * seriesImportDao.findIdsByUrls(urls) >> [:]
+		and:
+			1 * seriesImportDao.addAll(_) >> { throw conflict }
+		and:
+			1 * seriesImportDao.add({ ImportSeriesDbDto request ->
+				request.url == 'http://example.org/1'
+			}) >> { throw conflict }
+		and:
+			1 * seriesImportDao.add({ ImportSeriesDbDto request ->
+				request.url == 'http://example.org/2'
+			}) >> 7
+		and:
+			result == ['http://example.org/2': 7]
+	}
+	
+	def 'addRequests() should not skip urls when a batch fails for other reasons'() {
+		given:
+			seriesImportDao.findIdsByUrls(_) >> [:]
+		and:
+			seriesImportDao.addAll(_) >> { throw new IllegalStateException('Data too long') }
+		when:
+			service.addRequests([ 'http://example.org/1' ], Random.userId())
+		then:
+			IllegalStateException ex = thrown()
+			ex.message == 'Data too long'
+		and:
+			0 * seriesImportDao.add(_)
+	}
+	
 	//
 	// Tests for addSeries()
 	//
@@ -328,6 +485,121 @@ class SeriesImportServiceImplTest extends Specification {
 			)
 	}
 	
+	//
+	// Tests for acquireLease()
+	//
+	
+	def 'acquireLease() should throw exception when request id is null'() {
+		when:
+			service.acquireLease(null, Random.importRequestStatus())
+		then:
+			thrown IllegalArgumentException
+	}
+	
+	def 'acquireLease() should throw exception when status is blank'() {
+		when:
+			service.acquireLease(Random.id(), nullOrBlank())
+		then:
+			thrown IllegalArgumentException
+	}
+	
+	@SuppressWarnings(['ClosureAsLastMethodParameter', 'UnnecessaryReturnKeyword'])
+	def 'acquireLease() should lock request for the lease duration'() {
+		given:
+			Integer expectedRequestId = Random.id()
+			String expectedStatus = Random.importRequestStatus()
+		and:
+			Date expectedLockedUntil = new Date(System.currentTimeMillis() + LEASE_DURATION * 1000L)
+		when:
+			boolean result = service.acquireLease(expectedRequestId, expectedStatus)
+		then:
+			1 * seriesImportDao.acquireLease(
+				expectedRequestId,
+				expectedStatus,
+				{ Date now ->
+					assert DateUtils.roughlyEqual(now, new Date())
+					return true
+				},
+				{ Date lockedUntil ->
+					assert DateUtils.roughlyEqual(lockedUntil, expectedLockedUntil)
+					return true
+				}
+			) >> true
+		and:
+			result == true
+	}
+	
+	//
+	// Tests for giveUp()
+	//
+	
+	def 'giveUp() should throw exception when request id is null'() {
+		when:
+			service.giveUp(null, 1, Random.importRequestStatus(), Random.importRequestStatus())
+		then:
+			thrown IllegalArgumentException
+	}
+	
+	@SuppressWarnings(['ClosureAsLastMethodParameter', 'UnnecessaryReturnKeyword'])
+	def 'giveUp() should change status only when the request has not been leased'() {
+		given:
+			Integer expectedRequestId = Random.id()
+			int expectedAttempts = 3
+		when:
+			boolean result = service.giveUp(
+				expectedRequestId,
+				expectedAttempts,
+				SeriesImportRequestStatus.UNPROCESSED,
+				SeriesImportRequestStatus.DOWNLOADING_FAILED
+			)
+		then:
+			1 * seriesImportDao.giveUp(
+				expectedRequestId,
+				expectedAttempts,
+				{ Date now ->
+					assert DateUtils.roughlyEqual(now, new Date())
+					return true
+				},
+				SeriesImportRequestStatus.UNPROCESSED,
+				SeriesImportRequestStatus.DOWNLOADING_FAILED
+			) >> false
+		and:
+			result == false
+	}
+	
+	//
+	// Tests for findUnfinishedRequests()
+	//
+	
+	def 'findUnfinishedRequests() should throw exception when limit is not positive'() {
+		when:
+			service.findUnfinishedRequests(0)
+		then:
+			thrown IllegalArgumentException
+	}
+	
+	@SuppressWarnings(['ClosureAsLastMethodParameter', 'UnnecessaryReturnKeyword'])
+	def 'findUnfinishedRequests() should skip requests that have been updated recently'() {
+		given:
+			long leaseDurationMillis = LEASE_DURATION * 1000L
+			Date expectedUpdatedBefore = new Date(System.currentTimeMillis() - leaseDurationMillis)
+		when:
+			service.findUnfinishedRequests(10)
+		then:
+			1 * seriesImportDao.findUnfinished(
+				[
+					SeriesImportRequestStatus.UNPROCESSED,
+					SeriesImportRequestStatus.DOWNLOADING_SUCCEEDED
+				],
+				{ Date updatedBefore ->
+					assert DateUtils.roughlyEqual(updatedBefore, expectedUpdatedBefore)
+					return true
+				},
+				_ as Date,
+				10
+			) >> []
+	}
+	
 	//
 	// Tests for findById()
 	//
@@ -438,6 +710,61 @@ class SeriesImportServiceImplTest extends Specification {
 			result == expectedResult
 	}
 	
+	//
+	// Tests for readDownloadedContent()
+	//
+	
+	def 'readDownloadedContent() should throw exception when request id is null'() {
+		when:
+			service.readDownloadedContent(null, { it })
+		then:
+			thrown IllegalArgumentException
+	}
+	
+	def 'readDownloadedContent() should throw exception when reader is null'() {
+		when:
+			service.readDownloadedContent(Random.id(), null)
+		then:
+			thrown IllegalArgumentException
+	}
+	
+	def 'readDownloadedContent() should pass reader to dao and return its result'() {
+		given:
+			Integer expectedRequestId = Random.id()
+			Function<InputStream, String> expectedReader = { 'content' } as Function
+		when:
+			String result = service.readDownloadedContent(expectedRequestId, expectedReader)
+		then:
+			1 * seriesImportDao.readRawContent(expectedRequestId, expectedReader) >> 'content'
+		and:
+			result == 'content'
+	}
+	
+	//
+	// Tests for purgeDownloadedContent()
+	//
+	
+	def 'purgeDownloadedContent() should throw exception when date is null'() {
+		when:
+			service.purgeDownloadedContent(null)
+		then:
+			thrown IllegalArgumentException
+	}
+	
+	def 'purgeDownloadedContent() should remove content of successfully imported requests'() {
+		given:
+			Date expectedDate = new Date()
+		when:
+			int result = service.purgeDownloadedContent(expectedDate)
+		then:
+			1 * seriesImportDao.removeRawContent(
+				SeriesImportRequestStatus.IMPORT_SUCCEEDED,
+				expectedDate
+			) >> 3
+		and:
+			result == 3
+	}
+	
 	//
 	// Tests for saveParsedData()
 	//
@@ -577,7 +904,7 @@ class SeriesImportServiceImplTest extends Specification {
 					assert DateUtils.roughlyEqual(date, new Date())
 					return true
 				},
-				SeriesImportRequestStatus.DOWNLOADING_SUCCEEDED,
+				SeriesImportRequestStatus.DOWNLOADING_SUCCEEDED
 				SeriesImportRequestStatus.PARSING_SUCCEEDED
 			)
 	}
@@ -647,4 +974,19 @@ class SeriesImportServiceImplTest extends Specification {
 			result == expectedResult
 	}
 	
+	//
+	// Tests for countRequestsByStatus()
+	//
+	
+	def 'countRequestsByStatus() should invoke dao and return its result'() {
+		given:
+			Map<String, Long> expectedResult = [ (SeriesImportRequestStatus.UNPROCESSED): 2L ]
+		when:
+			Map<String, Long> result = service.countRequestsByStatus()
+		then:
+			1 * seriesImportDao.countByStatus() >> expectedResult
+		and:
+			result == expectedResult
+	}
+	
 }
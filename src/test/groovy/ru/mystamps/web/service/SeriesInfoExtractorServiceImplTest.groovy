@@ -35,6 +35,7 @@ import ru.mystamps.web.feature.category.CategoryService
 import ru.mystamps.web.feature.country.CountryService
 import ru.mystamps.web.feature.participant.ParticipantService
 import ru.mystamps.web.tests.Random
+import ru.mystamps.web.util.NameMatch
 import ru.mystamps.web.validation.ValidationRules
 
 @SuppressWarnings(['ClassJavadoc', 'MethodName', 'NoDef', 'NoTabCharacter', 'TrailingWhitespace'])
@@ -112,10 +113,28 @@ class SeriesInfoExtractorServiceImplTest extends Specification {
 			1 * categoryService.findIdsByNames(_ as List<String>) >> Collections.emptyList()
 		and:
 			1 * categoryService.findIdsWhenNameStartsWith(_ as String) >> Collections.emptyList()
+		and:
+			1 * categoryService.findSimilarNames(_ as String, _ as Integer) >> Collections.emptyList()
 		and:
 			result.isEmpty()
 	}
 	
+	def 'extractCategory() should fall back to the most similar name when nothing has been found'() {
+		given:
+			Integer expectedId = Random.id()
+		when:
+			List<Integer> result = service.extractCategory('foo Sprot')
+		then:
+			1 * categoryService.findIdsByNames(_ as List<String>) >> Collections.emptyList()
+		and:
+			2 * categoryService.findIdsWhenNameStartsWith(_ as String) >> Collections.emptyList()
+		and:
+			1 * categoryService.findSimilarNames('foo', 1) >> [ new NameMatch(Random.id(), 'fox', 0.6d) ]
+			1 * categoryService.findSimilarNames('Sprot', 1) >> [ new NameMatch(expectedId, 'Sport', 0.7d) ]
+		and:
+			result == [ expectedId ]
+	}
+	
 	//
 	// Tests for extractCountry()
 	//
@@ -188,10 +207,28 @@ class SeriesInfoExtractorServiceImplTest extends Specification {
 			1 * countryService.findIdsByNames(_ as List<String>) >> Collections.emptyList()
 		and:
 			1 * countryService.findIdsWhenNameStartsWith(_ as String) >> Collections.emptyList()
+		and:
+			1 * countryService.findSimilarNames(_ as String, _ as Integer) >> Collections.emptyList()
 		and:
 			result.isEmpty()
 	}
 	
+	def 'extractCountry() should fall back to the most similar name when nothing has been found'() {
+		given:
+			Integer expectedId = Random.id()
+		when:
+			List<Integer> result = service.extractCountry('foo Swedn')
+		then:
+			1 * countryService.findIdsByNames(_ as List<String>) >> Collections.emptyList()
+		and:
+			2 * countryService.findIdsWhenNameStartsWith(_ as String) >> Collections.emptyList()
+		and:
+			1 * countryService.findSimilarNames('foo', 1) >> [ new NameMatch(Random.id(), 'fox', 0.6d) ]
+			1 * countryService.findSimilarNames('Swedn', 1) >> [ new NameMatch(expectedId, 'Sweden', 0.7d) ]
+		and:
+			result == [ expectedId ]
+	}
+	
 	//
 	// Tests for extractReleaseYear()
 	//
@@ -358,6 +395,8 @@ class SeriesInfoExtractorServiceImplTest extends Specification {
 			'32 БЕЗЗУБЦОВЫЕ МАРКИ' || 32
 			'6 блоков'             || 6
 			'6 зубцовых блоков'    || 6
+			'(5 марок)'            ||  5
+			'№15 марок'            || 15
 	}
 
 	//
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.service
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+@SuppressWarnings(['ClassJavadoc', 'MethodName', 'NoDef', 'NoTabCharacter', 'TrailingWhitespace'])
+class SeriesInfoScannerTest extends Specification {
+	
+	private final SeriesInfoScanner scanner = new SeriesInfoScanner()
+	
+	def 'scan() should extract all the fields from a single text'() {
+		when:
+			scanner.scan('Italy 1980г 13 беззубцовые марок #1505-1517')
+		then:
+			scanner.releaseYear == 1980
+			scanner.quantity == 13
+			scanner.withoutPerforation
+			scanner.michelBegin == 1505
+			scanner.michelEnd == 1517
+	}
+	
+	def 'scan() should return nothing when a text has no fields'() {
+		when:
+			scanner.scan('Lorem ipsum dolor sit amet')
+		then:
+			scanner.releaseYear == null
+			scanner.quantity == null
+			!scanner.withoutPerforation
+			scanner.michelBegin == -1
+			scanner.michelEnd == -1
+	}
+	
+	def 'scan() should reset fields found in a previous text'() {
+		given:
+			scanner.scan('1980 5 марок б/з #1-5')
+		when:
+			scanner.scan('Lorem ipsum')
+		then:
+			scanner.releaseYear == null
+			scanner.quantity == null
+			!scanner.withoutPerforation
+			scanner.michelBegin == -1
+	}
+	
+	@Unroll
+	@SuppressWarnings('UnnecessaryBooleanExpression') // false positive
+	def 'scan() should use only the first quantity in "#text"'(String text, Integer expected) {
+		when:
+			scanner.scan(text)
+		then:
+			scanner.quantity == expected
+		where:
+			text                           || expected
+			'5 марок, 6 блоков'            || 5
+			'51 марка 6 блоков'            || 6
+			'60 марок, 6 блоков'           || null
+			'5 беззубцовые зубцовых марок' || null
+	}
+	
+	@Unroll
+	@SuppressWarnings('UnnecessaryBooleanExpression') // false positive
+	def 'scan() should find quantity in "#text" like a regular expression does'(
+		String text,
+		Integer expected) {
+		
+		when:
+			scanner.scan(text)
+		then:
+			scanner.quantity == expected
+		where:
+			text                   || expected
+			'(5 марок)'            || 5
+			'№15 марок'            || 15
+			'115 марок'            || 15
+			'5 марокмарок'         || 5
+			'5  марок'             || null
+			'5\nмарок'             || null
+			'5\tмарок'             || null
+			'5 беззубцовые\nмарок' || null
+	}
+	
+	@Unroll
+	@SuppressWarnings('UnnecessaryBooleanExpression') // false positive
+	def 'scan() should use only the first Michel range in "#text"'(String text, Integer begin) {
+		when:
+			scanner.scan(text)
+		then:
+			scanner.michelBegin == begin
+		where:
+			text           || begin
+			'#1 #2-3'      || 2
+			'#3-2 #4-5'    || -1
+			'Mi# 7-9'      || 7
+			'#  7-9'       || -1
+			'#12345-12346' || -1
+	}
+	
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.support.spring.concurrent
+
+import java.util.concurrent.Executor
+
+import org.slf4j.helpers.NOPLogger
+
+import org.springframework.context.ApplicationListener
+import org.springframework.context.event.ContextClosedEvent
+import org.springframework.context.event.ContextRefreshedEvent
+import org.springframework.context.support.StaticApplicationContext
+import org.springframework.core.task.TaskRejectedException
+
+import spock.lang.Specification
+
+@SuppressWarnings(['ClassJavadoc', 'MethodName', 'NoDef', 'NoTabCharacter', 'TrailingWhitespace'])
+class AsyncApplicationListenerTest extends Specification {
+	
+	private final ApplicationListener<ContextRefreshedEvent> delegate = Mock()
+	private final Executor executor = Mock()
+	
+	private final AsyncApplicationListener<ContextRefreshedEvent> listener =
+		new AsyncApplicationListener(
+			NOPLogger.NOP_LOGGER,
+			ContextRefreshedEvent,
+			delegate,
+			executor
+		)
+	
+	def 'supportsEventType() should accept only events of the specified type'() {
+		expect:
+			listener.supportsEventType(ContextRefreshedEvent)
+			!listener.supportsEventType(ContextClosedEvent)
+	}
+	
+	def 'onApplicationEvent() should pass event to listener in a thread of executor'() {
+		given:
+			ContextRefreshedEvent event = new ContextRefreshedEvent(new StaticApplicationContext())
+		when:
+			listener.onApplicationEvent(event)
+		then:
+			1 * executor.execute(_ as Runnable) >> { Runnable task -> task.run() }
+		and:
+			1 * delegate.onApplicationEvent(event)
+	}
+	
+	def 'onApplicationEvent() should not fail when executor is full'() {
+		given:
+			executor.execute(_ as Runnable) >> { throw new TaskRejectedException('queue is full') }
+		when:
+			listener.onApplicationEvent(new ContextRefreshedEvent(new StaticApplicationContext()))
+		then:
+			noExceptionThrown()
+		and:
+			0 * delegate.onApplicationEvent(_)
+	}
+	
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.util
+
+import spock.lang.Specification
+
+@SuppressWarnings(['ClassJavadoc', 'MethodName', 'NoDef', 'NoTabCharacter', 'TrailingWhitespace'])
+class CatalogNumberRangeSetTest extends Specification {
+	
+	def 'ofRange() should throw exception when range is in a descending order'() {
+		when:
+			CatalogNumberRangeSet.ofRange(3, 1)
+		then:
+			IllegalArgumentException ex = thrown()
+			ex.message == 'Range must be in an ascending order'
+	}
+	
+	def 'should behave as a set of all the numbers in a range'() {
+		given:
+			Set<String> numbers = CatalogNumberRangeSet.ofRange(9, 11)
+		expect:
+			numbers.size() == 3
+			numbers as List == [ '9', '10', '11' ]
+			numbers == [ '9', '10', '11' ] as Set
+	}
+	
+	def 'should merge overlapping and adjacent ranges'() {
+		given:
+			CatalogNumberRangeSet numbers = new CatalogNumberRangeSet(
+				[
+					[ 7, 7 ] as int[],
+					[ 1, 3 ] as int[],
+					[ 2, 5 ] as int[],
+					[ 6, 6 ] as int[],
+					[ 9, 10 ] as int[]
+				],
+				[ '10a' ]
+			)
+		expect:
+			numbers.rangesCount == 2
+			numbers.getBegin(0) == 1
+			numbers.getEnd(0) == 7
+			numbers.getBegin(1) == 9
+			numbers.getEnd(1) == 10
+			numbers.size() == 10
+			numbers as List == [ '1', '2', '3', '4', '5', '6', '7', '9', '10', '10a' ]
+	}
+	
+	def 'contains() should check numbers in ranges and codes'() {
+		given:
+			CatalogNumberRangeSet numbers = new CatalogNumberRangeSet(
+				[ [ 1, 3 ] as int[], [ 9, 11 ] as int[] ],
+				[ '10a', '010' ]
+			)
+		expect:
+			numbers.contains('1')
+			numbers.contains('3')
+			!numbers.contains('4')
+			!numbers.contains('8')
+			numbers.contains('9')
+			numbers.contains('11')
+			!numbers.contains('12')
+			numbers.contains('010')
+			numbers.contains('10a')
+			!numbers.contains('01')
+			!numbers.contains('99999999999')
+			!numbers.contains(10)
+	}
+	
+	def 'isPlainNumber() should accept only numbers without leading zeros'() {
+		expect:
+			CatalogNumberRangeSet.isPlainNumber('0')
+			CatalogNumberRangeSet.isPlainNumber('10')
+			!CatalogNumberRangeSet.isPlainNumber('010')
+			!CatalogNumberRangeSet.isPlainNumber('10a')
+			!CatalogNumberRangeSet.isPlainNumber(' 10')
+			!CatalogNumberRangeSet.isPlainNumber('1234567890')
+	}
+	
+	def 'toString() should show ranges instead of all the numbers'() {
+		expect:
+			CatalogNumberRangeSet.ofRange(1, 500).toString() == '[1-500]'
+	}
+	
+}
@@ -133,6 +133,25 @@ class CatalogUtilsTest extends Specification {
 			numbers == '2317a, 9-11, 2319a'
 	}
 	
+	@Unroll
+	@SuppressWarnings('UnnecessaryBooleanExpression') // false positive
+	def 'toShortForm() should convert a range #begin-#end to "#expected"'(
+		int begin, int end, String expected) {
+		
+		expect:
+			CatalogUtils.toShortForm(CatalogNumberRangeSet.ofRange(begin, end)) == expected
+		where:
+			begin | end  || expected
+			10    | 10   || '10'
+			10    | 11   || '10, 11'
+			1     | 500  || '1-500'
+	}
+	
+	def 'toShortForm() should put codes after numbers of parsed catalog numbers'() {
+		expect:
+			CatalogUtils.toShortForm('2317a,9-11,13,20') == '9-11, 13, 20, 2317a'
+	}
+	
 	//
 	// Tests for parseCatalogNumbers()
 	//
@@ -187,6 +206,24 @@ class CatalogUtilsTest extends Specification {
 			numbers == [ '1', '2' ] as Set
 	}
 	
+	def 'parseCatalogNumbers() should keep a range without expanding it'() {
+		when:
+			CatalogNumberRangeSet numbers = CatalogUtils.parseCatalogNumbers('1-500,501,600a')
+		then:
+			numbers.rangesCount == 1
+			numbers.getBegin(0) == 1
+			numbers.getEnd(0) == 501
+			numbers.codes == [ '600a' ] as Set
+			numbers.size() == 502
+	}
+	
+	def 'parseCatalogNumbers() should treat numbers with leading zeros as codes'() {
+		when:
+			Set<String> numbers = CatalogUtils.parseCatalogNumbers('010,10')
+		then:
+			numbers == [ '010', '10' ] as Set
+	}
+	
 	@Unroll
 	def 'parseCatalogNumbers() should throw exception for an invalid value (#numbers)'(
 		String numbers, String message) {
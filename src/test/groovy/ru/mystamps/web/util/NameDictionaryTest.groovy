@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.util
+
+import spock.lang.Specification
+
+import ru.mystamps.web.dao.dto.EntityNameDto
+
+@SuppressWarnings(['ClassJavadoc', 'MethodName', 'NoDef', 'NoTabCharacter', 'TrailingWhitespace'])
+class NameDictionaryTest extends Specification {
+	
+	private final NameDictionary dictionary = new NameDictionary([
+		new EntityNameDto(1, 'Sweden', false),
+		new EntityNameDto(1, 'Швеция', false),
+		new EntityNameDto(2, 'Switzerland', false),
+		new EntityNameDto(2, 'Swiss', true),
+		new EntityNameDto(3, 'Norway', false),
+		new EntityNameDto(4, null, false)
+	])
+	
+	def 'findIdsByNames() should find ids by exact names and aliases'() {
+		expect:
+			dictionary.findIdsByNames([ 'SWEDEN', 'swiss', 'Швеция', 'Swe' ]) == [ 1, 2 ]
+	}
+	
+	def 'findIdsByNames() should return empty list when nothing was found'() {
+		expect:
+			dictionary.findIdsByNames([ 'Denmark' ]) == []
+	}
+	
+	def 'findIdsWhenNameStartsWith() should find ids of all names with the prefix'() {
+		expect:
+			dictionary.findIdsWhenNameStartsWith('sw') == [ 1, 2 ]
+			dictionary.findIdsWhenNameStartsWith('SWE') == [ 1 ]
+			dictionary.findIdsWhenNameStartsWith('шве') == [ 1 ]
+			dictionary.findIdsWhenNameStartsWith('Norway') == [ 3 ]
+	}
+	
+	def 'findIdsWhenNameStartsWith() should ignore aliases'() {
+		expect:
+			dictionary.findIdsWhenNameStartsWith('swis') == []
+	}
+	
+	def 'findIdsWhenNameStartsWith() should return empty list when nothing was found'() {
+		expect:
+			dictionary.findIdsWhenNameStartsWith('Norwegian') == []
+	}
+	
+	def 'findSimilarNames() should find names with a typo'() {
+		when:
+			List<NameMatch> result = dictionary.findSimilarNames('Swedn', 5)
+		then:
+			result*.id == [ 1 ]
+			result*.name == [ 'Sweden' ]
+			result[0].score >= NameDictionary.MIN_SIMILARITY
+	}
+	
+	def 'findSimilarNames() should find Russian names written in Latin letters'() {
+		when:
+			List<NameMatch> result = dictionary.findSimilarNames('Shvetsiya', 5)
+		then:
+			result*.id == [ 1 ]
+			result*.name == [ 'Швеция' ]
+			result[0].score == 1.0d
+	}
+	
+	def 'findSimilarNames() should take aliases into account'() {
+		expect:
+			dictionary.findSimilarNames('swis', 5)*.name == [ 'Swiss' ]
+	}
+	
+	def 'findSimilarNames() should return the best match for every id'() {
+		given:
+			NameDictionary dictionary = new NameDictionary([
+				new EntityNameDto(1, 'Sweden', false),
+				new EntityNameDto(1, 'Swedn', true),
+				new EntityNameDto(2, 'Swede', false),
+				new EntityNameDto(3, 'Sweeden', false)
+			])
+		when:
+			List<NameMatch> result = dictionary.findSimilarNames('Sweden', 2)
+		then:
+			result*.id == [ 1, 3 ]
+			result*.name == [ 'Sweden', 'Sweeden' ]
+	}
+	
+	def 'findSimilarNames() should return empty list when nothing similar was found'() {
+		expect:
+			dictionary.findSimilarNames('Denmark', 5) == []
+	}
+	
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.util
+
+import java.util.concurrent.atomic.AtomicInteger
+
+import spock.lang.Specification
+
+@SuppressWarnings(['ClassJavadoc', 'MethodName', 'NoDef', 'NoTabCharacter', 'TrailingWhitespace'])
+class ReloadableCacheTest extends Specification {
+	
+	private final AtomicInteger loads = new AtomicInteger()
+	
+	def 'get() should load a value only once while it is fresh'() {
+		given:
+			ReloadableCache<Integer> cache = new ReloadableCache<>({ loads.incrementAndGet() }, 60000)
+		expect:
+			cache.get() == 1
+			cache.get() == 1
+	}
+	
+	def 'get() should reload a value when it has been invalidated'() {
+		given:
+			ReloadableCache<Integer> cache = new ReloadableCache<>({ loads.incrementAndGet() }, 60000)
+		and:
+			cache.get()
+		when:
+			cache.invalidate()
+		then:
+			cache.get() == 2
+	}
+	
+	def 'get() should reload a value when it has been expired'() {
+		given:
+			ReloadableCache<Integer> cache = new ReloadableCache<>({ loads.incrementAndGet() }, 50)
+		and:
+			cache.get()
+		when:
+			sleep(100)
+		then:
+			cache.get() == 2
+	}
+	
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.util
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+@SuppressWarnings(['ClassJavadoc', 'MethodName', 'NoDef', 'NoTabCharacter', 'TrailingWhitespace'])
+class TransliterationUtilsTest extends Specification {
+	
+	//
+	// Tests for toLatin()
+	//
+	
+	def "toLatin() should throw exception when argument is null"() {
+		when:
+			TransliterationUtils.toLatin(null)
+		then:
+			thrown IllegalArgumentException
+	}
+	
+	@Unroll
+	@SuppressWarnings('UnnecessaryBooleanExpression') // false positive
+	def "toLatin() should transform text '#input' to '#output'"(String input, String output) {
+		when:
+			String result = TransliterationUtils.toLatin(input)
+		then:
+			result == output
+		where:
+			input             || output
+			''                || ''
+			' - '             || ''
+			'Sweden'          || 'sweden'
+			'Россия'          || 'rossiya'
+			'Щука'            || 'shchuka'
+			'Объём'           || 'obem'
+			'Йемен'           || 'yemen'
+			'Côte d\'Ivoire'  || 'cote d ivoire'
+			'Trinidad&Tobago' || 'trinidad tobago'
+			'  foo  bar  '    || 'foo bar'
+			'1980г.'          || '1980g'
+	}
+	
+}
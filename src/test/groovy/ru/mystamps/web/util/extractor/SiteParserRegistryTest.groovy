@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.util.extractor
+
+import org.slf4j.helpers.NOPLogger
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+@SuppressWarnings(['ClassJavadoc', 'MethodName', 'NoDef', 'NoTabCharacter', 'TrailingWhitespace'])
+class SiteParserRegistryTest extends Specification {
+	
+	private final SiteParserRegistry registry = new SiteParserRegistry(NOPLogger.NOP_LOGGER)
+	
+	def 'findParser() should throw exception when url is null'() {
+		when:
+			registry.findParser(null)
+		then:
+			thrown IllegalArgumentException
+	}
+	
+	def 'findParser() should return null when there are no parsers'() {
+		expect:
+			registry.findParser('http://example.com/series/1') == null
+	}
+	
+	@Unroll
+	def "findParser() should find a parser for '#url'"(String url, String expectedName) {
+		given:
+			registry.reload([
+				createParser('example', 'http://example.com/series/'),
+				createParser('example-rare', 'http://example.com/series/rare/'),
+				createParser('example-port', 'http://example.com:8080'),
+				createParser('any-host', 'http://stamps')
+			])
+		when:
+			SiteParser parser = registry.findParser(url)
+		then:
+			parser?.toString() == expectedName
+		where:
+			url                                    || expectedName
+			'http://example.com/series/1'          || 'example'
+			'http://example.com/series/rare/2'     || 'example-rare'
+			'http://example.com:8080/series/3'     || 'example-port'
+			'http://stamps.example.org/series/4'   || 'any-host'
+			'http://example.com/catalog/5'         || null
+			'https://example.com/series/6'         || null
+			'http://example.org/series/7'          || null
+			'example.com/series/8'                 || null
+	}
+	
+	def 'findParser() should prefer the first parser among those with the same url'() {
+		given:
+			registry.reload([
+				createParser('first', 'http://example.com/'),
+				createParser('second', 'http://example.com/')
+			])
+		expect:
+			registry.findParser('http://example.com/series/1').toString() == 'first'
+	}
+	
+	def 'reload() should replace all the parsers'() {
+		given:
+			registry.reload([ createParser('old', 'http://example.com/') ])
+		when:
+			registry.reload([ createParser('new', 'http://example.org/') ])
+		then:
+			registry.findParser('http://example.com/series/1') == null
+			registry.findParser('http://example.org/series/1').toString() == 'new'
+		and:
+			registry.parsers*.toString() == [ 'new' ]
+	}
+	
+	def 'reload() should throw exception when parsers are null'() {
+		when:
+			registry.reload(null)
+		then:
+			thrown IllegalArgumentException
+	}
+	
+	@Unroll
+	def "extractHost() should return '#expectedHost' for '#url'"(String url, String expectedHost) {
+		expect:
+			SiteParserRegistry.extractHost(url) == expectedHost
+		where:
+			url                              || expectedHost
+			'http://example.com/'            || 'example.com'
+			'http://example.com:8080'        || 'example.com'
+			'https://example.com?page=1'     || 'example.com'
+			'http://example.com'             || null
+			'http:///path'                   || null
+			'example.com/path'               || null
+	}
+	
+	private static SiteParser createParser(String name, String matchedUrl) {
+		SiteParser parser = new JsoupSiteParser()
+		parser.setField('name', name)
+		parser.setField('matched-url', matchedUrl)
+		parser.setField('category-locator', '#category')
+		return parser
+	}
+	
+}
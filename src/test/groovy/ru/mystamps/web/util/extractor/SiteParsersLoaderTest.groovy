@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2009-2018 Slava Semushin <slava.semushin@gmail.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package ru.mystamps.web.util.extractor
+
+import org.slf4j.helpers.NOPLogger
+
+import spock.lang.Specification
+
+@SuppressWarnings(['ClassJavadoc', 'MethodName', 'NoDef', 'NoTabCharacter', 'TrailingWhitespace'])
+class SiteParsersLoaderTest extends Specification {
+	
+	private final SiteParsersLoader loader = new SiteParsersLoader(NOPLogger.NOP_LOGGER, [ 'rate' ])
+	
+	def 'load() should create fully initialized parsers by their numbers'() {
+		when:
+			Map<Integer, SiteParser> parsers = loader.load([
+				'app.site-parser[1].name': 'second',
+				'app.site-parser[1].matched-url': 'http://example.org/',
+				'app.site-parser[1].price-locator': '#price',
+				'app.site-parser[0].name': 'first',
+				'app.site-parser[0].matched-url': 'http://example.com/',
+				'app.site-parser[0].category-locator': '#category',
+				'app.site-parser[0].rate': '1',
+				'app.other-property': 'value'
+			])
+		then:
+			parsers.keySet() as List == [ 0, 1 ]
+			parsers[0].toString() == 'first'
+			parsers[0].matchedUrl == 'http://example.com/'
+			parsers[1].toString() == 'second'
+	}
+	
+	def 'load() should skip parsers that are not fully initialized'() {
+		when:
+			Map<Integer, SiteParser> parsers = loader.load([
+				'app.site-parser[0].name': 'without-locators',
+				'app.site-parser[0].matched-url': 'http://example.com/'
+			])
+		then:
+			parsers.isEmpty()
+	}
+	
+	def 'load() should ignore a locator with invalid CSS selector'() {
+		when:
+			Map<Integer, SiteParser> parsers = loader.load([
+				'app.site-parser[0].name': 'invalid',
+				'app.site-parser[0].matched-url': 'http://example.com/',
+				'app.site-parser[0].category-locator': 'div:unknown-pseudo'
+			])
+		then:
+			parsers.isEmpty()
+	}
+	
+	def 'load() should ignore properties without index or name'() {
+		when:
+			Map<Integer, SiteParser> parsers = loader.load([
+				'app.site-parser.name': 'no-index',
+				'app.site-parser[0]': 'no-name'
+			])
+		then:
+			parsers.isEmpty()
+	}
+	
+}
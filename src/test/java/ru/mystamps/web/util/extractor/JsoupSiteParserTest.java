@@ -17,6 +17,11 @@
  */
 package ru.mystamps.web.util.extractor;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
@@ -190,6 +195,14 @@ public class JsoupSiteParserTest {
 		assertThat(valid, is(false));
 	}
 	
+	@Test
+	public void setFieldShouldRejectInvalidLocator() {
+		boolean valid = parser.setField("category-locator", "div:unknown-pseudo");
+		
+		assertThat(valid, is(false));
+		assertThat(parser.getCategoryLocator(), is(nullValue()));
+	}
+	
 	//
 	// Tests for isFullyInitialized()
 	//
@@ -334,6 +347,40 @@ public class JsoupSiteParserTest {
 		parser.parse(nullOrBlank());
 	}
 	
+	@Test
+	public void parseShouldRequireNonNullPageStream() {
+		thrown.expect(IllegalArgumentException.class);
+		thrown.expectMessage("Page content must be non-null");
+		
+		parser.parse((InputStream)null);
+	}
+	
+	@Test
+	public void parseShouldExtractSeriesInfoFromStreamInUtf8() {
+		// "Russia" in Russian to check that non-ASCII characters are decoded properly
+		String expectedCountry = "\u0420\u043e\u0441\u0441\u0438\u044f";
+		String expectedCategory = Random.categoryName();
+		
+		parser.setMatchedUrl("http://base.uri");
+		parser.setCategoryLocator("#category-name");
+		parser.setCountryLocator("#country-name");
+		
+		SeriesInfo expectedInfo = new SeriesInfo();
+		expectedInfo.setCategoryName(expectedCategory);
+		expectedInfo.setCountryName(expectedCountry);
+		
+		String html = String.format(
+			"<p id='category-name'>%s</p><p id='country-name'>%s</p>",
+			expectedCategory,
+			expectedCountry
+		);
+		InputStream page = new ByteArrayInputStream(html.getBytes(StandardCharsets.UTF_8));
+		
+		SeriesInfo info = parser.parse(page);
+		
+		assertThat(info, is(equalTo(expectedInfo)));
+	}
+	
 	@Test
 	public void parseShouldExtractSeriesInfo() {
 		String baseUri = "http://base.uri";
@@ -475,6 +522,47 @@ public class JsoupSiteParserTest {
 		assertThat(parser.toString(), equalTo(expectedName));
 	}
 	
+	//
+	// Tests for selectFirstElements()
+	//
+	
+	@Test
+	public void selectFirstElementsShouldReturnFirstMatchedElementOfEveryLocator() {
+		parser.setCategoryLocator("#category");
+		parser.setShortDescriptionLocator(".desc");
+		parser.setPriceLocator(".desc");
+		parser.setSellerLocator("#seller");
+		
+		String html = "<div class='desc'>first</div>"
+			+ "<div id='category'>category</div>"
+			+ "<div class='desc'>second</div>";
+		Element doc = createDocumentFromText(html);
+		
+		Map<String, Element> found = parser.selectFirstElements(doc);
+		
+		assertThat(found.size(), is(2));
+		assertThat(found.get("#category").text(), equalTo("category"));
+		assertThat(found.get(".desc").text(), equalTo("first"));
+		assertThat(found.get("#seller"), is(nullValue()));
+	}
+	
+	@Test
+	public void selectFirstElementsShouldFindTheSameElementsAsSelectFirst() {
+		parser.setCategoryLocator("div > span");
+		parser.setCountryLocator("span");
+		parser.setIssueDateLocator("p:contains(issued)");
+		
+		String html = "<p>unknown</p><span>outer</span><div><span>inner</span></div><p>issued</p>";
+		Element doc = createDocumentFromText(html);
+		
+		Map<String, Element> found = parser.selectFirstElements(doc);
+		
+		for (String locator : found.keySet()) {
+			assertThat(locator, found.get(locator), equalTo(doc.selectFirst(locator)));
+		}
+		assertThat(found.size(), is(3));
+	}
+	
 	//
 	// Tests for extractCategory()
 	//
@@ -485,7 +573,7 @@ public class JsoupSiteParserTest {
 		parser.setShortDescriptionLocator(null);
 		Element doc = createEmptyDocument();
 		
-		String category = parser.extractCategory(doc);
+		String category = parser.extractCategory(parser.selectFirstElements(doc));
 		
 		assertThat(category, is(nullValue()));
 	}
@@ -495,7 +583,7 @@ public class JsoupSiteParserTest {
 		parser.setCategoryLocator(Random.jsoupLocator());
 		Element doc = createEmptyDocument();
 		
-		String category = parser.extractCategory(doc);
+		String category = parser.extractCategory(parser.selectFirstElements(doc));
 		
 		assertThat(category, is(nullValue()));
 	}
@@ -508,7 +596,7 @@ public class JsoupSiteParserTest {
 		String html = String.format("<div id='category'>%s</div>", expectedName);
 		Element doc = createDocumentFromText(html);
 		
-		String category = parser.extractCategory(doc);
+		String category = parser.extractCategory(parser.selectFirstElements(doc));
 		
 		String msg = String.format("couldn't extract a category from '%s'", doc);
 		assertThat(msg, category, equalTo(expectedName));
@@ -523,7 +611,7 @@ public class JsoupSiteParserTest {
 		String html = String.format("<div id='desc'>%s</div>", expectedName);
 		Element doc = createDocumentFromText(html);
 		
-		String category = parser.extractCategory(doc);
+		String category = parser.extractCategory(parser.selectFirstElements(doc));
 		
 		String msg = String.format("couldn't extract a category from '%s'", doc);
 		assertThat(msg, category, equalTo(expectedName));
@@ -539,7 +627,7 @@ public class JsoupSiteParserTest {
 		parser.setShortDescriptionLocator(null);
 		Element doc = createEmptyDocument();
 		
-		String country = parser.extractCountry(doc);
+		String country = parser.extractCountry(parser.selectFirstElements(doc));
 		
 		assertThat(country, is(nullValue()));
 	}
@@ -549,7 +637,7 @@ public class JsoupSiteParserTest {
 		parser.setCountryLocator(Random.jsoupLocator());
 		Element doc = createEmptyDocument();
 		
-		String country = parser.extractCountry(doc);
+		String country = parser.extractCountry(parser.selectFirstElements(doc));
 		
 		assertThat(country, is(nullValue()));
 	}
@@ -562,7 +650,7 @@ public class JsoupSiteParserTest {
 		String html = String.format("<div id='country'>%s</div>", expectedName);
 		Element doc = createDocumentFromText(html);
 		
-		String country = parser.extractCountry(doc);
+		String country = parser.extractCountry(parser.selectFirstElements(doc));
 		
 		String msg = String.format("couldn't extract a country from '%s'", doc);
 		assertThat(msg, country, equalTo(expectedName));
@@ -577,7 +665,7 @@ public class JsoupSiteParserTest {
 		String html = String.format("<div id='desc'>%s</div>", expectedName);
 		Element doc = createDocumentFromText(html);
 		
-		String country = parser.extractCountry(doc);
+		String country = parser.extractCountry(parser.selectFirstElements(doc));
 		
 		String msg = String.format("couldn't extract a country from '%s'", doc);
 		assertThat(msg, country, equalTo(expectedName));
@@ -592,7 +680,7 @@ public class JsoupSiteParserTest {
 		parser.setImageUrlLocator(null);
 		Element doc = createEmptyDocument();
 		
-		String imageUrl = parser.extractImageUrl(doc);
+		String imageUrl = parser.extractImageUrl(parser.selectFirstElements(doc));
 		
 		assertThat(imageUrl, is(nullValue()));
 	}
@@ -602,7 +690,7 @@ public class JsoupSiteParserTest {
 		parser.setImageUrlLocator(Random.jsoupLocator());
 		Element doc = createEmptyDocument();
 		
-		String imageUrl = parser.extractImageUrl(doc);
+		String imageUrl = parser.extractImageUrl(parser.selectFirstElements(doc));
 		
 		assertThat(imageUrl, is(nullValue()));
 	}
@@ -620,7 +708,7 @@ public class JsoupSiteParserTest {
 		);
 		Element doc = createDocumentFromText(html);
 		
-		String imageUrl = parser.extractImageUrl(doc);
+		String imageUrl = parser.extractImageUrl(parser.selectFirstElements(doc));
 		
 		String msg = String.format("couldn't extract image url from '%s'", doc);
 		assertThat(msg, imageUrl, equalTo(expectedImageUrl));
@@ -639,7 +727,7 @@ public class JsoupSiteParserTest {
 		);
 		Element doc = createDocumentFromText(html);
 		
-		String imageUrl = parser.extractImageUrl(doc);
+		String imageUrl = parser.extractImageUrl(parser.selectFirstElements(doc));
 		
 		String msg = String.format("couldn't extract image url from '%s'", doc);
 		assertThat(msg, imageUrl, equalTo(expectedImageUrl));
@@ -652,7 +740,7 @@ public class JsoupSiteParserTest {
 		String html = "<a href=''>test</a>";
 		Element doc = createDocumentFromText(html);
 		
-		String imageUrl = parser.extractImageUrl(doc);
+		String imageUrl = parser.extractImageUrl(parser.selectFirstElements(doc));
 		
 		assertThat(imageUrl, is(nullValue()));
 	}
@@ -667,7 +755,7 @@ public class JsoupSiteParserTest {
 		parser.setShortDescriptionLocator(null);
 		Element doc = createEmptyDocument();
 		
-		String date = parser.extractIssueDate(doc);
+		String date = parser.extractIssueDate(parser.selectFirstElements(doc));
 		
 		assertThat(date, is(nullValue()));
 	}
@@ -677,7 +765,7 @@ public class JsoupSiteParserTest {
 		parser.setIssueDateLocator(Random.jsoupLocator());
 		Element doc = createEmptyDocument();
 		
-		String date = parser.extractIssueDate(doc);
+		String date = parser.extractIssueDate(parser.selectFirstElements(doc));
 		
 		assertThat(date, is(nullValue()));
 	}
@@ -690,7 +778,7 @@ public class JsoupSiteParserTest {
 		String html = String.format("<div id='issue-date'>%s</div>", expectedDate);
 		Element doc = createDocumentFromText(html);
 		
-		String date = parser.extractIssueDate(doc);
+		String date = parser.extractIssueDate(parser.selectFirstElements(doc));
 		
 		String msg = String.format("couldn't extract issue date from '%s'", doc);
 		assertThat(msg, date, equalTo(expectedDate));
@@ -705,7 +793,7 @@ public class JsoupSiteParserTest {
 		String html = String.format("<div id='desc'>%s</div>", expectedDate);
 		Element doc = createDocumentFromText(html);
 		
-		String date = parser.extractIssueDate(doc);
+		String date = parser.extractIssueDate(parser.selectFirstElements(doc));
 		
 		String msg = String.format("couldn't extract issue date from '%s'", doc);
 		assertThat(msg, date, equalTo(expectedDate));
@@ -720,7 +808,7 @@ public class JsoupSiteParserTest {
 		parser.setShortDescriptionLocator(null);
 		Element doc = createEmptyDocument();
 		
-		String quantity = parser.extractQuantity(doc);
+		String quantity = parser.extractQuantity(parser.selectFirstElements(doc));
 		
 		assertThat(quantity, is(nullValue()));
 	}
@@ -730,7 +818,7 @@ public class JsoupSiteParserTest {
 		parser.setShortDescriptionLocator(Random.jsoupLocator());
 		Element doc = createEmptyDocument();
 		
-		String quantity = parser.extractQuantity(doc);
+		String quantity = parser.extractQuantity(parser.selectFirstElements(doc));
 		
 		assertThat(quantity, is(nullValue()));
 	}
@@ -743,7 +831,7 @@ public class JsoupSiteParserTest {
 		String html = String.format("<div id='desc'>%s</div>", expectedQuantity);
 		Element doc = createDocumentFromText(html);
 		
-		String quantity = parser.extractQuantity(doc);
+		String quantity = parser.extractQuantity(parser.selectFirstElements(doc));
 		
 		String msg = String.format("couldn't extract quantity from '%s'", doc);
 		assertThat(msg, quantity, equalTo(expectedQuantity));
@@ -758,7 +846,7 @@ public class JsoupSiteParserTest {
 		parser.setShortDescriptionLocator(null);
 		Element doc = createEmptyDocument();
 		
-		String perforated = parser.extractPerforated(doc);
+		String perforated = parser.extractPerforated(parser.selectFirstElements(doc));
 		
 		assertThat(perforated, is(nullValue()));
 	}
@@ -768,7 +856,7 @@ public class JsoupSiteParserTest {
 		parser.setShortDescriptionLocator(Random.jsoupLocator());
 		Element doc = createEmptyDocument();
 		
-		String perforated = parser.extractPerforated(doc);
+		String perforated = parser.extractPerforated(parser.selectFirstElements(doc));
 		
 		assertThat(perforated, is(nullValue()));
 	}
@@ -781,7 +869,7 @@ public class JsoupSiteParserTest {
 		String html = String.format("<div id='desc'>%s</div>", expectedValue);
 		Element doc = createDocumentFromText(html);
 		
-		String perforated = parser.extractPerforated(doc);
+		String perforated = parser.extractPerforated(parser.selectFirstElements(doc));
 		
 		String msg = String.format("couldn't extract perforated flag from '%s'", doc);
 		assertThat(msg, perforated, equalTo(expectedValue));
@@ -796,7 +884,7 @@ public class JsoupSiteParserTest {
 		parser.setSellerLocator(null);
 		Element doc = createEmptyDocument();
 		
-		String name = parser.extractSellerName(doc);
+		String name = parser.extractSellerName(parser.selectFirstElements(doc));
 		
 		assertThat(name, is(nullValue()));
 	}
@@ -806,7 +894,7 @@ public class JsoupSiteParserTest {
 		parser.setSellerLocator(Random.jsoupLocator());
 		Element doc = createEmptyDocument();
 		
-		String name = parser.extractSellerName(doc);
+		String name = parser.extractSellerName(parser.selectFirstElements(doc));
 		
 		assertThat(name, is(nullValue()));
 	}
@@ -819,7 +907,7 @@ public class JsoupSiteParserTest {
 		String html = String.format("<a id='seller'>%s</a>", expectedValue);
 		Element doc = createDocumentFromText(html);
 		
-		String name = parser.extractSellerName(doc);
+		String name = parser.extractSellerName(parser.selectFirstElements(doc));
 		
 		String msg = String.format("couldn't extract seller name from '%s'", doc);
 		assertThat(msg, name, equalTo(expectedValue));
@@ -834,7 +922,7 @@ public class JsoupSiteParserTest {
 		parser.setSellerLocator(null);
 		Element doc = createEmptyDocument();
 		
-		String url = parser.extractSellerUrl(doc);
+		String url = parser.extractSellerUrl(parser.selectFirstElements(doc));
 		
 		assertThat(url, is(nullValue()));
 	}
@@ -844,7 +932,7 @@ public class JsoupSiteParserTest {
 		parser.setSellerLocator(Random.jsoupLocator());
 		Element doc = createEmptyDocument();
 		
-		String url = parser.extractSellerUrl(doc);
+		String url = parser.extractSellerUrl(parser.selectFirstElements(doc));
 		
 		assertThat(url, is(nullValue()));
 	}
@@ -857,7 +945,7 @@ public class JsoupSiteParserTest {
 		String html = String.format("<a href='%s'>test</a>", expectedUrl);
 		Element doc = createDocumentFromText(html);
 		
-		String url = parser.extractSellerUrl(doc);
+		String url = parser.extractSellerUrl(parser.selectFirstElements(doc));
 		
 		String msg = String.format("couldn't extract seller url from '%s'", doc);
 		assertThat(msg, url, equalTo(expectedUrl));
@@ -872,7 +960,7 @@ public class JsoupSiteParserTest {
 		parser.setPriceLocator(null);
 		Element doc = createEmptyDocument();
 		
-		String price = parser.extractPrice(doc);
+		String price = parser.extractPrice(parser.selectFirstElements(doc));
 		
 		assertThat(price, is(nullValue()));
 	}
@@ -882,7 +970,7 @@ public class JsoupSiteParserTest {
 		parser.setPriceLocator(Random.jsoupLocator());
 		Element doc = createEmptyDocument();
 		
-		String price = parser.extractPrice(doc);
+		String price = parser.extractPrice(parser.selectFirstElements(doc));
 		
 		assertThat(price, is(nullValue()));
 	}
@@ -895,7 +983,7 @@ public class JsoupSiteParserTest {
 		String html = String.format("<span id='price'>%s</span>", expectedValue);
 		Element doc = createDocumentFromText(html);
 		
-		String price = parser.extractPrice(doc);
+		String price = parser.extractPrice(parser.selectFirstElements(doc));
 		
 		String msg = String.format("couldn't extract price from '%s'", doc);
 		assertThat(msg, price, equalTo(expectedValue));